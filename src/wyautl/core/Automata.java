@@ -41,6 +41,37 @@ import wyautl.util.BinaryMatrix;
  */
 public class Automata {
 
+	/**
+	 * Space for the explicit stacks used by traversals (e.g.
+	 * <code>traverse()</code>), which avoids allocating fresh storage for
+	 * every traversal. This is held per thread rather than per automaton,
+	 * since several threads may traverse the same automaton at once (e.g. when
+	 * probing in parallel). Its contents are meaningless between traversals.
+	 */
+	private static final ThreadLocal<int[]> STACKS = new ThreadLocal<int[]>();
+
+	/**
+	 * Return the traversal stack of the current thread, ensuring it has at
+	 * least a given number of elements. If the stack must be expanded, then
+	 * its existing contents are preserved. This allows a traversal to grow
+	 * its stack as necessary.
+	 *
+	 * @param size
+	 *            --- minimum number of elements required.
+	 * @return
+	 */
+	private static int[] stack(int size) {
+		int[] stack = STACKS.get();
+		if (stack == null) {
+			stack = new int[Math.max(size, 16)];
+			STACKS.set(stack);
+		} else if (stack.length < size) {
+			stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+			STACKS.set(stack);
+		}
+		return stack;
+	}
+
 	/**
 	 * Extract all states reachable from a given state in an automaton and load
 	 * them onto the states array, whilst retaining their original ordering.
@@ -98,37 +129,120 @@ public class Automata {
 		if (start < 0) {
 			return;
 		}
-		int header = marking[start];
+		// The traversal uses an explicit stack, rather than recursion, to
+		// avoid overflowing the call stack on deep automata. When a state is
+		// entered, a marker (the complement of its index) is pushed followed
+		// by its children in reverse order. Since children pushed are never
+		// negative, the marker identifies when the state is exited.
+		int[] stack = stack(automaton.nStates());
+		int top = 0;
+		stack[top++] = start;
+		while (top > 0) {
+			int node = stack[--top];
+			if (node < 0) {
+				// All children of this state have been visited.
+				marking[~node] -= 3;
+			} else if (enter(node, marking)) {
+				Automaton.State state = automaton.get(node);
+				if (state instanceof Automaton.Term) {
+					int child = ((Automaton.Term) state).contents;
+					stack = stack(top + 2);
+					stack[top++] = ~node;
+					if (child >= 0) {
+						stack[top++] = child;
+					}
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection compound = (Automaton.Collection) state;
+					int[] children = compound.children;
+					stack = stack(top + compound.length + 1);
+					stack[top++] = ~node;
+					for (int i = compound.length - 1; i >= 0; --i) {
+						int child = children[i];
+						if (child >= 0) {
+							stack[top++] = child;
+						}
+					}
+				} else {
+					marking[node] -= 3;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Enter a given state during a traversal, updating its marking as
+	 * necessary. This returns true if the state has not been visited before,
+	 * and hence its children must now be traversed.
+	 */
+	private static boolean enter(int node, int[] marking) {
+		int header = marking[node];
 		if (header == 4) {
 			// We have reached a node which was already visited, and is
 			// currently on the stack. Therefore, this
 			// node is a cyclic header and should be marked as such.
-			marking[start] = 6; // (which reduces to 3 when removed from stack)
+			marking[node] = 6; // (which reduces to 3 when removed from stack)
+			return false;
 		} else if (header == 1) {
 			// We have reached a node which was already visited, but is not
 			// currently on the stack. Therefore, this
 			// node is an acyclic header and should be marked as such.
-			marking[start] = 2;
-			return; // done
+			marking[node] = 2;
+			return false; // done
 		} else if (header > 1 || header == Automaton.K_VOID) {
-			return; // nothing to do, as either already marked as a header or
-					// initially indicated as not to traverse.
+			// nothing to do, as either already marked as a header or
+			// initially indicated as not to traverse.
+			return false;
 		} else {
-			marking[start] = 4;
-			Automaton.State state = automaton.get(start);
+			marking[node] = 4;
+			return true;
+		}
+	}
+
+	/**
+	 * Mark all states reachable from a given starting state in the given
+	 * automaton. This employs an explicit stack (see <code>stack()</code>)
+	 * rather than recursion and, hence, can be applied to automata of any depth
+	 * without allocating.
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @param reachable
+	 *            --- states marked with false are those which have not been
+	 *            visited. Those visited are marked true afterwards, and states
+	 *            initially marked true are not traversed.
+	 * @param start
+	 *            --- state to begin traversal from.
+	 */
+	public static void findReachable(Automaton automaton, boolean[] reachable,
+			int start) {
+		if (start < 0 || reachable[start]) {
+			return;
+		}
+		reachable[start] = true;
+		// Every state is pushed at most once, hence the stack never exceeds
+		// the number of states.
+		int[] stack = stack(automaton.nStates());
+		int top = 0;
+		stack[top++] = start;
+		while (top > 0) {
+			Automaton.State state = automaton.get(stack[--top]);
 			if (state instanceof Automaton.Term) {
-				Automaton.Term term = (Automaton.Term) state;
-				if (term.contents != Automaton.K_VOID) {
-					traverse(automaton, term.contents, marking);
+				int child = ((Automaton.Term) state).contents;
+				if (child >= 0 && !reachable[child]) {
+					reachable[child] = true;
+					stack[top++] = child;
 				}
 			} else if (state instanceof Automaton.Collection) {
 				Automaton.Collection compound = (Automaton.Collection) state;
 				int[] children = compound.children;
 				for (int i = 0; i != compound.length; ++i) {
-					traverse(automaton, children[i], marking);
+					int child = children[i];
+					if (child >= 0 && !reachable[child]) {
+						reachable[child] = true;
+						stack[top++] = child;
+					}
 				}
 			}
-			marking[start] -= 3;
 		}
 	}
 
@@ -215,6 +329,123 @@ public class Automata {
 		return isAcyclic(start, onStack, visited, automaton);
 	}
 
+	/**
+	 * Determine whether this automaton is acyclic or not. Unlike
+	 * <code>isAcyclic(Automaton,int)</code>, this considers every state in the
+	 * automaton (including those which are unreachable) and employs an
+	 * explicit stack rather than recursion.
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @return
+	 */
+	public static boolean isAcyclic(Automaton automaton) {
+		return postOrder(automaton, 0, true) != null;
+	}
+
+	/**
+	 * Determine a topological order of all states in the given automaton, such
+	 * that every state occurs after its children. This is only meaningful for
+	 * an acyclic automaton.
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @return
+	 */
+	public static int[] topologicalSort(Automaton automaton) {
+		return postOrder(automaton, 0, false);
+	}
+
+	/**
+	 * Determine a topological order of those states at or above a given pivot
+	 * in the given automaton, such that every state occurs after its children
+	 * (ignoring any children below the pivot). This is only meaningful for an
+	 * acyclic automaton, and requires time proportional to the number of
+	 * states above the pivot (rather than the whole automaton).
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @param pivot
+	 *            --- index of first state to include.
+	 * @return
+	 */
+	static int[] topologicalSortAbove(Automaton automaton, int pivot) {
+		return postOrder(automaton, pivot, false);
+	}
+
+	/**
+	 * Traverse every state at or above a given pivot in the given automaton in
+	 * depth-first order, returning the states in post-order. The traversal
+	 * uses an explicit stack of states, along with the index of the next child
+	 * to visit for each. Children below the pivot are not traversed.
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @param pivot
+	 *            --- index of first state to traverse.
+	 * @param checkAcyclic
+	 *            --- if true, then null is returned upon encountering a cycle.
+	 * @return
+	 */
+	private static int[] postOrder(Automaton automaton, int pivot, boolean checkAcyclic) {
+		final int nStates = automaton.nStates() - pivot;
+		// 0 = unvisited, 1 = on stack, 2 = finished. These are all indexed
+		// relative to the pivot.
+		byte[] status = new byte[nStates];
+		int[] order = new int[nStates];
+		int[] stack = new int[nStates];
+		int[] next = new int[nStates];
+		int nOrdered = 0;
+		for (int i = 0; i != nStates; ++i) {
+			if (status[i] != 0) {
+				continue;
+			}
+			int depth = 0;
+			stack[depth++] = i;
+			status[i] = 1;
+			next[i] = 0;
+			while (depth > 0) {
+				int node = stack[depth - 1];
+				int child = child(automaton.get(node + pivot), next[node]++);
+				if (child == Integer.MIN_VALUE) {
+					// all children visited
+					depth = depth - 1;
+					status[node] = 2;
+					order[nOrdered++] = node + pivot;
+				} else if (child >= pivot) {
+					child -= pivot;
+					if (status[child] == 0) {
+						stack[depth++] = child;
+						status[child] = 1;
+						next[child] = 0;
+					} else if (checkAcyclic && status[child] == 1) {
+						return null; // found a cycle!
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Return the ith child of a given state, or
+	 * <code>Integer.MIN_VALUE</code> if there is no such child.
+	 */
+	private static int child(Automaton.State state, int i) {
+		if (state instanceof Automaton.Term) {
+			Automaton.Term term = (Automaton.Term) state;
+			if (i == 0 && term.contents != Automaton.K_VOID) {
+				return term.contents;
+			}
+		} else if (state instanceof Automaton.Collection) {
+			Automaton.Collection compound = (Automaton.Collection) state;
+			if (i < compound.length) {
+				return compound.children[i];
+			}
+		}
+		return Integer.MIN_VALUE;
+	}
+
 	/**
 	 * Helper algorithm. This is similar to the well-known algorithm for finding
 	 * strongly connected components. The main difference is that it doesn't
@@ -241,7 +472,9 @@ public class Automata {
 	private static boolean isAcyclic(int index, BitSet onStack, BitSet visited,
 			Automaton automaton) {
 
-		if (onStack.get(index)) {
+		if (index < 0) {
+			return true; // virtual states have no children
+		} else if (onStack.get(index)) {
 			return false; // found a cycle!
 		}
 
@@ -279,9 +512,10 @@ public class Automata {
 	/**
 	 * Check whether one state is reachable from another in a given automaton.
 	 * This employs a standard depth-first traversal of the automaton from the
-	 * given node. An array of temporary storage is used to record which nodes
-	 * have been previously visited in order to protected against infinite
-	 * recursion in the presence of cyclic automata.
+	 * given node, using an explicit stack rather than recursion. An array of
+	 * temporary storage is used to record which nodes have been previously
+	 * visited in order to protected against infinite looping in the presence
+	 * of cyclic automata.
 	 *
 	 * @param start
 	 *            --- index to begin the traversal from.
@@ -297,24 +531,36 @@ public class Automata {
 			int[] storage) {
 		if (start == search) {
 			return true;
-		} else if (start >= 0 && storage[start] == 0) {
-			// this root not yet visited.
-			Automaton.State state = automaton.get(start);
-			storage[start] = 1; // visited
-
+		} else if (start < 0 || storage[start] != 0) {
+			return false;
+		}
+		// this root not yet visited.
+		storage[start] = 1; // visited
+		// Every state is pushed at most once, hence the stack never exceeds
+		// the number of states.
+		int[] stack = stack(automaton.nStates());
+		int top = 0;
+		stack[top++] = start;
+		while (top > 0) {
+			Automaton.State state = automaton.get(stack[--top]);
 			if (state instanceof Automaton.Term) {
-				Automaton.Term term = (Automaton.Term) state;
-				if (term.contents != Automaton.K_VOID) {
-					if (reachable(automaton, term.contents, search, storage)) {
-						return true;
-					}
+				int child = ((Automaton.Term) state).contents;
+				if (child == search) {
+					return true;
+				} else if (child >= 0 && storage[child] == 0) {
+					storage[child] = 1;
+					stack[top++] = child;
 				}
 			} else if (state instanceof Automaton.Collection) {
 				Automaton.Collection compound = (Automaton.Collection) state;
 				int[] children = compound.children;
 				for (int i = 0; i != compound.length; ++i) {
-					if (reachable(automaton, children[i], search, storage)) {
+					int child = children[i];
+					if (child == search) {
 						return true;
+					} else if (child >= 0 && storage[child] == 0) {
+						storage[child] = 1;
+						stack[top++] = child;
 					}
 				}
 			}
@@ -391,8 +637,8 @@ public class Automata {
 	 * @return
 	 */
 	public final static boolean collapseEquivalenceClasses(Automaton automaton, int[] binding) {
-		// First, remap states so all references are to the unique
-		// representatives.
+		// First, eliminate all states which are not the unique representative
+		// of their equivalence class.
 		boolean changed = false;
 		int nStates = automaton.nStates();
 
@@ -403,61 +649,56 @@ public class Automata {
 				// state must now be unreachable.
 				automaton.set(i,null);
 				changed = true;
-			} else {
-				Automaton.State state = automaton.get(i);
-				if(state != null) {
-					// This state is the unique representative for its equivalence
-					// class. Therefore, retain it whilst remapping all of its
-					// references appropriately.				
-					state.remap(binding);
-				}
 			}
 		}
 
-		// Second, remap the root references so that they also refer to the
-		// unique representatives.
-		int nRoots = automaton.nRoots();
-		for (int i = 0; i != nRoots; ++i) {
-			int root = automaton.getRoot(i);
-			if (root >= 0) {
-				automaton.setRoot(i, binding[root]);
-			}
-		}
+		// Second, remap the remaining states so that all of their references
+		// are to the unique representatives. Likewise, for the root
+		// references.
+		automaton.remap(binding);
 		
 		return changed;
 	}
 	
 	/**
-	 * Determine which states are equivalent using a binary matrix of size N*N,
-	 * where N is the number of states in the given automaton. This method is
-	 * part of the minimisation process.
+	 * Determine the representative state for each equivalence class in a given
+	 * automaton, where the representative is the lowest indexed state in its
+	 * class. The equivalence classes are determined using partition refinement,
+	 * which requires time <code>O(m log n)</code> and space linear in the
+	 * number of transitions <code>m</code> (rather than an N*N binary matrix).
+	 * This function does not modify the automaton.
 	 *
 	 * @param automaton
 	 *            --- The automaton being minimised.
-	 * @param equivs
-	 *            --- Binary matrix comparing every state in automaton with
-	 *            every other state for equivalence.
+	 * @param mapping
+	 *            --- Returns a mapping from states to their representatives.
+	 *            This must have at least <code>nStates</code> elements.
 	 */
-	final static void determineEquivalenceClasses(Automaton automaton,
-			BinaryMatrix equivs) {
-		boolean changed = true;
-		int size = automaton.nStates();
-
-		while (changed) {
-			changed = false;
-			for (int i = 0; i < size; ++i) {
-				for (int j = i + 1; j < size; ++j) {
-					if (equivs.get(i, j)) {
-						// no need to explore nodes which are already known to
-						// be not equivalent.
-						boolean b = equivalent(automaton, equivs, i, j);
-						equivs.set(i, j, b);
-						equivs.set(j, i, b);
-						changed |= !b;
-					}
-				}
-			}
-		}
+	public final static void determineRepresentativeStates(Automaton automaton,
+			int[] mapping) {
+		PartitionRefinement.determineRepresentativeStates(automaton, mapping);
+	}
+
+	/**
+	 * Determine the representative state for each equivalence class in a given
+	 * acyclic automaton, where the representative is the lowest indexed state
+	 * in its class. This requires only a single bottom-up pass over the
+	 * automaton, which hash-conses each state in turn. This function does not
+	 * modify the automaton.
+	 *
+	 * @param automaton
+	 *            --- The automaton being minimised, which must be acyclic.
+	 * @param order
+	 *            --- A topological order of all states in the automaton, such
+	 *            that every state occurs after its children.
+	 * @param mapping
+	 *            --- Returns a mapping from states to their representatives.
+	 *            This must have at least <code>nStates</code> elements.
+	 */
+	public final static void determineRepresentativeStates(Automaton automaton,
+			int[] order, int[] mapping) {
+		PartitionRefinement.determineRepresentativeStates(automaton, order,
+				mapping);
 	}
 
 	/**
@@ -485,7 +726,7 @@ public class Automata {
 		case Automaton.K_STRING: {
 			Automaton.Constant<?> ic = (Automaton.Constant<?>) is;
 			Automaton.Constant<?> jc = (Automaton.Constant<?>) js;
-			return ic.value.equals(jc.value);
+			return ic.value().equals(jc.value());
 		}
 
 		case Automaton.K_LIST: {
@@ -796,6 +1037,31 @@ public class Automata {
 		return false;
 	}
 	
+	/**
+	 * Determine a canonical labelling of an automaton using the original
+	 * back-tracking search. This extends a candidate morphism from each root,
+	 * one state at a time, considering every permutation of the children of
+	 * each set or bag and pruning those candidates which are not minimal. This
+	 * is no longer used by <code>Automaton.canonicalise()</code>, but is
+	 * retained for comparison purposes.
+	 *
+	 * @param automaton
+	 *            --- the automaton being canonicalised
+	 * @return a mapping from states to their new indices
+	 */
+	public static int[] canonicalMorphism(Automaton automaton) {
+		ArrayList<Morphism> candidates = new ArrayList<Morphism>();
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			candidates.add(new Morphism(automaton.nStates(), automaton.getRoot(i)));
+		}
+
+		for (int i = 0; i != automaton.nStates(); ++i) {
+			extend(i, candidates, automaton);
+		}
+
+		return candidates.get(0).n2i;
+	}
+
 	/**
 	 * <p>
 	 * This algorithm extends all of the current morphisms by a single place.
@@ -975,8 +1241,8 @@ public class Automata {
 			case Automaton.K_STRING: {
 				Automaton.Constant c1 = (Automaton.Constant) s1;
 				Automaton.Constant c2 = (Automaton.Constant) s2;
-				Comparable o1 = (Comparable) c1.value;
-				Comparable o2 = (Comparable) c2.value;
+				Comparable o1 = (Comparable) c1.value();
+				Comparable o2 = (Comparable) c2.value();
 				int c = o1.compareTo(o2);
 				if (c != 0) {
 					return c < 0;
@@ -1116,7 +1382,7 @@ public class Automata {
 		final int[] n2i; // nodes to indices
 		int free; // first available index
 
-		public Morphism(int size, int root) {
+		public Morphism(int size) {
 			i2n = new int[size];
 			n2i = new int[size];
 			for (int i = 0; i != size; ++i) {
@@ -1124,6 +1390,10 @@ public class Automata {
 				n2i[i] = Integer.MAX_VALUE;
 			}
 			free = 0;
+		}
+
+		public Morphism(int size, int root) {
+			this(size);
 			allocate(root);
 		}
 
@@ -1250,9 +1520,11 @@ public class Automata {
 	 */
 	public static void reorder(Automaton automaton, int[] mapping) {
 		// now remap all the vertices according to giving binding
+		// States are remapped on copies, since set() must see each original
+		// state to update the index, fingerprint and reference counts.
 		State[] states = new State[automaton.nStates()];
 		for (int i = 0; i != states.length; ++i) {
-			Automaton.State state = automaton.get(i);
+			Automaton.State state = automaton.get(i).clone();
 			state.remap(mapping);
 			states[mapping[i]] = state;
 		}
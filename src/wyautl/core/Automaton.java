@@ -29,7 +29,6 @@ import java.math.BigInteger;
 import java.util.*;
 
 import wyautl.util.BigRational;
-import wyautl.util.BinaryMatrix;
 
 /**
  * <p>
@@ -186,22 +185,141 @@ public final class Automaton {
 	 */
 	private int[] roots;
 
+	/**
+	 * An open-addressed hash table (using linear probing) mapping states to
+	 * their indices in the states array. This is used by <code>add()</code> to
+	 * quickly locate an existing state equivalent to that being added. Each
+	 * slot holds either a state index or <code>EMPTY</code>. The table is
+	 * constructed lazily on the first call to <code>add()</code> and is
+	 * discarded by operations which relocate states en masse. <b>NOTE:</b>
+	 * this is <code>null</code> when the index is not available.
+	 */
+	private int[] index;
+
+	/**
+	 * The hash code of each indexed state, as it was when that state was
+	 * inserted into the index. This is necessary because states are mutable
+	 * and, hence, an entry must be removed using its original hash.
+	 */
+	private int[] hashes;
+
+	/**
+	 * The number of used slots in the index.
+	 */
+	private int nIndexed;
+
+	/**
+	 * A compact representation of the states of this automaton, used when the
+	 * automaton has been packed. In such case, <code>states</code> is
+	 * <code>null</code> and the states are unpacked again on demand. Since the
+	 * packed representation is immutable, it can be shared between copies.
+	 */
+	private PackedStates packed;
+
+	/**
+	 * The packed representation from which this automaton was last unpacked
+	 * (if any). When the automaton is packed again, chunks of this which are
+	 * unchanged are reused rather than duplicated. This means successive
+	 * versions of an automaton (e.g. in a rewrite) share most of their
+	 * storage.
+	 */
+	private PackedStates origin;
+
+	/**
+	 * Indicates whether this automaton is known to be acyclic. This allows
+	 * <code>minimise()</code> to employ a simpler algorithm without first
+	 * checking for cycles. It is maintained by those operations which can
+	 * introduce a cycle, such as <code>set()</code> and <code>rewrite()</code>.
+	 * <b>NOTE:</b> when this is <code>false</code>, the automaton may still be
+	 * acyclic.
+	 */
+	private boolean acyclic;
+
+	/**
+	 * A 64-bit fingerprint of the states in this automaton. This is the sum of
+	 * the fingerprints of each state combined with its index, such that it can
+	 * be updated incrementally as individual states are added or replaced, and
+	 * it is sensitive to the order of states. This is only meaningful when
+	 * <code>fingerprinted</code> holds; otherwise, it is recomputed on demand.
+	 */
+	private long fingerprint;
+
+	/**
+	 * Indicates whether or not <code>fingerprint</code> is up-to-date.
+	 * Operations which relocate states en masse (e.g. <code>compact()</code>)
+	 * simply clear this, rather than update the fingerprint.
+	 */
+	private boolean fingerprinted;
+
+	/**
+	 * The number of references to each state from other states in this
+	 * automaton. This allows <code>compact()</code> to identify garbage
+	 * states incrementally, rather than by traversing the automaton from its
+	 * roots. The counts are constructed on the first compaction and then
+	 * maintained by those operations which change the children of a state.
+	 * <b>NOTE:</b> this is <code>null</code> when the counts are not
+	 * available.
+	 */
+	private int[] refs;
+
+	/**
+	 * States which may have become garbage since the last compaction. That
+	 * is, those whose reference count has dropped to zero, which have been
+	 * added, or which were previously marked as roots. Any state which is
+	 * unreachable, but not part of a cycle, will be found from here.
+	 */
+	private int[] garbage;
+
+	/**
+	 * The number of used slots in the garbage array.
+	 */
+	private int nGarbage;
+
+	/**
+	 * Results computed from the states of this automaton by a client, which
+	 * are invalidated as states change. <b>NOTE:</b> this is
+	 * <code>null</code> when no memo is attached, and it is never copied.
+	 */
+	private StateMemo memo;
+
 	public Automaton() {
 		this.states = new Automaton.State[DEFAULT_NUM_STATES];
 		this.roots = new int[DEFAULT_NUM_ROOTS];
+		this.acyclic = true;
 	}
 
 	public Automaton(Automaton automaton) {
 		this.nStates = automaton.nStates;
-		this.states = new State[automaton.states.length];
-		for (int i = 0; i != states.length; ++i) {
-			Automaton.State ith = automaton.states[i];
-			if (ith != null) {
-				states[i] = ith.clone();
+		if (automaton.packed != null) {
+			// Packed states are never modified, hence can be shared.
+			this.packed = automaton.packed;
+		} else {
+			this.origin = automaton.origin;
+			this.states = new State[automaton.states.length];
+			for (int i = 0; i != states.length; ++i) {
+				Automaton.State ith = automaton.states[i];
+				if (ith != null) {
+					states[i] = ith.clone();
+				}
 			}
 		}
 		this.nRoots = automaton.nRoots;
 		this.roots = Arrays.copyOf(automaton.roots, nRoots);
+		this.acyclic = automaton.acyclic;
+		this.fingerprint = automaton.fingerprint;
+		this.fingerprinted = automaton.fingerprinted;
+		if (automaton.refs != null) {
+			this.refs = Arrays.copyOf(automaton.refs, automaton.refs.length);
+			this.garbage = Arrays.copyOf(automaton.garbage, automaton.garbage.length);
+			this.nGarbage = automaton.nGarbage;
+		}
+		if (automaton.index != null) {
+			// The index refers only to state indices, so it can be copied
+			// directly rather than being rebuilt.
+			this.index = Arrays.copyOf(automaton.index, automaton.index.length);
+			this.hashes = Arrays.copyOf(automaton.hashes, automaton.hashes.length);
+			this.nIndexed = automaton.nIndexed;
+		}
 	}
 
 	public Automaton(State[] states) {
@@ -228,7 +346,7 @@ public final class Automaton {
 	public int nTransitions() {
 		int count = 0;
 		for (int i = 0; i != nStates; ++i) {
-			State s = states[i];
+			State s = get(i);
 			if (s instanceof Automaton.Term) {
 				Automaton.Term t = (Automaton.Term) s;
 				if (t.contents != Automaton.K_VOID) {
@@ -273,6 +391,8 @@ public final class Automaton {
 			default:
 				return new Term(-index + K_FREE, K_VOID);
 			}
+		} else if (packed != null) {
+			return packed.get(index);
 		}
 
 		return states[index];
@@ -291,6 +411,13 @@ public final class Automaton {
 	 * equivalence property and may contain garbage states). The
 	 * <code>minimise()</code> function must be called to restore this property.
 	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> a state which has been modified in place (e.g. via
+	 * <code>State.remap()</code>) must be passed back through this method so
+	 * that it can be reindexed. Otherwise, <code>add()</code> may fail to
+	 * locate it. Likewise, the states of a packed automaton are detached
+	 * copies, and modifications to them only take effect through this method.
+	 * </p>
 	 *
 	 * @param index
 	 *            --- Index of state to replace where
@@ -299,7 +426,46 @@ public final class Automaton {
 	 *            --- state to replace existing state with.
 	 */
 	public void set(int index, State state) {
-		states[index] = state;
+		unpack();
+		if (memo != null) {
+			memo.invalidate(index);
+		}
+		if (state != null) {
+			// The new state may refer to an ancestor of this state.
+			acyclic = false;
+		}
+		if (refs != null) {
+			State old = states[index];
+			if (old == state && old != null) {
+				// This state was modified in place, hence its original
+				// children are unknown.
+				discardRefs();
+			} else {
+				retain(state);
+				release(old);
+			}
+		}
+		if (fingerprinted) {
+			State old = states[index];
+			if (old == state && old != null) {
+				// This state was modified in place, hence its original
+				// fingerprint is unknown.
+				fingerprinted = false;
+			} else {
+				fingerprint += fingerprint(index, state) - fingerprint(index, old);
+			}
+		}
+		if (this.index != null) {
+			if (states[index] != null) {
+				unindex(index);
+			}
+			states[index] = state;
+			if (state != null) {
+				reindex(index);
+			}
+		} else {
+			states[index] = state;
+		}
 	}
 
 	/**
@@ -338,12 +504,23 @@ public final class Automaton {
 			}
 		}
 
+		unpack();
+
 		// Second, check to see whether there already exists an equivalent
-		// state.
-		for (int i = 0; i != nStates; ++i) {
-			State ith = states[i];
-			if (ith != null && ith.equals(state)) {
-				return i; // match
+		// state. Observe that a null state may be added as a placeholder, and
+		// this is never considered equivalent to anything.
+		if (state != null) {
+			if (index == null) {
+				buildIndex();
+			}
+			int match = lookup(state);
+			if (match != K_VOID) {
+				return match;
+			}
+			// A new state cannot be part of a cycle, unless it refers to
+			// itself or to a state which is yet to be added.
+			if (acyclic && refersAbove(state, nStates)) {
+				acyclic = false;
 			}
 		}
 
@@ -374,20 +551,27 @@ public final class Automaton {
 			// no need to do anything in this case.
 			return root;
 		} else {
+			unpack();
+			int pivot = nStates;
 			int automaton_nStates = automaton.nStates();
 			int[] binding = new int[nStates + automaton_nStates];
 			copy(automaton, root, binding);
 			for (int i = 0; i != automaton_nStates; ++i) {
 				int index = binding[i];
 				if (index != K_VOID) {
-					states[index].remap(binding);
+					remapState(index, binding);
 				}
 			}
 			// map root from automaton space to this space.
 			root = binding[root];
+			// the copied states are not referred to by any existing state,
+			// hence can only introduce a cycle if they already had one.
+			acyclic &= automaton.acyclic;
 			// minimise the automaton to eliminate any states copied
 			// over from automaton which are equivalent to existing states.
-			minimise(binding);
+			// Since no existing state refers to those copied, only the
+			// latter need be considered.
+			minimise(binding, pivot);
 			// map root from original location to (potentially) new location
 			// after minimisation.
 			return binding[root];
@@ -399,6 +583,31 @@ public final class Automaton {
 		Automaton.State[] other_states = other.states;
 		int other_nroots = other.nRoots;
 		int[] other_roots = other.roots;
+		PackedStates other_packed = other.packed;
+		PackedStates other_origin = other.origin;
+		boolean other_acyclic = other.acyclic;
+		long other_fingerprint = other.fingerprint;
+		boolean other_fingerprinted = other.fingerprinted;
+		other.packed = packed;
+		this.packed = other_packed;
+		other.origin = origin;
+		this.origin = other_origin;
+		other.acyclic = acyclic;
+		this.acyclic = other_acyclic;
+		other.fingerprint = fingerprint;
+		other.fingerprinted = fingerprinted;
+		this.fingerprint = other_fingerprint;
+		this.fingerprinted = other_fingerprinted;
+		// Finally, swap over the reference counts
+		int[] other_refs = other.refs;
+		int[] other_garbage = other.garbage;
+		int other_ngarbage = other.nGarbage;
+		other.refs = refs;
+		other.garbage = garbage;
+		other.nGarbage = nGarbage;
+		this.refs = other_refs;
+		this.garbage = other_garbage;
+		this.nGarbage = other_ngarbage;
 		other.states = states;
 		other.nStates = nStates;
 		other.roots = roots;
@@ -407,6 +616,23 @@ public final class Automaton {
 		this.nStates = other_nstates;
 		this.roots = other_roots;
 		this.nRoots = other_nroots;
+		// Swap over the indices
+		int[] other_index = other.index;
+		int[] other_hashes = other.hashes;
+		int other_nindexed = other.nIndexed;
+		other.index = index;
+		other.hashes = hashes;
+		other.nIndexed = nIndexed;
+		this.index = other_index;
+		this.hashes = other_hashes;
+		this.nIndexed = other_nindexed;
+		// Memos remain with their automata, whose states have now changed
+		if (memo != null) {
+			memo.clear();
+		}
+		if (other.memo != null) {
+			other.memo.clear();
+		}
 	}
 
 	/**
@@ -476,21 +702,27 @@ public final class Automaton {
 	 */
 	public int rewrite(int from, int to, int[] binding) {
 		if (from != to) {
+			unpack();
+			// Redirecting references from one state to another introduces a
+			// cycle only if the latter reaches the former.
+			if (acyclic && to >= 0
+					&& Automata.reachable(this, to, from, new int[nStates])) {
+				acyclic = false;
+			}
 			for (int i = 0; i != binding.length; ++i) {
 				binding[i] = i;
 			}
 			binding[from] = to;
 			for (int i = 0; i < nStates; ++i) {
-				State s = states[i];
-				if (s != null) {
-					s.remap(binding);
+				if (states[i] != null) {
+					remapState(i, binding);
 				}
 			}
 			// map root markers
 			for (int i = 0; i != nRoots; ++i) {
 				int root = roots[i];
 				if (root >= 0) {
-					roots[i] = binding[root];
+					setRoot(i, binding[root]);
 				}
 			}
 
@@ -512,7 +744,8 @@ public final class Automaton {
 	 *
 	 * <p>
 	 * <b>NOTE:</b> all references valid prior to this call remain valid, and
-	 * the resulting automaton remains minimised but not compacted.
+	 * the resulting automaton remains minimised (provided it was minimised
+	 * initially) but not compacted.
 	 * </p>
 	 *
 	 * @param source
@@ -524,6 +757,7 @@ public final class Automaton {
 	 *            --- term to replace matched terms with.
 	 */
 	public int substitute(int source, int search, int replacement) {
+		unpack();
 		int initialNumStates = nStates;
 		int[] binding = new int[nStates << 1];
 		if (Automata.reachable(this, source, search, binding)) {
@@ -534,11 +768,13 @@ public final class Automaton {
 			for (int i = 0; i != initialNumStates; ++i) {
 				int index = binding[i];
 				if (index != K_VOID && i != search) {
-					states[index].remap(binding);
+					remapState(index, binding);
 				}
 			}
 			source = binding[source];
-			minimise(binding);
+			// Only the states copied above need be minimised, since no
+			// existing state refers to them.
+			minimise(binding, initialNumStates);
 			return binding[source];
 		} else {
 			return source; // no change
@@ -562,7 +798,8 @@ public final class Automaton {
 	 *
 	 * <p>
 	 * <b>NOTE:</b> all references valid prior to this call remain valid, and
-	 * the resulting automaton remains minimised but not compacted.
+	 * the resulting automaton remains minimised (provided it was minimised
+	 * initially) but not compacted.
 	 * </p>
 	 *
 	 * @param source
@@ -577,6 +814,7 @@ public final class Automaton {
 	public int substitute(int source, int[] mapping) {
 		// TODO: what happens if source is negative on entry?
 
+		unpack();
 		int initialNumStates = nStates;
 		int[] binding = new int[nStates << 1];
 		Arrays.fill(binding, 0);
@@ -594,11 +832,11 @@ public final class Automaton {
 		for (int i = 0; i != initialNumStates; ++i) {
 			int index = binding[i];
 			if (index != K_VOID && mapping[i] == i) {
-				states[index].remap(binding);
+				remapState(index, binding);
 			}
 		}
 		source = binding[source];
-		minimise(binding);
+		minimise(binding, initialNumStates);
 		if(source >= 0) {
 			return binding[source];
 		} else {
@@ -631,6 +869,30 @@ public final class Automaton {
 		return minimise(new int[nStates]);
 	}
 
+	/**
+	 * <p>
+	 * Return this automaton to a state where the <i>strong equivalence
+	 * property</i> holds, as for <code>minimise()</code>. However, this
+	 * assumes that all states below a given pivot are already minimised and
+	 * do not refer to any state at or above the pivot. This is the case when
+	 * states have only been added since the automaton was last minimised. In
+	 * such case, only those states at or above the pivot need to be traversed
+	 * (rather than the whole automaton). Representatives are chosen exactly
+	 * as for <code>minimise()</code> and, hence, the outcome is the same.
+	 * </p>
+	 *
+	 * <p>
+	 * <b>NOTE:</b> if the automaton is not known to be acyclic then the whole
+	 * automaton is minimised, as for <code>minimise()</code>.
+	 * </p>
+	 *
+	 * @param pivot
+	 *            --- Index of the first state which may not be minimised.
+	 */
+	public boolean minimise(int pivot) {
+		return minimise(new int[nStates], pivot);
+	}
+
 	/**
 	 * <p>
 	 * Compact the automaton by eliminating garbage states above the pivot
@@ -655,6 +917,16 @@ public final class Automaton {
 	 * "mark and sweep" garbage collection.
 	 * </p>
 	 * <p>
+	 * Where possible, garbage is identified incrementally using reference
+	 * counts, rather than by marking. In particular, when the automaton is
+	 * known to be acyclic, every garbage state either has no references or is
+	 * referred to only by other garbage states. Therefore, it suffices to
+	 * eliminate those states whose reference count has dropped to zero since
+	 * the last compaction (and, in turn, any children which this leaves
+	 * unreferenced). Furthermore, if no garbage is found then no states need
+	 * to be relocated.
+	 * </p>
+	 * <p>
 	 * <b>NOTE:</b> all references which were valid beforehand may not be
 	 * invalidated (unless the automaton was already compacted).
 	 * </p>
@@ -665,18 +937,52 @@ public final class Automaton {
 	 *            array must be at least of size <code>nStates</code>.
 	 */
 	public void compact(int[] binding, int pivot) {
-		Automata.eliminateUnreachableStates(this,pivot,nStates,binding);
+		unpack();
+		if (refs != null && acyclic && pivot == 0) {
+			eliminateGarbage();
+		} else {
+			Automata.eliminateUnreachableStates(this,pivot,nStates,binding);
+			if (pivot != 0) {
+				// Garbage may remain below the pivot, which would be
+				// overlooked by subsequent compactions.
+				discardRefs();
+			} else if (refs == null) {
+				buildRefs();
+			}
+		}
+		nGarbage = 0;
+		if (memo != null) {
+			// Changes are recorded by index, hence must be dealt with before
+			// any states are relocated.
+			memo.flush();
+		}
 
 		int j=0;
 		for(int i=0;i!=nStates;++i) {
 			State ith = states[i];
 			if(ith != null) {
 				binding[i] = j;
+				if (refs != null) {
+					refs[j] = refs[i];
+				}
+				if (memo != null && i != j) {
+					memo.move(i, j);
+				}
 				states[j++] = ith;
 			}
 		}
 
+		if (j == nStates) {
+			// No states were eliminated, hence none have been relocated.
+			return;
+		}
+
+		Arrays.fill(states, j, nStates, null);
 		nStates = j;
+		// States have been relocated wholesale, so the index and fingerprint
+		// are now invalid.
+		index = null;
+		fingerprinted = false;
 
 		for(int i=0;i!=nStates;++i) {
 			states[i].remap(binding);
@@ -696,8 +1002,21 @@ public final class Automaton {
 	 * @param nStates
 	 */
 	public void resize(int nStates) {
+		unpack();
 		if (nStates < this.nStates) {
 			for (int i = this.nStates-1; i >= nStates; --i) {
+				if (index != null && states[i] != null) {
+					unindex(i);
+				}
+				if (fingerprinted) {
+					fingerprint -= fingerprint(i, states[i]);
+				}
+				if (refs != null) {
+					release(states[i]);
+				}
+				if (memo != null) {
+					memo.invalidate(i);
+				}
 				states[i] = null; // nullify
 			}
 		} else if (nStates > states.length) {
@@ -706,6 +1025,14 @@ public final class Automaton {
 			System.arraycopy(states, 0, nstates, 0, nStates);
 			states = nstates;
 		}
+		if (refs != null) {
+			if (refs.length < states.length) {
+				refs = Arrays.copyOf(refs, states.length);
+			}
+			for (int i = this.nStates; i < nStates; ++i) {
+				refs[i] = 0;
+			}
+		}
 		this.nStates = nStates;
 	}
 
@@ -722,12 +1049,13 @@ public final class Automaton {
 	 * </p>
 	 *
 	 * <p>
-	 * The canonical form is computed using a straightforward (brute-force)
-	 * back-tracking search. This means it is potentially quite expensive,
-	 * although in most cases it probably runs in polynomial time. The number of
-	 * non-deterministic states in the automaton directly affects how hard the
-	 * computation is. In particular, if there are no non-deterministic states,
-	 * the algorithm runs in guaranteed polynomial time.
+	 * The canonical form is computed by first colouring states using iterative
+	 * refinement, and then back-tracking only over those states which
+	 * refinement cannot distinguish (see <code>CanonicalLabelling</code>). For
+	 * a minimised automaton, refinement typically distinguishes every state
+	 * and so the algorithm runs in polynomial time. In contrast, the number of
+	 * structurally identical states in the automaton directly affects how hard
+	 * the computation is.
 	 * </p>
 	 *
 	 * <p>
@@ -746,6 +1074,7 @@ public final class Automaton {
 	 */
 	public void canonicalise() {
 		if(nStates > 0) {
+			unpack();
 
 			// NOTE: following line is for debugging purposes. In particular, if
 			// you think there's a problem with the canonicalisation algorithm,
@@ -754,16 +1083,12 @@ public final class Automaton {
 			//
 			// Automaton debug = Automata.bruteForce(this);
 
-			ArrayList<Automata.Morphism> candidates = new ArrayList<Automata.Morphism>();
-			for (int i = 0; i != nRoots; ++i) {
-				candidates.add(new Automata.Morphism(nStates, roots[i]));
-			}
+			int[] mapping = CanonicalLabelling.label(this);
 
-			for (int i = 0;i!=nStates;++i) {
-				Automata.extend(i, candidates, this);
-			}
-
-			Automata.reorder(this, candidates.get(0).n2i);
+			// Reordering states cannot introduce a cycle.
+			boolean wasAcyclic = acyclic;
+			Automata.reorder(this, mapping);
+			acyclic = wasAcyclic;
 
 			// NOTE: the following line if for debugging purposes (as per note above).
 			//
@@ -783,13 +1108,17 @@ public final class Automaton {
 	 * @param binding
 	 */
 	public void remap(int[] binding) {
+		unpack();
+		acyclic = false;
 		for(int i=0;i!=nStates;++i) {
-			states[i].remap(binding);
+			if (states[i] != null) {
+				remapState(i, binding);
+			}
 		}
 		for (int i = 0; i != nRoots; ++i) {
 			int root = roots[i];
 			if (root >= 0) {
-				roots[i] = binding[root];
+				setRoot(i, binding[root]);
 			}
 		}
 	}
@@ -810,6 +1139,10 @@ public final class Automaton {
 			roots = nroots;
 		}
 		// Second set the marker!
+		if (refs != null && index < nRoots && roots[index] >= 0) {
+			// The previously marked state may now be garbage
+			discard(roots[index]);
+		}
 		roots[index] = state;
 		nRoots = Math.max(index + 1, nRoots);
 	}
@@ -833,8 +1166,13 @@ public final class Automaton {
 	 * @return
 	 */
 	public int pop() {
-		nRoots = nRoots - 1;		
-		return roots[nRoots];
+		nRoots = nRoots - 1;
+		int root = roots[nRoots];
+		if (refs != null && root >= 0) {
+			// The previously marked state may now be garbage
+			discard(root);
+		}
+		return root;
 	}
 	
 	/**
@@ -848,6 +1186,7 @@ public final class Automaton {
 	}
 
 	public void validate() {
+		unpack();
 		for(int i=0;i!=nStates;++i) {
 			State state = states[i];
 			if(state instanceof Term) {
@@ -880,20 +1219,111 @@ public final class Automaton {
 	}
 
 	/**
-	 * Determine the hashCode of an automaton.
+	 * <p>
+	 * Convert this automaton into a compact form, where states are held in
+	 * parallel arrays of primitives rather than as individual objects. This
+	 * significantly reduces the memory footprint of automata which are
+	 * retained, but not modified, such as the intermediate states of a
+	 * rewrite. Copying a packed automaton is also cheap, as the packed states
+	 * are shared. Likewise, if this automaton was previously unpacked then any
+	 * chunk of states which has not changed since is shared with the original
+	 * packed form.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> packing is transparent. In particular, <code>get()</code>
+	 * returns detached copies of states whilst any operation which modifies
+	 * the automaton first restores it to its usual form. All references remain
+	 * valid, and the automaton remains minimised and compacted (if it was
+	 * beforehand).
+	 * </p>
 	 */
-	@Override
-	public int hashCode() {
-		int r = nStates;
-		for (int i = 0; i != nStates; ++i) {
-			State ith = states[i];
-			if(ith != null) {
-				r = r ^ ith.hashCode();
+	public void pack() {
+		if (packed == null) {
+			packed = new PackedStates(states, nStates, origin);
+			origin = null;
+			states = null;
+			index = null;
+			hashes = null;
+			nIndexed = 0;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Return a 64-bit fingerprint of this automaton, which is determined by its
+	 * states (including their order) and its root markers. Two identical
+	 * automata (i.e. for which <code>equals()</code> holds) always have the
+	 * same fingerprint, whilst it is very unlikely that two distinct automata
+	 * do.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> the fingerprint of the states is cached and maintained
+	 * incrementally as states are added, replaced or rewritten. Hence, this
+	 * is usually a constant-time operation.
+	 * </p>
+	 *
+	 * @return
+	 */
+	public long fingerprint() {
+		if (!fingerprinted) {
+			long r = 0;
+			for (int i = 0; i != nStates; ++i) {
+				r += fingerprint(i, get(i));
 			}
+			fingerprint = r;
+			fingerprinted = true;
+		}
+		long r = mix(fingerprint + nStates);
+		for (int i = 0; i != nRoots; ++i) {
+			r = mix(r + roots[i]);
 		}
 		return r;
 	}
 
+	/**
+	 * <p>
+	 * Attach a memo to this automaton, in which a client can record results
+	 * computed from its states (e.g. whether a state is accepted by a given
+	 * type). The memo is informed of every state which subsequently changes,
+	 * such that results depending on it are invalidated. Any memo previously
+	 * attached is detached.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> a memo is not copied along with the automaton.
+	 * </p>
+	 *
+	 * @param memo
+	 *            --- Memo to attach, or <code>null</code> to detach the
+	 *            current memo.
+	 */
+	public void setMemo(StateMemo memo) {
+		if (this.memo != null && this.memo != memo) {
+			this.memo.detach();
+		}
+		this.memo = memo;
+		if (memo != null) {
+			memo.attach(this);
+		}
+	}
+
+	/**
+	 * Return the memo attached to this automaton, or <code>null</code> if
+	 * none.
+	 */
+	public StateMemo memo() {
+		return memo;
+	}
+
+	/**
+	 * Determine the hashCode of an automaton. This is derived from its
+	 * fingerprint and, hence, is cached.
+	 */
+	@Override
+	public int hashCode() {
+		long r = fingerprint();
+		return (int) (r ^ (r >>> 32));
+	}
+
 	/**
 	 * This method compares two compound types to test whether they are
 	 * <i>identical</i>. Observe that it does not perform an <i>isomorphism</i>
@@ -906,19 +1336,29 @@ public final class Automaton {
 	public boolean equals(Object o) {
 		if (o instanceof Automaton) {
 			Automaton a = (Automaton) o;
-			State[] cs = a.states;
 			if (a.nStates != nStates || a.nRoots != nRoots) {
 				return false;
+			} else if (fingerprinted && a.fingerprinted
+					&& fingerprint != a.fingerprint) {
+				// Automata whose fingerprints differ cannot be identical
+				return false;
 			}
-			for (int i = 0; i != nStates; ++i) {
-				State si = states[i];
-				State ci = cs[i];
-				if (si == null) {
-					if (ci != null) {
+			if (packed != null && a.packed != null) {
+				// Compare directly without unpacking
+				if (!packed.equals(a.packed)) {
+					return false;
+				}
+			} else {
+				for (int i = 0; i != nStates; ++i) {
+					State si = get(i);
+					State ci = a.get(i);
+					if (si == null) {
+						if (ci != null) {
+							return false;
+						}
+					} else if (!si.equals(ci)) {
 						return false;
 					}
-				} else if (!si.equals(ci)) {
-					return false;
 				}
 			}
 			for (int i = 0; i != nRoots; ++i) {
@@ -943,7 +1383,7 @@ public final class Automaton {
 			if (i != 0) {
 				r = r + ", ";
 			}
-			Automaton.State state = states[i];
+			Automaton.State state = get(i);
 			r = r + "#" + i + " ";
 
 			if (state instanceof Term) {
@@ -1098,13 +1538,19 @@ public final class Automaton {
 	 *
 	 */
 	public static abstract class Constant<T> extends State {
-		public final T value;
 
-		public Constant(int kind, T data) {
+		public Constant(int kind) {
 			super(kind);
-			this.value = data;
 		}
 
+		/**
+		 * Return the payload of this constant. This may be constructed on
+		 * demand (e.g. for integers which fit into a <code>long</code>).
+		 *
+		 * @return
+		 */
+		public abstract T value();
+
 		public final boolean remap(int[] map) {
 			return false;
 		}
@@ -1117,7 +1563,7 @@ public final class Automaton {
 		public boolean equals(final Object o) {
 			if (o instanceof Constant) {
 				Constant t = (Constant) o;
-				return kind == t.kind && value.equals(t.value);
+				return kind == t.kind && value().equals(t.value());
 			}
 			return false;
 		}
@@ -1128,17 +1574,24 @@ public final class Automaton {
 
 		@Override
 		public int hashCode() {
-			return value.hashCode() ^ kind;
+			return value().hashCode() ^ kind;
 		}
 
 		public String toString() {
-			return value.toString();
+			return value().toString();
 		}
 	}
 
 	public static final class Bool extends Constant<Boolean> {
+		public final Boolean value;
+
 		public Bool(boolean value) {
-			super(K_BOOL, value);
+			super(K_BOOL);
+			this.value = value;
+		}
+
+		public Boolean value() {
+			return value;
 		}
 
 		public Bool invert() {
@@ -1146,107 +1599,418 @@ public final class Automaton {
 		}
 	}
 
+	/**
+	 * Represents an arbitrary-sized integer constant. Since almost all integers
+	 * encountered in practice fit into a <code>long</code>, arithmetic and
+	 * comparisons are performed on <code>long</code> values wherever possible,
+	 * with the <code>BigInteger</code> representation used only when this
+	 * would overflow. Whether or not an integer fits into a <code>long</code>
+	 * is determined solely by its value and, hence, the two representations
+	 * never disagree on <code>equals()</code> or <code>hashCode()</code>. The
+	 * <code>BigInteger</code> for an integer which fits is only constructed if
+	 * <code>value()</code> is called.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
 	public static final class Int extends Constant<BigInteger> implements
 			Comparable<Int> {
+		/**
+		 * The value of this integer as a long. This is only valid when
+		 * <code>isLong</code> holds.
+		 */
+		private final long lvalue;
+
+		/**
+		 * Indicates whether or not this integer fits into a long.
+		 */
+		private final boolean isLong;
+
+		/**
+		 * The value of this integer as a BigInteger, or <code>null</code> if
+		 * this has not yet been constructed. This is always constructed when
+		 * <code>isLong</code> does not hold.
+		 */
+		private BigInteger value;
+
 		public Int(BigInteger value) {
-			super(K_INT, value);
+			super(K_INT);
+			this.isLong = value.bitLength() < 64;
+			this.lvalue = value.longValue();
+			this.value = value;
 		}
 
 		public Int(long value) {
-			super(K_INT, BigInteger.valueOf(value));
+			super(K_INT);
+			this.isLong = true;
+			this.lvalue = value;
 		}
 
 		public Int(String str) {
-			super(K_INT, new BigInteger(str));
+			this(new BigInteger(str));
+		}
+
+		public BigInteger value() {
+			BigInteger v = value;
+			if (v == null) {
+				// NOTE: a race here is benign, since BigInteger is immutable.
+				v = BigInteger.valueOf(lvalue);
+				value = v;
+			}
+			return v;
 		}
 
 		public int intValue() {
-			return value.intValue();
+			return isLong ? (int) lvalue : value.intValue();
 		}
 
 		public int compareTo(Int rhs) {
-			return value.compareTo(rhs.value);
+			if (isLong && rhs.isLong) {
+				return Long.compare(lvalue, rhs.lvalue);
+			}
+			return value().compareTo(rhs.value());
 		}
 
 		public Int add(Int x) {
-			return new Int(value.add(x.value));
+			if (isLong && x.isLong) {
+				long r = lvalue + x.lvalue;
+				if (((lvalue ^ r) & (x.lvalue ^ r)) >= 0) {
+					return new Int(r);
+				}
+			}
+			return new Int(value().add(x.value()));
 		}
 
 		public Int subtract(Int x) {
-			return new Int(value.subtract(x.value));
+			if (isLong && x.isLong) {
+				long r = lvalue - x.lvalue;
+				if (((lvalue ^ x.lvalue) & (lvalue ^ r)) >= 0) {
+					return new Int(r);
+				}
+			}
+			return new Int(value().subtract(x.value()));
 		}
 
 		public Int multiply(Int x) {
-			return new Int(value.multiply(x.value));
+			if (isLong && x.isLong && !multiplyOverflows(lvalue, x.lvalue)) {
+				return new Int(lvalue * x.lvalue);
+			}
+			return new Int(value().multiply(x.value()));
 		}
 
 		public Int divide(Int x) {
-			return new Int(value.divide(x.value));
+			// NOTE: division by zero falls through to BigInteger, which is
+			// responsible for reporting the error.
+			if (isLong && x.isLong && x.lvalue != 0
+					&& (lvalue != Long.MIN_VALUE || x.lvalue != -1)) {
+				return new Int(lvalue / x.lvalue);
+			}
+			return new Int(value().divide(x.value()));
 		}
 
 		public Int negate() {
-			return new Int(value.negate());
+			if (isLong && lvalue != Long.MIN_VALUE) {
+				return new Int(-lvalue);
+			}
+			return new Int(value().negate());
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o instanceof Int) {
+				Int i = (Int) o;
+				if (isLong && i.isLong) {
+					return lvalue == i.lvalue;
+				}
+				return value().equals(i.value());
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return (isLong ? longHashCode(lvalue) : value.hashCode()) ^ kind;
+		}
+
+		public String toString() {
+			return isLong ? Long.toString(lvalue) : value.toString();
 		}
 	}
 
+	/**
+	 * Represents an arbitrary-precision rational constant. As for
+	 * <code>Int</code>, arithmetic and comparisons are performed on a
+	 * <code>long</code> numerator and denominator wherever possible, with the
+	 * <code>BigRational</code> representation used only when this would
+	 * overflow. In particular, this avoids computing a greatest common divisor
+	 * over <code>BigInteger</code>s on every operation. As for
+	 * <code>Int</code>, the <code>BigRational</code> for a rational which fits
+	 * is only constructed if <code>value()</code> is called.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
 	public static final class Real extends Constant<BigRational> implements
 			Comparable<Real> {
+		/**
+		 * The numerator of this rational as a long. This is only valid when
+		 * <code>isLong</code> holds.
+		 */
+		private final long lnum;
+
+		/**
+		 * The (strictly positive) denominator of this rational as a long. This
+		 * is only valid when <code>isLong</code> holds.
+		 */
+		private final long lden;
+
+		/**
+		 * Indicates whether or not both numerator and denominator fit into a
+		 * long. For simplicity, a numerator of <code>Long.MIN_VALUE</code> is
+		 * not considered to fit, since it cannot be negated.
+		 */
+		private final boolean isLong;
+
+		/**
+		 * The value of this rational as a BigRational, or <code>null</code> if
+		 * this has not yet been constructed. This is always constructed when
+		 * <code>isLong</code> does not hold.
+		 */
+		private BigRational value;
+
 		public Real(BigInteger value) {
-			super(K_REAL, BigRational.valueOf(value));
+			this(BigRational.valueOf(value));
 		}
 
 		public Real(BigRational value) {
-			super(K_REAL, value);
+			super(K_REAL);
+			BigInteger num = value.numerator();
+			BigInteger den = value.denominator();
+			this.lnum = num.longValue();
+			this.lden = den.longValue();
+			this.isLong = num.bitLength() < 64 && den.bitLength() < 64
+					&& den.signum() > 0 && lnum != Long.MIN_VALUE;
+			this.value = value;
 		}
 
 		public Real(long value) {
-			super(K_REAL, BigRational.valueOf(value));
+			this(value, 1);
 		}
 
 		public Real(String str) {
-			super(K_REAL, new BigRational(str));
+			this(new BigRational(str));
+		}
+
+		/**
+		 * Construct a rational from a long numerator and denominator which are
+		 * already normalised (i.e. have no common factors, and the denominator
+		 * is positive).
+		 */
+		private Real(long num, long den) {
+			super(K_REAL);
+			this.isLong = num != Long.MIN_VALUE;
+			this.lnum = num;
+			this.lden = den;
+			if (!isLong) {
+				this.value = value();
+			}
+		}
+
+		public BigRational value() {
+			BigRational v = value;
+			if (v == null) {
+				// NOTE: a race here is benign, since BigRational is immutable.
+				v = lden == 1 ? BigRational.valueOf(lnum) : BigRational.valueOf(lnum, lden);
+				value = v;
+			}
+			return v;
 		}
 
 		public Int numerator() {
-			return new Int(value.numerator());
+			return isLong ? new Int(lnum) : new Int(value.numerator());
 		}
 
 		public Int denominator() {
-			return new Int(value.denominator());
+			return isLong ? new Int(lden) : new Int(value.denominator());
 		}
 
 		public int intValue() {
-			return value.intValue();
+			return value().intValue();
 		}
 
 		public int compareTo(Real rhs) {
-			return value.compareTo(rhs.value);
+			if (isLong && rhs.isLong) {
+				if (lden == rhs.lden) {
+					return Long.compare(lnum, rhs.lnum);
+				} else if (!multiplyOverflows(lnum, rhs.lden)
+						&& !multiplyOverflows(rhs.lnum, lden)) {
+					return Long.compare(lnum * rhs.lden, rhs.lnum * lden);
+				}
+			}
+			return value().compareTo(rhs.value());
 		}
 
 		public Real add(Real x) {
-			return new Real(value.add(x.value));
+			if (isLong && x.isLong) {
+				Real r = addOrSubtract(x.lnum, x.lden);
+				if (r != null) {
+					return r;
+				}
+			}
+			return new Real(value().add(x.value()));
 		}
 
 		public Real subtract(Real x) {
-			return new Real(value.subtract(x.value));
+			if (isLong && x.isLong) {
+				Real r = addOrSubtract(-x.lnum, x.lden);
+				if (r != null) {
+					return r;
+				}
+			}
+			return new Real(value().subtract(x.value()));
 		}
 
 		public Real multiply(Real x) {
-			return new Real(value.multiply(x.value));
+			if (isLong && x.isLong) {
+				// Cross-cancel first to keep intermediate values small
+				long g1 = gcd(lnum, x.lden);
+				long g2 = gcd(x.lnum, lden);
+				long n1 = lnum / g1, d2 = x.lden / g1;
+				long n2 = x.lnum / g2, d1 = lden / g2;
+				if (!multiplyOverflows(n1, n2) && !multiplyOverflows(d1, d2)) {
+					return new Real(n1 * n2, d1 * d2);
+				}
+			}
+			return new Real(value().multiply(x.value()));
 		}
 
 		public Real divide(Real x) {
-			return new Real(value.divide(x.value));
+			// NOTE: division by zero falls through to BigRational, which
+			// determines what this means.
+			if (isLong && x.isLong && x.lnum != 0) {
+				long xnum = x.lnum < 0 ? -x.lden : x.lden;
+				long xden = x.lnum < 0 ? -x.lnum : x.lnum;
+				long g1 = gcd(lnum, xden);
+				long g2 = gcd(xnum, lden);
+				long n1 = lnum / g1, d2 = xden / g1;
+				long n2 = xnum / g2, d1 = lden / g2;
+				if (!multiplyOverflows(n1, n2) && !multiplyOverflows(d1, d2)) {
+					return new Real(n1 * n2, d1 * d2);
+				}
+			}
+			return new Real(value().divide(x.value()));
 		}
 
 		public Real negate() {
-			return new Real(value.negate());
+			if (isLong) {
+				return new Real(-lnum, lden);
+			}
+			return new Real(value().negate());
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o instanceof Real) {
+				Real r = (Real) o;
+				if (isLong && r.isLong) {
+					return lnum == r.lnum && lden == r.lden;
+				}
+				return value().equals(r.value());
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			if (isLong) {
+				// As for BigRational
+				return (longHashCode(lnum) + longHashCode(lden)) ^ kind;
+			}
+			return value.hashCode() ^ kind;
+		}
+
+		/**
+		 * Compute <code>this + (num / den)</code> using longs, or return
+		 * <code>null</code> if this would overflow.
+		 */
+		private Real addOrSubtract(long num, long den) {
+			if (lden == 1 && den == 1) {
+				long r = lnum + num;
+				if (((lnum ^ r) & (num ^ r)) < 0) {
+					return null;
+				}
+				return new Real(r, 1);
+			} else if (multiplyOverflows(lnum, den)
+					|| multiplyOverflows(num, lden)
+					|| multiplyOverflows(lden, den)) {
+				return null;
+			}
+			long a = lnum * den;
+			long b = num * lden;
+			long n = a + b;
+			if (((a ^ n) & (b ^ n)) < 0 || n == Long.MIN_VALUE) {
+				return null;
+			}
+			long d = lden * den;
+			long g = gcd(n, d);
+			return new Real(n / g, d / g);
 		}
 	}
 
+	/**
+	 * Compute the hash code of a long exactly as <code>BigInteger</code> does,
+	 * without constructing one.
+	 */
+	private static int longHashCode(long value) {
+		// NOTE: the magnitude of Long.MIN_VALUE is correct when unsigned
+		long magnitude = value < 0 ? -value : value;
+		int hi = (int) (magnitude >>> 32);
+		int lo = (int) magnitude;
+		int h = hi == 0 ? lo : 31 * hi + lo;
+		return value < 0 ? -h : h;
+	}
+
+	/**
+	 * Check whether or not the product of two longs would overflow.
+	 */
+	private static boolean multiplyOverflows(long a, long b) {
+		long r = a * b;
+		long aa = Math.abs(a);
+		long ab = Math.abs(b);
+		if (((aa | ab) >>> 31) != 0) {
+			// slow check
+			return (b != 0 && (r / b != a || (a == Long.MIN_VALUE && b == -1)))
+					|| a == Long.MIN_VALUE || b == Long.MIN_VALUE;
+		}
+		return false;
+	}
+
+	/**
+	 * Compute the (non-negative) greatest common divisor of two longs, neither
+	 * of which is <code>Long.MIN_VALUE</code>. The result is never zero, such
+	 * that it is always safe to divide by it.
+	 */
+	private static long gcd(long a, long b) {
+		a = Math.abs(a);
+		b = Math.abs(b);
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a == 0 ? 1 : a;
+	}
+
 	public static final class Strung extends Constant<String> {
+		public final String value;
+
 		public Strung(String value) {
-			super(K_STRING, value);
+			super(K_STRING);
+			this.value = value;
+		}
+
+		public String value() {
+			return value;
 		}
 
 		public int compareTo(Strung rhs) {
@@ -1355,7 +2119,7 @@ public final class Automaton {
 		public int hashCode() {
 			int hashCode = kind;
 			for (int i = 0; i != length; ++i) {
-				hashCode ^= children[i];
+				hashCode = (hashCode * 31) + children[i];
 			}
 			return hashCode;
 		}
@@ -1646,6 +2410,13 @@ public final class Automaton {
 	 * @return
 	 */
 	private void copy(Automaton automaton, int root, int[] binding) {
+		// The copied states initially refer to states in the other automaton,
+		// hence their references cannot be counted. This is not a problem when
+		// copying within this automaton, as the references are adjusted when
+		// the copied states are subsequently remapped.
+		if (automaton != this) {
+			discardRefs();
+		}
 		Automata.traverse(automaton, root, binding);
 		// I save a snapshot of the automaton size at this point in order to
 		// handle the case where we're copying from *this* automaton into *this*
@@ -1688,10 +2459,161 @@ public final class Automaton {
 	 *            array must be at least of size <code>nStates</code>.
 	 */
 	private boolean minimise(int[] binding) {
-		BinaryMatrix equivs = new BinaryMatrix(nStates, nStates, true);
-		Automata.determineEquivalenceClasses(this, equivs);
-		Automata.determineRepresentativeStates(this, equivs, binding);
-		return Automata.collapseEquivalenceClasses(this, binding);
+		unpack();
+		if (!acyclic) {
+			acyclic = Automata.isAcyclic(this);
+		}
+		if (acyclic) {
+			int[] order = Automata.topologicalSort(this);
+			Automata.determineRepresentativeStates(this, order, binding);
+		} else {
+			Automata.determineRepresentativeStates(this, binding);
+		}
+		// Collapsing equivalent states cannot introduce a cycle.
+		boolean wasAcyclic = acyclic;
+		boolean changed = Automata.collapseEquivalenceClasses(this, binding);
+		acyclic = wasAcyclic;
+		return changed;
+	}
+
+	/**
+	 * Minimise those states at or above a given pivot, as for
+	 * <code>minimise(int)</code>. Since the automaton is acyclic, states above
+	 * the pivot can be visited in topological order and each hash-consed in
+	 * turn. A state is first looked up amongst those below the pivot (using
+	 * the index), which is only possible when all of its children are also
+	 * below the pivot. Otherwise, it is grouped with equivalent states above
+	 * the pivot, whose representative is then the lowest indexed member.
+	 *
+	 * @param binding
+	 *            --- Returns a mapping of states in the original automaton to
+	 *            their representative states in the minimised automaton. This
+	 *            array must be at least of size <code>nStates</code>.
+	 * @param pivot
+	 *            --- Index of the first state which may not be minimised.
+	 */
+	private boolean minimise(int[] binding, int pivot) {
+		unpack();
+		if (!acyclic || pivot <= 0) {
+			return minimise(binding);
+		} else if (index == null) {
+			buildIndex();
+		}
+		for (int i = 0; i != nStates; ++i) {
+			binding[i] = i;
+		}
+		// First, assign each state above the pivot to either an existing state
+		// or the first member encountered of its class (i.e. its leader).
+		int[] order = Automata.topologicalSortAbove(this, pivot);
+		HashMap<State, Integer> leaders = new HashMap<State, Integer>();
+		for (int i = 0; i != order.length; ++i) {
+			int s = order[i];
+			State state = states[s];
+			if (state == null) {
+				continue;
+			}
+			State key = state.clone();
+			key.remap(binding);
+			int match = refersAbove(key, pivot) ? K_VOID : lookup(key);
+			if (match != K_VOID && match < pivot) {
+				binding[s] = match;
+			} else {
+				Integer leader = leaders.get(key);
+				if (leader == null) {
+					leaders.put(key, s);
+				} else {
+					binding[s] = leader;
+				}
+			}
+		}
+		// Second, determine the lowest indexed member of each class above the
+		// pivot, which becomes its representative.
+		int[] lowest = new int[nStates - pivot];
+		for (int s = pivot; s != nStates; ++s) {
+			int leader = binding[s];
+			if (leader >= pivot && (lowest[leader - pivot] == 0 || s < lowest[leader - pivot])) {
+				lowest[leader - pivot] = s;
+			}
+		}
+		boolean changed = false;
+		for (int s = pivot; s != nStates; ++s) {
+			int leader = binding[s];
+			if (leader >= pivot) {
+				binding[s] = lowest[leader - pivot];
+			}
+			if (binding[s] != s) {
+				set(s, null);
+				changed = true;
+			}
+		}
+		// Finally, remap the remaining states above the pivot, and any roots
+		// referring to them. Nothing below the pivot refers to these.
+		for (int s = pivot; s != nStates; ++s) {
+			if (states[s] != null) {
+				remapState(s, binding);
+			}
+		}
+		for (int i = 0; i != nRoots; ++i) {
+			int root = roots[i];
+			if (root >= pivot) {
+				setRoot(i, binding[root]);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Determine the fingerprint of a given state located at a given index.
+	 * This combines the kind of the state with its contents, such that states
+	 * which are not identical are unlikely to share a fingerprint. The
+	 * fingerprint of a null state is zero.
+	 */
+	private static long fingerprint(int index, State state) {
+		if (state == null) {
+			return 0;
+		}
+		long r = state.kind;
+		if (state instanceof Term) {
+			r = mix(r + ((Term) state).contents);
+		} else if (state instanceof Collection) {
+			Collection c = (Collection) state;
+			int[] children = c.children;
+			for (int i = 0; i != c.length; ++i) {
+				r = mix(r + children[i]);
+			}
+			r = mix(r + c.length);
+		} else {
+			r = mix(r + state.hashCode());
+		}
+		return mix(r + ((long) index << 32));
+	}
+
+	/**
+	 * A 64-bit mixing function (the finaliser from SplitMix64), which ensures
+	 * every bit of the input affects every bit of the output.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Check whether a given state refers to any state at or above a given
+	 * index.
+	 */
+	private static boolean refersAbove(Automaton.State state, int index) {
+		if (state instanceof Term) {
+			return ((Term) state).contents >= index;
+		} else if (state instanceof Collection) {
+			Collection c = (Collection) state;
+			for (int i = 0; i != c.length; ++i) {
+				if (c.children[i] >= index) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -1709,9 +2631,342 @@ public final class Automaton {
 		}
 
 		states[nStates] = state;
+		if (index != null && state != null) {
+			reindex(nStates);
+		}
+		if (fingerprinted) {
+			fingerprint += fingerprint(nStates, state);
+		}
+		if (refs != null) {
+			if (refs.length < states.length) {
+				refs = Arrays.copyOf(refs, states.length);
+			}
+			refs[nStates] = 0;
+			retain(state);
+			// This state is not referred to by anything yet.
+			discard(nStates);
+		}
 		return nStates++;
 	}
 
+	/**
+	 * Restore the states of a packed automaton into their usual (mutable) form.
+	 * If the automaton is not packed, this does nothing.
+	 */
+	private void unpack() {
+		if (packed != null) {
+			State[] nstates = new State[Math.max(nStates, DEFAULT_NUM_STATES)];
+			packed.unpack(nstates);
+			states = nstates;
+			if (refs != null && refs.length < states.length) {
+				refs = Arrays.copyOf(refs, states.length);
+			}
+			origin = packed;
+			packed = null;
+		}
+	}
+
+	/**
+	 * Construct the index from scratch, such that every (non-null) state is
+	 * included.
+	 */
+	private void buildIndex() {
+		int capacity = 16;
+		while (capacity <= (nStates << 1)) {
+			capacity = capacity << 1;
+		}
+		index = new int[capacity];
+		Arrays.fill(index, EMPTY);
+		hashes = new int[states.length];
+		nIndexed = 0;
+		for (int i = 0; i != nStates; ++i) {
+			if (states[i] != null) {
+				reindex(i);
+			}
+		}
+	}
+
+	/**
+	 * Find the lowest indexed state which is equivalent to the given state, or
+	 * return K_VOID if none exists. The whole probe sequence is examined, since
+	 * an automaton which is not minimised may contain several equivalent
+	 * states.
+	 *
+	 * @param state
+	 *            --- state to look for.
+	 * @return
+	 */
+	private int lookup(State state) {
+		int hash = state.hashCode();
+		int mask = index.length - 1;
+		int match = K_VOID;
+		for (int slot = slot(hash, mask); index[slot] != EMPTY; slot = (slot + 1) & mask) {
+			int i = index[slot];
+			if (hashes[i] == hash && (match == K_VOID || i < match)
+					&& state.equals(states[i])) {
+				match = i;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Insert the state at the given index into the index, using its current
+	 * hash code. The index is expanded as necessary to keep the load factor
+	 * below one half.
+	 *
+	 * @param i
+	 *            --- index of (non-null) state to insert.
+	 */
+	private void reindex(int i) {
+		if (((nIndexed + 1) << 1) > index.length) {
+			expandIndex();
+		}
+		if (i >= hashes.length) {
+			hashes = Arrays.copyOf(hashes, states.length);
+		}
+		int hash = states[i].hashCode();
+		int mask = index.length - 1;
+		int slot = slot(hash, mask);
+		while (index[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = i;
+		hashes[i] = hash;
+		nIndexed++;
+	}
+
+	/**
+	 * Remove the state at the given index from the index. This uses the
+	 * recorded hash code of the state, rather than its current hash code, in
+	 * case it was modified in place. Entries following the removed entry are
+	 * shifted back to ensure no probe sequence is broken.
+	 *
+	 * @param i
+	 *            --- index of state to remove.
+	 */
+	private void unindex(int i) {
+		int mask = index.length - 1;
+		int hole = slot(hashes[i], mask);
+		while (index[hole] != i) {
+			if (index[hole] == EMPTY) {
+				return; // not indexed
+			}
+			hole = (hole + 1) & mask;
+		}
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			int j = index[slot];
+			if (j == EMPTY) {
+				break;
+			}
+			int home = slot(hashes[j], mask);
+			// Move this entry into the hole, unless its home lies cyclically
+			// within (hole,slot].
+			boolean inRange = hole <= slot ? (hole < home && home <= slot)
+					: (hole < home || home <= slot);
+			if (!inRange) {
+				index[hole] = j;
+				hole = slot;
+			}
+		}
+		index[hole] = EMPTY;
+		nIndexed--;
+	}
+
+	/**
+	 * Construct the reference counts from scratch. This assumes that all
+	 * garbage has been eliminated, hence no state needs to be marked as
+	 * potential garbage.
+	 */
+	private void buildRefs() {
+		refs = new int[states.length];
+		garbage = new int[DEFAULT_NUM_STATES];
+		nGarbage = 0;
+		for (int i = 0; i != nStates; ++i) {
+			retain(states[i]);
+		}
+	}
+
+	/**
+	 * Discard the reference counts, such that they will be constructed again
+	 * on the next compaction.
+	 */
+	private void discardRefs() {
+		refs = null;
+		garbage = null;
+		nGarbage = 0;
+	}
+
+	/**
+	 * Record an additional reference to every child of a given state.
+	 */
+	private void retain(State state) {
+		if (state instanceof Term) {
+			int child = ((Term) state).contents;
+			if (child >= 0) {
+				refs[child]++;
+			}
+		} else if (state instanceof Collection) {
+			Collection c = (Collection) state;
+			int[] children = c.children;
+			for (int i = 0; i != c.length; ++i) {
+				int child = children[i];
+				if (child >= 0) {
+					refs[child]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove a reference to every child of a given state. Any child which is
+	 * no longer referenced is recorded as potential garbage.
+	 */
+	private void release(State state) {
+		if (state instanceof Term) {
+			int child = ((Term) state).contents;
+			if (child >= 0 && --refs[child] == 0) {
+				discard(child);
+			}
+		} else if (state instanceof Collection) {
+			Collection c = (Collection) state;
+			int[] children = c.children;
+			for (int i = 0; i != c.length; ++i) {
+				int child = children[i];
+				if (child >= 0 && --refs[child] == 0) {
+					discard(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record that a given state may now be garbage.
+	 */
+	private void discard(int index) {
+		if (nGarbage == garbage.length) {
+			garbage = Arrays.copyOf(garbage, nGarbage * 2);
+		}
+		garbage[nGarbage++] = index;
+	}
+
+	/**
+	 * Eliminate every state recorded as potential garbage which has no
+	 * references and is not a root. Eliminating a state releases its
+	 * children, which may then be eliminated in turn. For an acyclic
+	 * automaton, this eliminates all garbage states.
+	 */
+	private void eliminateGarbage() {
+		int[] marked = Arrays.copyOf(roots, nRoots);
+		Arrays.sort(marked);
+		while (nGarbage > 0) {
+			int i = garbage[--nGarbage];
+			if (i < nStates && states[i] != null && refs[i] == 0
+					&& Arrays.binarySearch(marked, i) < 0) {
+				set(i, null);
+			}
+		}
+	}
+
+	/**
+	 * Check whether remapping a given state according to a given binding
+	 * would change any of its children.
+	 */
+	private static boolean remaps(State state, int[] binding) {
+		if (state instanceof Term) {
+			int child = ((Term) state).contents;
+			return child >= 0 && binding[child] != child;
+		} else if (state instanceof Collection) {
+			Collection c = (Collection) state;
+			int[] children = c.children;
+			for (int i = 0; i != c.length; ++i) {
+				int child = children[i];
+				if (child >= 0 && binding[child] != child) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remap the state at a given index in place, updating the index,
+	 * fingerprint and reference counts as necessary.
+	 */
+	private void remapState(int i, int[] binding) {
+		State state = states[i];
+		// NOTE: most states are unaffected by a given binding, so check this
+		// first to avoid fingerprinting them needlessly.
+		if (remaps(state, binding)) {
+			long before = fingerprinted ? fingerprint(i, state) : 0;
+			if (refs != null) {
+				release(state);
+				state.remap(binding);
+				retain(state);
+			} else {
+				state.remap(binding);
+			}
+			refresh(i);
+			if (fingerprinted) {
+				fingerprint += fingerprint(i, state) - before;
+			}
+			if (memo != null) {
+				memo.invalidate(i);
+			}
+		}
+	}
+
+	/**
+	 * Update the index for a state which has been modified in place (if the
+	 * index is available).
+	 *
+	 * @param i
+	 *            --- index of (non-null) state which was modified.
+	 */
+	private void refresh(int i) {
+		if (index != null) {
+			unindex(i);
+			reindex(i);
+		}
+	}
+
+	/**
+	 * Double the capacity of the index, reinserting all existing entries.
+	 */
+	private void expandIndex() {
+		int[] oindex = index;
+		index = new int[oindex.length << 1];
+		Arrays.fill(index, EMPTY);
+		int mask = index.length - 1;
+		for (int k = 0; k != oindex.length; ++k) {
+			int i = oindex[k];
+			if (i != EMPTY) {
+				int slot = slot(hashes[i], mask);
+				while (index[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = i;
+			}
+		}
+	}
+
+	/**
+	 * Determine the initial slot for a given hash code. The hash is scrambled
+	 * first, since state hash codes are typically small integers which would
+	 * otherwise cluster together.
+	 */
+	private static int slot(int hash, int mask) {
+		hash = hash * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Marks an unused slot in the index.
+	 */
+	private static final int EMPTY = -1;
+
 	private static int[] sortedRemoveAll(int[] lhs, int lhs_len, int[] rhs,
 			int rhs_len) {
 		boolean[] marks = new boolean[lhs_len];
@@ -0,0 +1,456 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyautl.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * Determines a canonical labelling of an automaton using the
+ * <i>individualisation-refinement</i> approach (as popularised by graph
+ * isomorphism tools such as <code>nauty</code> and <code>bliss</code>). The
+ * states are first coloured by their kind, value (for constants), size (for
+ * collections) and by which root (if any) refers to them. The colouring is
+ * then refined by repeatedly splitting states of the same colour whose
+ * children have different colours, until no further splits are possible. For
+ * a list (or term) the children are compared in order; for a set or bag, they
+ * are compared as sorted sequences. Since colours are always numbered
+ * according to a sorted order of these properties (rather than the order in
+ * which states happen to be stored), the resulting colouring does not depend
+ * on the original state indices.
+ * </p>
+ * <p>
+ * When the automaton is minimised, refinement alone almost always gives every
+ * state a distinct colour and, in this case, the labelling follows directly.
+ * Otherwise, some colours remain shared (e.g. between structurally identical
+ * children of a set). Such ties are broken by backtracking: each state of the
+ * first tied colour is <i>individualised</i> in turn (i.e. given a colour of
+ * its own), the colouring is refined again and the search continues. Each leaf
+ * of the search gives a labelling and the lexicographically least resulting
+ * automaton is chosen. This means backtracking only occurs over those states
+ * which refinement cannot distinguish, rather than over every ordering of the
+ * children of a set or bag.
+ * </p>
+ * <p>
+ * From a given colouring, the labelling itself is determined by allocating
+ * the roots first and then the children of each allocated state in turn. The
+ * children of sets and bags are allocated in order of their colour. Any
+ * states which are not reachable from a root are allocated afterwards, again
+ * in order of their colour.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class CanonicalLabelling {
+	private final Automaton automaton;
+	private final Automaton.State[] states;
+
+	/**
+	 * For each state, the index of the first root which refers to it, or
+	 * <code>nRoots</code> if there is none.
+	 */
+	private final int[] rootIndex;
+
+	/**
+	 * The least labelling found so far.
+	 */
+	private Automata.Morphism best;
+
+	private CanonicalLabelling(Automaton automaton) {
+		int nStates = automaton.nStates();
+		int nRoots = automaton.nRoots();
+		this.automaton = automaton;
+		this.states = new Automaton.State[nStates];
+		this.rootIndex = new int[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			states[i] = automaton.get(i);
+		}
+		Arrays.fill(rootIndex, nRoots);
+		for (int i = nRoots - 1; i >= 0; --i) {
+			int root = automaton.getRoot(i);
+			if (root >= 0) {
+				rootIndex[root] = i;
+			}
+		}
+	}
+
+	/**
+	 * Determine a canonical labelling for a given automaton. That is, a mapping
+	 * from states to their new indices, such that any two isomorphic automata
+	 * are mapped to identical automata.
+	 *
+	 * @param automaton
+	 *            --- The automaton being canonicalised. This must not contain
+	 *            any null states.
+	 * @return
+	 */
+	public static int[] label(Automaton automaton) {
+		CanonicalLabelling l = new CanonicalLabelling(automaton);
+		l.search(l.refine(l.initialColouring()));
+		return l.best.n2i;
+	}
+
+	// =========================================================================
+	// Search
+	// =========================================================================
+
+	/**
+	 * Explore the search tree below a given (refined) colouring. If every state
+	 * has a distinct colour, then this is a leaf and the corresponding
+	 * labelling is compared against the best found so far. Otherwise, each
+	 * state of the first tied colour is individualised in turn.
+	 *
+	 * @param colour
+	 *            --- A dense colouring of the states, which cannot be refined
+	 *            further.
+	 */
+	private void search(int[] colour) {
+		int nStates = colour.length;
+		int[] counts = new int[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			counts[colour[i]]++;
+		}
+		int target = 0;
+		while (target != nStates && counts[target] <= 1) {
+			target = target + 1;
+		}
+		if (target == nStates) {
+			// Every state has a distinct colour, so we're at a leaf.
+			Automata.Morphism candidate = labelling(colour);
+			if (best == null || compare(candidate, best) < 0) {
+				best = candidate;
+			}
+		} else {
+			for (int v = 0; v != nStates; ++v) {
+				if (colour[v] == target) {
+					int[] ncolour = new int[nStates];
+					for (int i = 0; i != nStates; ++i) {
+						int c = colour[i] * 2;
+						ncolour[i] = (colour[i] == target && i != v) ? c + 1 : c;
+					}
+					search(refine(ncolour));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Construct the labelling which corresponds to a discrete colouring (i.e.
+	 * one where every state has a distinct colour).
+	 *
+	 * @param colour
+	 * @return
+	 */
+	private Automata.Morphism labelling(int[] colour) {
+		int nStates = colour.length;
+		int[] inverse = new int[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			inverse[colour[i]] = i;
+		}
+		Automata.Morphism m = new Automata.Morphism(nStates);
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			int root = automaton.getRoot(i);
+			if (!m.isAllocated(root)) {
+				m.allocate(root);
+			}
+		}
+		int next = 0;
+		for (int i = 0; i != nStates; ++i) {
+			if (i == m.free) {
+				// Everything allocated so far is closed under children, so
+				// pick the unallocated state with the least colour.
+				while (m.isAllocated(inverse[next])) {
+					next = next + 1;
+				}
+				m.allocate(inverse[next]);
+			}
+			Automaton.State state = states[m.i2n[i]];
+			if (state instanceof Automaton.Term) {
+				allocate(((Automaton.Term) state).contents, m);
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				int[] children = Arrays.copyOf(c.children, c.length);
+				if (!(state instanceof Automaton.List)) {
+					sortByColour(children, colour);
+				}
+				for (int child : children) {
+					allocate(child, m);
+				}
+			}
+		}
+		return m;
+	}
+
+	private static void allocate(int child, Automata.Morphism m) {
+		if (!m.isAllocated(child)) {
+			m.allocate(child);
+		}
+	}
+
+	private static void sortByColour(int[] children, int[] colour) {
+		// NOTE: virtual children are always allocated and so their position is
+		// irrelevant. Hence, they can simply be given the lowest colour.
+		long[] keys = new long[children.length];
+		for (int i = 0; i != children.length; ++i) {
+			int child = children[i];
+			int c = child < 0 ? -1 : colour[child];
+			keys[i] = ((long) c << 32) | (child & 0xFFFFFFFFL);
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i != children.length; ++i) {
+			children[i] = (int) keys[i];
+		}
+	}
+
+	/**
+	 * Compare the automata which result from applying two labellings. The
+	 * states are compared in the order of their new indices by kind, then by
+	 * value (for constants) or by their relabelled children, and finally the
+	 * relabelled roots are compared.
+	 *
+	 * @param m1
+	 * @param m2
+	 * @return
+	 */
+	private int compare(Automata.Morphism m1, Automata.Morphism m2) {
+		int nStates = states.length;
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State s1 = states[m1.i2n[i]];
+			Automaton.State s2 = states[m2.i2n[i]];
+			int c = compare(s1, m1, s2, m2);
+			if (c != 0) {
+				return c;
+			}
+		}
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			int root = automaton.getRoot(i);
+			int c = compare(map(root, m1), map(root, m2));
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	private static int compare(Automaton.State s1, Automata.Morphism m1,
+			Automaton.State s2, Automata.Morphism m2) {
+		if (s1.kind != s2.kind) {
+			return compare(s1.kind, s2.kind);
+		} else if (s1 instanceof Automaton.Constant) {
+			return compareValues(s1, s2);
+		} else if (s1 instanceof Automaton.Term) {
+			return compare(map(((Automaton.Term) s1).contents, m1),
+					map(((Automaton.Term) s2).contents, m2));
+		} else if (s1 instanceof Automaton.Collection) {
+			Automaton.Collection c1 = (Automaton.Collection) s1;
+			Automaton.Collection c2 = (Automaton.Collection) s2;
+			if (c1.length != c2.length) {
+				return compare(c1.length, c2.length);
+			}
+			int[] children1 = map(c1, m1);
+			int[] children2 = map(c2, m2);
+			if (!(s1 instanceof Automaton.List)) {
+				Arrays.sort(children1);
+				Arrays.sort(children2);
+			}
+			for (int j = 0; j != children1.length; ++j) {
+				int c = compare(children1[j], children2[j]);
+				if (c != 0) {
+					return c;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private static int[] map(Automaton.Collection c, Automata.Morphism m) {
+		int[] children = new int[c.length];
+		for (int j = 0; j != children.length; ++j) {
+			children[j] = map(c.children[j], m);
+		}
+		return children;
+	}
+
+	private static int map(int child, Automata.Morphism m) {
+		return child < 0 ? child : m.n2i[child];
+	}
+
+	private static int compare(int i, int j) {
+		return i < j ? -1 : (i == j ? 0 : 1);
+	}
+
+	private static int compareValues(Automaton.State s1, Automaton.State s2) {
+		if (s1 instanceof Automaton.Bool) {
+			return ((Automaton.Bool) s1).value.compareTo(((Automaton.Bool) s2).value);
+		} else if (s1 instanceof Automaton.Int) {
+			return ((Automaton.Int) s1).compareTo((Automaton.Int) s2);
+		} else if (s1 instanceof Automaton.Real) {
+			return ((Automaton.Real) s1).compareTo((Automaton.Real) s2);
+		} else {
+			return ((Automaton.Strung) s1).compareTo((Automaton.Strung) s2);
+		}
+	}
+
+	// =========================================================================
+	// Refinement
+	// =========================================================================
+
+	/**
+	 * Colour the states of the automaton using only information local to each
+	 * state (i.e. ignoring the colours of its children).
+	 *
+	 * @return
+	 */
+	private int[] initialColouring() {
+		return rank(new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				Automaton.State s1 = states[i];
+				Automaton.State s2 = states[j];
+				if (rootIndex[i] != rootIndex[j]) {
+					return CanonicalLabelling.compare(rootIndex[i], rootIndex[j]);
+				} else if (s1.kind != s2.kind) {
+					return CanonicalLabelling.compare(s1.kind, s2.kind);
+				} else if (s1 instanceof Automaton.Constant) {
+					return compareValues(s1, s2);
+				} else if (s1 instanceof Automaton.Collection) {
+					return CanonicalLabelling.compare(
+							((Automaton.Collection) s1).length,
+							((Automaton.Collection) s2).length);
+				} else {
+					return 0;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Refine a given colouring until no colour can be split any further. On
+	 * each round, the states are ranked by their current colour followed by
+	 * the colours of their children. Since the current colour always takes
+	 * precedence, no two states with different colours can ever be given the
+	 * same colour. Thus, refinement finishes when a round fails to increase
+	 * the number of colours.
+	 *
+	 * @param colour
+	 *            --- The colouring to refine, which need not be dense.
+	 * @return A dense colouring (i.e. one using colours
+	 *         <code>0 .. k-1</code> for some <code>k</code>).
+	 */
+	private int[] refine(int[] colour) {
+		int nStates = states.length;
+		int nColours = -1;
+		while (true) {
+			final int[][] signatures = signatures(colour);
+			colour = rank(new Comparator<Integer>() {
+				public int compare(Integer i, Integer j) {
+					int[] sig1 = signatures[i];
+					int[] sig2 = signatures[j];
+					int length = Math.min(sig1.length, sig2.length);
+					for (int k = 0; k != length; ++k) {
+						if (sig1[k] != sig2[k]) {
+							return sig1[k] < sig2[k] ? -1 : 1;
+						}
+					}
+					return CanonicalLabelling.compare(sig1.length, sig2.length);
+				}
+			});
+			int count = 0;
+			for (int i = 0; i != nStates; ++i) {
+				count = Math.max(count, colour[i] + 1);
+			}
+			if (count == nColours || count == nStates) {
+				return colour;
+			}
+			nColours = count;
+		}
+	}
+
+	/**
+	 * Determine the signature of every state with respect to a given
+	 * colouring. This consists of the state's own colour followed by the
+	 * colours of its children (sorted for sets and bags). Virtual children are
+	 * represented by their (negative) index.
+	 *
+	 * @param colour
+	 * @return
+	 */
+	private int[][] signatures(int[] colour) {
+		int nStates = states.length;
+		int[][] signatures = new int[nStates][];
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State state = states[i];
+			int[] signature;
+			if (state instanceof Automaton.Term) {
+				int child = ((Automaton.Term) state).contents;
+				signature = new int[] { colour[i],
+						child < 0 ? child : colour[child] };
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				signature = new int[c.length + 1];
+				for (int j = 0; j != c.length; ++j) {
+					int child = c.children[j];
+					signature[j + 1] = child < 0 ? child : colour[child];
+				}
+				if (!(state instanceof Automaton.List)) {
+					Arrays.sort(signature, 1, signature.length);
+				}
+				signature[0] = colour[i];
+			} else {
+				signature = new int[] { colour[i] };
+			}
+			signatures[i] = signature;
+		}
+		return signatures;
+	}
+
+	/**
+	 * Sort the states using a given comparator and number them accordingly,
+	 * such that states which compare as equal are given the same colour.
+	 *
+	 * @param comparator
+	 * @return
+	 */
+	private int[] rank(Comparator<Integer> comparator) {
+		int nStates = states.length;
+		Integer[] order = new Integer[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, comparator);
+		int[] colour = new int[nStates];
+		int c = 0;
+		for (int i = 0; i != nStates; ++i) {
+			if (i != 0 && comparator.compare(order[i - 1], order[i]) != 0) {
+				c = c + 1;
+			}
+			colour[order[i]] = c;
+		}
+		return colour;
+	}
+}
@@ -0,0 +1,339 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyautl.core;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A compact, immutable representation of the states of an automaton using
+ * parallel arrays of primitives, rather than one heap object per state. States
+ * are divided into fixed-size <i>chunks</i>, each of which is itself
+ * immutable. The kind of each state is held in <code>kinds</code>. For a term,
+ * the corresponding entry in <code>data</code> holds its contents; for a
+ * collection, it holds an offset into the chunk's <code>pool</code> of
+ * children, where the first element gives the length of the collection; for a
+ * constant, it holds an index into the chunk's <code>constants</code> array
+ * (which is safe to share since constants are immutable). A <code>null</code>
+ * state is recorded using <code>K_VOID</code> as its kind.
+ * </p>
+ * <p>
+ * This representation is used by <code>Automaton.pack()</code> for automata
+ * which are retained but no longer modified (e.g. intermediate states of a
+ * rewrite). Since it is never modified, it can be shared freely between
+ * copies of an automaton. Furthermore, when an automaton is packed again
+ * after being modified, any chunk whose states are unchanged from the
+ * previous packing is reused. Thus, successive versions of an automaton
+ * produced by a rewrite share the chunks which the rewrite did not touch.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class PackedStates {
+	/**
+	 * The number of states in each chunk is <code>1 << CHUNK_BITS</code>.
+	 */
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int nStates;
+	private final Chunk[] chunks;
+
+	/**
+	 * Pack the first <code>nStates</code> states of a given array, reusing
+	 * chunks from a previous packing where possible.
+	 *
+	 * @param states
+	 *            --- Array of states to pack (which may contain nulls).
+	 * @param nStates
+	 *            --- Number of states in the array to pack.
+	 * @param previous
+	 *            --- A previous packing whose chunks may be reused, or
+	 *            <code>null</code> if there is none.
+	 */
+	public PackedStates(Automaton.State[] states, int nStates,
+			PackedStates previous) {
+		this.nStates = nStates;
+		this.chunks = new Chunk[(nStates + CHUNK_MASK) >> CHUNK_BITS];
+		for (int c = 0; c != chunks.length; ++c) {
+			int start = c << CHUNK_BITS;
+			int length = Math.min(CHUNK_SIZE, nStates - start);
+			if (previous != null && c < previous.chunks.length
+					&& previous.chunks[c].matches(states, start, length)) {
+				chunks[c] = previous.chunks[c];
+			} else {
+				chunks[c] = new Chunk(states, start, length);
+			}
+		}
+	}
+
+	/**
+	 * Return a detached copy of the state at the given index, or
+	 * <code>null</code> if there is no state at that index. The returned state
+	 * may be freely modified without affecting this representation.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public Automaton.State get(int index) {
+		return chunks[index >> CHUNK_BITS].get(index & CHUNK_MASK);
+	}
+
+	/**
+	 * Unpack all states into a given array of states.
+	 *
+	 * @param states
+	 *            --- Array into which states are unpacked. This must have at
+	 *            least as many elements as the packed representation.
+	 */
+	public void unpack(Automaton.State[] states) {
+		for (int i = 0; i != nStates; ++i) {
+			states[i] = get(i);
+		}
+	}
+
+	/**
+	 * Determine the hash code of the state at a given index. This is identical
+	 * to the <code>hashCode()</code> of the state in its unpacked form, but
+	 * avoids materialising it.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int hashCode(int index) {
+		return chunks[index >> CHUNK_BITS].hashCode(index & CHUNK_MASK);
+	}
+
+	/**
+	 * Check whether every state is identical to that at the same index in
+	 * another packed representation of the same size. Chunks which are shared
+	 * between the two are skipped altogether.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public boolean equals(PackedStates other) {
+		for (int c = 0; c != chunks.length; ++c) {
+			Chunk chunk = chunks[c];
+			Chunk o_chunk = other.chunks[c];
+			if (chunk != o_chunk) {
+				for (int i = 0; i != chunk.kinds.length; ++i) {
+					if (!chunk.equals(i, o_chunk)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A contiguous range of packed states.
+	 */
+	private static final class Chunk {
+		private final int[] kinds;
+		private final int[] data;
+		private final int[] pool;
+		private final Automaton.State[] constants;
+
+		public Chunk(Automaton.State[] states, int start, int length) {
+			int end = start + length;
+			int poolSize = 0;
+			int nConstants = 0;
+			for (int i = start; i != end; ++i) {
+				Automaton.State state = states[i];
+				if (state instanceof Automaton.Collection) {
+					poolSize += 1 + ((Automaton.Collection) state).length;
+				} else if (state instanceof Automaton.Constant) {
+					nConstants++;
+				}
+			}
+			this.kinds = new int[length];
+			this.data = new int[length];
+			this.pool = poolSize == 0 ? Automaton.NOCHILDREN : new int[poolSize];
+			this.constants = nConstants == 0 ? NOCONSTANTS
+					: new Automaton.State[nConstants];
+			poolSize = 0;
+			nConstants = 0;
+			for (int i = 0; i != length; ++i) {
+				Automaton.State state = states[start + i];
+				if (state == null) {
+					kinds[i] = Automaton.K_VOID;
+				} else if (state instanceof Automaton.Term) {
+					kinds[i] = state.kind;
+					data[i] = ((Automaton.Term) state).contents;
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection c = (Automaton.Collection) state;
+					kinds[i] = state.kind;
+					data[i] = poolSize;
+					pool[poolSize++] = c.length;
+					System.arraycopy(c.children, 0, pool, poolSize, c.length);
+					poolSize += c.length;
+				} else {
+					kinds[i] = state.kind;
+					data[i] = nConstants;
+					constants[nConstants++] = state;
+				}
+			}
+		}
+
+		public Automaton.State get(int index) {
+			int kind = kinds[index];
+			switch (kind) {
+			case Automaton.K_VOID:
+				return null;
+			case Automaton.K_BOOL:
+			case Automaton.K_INT:
+			case Automaton.K_REAL:
+			case Automaton.K_STRING:
+				return constants[data[index]];
+			case Automaton.K_LIST:
+				return new Automaton.List(children(index));
+			case Automaton.K_BAG:
+				return new Automaton.Bag(children(index));
+			case Automaton.K_SET:
+				return new Automaton.Set(children(index));
+			default:
+				return new Automaton.Term(kind, data[index]);
+			}
+		}
+
+		public int hashCode(int index) {
+			int kind = kinds[index];
+			switch (kind) {
+			case Automaton.K_VOID:
+				return 0;
+			case Automaton.K_BOOL:
+			case Automaton.K_INT:
+			case Automaton.K_REAL:
+			case Automaton.K_STRING:
+				return constants[data[index]].hashCode();
+			case Automaton.K_LIST:
+			case Automaton.K_BAG:
+			case Automaton.K_SET: {
+				int offset = data[index];
+				int end = offset + 1 + pool[offset];
+				int hashCode = kind;
+				for (int i = offset + 1; i < end; ++i) {
+					hashCode = (hashCode * 31) + pool[i];
+				}
+				return hashCode;
+			}
+			default:
+				return data[index] ^ kind;
+			}
+		}
+
+		/**
+		 * Check whether the state at a given index is identical to that at
+		 * the same index in another chunk.
+		 */
+		public boolean equals(int index, Chunk other) {
+			int kind = kinds[index];
+			if (kind != other.kinds[index]) {
+				return false;
+			}
+			switch (kind) {
+			case Automaton.K_VOID:
+				return true;
+			case Automaton.K_BOOL:
+			case Automaton.K_INT:
+			case Automaton.K_REAL:
+			case Automaton.K_STRING:
+				return constants[data[index]].equals(other.constants[other.data[index]]);
+			case Automaton.K_LIST:
+			case Automaton.K_BAG:
+			case Automaton.K_SET: {
+				int offset = data[index];
+				int o_offset = other.data[index];
+				int length = pool[offset];
+				if (length != other.pool[o_offset]) {
+					return false;
+				}
+				for (int i = 1; i <= length; ++i) {
+					if (pool[offset + i] != other.pool[o_offset + i]) {
+						return false;
+					}
+				}
+				return true;
+			}
+			default:
+				return data[index] == other.data[index];
+			}
+		}
+
+		/**
+		 * Check whether this chunk holds exactly the given range of states.
+		 * This is used to determine whether a chunk can be reused, and avoids
+		 * materialising any of the packed states.
+		 */
+		public boolean matches(Automaton.State[] states, int start, int length) {
+			if (kinds.length != length) {
+				return false;
+			}
+			for (int i = 0; i != length; ++i) {
+				Automaton.State state = states[start + i];
+				int kind = kinds[i];
+				if (state == null) {
+					if (kind != Automaton.K_VOID) {
+						return false;
+					}
+				} else if (state.kind != kind) {
+					return false;
+				} else if (state instanceof Automaton.Term) {
+					if (((Automaton.Term) state).contents != data[i]) {
+						return false;
+					}
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection c = (Automaton.Collection) state;
+					int offset = data[i];
+					if (pool[offset] != c.length) {
+						return false;
+					}
+					int[] children = c.children;
+					for (int j = 0; j != c.length; ++j) {
+						if (pool[offset + 1 + j] != children[j]) {
+							return false;
+						}
+					}
+				} else if (!state.equals(constants[data[i]])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int[] children(int index) {
+			int offset = data[index] + 1;
+			return Arrays.copyOfRange(pool, offset, offset + pool[offset - 1]);
+		}
+	}
+
+	private static final Automaton.State[] NOCONSTANTS = new Automaton.State[0];
+}
@@ -0,0 +1,519 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyautl.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <p>
+ * Determines the equivalence classes of an automaton using partition
+ * refinement. Initially, states are partitioned by their kind (and by value
+ * for constants). Then, the partition is repeatedly refined by splitting any
+ * block whose states have different <i>signatures</i>, where the signature of
+ * a state is determined by the blocks of its children. For a list (or term)
+ * the signature is the sequence of child blocks; for a bag, it is the sorted
+ * sequence of child blocks (i.e. a multiset); finally, for a set, it is the
+ * sorted sequence with duplicates removed (i.e. a set). Virtual children are
+ * compared directly, since they can only be equivalent to themselves. When no
+ * further splits are possible, the partition identifies the largest
+ * equivalence relation between states (i.e. the same relation as computed by
+ * the original fixpoint over a binary matrix).
+ * </p>
+ * <p>
+ * The algorithm follows the "process the smaller half" strategy of Hopcroft.
+ * When a block is split, the largest piece keeps the identity of the original
+ * block and only the states in the remaining pieces are renumbered. Since each
+ * of these pieces is at most half the size of the original block, a state can
+ * be renumbered at most <code>log n</code> times. Furthermore, only the
+ * parents of renumbered states need to have their signatures recomputed on the
+ * next round. The memory required is linear in the number of transitions.
+ * </p>
+ * <p>
+ * For acyclic automata, a simpler approach is available. Since the children
+ * of a state can be processed before the state itself, equivalence classes
+ * can be determined in a single bottom-up pass using hash-consing.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class PartitionRefinement {
+	private final Automaton.State[] states;
+
+	/**
+	 * The current block of each state.
+	 */
+	private final int[] block;
+
+	/**
+	 * The block of each state as seen by signatures. This lags behind
+	 * <code>block</code> during a round, such that all signatures in a round
+	 * are computed with respect to the same partition.
+	 */
+	private final int[] cls;
+
+	/**
+	 * The states ordered such that every block occupies a contiguous range.
+	 */
+	private final int[] elems;
+
+	/**
+	 * The position of each state in <code>elems</code>.
+	 */
+	private final int[] loc;
+
+	/**
+	 * The start (inclusive) and end (exclusive) of each block in
+	 * <code>elems</code>, along with the number of marked states at the start
+	 * of each block.
+	 */
+	private final int[] first, end, nMarked;
+	private int nBlocks;
+
+	/**
+	 * The parents of each state, stored in compressed form such that the
+	 * parents of state <code>i</code> are those in
+	 * <code>parents[parentStart[i]]</code> up to (but not including)
+	 * <code>parents[parentStart[i+1]]</code>.
+	 */
+	private final int[] parentStart, parents;
+
+	/**
+	 * States whose block has changed during the current round.
+	 */
+	private final int[] changed;
+	private int nChanged;
+
+	private PartitionRefinement(Automaton automaton) {
+		int nStates = automaton.nStates();
+		this.states = new Automaton.State[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			states[i] = automaton.get(i);
+		}
+		this.block = new int[nStates];
+		this.cls = new int[nStates];
+		this.elems = new int[nStates];
+		this.loc = new int[nStates];
+		this.first = new int[nStates];
+		this.end = new int[nStates];
+		this.nMarked = new int[nStates];
+		this.changed = new int[nStates];
+		this.parentStart = new int[nStates + 1];
+		this.parents = determineParents();
+	}
+
+	/**
+	 * Determine the representative state for each equivalence class in a given
+	 * automaton. That is, for each state, the lowest indexed state to which it
+	 * is equivalent. Null states are only equivalent to themselves.
+	 *
+	 * @param automaton
+	 *            --- The automaton being minimised.
+	 * @param mapping
+	 *            --- Returns a mapping from states to their representatives.
+	 *            This must have at least <code>nStates</code> elements.
+	 */
+	public static void determineRepresentativeStates(Automaton automaton,
+			int[] mapping) {
+		PartitionRefinement p = new PartitionRefinement(automaton);
+		p.refine();
+		int nStates = p.states.length;
+		int[] reps = new int[p.nBlocks];
+		Arrays.fill(reps, -1);
+		for (int i = 0; i != nStates; ++i) {
+			int b = p.block[i];
+			if (reps[b] == -1) {
+				reps[b] = i;
+			}
+			mapping[i] = reps[b];
+		}
+	}
+
+	/**
+	 * Determine the representative state for each equivalence class in a given
+	 * acyclic automaton. In this case, no refinement is required: visiting
+	 * states in topological order (i.e. children before parents), two states
+	 * are equivalent precisely when they have the same kind and their children
+	 * are equivalent. Hence, a single pass which hash-conses the signature of
+	 * each state suffices.
+	 *
+	 * @param automaton
+	 *            --- The automaton being minimised, which must be acyclic.
+	 * @param order
+	 *            --- A topological order of all states in the automaton, such
+	 *            that every state occurs after its children.
+	 * @param mapping
+	 *            --- Returns a mapping from states to their representatives.
+	 *            This must have at least <code>nStates</code> elements.
+	 */
+	public static void determineRepresentativeStates(Automaton automaton,
+			int[] order, int[] mapping) {
+		int nStates = automaton.nStates();
+		int[] cls = new int[nStates];
+		int[] reps = new int[nStates];
+		int nClasses = 0;
+		HashMap<Object, Integer> classes = new HashMap<Object, Integer>();
+		for (int i = 0; i != order.length; ++i) {
+			int s = order[i];
+			Automaton.State state = automaton.get(s);
+			int c;
+			if (state == null) {
+				c = nClasses++;
+				reps[c] = s;
+			} else {
+				Object key = state instanceof Automaton.Constant ? state
+						: signature(state, cls);
+				Integer label = classes.get(key);
+				if (label == null) {
+					c = nClasses++;
+					classes.put(key, c);
+					reps[c] = s;
+				} else {
+					c = label;
+					reps[c] = Math.min(reps[c], s);
+				}
+			}
+			cls[s] = c;
+		}
+		for (int i = 0; i != nStates; ++i) {
+			mapping[i] = reps[cls[i]];
+		}
+	}
+
+	private void refine() {
+		int nStates = states.length;
+		int[] dirty = new int[nStates];
+		boolean[] isDirty = new boolean[nStates];
+		int[] touched = new int[nStates];
+		int nDirty = 0;
+
+		// First, construct the initial partition and mark all states whose
+		// signatures depend on their children.
+		initialise();
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State state = states[i];
+			if (state instanceof Automaton.Term
+					|| state instanceof Automaton.Collection) {
+				dirty[nDirty++] = i;
+				isDirty[i] = true;
+			}
+		}
+
+		// Second, refine until no more blocks are split.
+		while (nDirty > 0) {
+			int nTouched = 0;
+			for (int i = 0; i != nDirty; ++i) {
+				int s = dirty[i];
+				int b = block[s];
+				isDirty[s] = false;
+				if (nMarked[b] == 0) {
+					touched[nTouched++] = b;
+				}
+				mark(s);
+			}
+			nChanged = 0;
+			for (int i = 0; i != nTouched; ++i) {
+				split(touched[i]);
+			}
+			// Now, publish the updated blocks and determine which states must
+			// have their signatures recomputed.
+			nDirty = 0;
+			for (int i = 0; i != nChanged; ++i) {
+				int s = changed[i];
+				cls[s] = block[s];
+				for (int j = parentStart[s]; j != parentStart[s + 1]; ++j) {
+					int p = parents[j];
+					if (!isDirty[p]) {
+						isDirty[p] = true;
+						dirty[nDirty++] = p;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Construct the initial partition, where states are distinguished only by
+	 * their kind (or, for constants, by their value). Null states are placed
+	 * into blocks of their own.
+	 */
+	private void initialise() {
+		int nStates = states.length;
+		HashMap<Object, Integer> labels = new HashMap<Object, Integer>();
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State state = states[i];
+			if (state == null) {
+				block[i] = nBlocks++;
+			} else {
+				Object key = state instanceof Automaton.Constant ? state
+						: (Object) state.kind;
+				Integer label = labels.get(key);
+				if (label == null) {
+					label = nBlocks++;
+					labels.put(key, label);
+				}
+				block[i] = label;
+			}
+			end[block[i]]++;
+		}
+		// Lay out blocks contiguously using a counting sort
+		int start = 0;
+		for (int b = 0; b != nBlocks; ++b) {
+			int size = end[b];
+			first[b] = start;
+			end[b] = start;
+			start += size;
+		}
+		for (int i = 0; i != nStates; ++i) {
+			int b = block[i];
+			int pos = end[b]++;
+			elems[pos] = i;
+			loc[i] = pos;
+			cls[i] = b;
+		}
+	}
+
+	/**
+	 * Move a given state into the marked region at the start of its block.
+	 */
+	private void mark(int s) {
+		int b = block[s];
+		int pos = first[b] + nMarked[b];
+		int other = elems[pos];
+		int spos = loc[s];
+		elems[pos] = s;
+		loc[s] = pos;
+		elems[spos] = other;
+		loc[other] = spos;
+		nMarked[b]++;
+	}
+
+	/**
+	 * Split a given block according to the signatures of its marked states. All
+	 * unmarked states are known to share the same signature, hence only one of
+	 * them needs to be examined.
+	 */
+	private void split(int b) {
+		int start = first[b];
+		int nMarks = nMarked[b];
+		int finish = end[b];
+		nMarked[b] = 0;
+		// Group marked states by signature. The unmarked states (if any) form
+		// the first group.
+		HashMap<Signature, Integer> groups = new HashMap<Signature, Integer>();
+		int[] sizes = new int[nMarks + 1];
+		int nClean = finish - (start + nMarks);
+		if (nClean > 0) {
+			groups.put(signature(elems[start + nMarks]), 0);
+		}
+		int[] group = new int[nMarks];
+		for (int i = 0; i != nMarks; ++i) {
+			Signature sig = signature(elems[start + i]);
+			Integer g = groups.get(sig);
+			if (g == null) {
+				g = groups.size();
+				groups.put(sig, g);
+			}
+			group[i] = g;
+			sizes[g]++;
+		}
+		int nGroups = groups.size();
+		if (nGroups == 1) {
+			return; // no split
+		}
+		// Determine the largest group, which retains this block's identity.
+		int largest = 0;
+		for (int g = 0; g != nGroups; ++g) {
+			if (nClean > 0 && g == 0) {
+				sizes[g] += nClean;
+			}
+			if (sizes[g] > sizes[largest]) {
+				largest = g;
+			}
+		}
+		// Lay out the groups, with the unmarked group (if any) last so that it
+		// remains adjacent to the unmarked states.
+		int[] offsets = new int[nGroups];
+		int pos = start;
+		for (int g = nClean > 0 ? 1 : 0; g != nGroups; ++g) {
+			offsets[g] = pos;
+			pos += sizes[g];
+		}
+		if (nClean > 0) {
+			offsets[0] = pos;
+		}
+		int[] marked = Arrays.copyOfRange(elems, start, start + nMarks);
+		int[] next = Arrays.copyOf(offsets, nGroups);
+		for (int i = 0; i != nMarks; ++i) {
+			int s = marked[i];
+			int p = next[group[i]]++;
+			elems[p] = s;
+			loc[s] = p;
+		}
+		// Finally, allocate new blocks for all but the largest group.
+		for (int g = 0; g != nGroups; ++g) {
+			int gStart = offsets[g];
+			int gEnd = gStart + sizes[g];
+			int nb;
+			if (g == largest) {
+				nb = b;
+			} else {
+				nb = nBlocks++;
+				for (int i = gStart; i != gEnd; ++i) {
+					int s = elems[i];
+					block[s] = nb;
+					changed[nChanged++] = s;
+				}
+			}
+			first[nb] = gStart;
+			end[nb] = gEnd;
+		}
+	}
+
+	/**
+	 * Compute the signature of a given state with respect to the current
+	 * partition (as seen by <code>cls</code>).
+	 */
+	private Signature signature(int s) {
+		return signature(states[s], cls);
+	}
+
+	/**
+	 * Compute the signature of a given term or collection with respect to a
+	 * given partition. Virtual children are encoded as themselves (which are
+	 * negative), whilst others are encoded by their class (which is
+	 * non-negative).
+	 */
+	private static Signature signature(Automaton.State state, int[] cls) {
+		int[] data;
+		if (state instanceof Automaton.Term) {
+			int child = ((Automaton.Term) state).contents;
+			data = new int[] { child < 0 ? child : cls[child] };
+		} else {
+			Automaton.Collection c = (Automaton.Collection) state;
+			int length = c.length;
+			int[] children = c.children;
+			data = new int[length];
+			for (int i = 0; i != length; ++i) {
+				int child = children[i];
+				data[i] = child < 0 ? child : cls[child];
+			}
+			if (state.kind != Automaton.K_LIST) {
+				Arrays.sort(data);
+				if (state.kind == Automaton.K_SET) {
+					data = removeDuplicates(data);
+				}
+			}
+		}
+		return new Signature(state.kind, data);
+	}
+
+	private int[] determineParents() {
+		int nStates = states.length;
+		// First, count the parents of each state
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State state = states[i];
+			if (state instanceof Automaton.Term) {
+				int child = ((Automaton.Term) state).contents;
+				if (child >= 0) {
+					parentStart[child + 1]++;
+				}
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				for (int j = 0; j != c.length; ++j) {
+					int child = c.children[j];
+					if (child >= 0) {
+						parentStart[child + 1]++;
+					}
+				}
+			}
+		}
+		for (int i = 0; i != nStates; ++i) {
+			parentStart[i + 1] += parentStart[i];
+		}
+		// Second, fill in the parents of each state
+		int[] parents = new int[parentStart[nStates]];
+		int[] next = Arrays.copyOf(parentStart, nStates);
+		for (int i = 0; i != nStates; ++i) {
+			Automaton.State state = states[i];
+			if (state instanceof Automaton.Term) {
+				int child = ((Automaton.Term) state).contents;
+				if (child >= 0) {
+					parents[next[child]++] = i;
+				}
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				for (int j = 0; j != c.length; ++j) {
+					int child = c.children[j];
+					if (child >= 0) {
+						parents[next[child]++] = i;
+					}
+				}
+			}
+		}
+		return parents;
+	}
+
+	private static int[] removeDuplicates(int[] sorted) {
+		int j = 0;
+		for (int i = 0; i != sorted.length; ++i) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[j++] = sorted[i];
+			}
+		}
+		return j == sorted.length ? sorted : Arrays.copyOf(sorted, j);
+	}
+
+	/**
+	 * A simple wrapper for the signature of a state, which provides the
+	 * necessary equals() and hashCode() methods.
+	 */
+	private static final class Signature {
+		private final int kind;
+		private final int[] data;
+		private final int hashCode;
+
+		public Signature(int kind, int[] data) {
+			this.kind = kind;
+			this.data = data;
+			this.hashCode = kind + 31 * Arrays.hashCode(data);
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof Signature) {
+				Signature s = (Signature) o;
+				return kind == s.kind && Arrays.equals(data, s.data);
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -0,0 +1,457 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyautl.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A memo of boolean results computed from the states of an automaton, such as
+ * whether or not a given state is accepted by a given type. Each result is
+ * identified by a key (e.g. the type) and the index of the state it was
+ * computed from. A memo is attached to at most one automaton at a time (see
+ * <code>Automaton.setMemo()</code>), which informs it of every state which
+ * changes.
+ * </p>
+ * <p>
+ * A result may depend upon any state reachable from the state it was computed
+ * from. Therefore, when a state changes, the results for it and for every
+ * state from which it is reachable (i.e. its ancestors) are invalidated. All
+ * other results are retained, and are relocated along with their states when
+ * the automaton is compacted. To avoid traversing the automaton on every
+ * change, the states changed are simply recorded and their ancestors are
+ * determined all at once on the next lookup.
+ * </p>
+ * <p>
+ * A memo may be used from several threads at once (e.g. when probing in
+ * parallel), provided the automaton is not modified at the same time. Lookups
+ * take no lock, whilst results are recorded under a lock. A result recorded by
+ * one thread may not be seen immediately by another, in which case it is
+ * simply computed again.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class StateMemo {
+	/**
+	 * Returned by <code>get()</code> when no result is known.
+	 */
+	public static final int UNKNOWN = 0;
+	public static final int FALSE = 1;
+	public static final int TRUE = 2;
+
+	/**
+	 * Counts the lookups which found a result, and those which did not. These
+	 * may be shared between several memos (e.g. one for each automaton
+	 * produced by a rewrite).
+	 */
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	/**
+	 * The automaton to which this memo is attached, or <code>null</code> if
+	 * none.
+	 */
+	private Automaton automaton;
+
+	/**
+	 * The results recorded for each key, which is replaced (rather than
+	 * modified) when a key is added.
+	 */
+	private volatile Entry[] entries = new Entry[0];
+
+	/**
+	 * States which have changed since the last lookup, or
+	 * <code>ALL</code> if every result must be discarded.
+	 */
+	private int[] changed = new int[8];
+	private volatile int nChanged;
+
+	private static final int ALL = -1;
+
+	/**
+	 * The parents of each state (i.e. those states which have it as a direct
+	 * child), which are used to determine the ancestors of changed states.
+	 * These are determined once and then updated on each flush from the
+	 * states which have changed or been added since. Thus, they may also
+	 * include parents which no longer refer to a state. <b>NOTE:</b> this is
+	 * <code>null</code> when the parents are not available.
+	 */
+	private int[][] parents;
+	private int[] nParents;
+
+	/**
+	 * The number of states whose children are recorded in the parents.
+	 */
+	private int nIndexed;
+
+	/**
+	 * The number of parents recorded in total, and the number recorded when
+	 * they were last determined from scratch.
+	 */
+	private int nEdges;
+	private int nBuilt;
+
+	/**
+	 * Space for traversing the ancestors of changed states. The marks are
+	 * always cleared afterwards.
+	 */
+	private boolean[] marked = new boolean[0];
+	private int[] found = new int[0];
+
+	public StateMemo() {
+		this(new AtomicLong(), new AtomicLong());
+	}
+
+	/**
+	 * Construct an empty memo whose hits and misses are counted together with
+	 * those of a given memo.
+	 *
+	 * @param counters
+	 *            --- Memo whose counters are shared.
+	 */
+	public StateMemo(StateMemo counters) {
+		this(counters.hits, counters.misses);
+	}
+
+	private StateMemo(AtomicLong hits, AtomicLong misses) {
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	/**
+	 * Look up the result for a given key and state.
+	 *
+	 * @param key
+	 *            --- Identifies the result, and is compared by identity.
+	 * @param index
+	 *            --- Index of the state from which the result is computed.
+	 * @return One of <code>UNKNOWN</code>, <code>FALSE</code> or
+	 *         <code>TRUE</code>.
+	 */
+	public int get(Object key, int index) {
+		if (nChanged != 0) {
+			flush();
+		}
+		Entry entry = find(entries, key);
+		int r = UNKNOWN;
+		if (entry != null) {
+			byte[] results = entry.results;
+			if (index < results.length) {
+				r = results[index];
+			}
+		}
+		if (r == UNKNOWN) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return r;
+	}
+
+	/**
+	 * Record the result for a given key and state.
+	 *
+	 * @param key
+	 *            --- Identifies the result, and is compared by identity.
+	 * @param index
+	 *            --- Index of the state from which the result was computed.
+	 * @param result
+	 *            --- The result itself.
+	 */
+	public synchronized void put(Object key, int index, boolean result) {
+		if (nChanged != 0) {
+			flush();
+		}
+		Entry entry = find(entries, key);
+		if (entry == null) {
+			Entry[] nentries = Arrays.copyOf(entries, entries.length + 1);
+			entry = new Entry(key);
+			nentries[entries.length] = entry;
+			entries = nentries;
+		}
+		byte[] results = entry.results;
+		if (index >= results.length) {
+			int size = Math.max(index + 1, automaton != null ? automaton.nStates() : 0);
+			results = Arrays.copyOf(results, Math.max(size, results.length * 2));
+			entry.results = results;
+		}
+		results[index] = (byte) (result ? TRUE : FALSE);
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Discard all results recorded in this memo (though not its counters).
+	 */
+	public synchronized void clear() {
+		entries = new Entry[0];
+		nChanged = 0;
+		parents = null;
+	}
+
+	@Override
+	public String toString() {
+		long h = hits(), m = misses();
+		long total = h + m;
+		return h + " hits, " + m + " misses ("
+				+ (total == 0 ? 0 : (100 * h) / total) + "% hit rate)";
+	}
+
+	// =========================================================================
+	// Notifications from Automaton
+	// =========================================================================
+
+	/**
+	 * Attach this memo to a given automaton, provided it is not attached to
+	 * another already.
+	 */
+	synchronized void attach(Automaton automaton) {
+		if (this.automaton != null && this.automaton != automaton) {
+			throw new IllegalStateException("memo already attached to another automaton");
+		}
+		this.automaton = automaton;
+	}
+
+	synchronized void detach() {
+		automaton = null;
+		clear();
+	}
+
+	/**
+	 * Note that the state at a given index has changed (or been removed).
+	 */
+	void invalidate(int index) {
+		if (entries.length == 0) {
+			// Nothing to invalidate, though the parents are now out-of-date.
+			parents = null;
+			return;
+		} else if (nChanged == ALL) {
+			// Nothing to invalidate
+			return;
+		} else if (nChanged == changed.length) {
+			if (nChanged >= automaton.nStates()) {
+				// Most states have changed, so simply discard everything
+				nChanged = ALL;
+				return;
+			}
+			changed = Arrays.copyOf(changed, nChanged * 2);
+		}
+		changed[nChanged] = index;
+		nChanged = nChanged + 1;
+	}
+
+	/**
+	 * Note that the state at a given index has been relocated to another
+	 * index. This is only called by <code>Automaton.compact()</code>, which
+	 * relocates states in ascending order of index.
+	 */
+	void move(int from, int to) {
+		// The parents refer to states by index, hence are now out-of-date.
+		parents = null;
+		for (Entry entry : entries) {
+			byte[] results = entry.results;
+			if (from < results.length) {
+				results[to] = results[from];
+				results[from] = UNKNOWN;
+			} else if (to < results.length) {
+				results[to] = UNKNOWN;
+			}
+		}
+	}
+
+	/**
+	 * Discard the results for every state changed since the last lookup and
+	 * for all of their ancestors. This must be called before states are
+	 * relocated, since the changes are recorded by index.
+	 */
+	synchronized void flush() {
+		int n = nChanged;
+		if (n == 0) {
+			return;
+		} else if (n == ALL) {
+			clear();
+			return;
+		}
+		int nStates = automaton.nStates();
+		ensureCapacity(nStates);
+		int count = 0;
+		for (int i = 0; i != n; ++i) {
+			int s = changed[i];
+			if (s < nStates && !marked[s]) {
+				marked[s] = true;
+				found[count++] = s;
+			}
+		}
+		if (parents == null) {
+			buildParents(nStates);
+		} else {
+			// Bring the parents up-to-date with the children of those states
+			// which have changed or been added. Parents no longer referring
+			// to a state are retained, since they only cause extra results
+			// to be discarded.
+			nIndexed = Math.min(nIndexed, nStates);
+			for (int i = 0; i != count; ++i) {
+				if (found[i] < nIndexed) {
+					addParents(found[i]);
+				}
+			}
+			for (int s = nIndexed; s != nStates; ++s) {
+				addParents(s);
+			}
+			nIndexed = nStates;
+			if (nEdges > (2 * nBuilt) + nStates) {
+				// Too many parents are duplicated or out-of-date
+				buildParents(nStates);
+			}
+		}
+		// Mark all ancestors of the changed states, using those found as the
+		// worklist.
+		for (int i = 0; i != count; ++i) {
+			int[] ps = parents[found[i]];
+			int size = nParents[found[i]];
+			for (int j = 0; j != size; ++j) {
+				int parent = ps[j];
+				if (parent < nStates && !marked[parent]) {
+					marked[parent] = true;
+					found[count++] = parent;
+				}
+			}
+		}
+		for (Entry entry : entries) {
+			byte[] results = entry.results;
+			for (int i = 0; i != count; ++i) {
+				int s = found[i];
+				if (s < results.length) {
+					results[s] = UNKNOWN;
+				}
+			}
+			for (int i = 0; i != n; ++i) {
+				// Removed states may lie beyond the end of the automaton
+				int s = changed[i];
+				if (s >= nStates && s < results.length) {
+					results[s] = UNKNOWN;
+				}
+			}
+		}
+		for (int i = 0; i != count; ++i) {
+			marked[found[i]] = false;
+		}
+		nChanged = 0;
+	}
+
+	/**
+	 * Ensure there is space for the parents of a given number of states, and
+	 * for traversing them.
+	 */
+	private void ensureCapacity(int nStates) {
+		if (marked.length < nStates) {
+			int capacity = Math.max(nStates, marked.length * 2);
+			marked = Arrays.copyOf(marked, capacity);
+			found = Arrays.copyOf(found, capacity);
+			if (parents != null) {
+				parents = Arrays.copyOf(parents, capacity);
+				nParents = Arrays.copyOf(nParents, capacity);
+			}
+		}
+	}
+
+	/**
+	 * Determine the parents of every state from scratch.
+	 */
+	private void buildParents(int nStates) {
+		parents = new int[marked.length][];
+		nParents = new int[marked.length];
+		nEdges = 0;
+		for (int s = 0; s != nStates; ++s) {
+			addParents(s);
+		}
+		nIndexed = nStates;
+		nBuilt = nEdges;
+	}
+
+	/**
+	 * Record a given state as a parent of each of its children.
+	 */
+	private void addParents(int parent) {
+		Automaton.State state = automaton.get(parent);
+		if (state instanceof Automaton.Term) {
+			addParent(((Automaton.Term) state).contents, parent);
+		} else if (state instanceof Automaton.Collection) {
+			Automaton.Collection c = (Automaton.Collection) state;
+			for (int i = 0; i != c.size(); ++i) {
+				addParent(c.get(i), parent);
+			}
+		}
+	}
+
+	private void addParent(int child, int parent) {
+		if (child < 0) {
+			// Virtual states never change
+			return;
+		}
+		int[] ps = parents[child];
+		int size = nParents[child];
+		if (ps == null) {
+			ps = new int[2];
+			parents[child] = ps;
+		} else if (size == ps.length) {
+			ps = Arrays.copyOf(ps, size * 2);
+			parents[child] = ps;
+		}
+		ps[size] = parent;
+		nParents[child] = size + 1;
+		nEdges = nEdges + 1;
+	}
+
+	private static Entry find(Entry[] entries, Object key) {
+		for (int i = 0; i != entries.length; ++i) {
+			Entry entry = entries[i];
+			if (entry.key == key) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static final class Entry {
+		private final Object key;
+		private volatile byte[] results = new byte[0];
+
+		public Entry(Object key) {
+			this.key = key;
+		}
+	}
+}
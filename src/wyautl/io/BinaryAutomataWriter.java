@@ -79,11 +79,11 @@ public class BinaryAutomataWriter {
 			output.write_un(i.value == true ? 1 : 0,1);
 		} else if (state instanceof Automaton.Int) {
 			Automaton.Int i = (Automaton.Int) state;
-			byte[] bytes = i.value.toByteArray();
+			byte[] bytes = i.value().toByteArray();
 			output.write_uv(bytes.length);
 		} else if (state instanceof Automaton.Real) {
 			Automaton.Real r = (Automaton.Real) state;
-			BigRational br = r.value;
+			BigRational br = r.value();
 
 			byte[] numbytes = br.numerator().toByteArray();
 			output.write_uv(numbytes.length);
@@ -140,7 +140,7 @@ public class PrettyAutomataWriter  {
 	}
 
 	protected void write(Automaton.Constant item, int[] headers, Automaton automaton, boolean indent) throws IOException {
-		Object payload = item.value;
+		Object payload = item.value();
 		if (payload instanceof String) {
 			writer.print("\"" + payload.toString() + "\"");
 		} else {
@@ -9,14 +9,20 @@ import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
+import wyautl.core.Automata;
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
+import wyautl.core.StateMemo;
 import wyautl.io.PrettyAutomataReader;
 import wyautl.io.PrettyAutomataWriter;
 import wyrw.core.*;
 import wyrw.util.AbstractActivation;
+import wyrw.util.AbstractRewrite;
+import wyrw.util.BreadthFirstRewriter;
 import wyrw.util.LinearRewriter;
+import wyrw.util.ParallelBreadthFirstRewriter;
 
 
 /**
@@ -86,6 +92,29 @@ public class ConsoleRewriter {
 	 */
 	private boolean linear = true;
 
+	/**
+	 * Pool of workers used for probing in parallel, or null if probing is
+	 * sequential.
+	 */
+	private ForkJoinPool pool = null;
+
+	/**
+	 * Maximum number of rewrite states retained in memory, or zero if there
+	 * is no limit.
+	 */
+	private int budget = 0;
+
+	/**
+	 * Maximum time (in milliseconds) for each grind, or zero if there is no
+	 * limit.
+	 */
+	private int timeout = 0;
+
+	/**
+	 * Enable memoisation of type tests
+	 */
+	private boolean memo = false;
+
 	/**
 	 * If true, generate verbose information about rewriting.
 	 */
@@ -118,11 +147,16 @@ public class ConsoleRewriter {
 			this.new Command("caching",getMethod("setCaching",boolean.class)),
 			this.new Command("collapse",getMethod("setCollapse",boolean.class)),
 			this.new Command("linear",getMethod("setLinear",boolean.class)),
+			this.new Command("parallel",getMethod("setParallel",int.class)),
+			this.new Command("budget",getMethod("setBudget",int.class)),
+			this.new Command("timeout",getMethod("setTimeout",int.class)),
+			this.new Command("memo",getMethod("setMemo",boolean.class)),
 			this.new Command("log",getMethod("printLog")),
 			this.new Command("reduce",getMethod("startReduce",String.class)),
 			this.new Command("infer",getMethod("startInfer",String.class)),
 			this.new Command("load",getMethod("loadRewrite",String.class)),
 			this.new Command("grind",getMethod("grind",int.class)),
+			this.new Command("canonicalise",getMethod("canonicalise",int.class)),
 			this.new Command("apply",getMethod("applyActivation",int.class)),
 			this.new Command("reset",getMethod("reset",int.class)),
 	};
@@ -147,10 +181,8 @@ public class ConsoleRewriter {
 			Rewrite.State state = rewrite.states().get(HEAD);
 			PrettyAutomataWriter writer = new PrettyAutomataWriter(System.out,schema,indents);
 			writer.setIndices(indices);
-			// FIXME: this is clearly broken because it won't work for a
-			// reduction.
 			Automaton automaton = state.automaton();
-			writer.write(automaton.getRoot(HEAD),automaton);
+			writer.write(automaton.getRoot(state.root()),automaton);
 			writer.flush();
 			System.out.println("\n");
 			for(int i=0;i!=state.size();++i) {
@@ -209,6 +241,25 @@ public class ConsoleRewriter {
 		this.linear = flag;
 	}
 
+	public void setParallel(int nThreads) {
+		if(pool != null) {
+			pool.shutdown();
+		}
+		this.pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+	}
+
+	public void setBudget(int budget) {
+		this.budget = budget;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public void setMemo(boolean flag) {
+		this.memo = flag;
+	}
+
 	public void loadRewrite(String input) throws Exception {
 		FileReader reader = new FileReader(input);
 		// THIS NEEDS TO BE FIXED!!
@@ -235,15 +286,27 @@ public class ConsoleRewriter {
 
 	private Rewrite constructRewrite(final Schema schema, final ReductionRule[] reductions,
 			InferenceRule[] inferences, RwMode mode) {
+		AbstractRewrite rewrite;
 		if (mode == RwMode.INFER) {
-			return new Inference(schema, null, inferences, reductions);
+			rewrite = new Inference(schema, null, inferences, reductions, pool);
 		} else {
-			return new Reduction(schema, null, reductions);
+			rewrite = new Reduction(schema, null, reductions, pool);
 		}
+		rewrite.setBudget(budget);
+		if (memo) {
+			rewrite.setMemo(new StateMemo());
+		}
+		return rewrite;
 	}
 
 	private Rewriter constructRewriter(final Schema schema) {
-		return new LinearRewriter(rewrite,LinearRewriter.UNFAIR_HEURISTIC);
+		if (linear) {
+			return new LinearRewriter(rewrite,LinearRewriter.UNFAIR_HEURISTIC);
+		} else if (pool != null) {
+			return new ParallelBreadthFirstRewriter((AbstractRewrite) rewrite, pool);
+		} else {
+			return new BreadthFirstRewriter(rewrite);
+		}
 	}
 
 	private RewriteRule[] append(RewriteRule[] lhs, RewriteRule[] rhs) {
@@ -260,7 +323,21 @@ public class ConsoleRewriter {
 	}
 
 	public void grind(int count) {
-		rewriter.apply(count);
+		if (timeout > 0) {
+			Budget limits = Budget.timeout(timeout);
+			((AbstractRewrite) rewrite).setLimits(limits);
+			rewriter.apply(count, limits);
+			((AbstractRewrite) rewrite).setLimits(null);
+			if (limits.exhausted() != null) {
+				System.out.println("Stopped after " + limits);
+			}
+		} else {
+			rewriter.apply(count);
+		}
+		StateMemo memo = ((AbstractRewrite) rewrite).memo();
+		if (memo != null) {
+			System.out.println("Type tests: " + memo);
+		}
 		print();
 	}
 
@@ -268,6 +345,74 @@ public class ConsoleRewriter {
 		HEAD = id;
 	}
 
+	/**
+	 * Benchmark the canonicalisation algorithms against every automaton in the
+	 * current rewrite. Each automaton is canonicalised a given number of times
+	 * using the refinement-based algorithm, the original back-tracking search
+	 * and (for small automata only) the brute-force algorithm. The
+	 * refinement-based algorithm is also checked by canonicalising a permuted
+	 * copy of each automaton, which should produce an identical result.
+	 *
+	 * @param count
+	 *            --- Number of times to canonicalise each automaton.
+	 */
+	public void canonicalise(int count) {
+		long refinement = 0, backtracking = 0, bruteForce = 0;
+		int nAutomata = 0, nBruteForce = 0, nFailed = 0, nInconsistent = 0;
+		for (Rewrite.State state : rewrite.states()) {
+			Automaton automaton = state.automaton();
+			int nStates = automaton.nStates();
+			nAutomata++;
+			// Refinement
+			long start = System.nanoTime();
+			Automaton canonical = null;
+			for (int i = 0; i != count; ++i) {
+				canonical = new Automaton(automaton);
+				canonical.canonicalise();
+			}
+			refinement += System.nanoTime() - start;
+			int[] reversal = new int[nStates];
+			for (int i = 0; i != nStates; ++i) {
+				reversal[i] = nStates - i - 1;
+			}
+			Automaton permuted = new Automaton(automaton);
+			Automata.reorder(permuted, reversal);
+			permuted.canonicalise();
+			if (!permuted.equals(canonical)) {
+				nInconsistent++;
+			}
+			// Backtracking
+			start = System.nanoTime();
+			try {
+				for (int i = 0; i != count; ++i) {
+					Automaton copy = new Automaton(automaton);
+					Automata.reorder(copy, Automata.canonicalMorphism(copy));
+				}
+			} catch (RuntimeException e) {
+				// The original algorithm assumes every state is reachable from
+				// every root.
+				nFailed++;
+			}
+			backtracking += System.nanoTime() - start;
+			// Brute force
+			if (nStates > 1 && nStates <= 8 && automaton.nRoots() > 0) {
+				start = System.nanoTime();
+				for (int i = 0; i != count; ++i) {
+					Automata.bruteForce(automaton);
+				}
+				bruteForce += System.nanoTime() - start;
+				nBruteForce++;
+			}
+		}
+		System.out.println("Canonicalised " + nAutomata + " automata (x" + count + ")");
+		System.out.println("\trefinement: " + (refinement / 1000000) + "ms ("
+				+ nInconsistent + " inconsistent)");
+		System.out.println("\tback-tracking: " + (backtracking / 1000000) + "ms ("
+				+ nFailed + " failed)");
+		System.out.println("\tbrute force: " + (bruteForce / 1000000) + "ms ("
+				+ nBruteForce + " automata with 2-8 states)");
+	}
+
 	// =========================================================================
 	// Read, Evaluate, Print loop
 	// =========================================================================
@@ -8,7 +8,9 @@ import wyautl.io.*;
 import wyautl.core.*;
 import wyrw.core.*;
 import wyrw.util.AbstractRewriteRule;
+import wyrw.util.Bindings;
 import wyrl.core.*;
+import wyrl.core.Type;
 import wyrl.util.Runtime;
 import wyrl.util.Pair;
 
@@ -22,20 +24,11 @@ public final class Types {
 	private final static class Reduction_0 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_0(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Not, 4);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
-			int r0 = target;
-			Automaton.State s0 = automaton.get(r0);
-			if(s0.kind == K_Not) {
-				Automaton.Term t0 = (Automaton.Term) s0;
-				int r1 = t0.contents;
-				if(Runtime.accepts(type0,automaton,automaton.get(r1), SCHEMA)) {
-					int[] state = {r0, r1};
-					activations.add(new Reduction.Activation(this,null,state));
-				}
-			}
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+			probeReductions_Not(automaton, target, bindings, activations);
 		}
 
 		public final int apply(Automaton automaton, int[] state) {
@@ -54,18 +47,21 @@ public final class Types {
 	private final static class Reduction_1 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_1(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Not, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Not) {
 				Automaton.Term t0 = (Automaton.Term) s0;
 				int r1 = t0.contents;
-				if(Runtime.accepts(type1,automaton,automaton.get(r1), SCHEMA)) {
-					int[] state = {r0, r1};
-					activations.add(new Reduction.Activation(this,null,state));
+				if(accepts1(automaton,r1)) {
+					int offset = bindings.allocate(2);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					activations.add(new Reduction.Activation(this,null,bindings,offset,2));
 				}
 			}
 		}
@@ -86,10 +82,10 @@ public final class Types {
 	private final static class Reduction_2 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_2(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Not, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Not) {
@@ -101,8 +97,12 @@ public final class Types {
 					int r2 = t1.contents;
 					Automaton.State s2 = automaton.get(r2);
 					Automaton.Collection c2 = (Automaton.Collection) s2;
-					int[] state = {r0, r1, r2, 0};
-					activations.add(new Reduction.Activation(this,null,state));
+					int offset = bindings.allocate(4);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					state[offset+2] = r2;
+					activations.add(new Reduction.Activation(this,null,bindings,offset,4));
 				}
 			}
 		}
@@ -110,12 +110,12 @@ public final class Types {
 		public final int apply(Automaton automaton, int[] state) {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
-			Automaton.Collection s2 = (Automaton.Collection) automaton.get(state[2]);
-			int[] s2children = new int[s2.size() - 0];
-			for(int s2i=0, s2j=0; s2i != s2.size();++s2i) {
-				s2children[s2j++] = s2.get(s2i);
+			Automaton.Collection c2 = (Automaton.Collection) automaton.get(state[2]);
+			int[] c2children = new int[c2.size() - 0];
+			for(int s2i=0, s2j=0; s2i != c2.size();++s2i) {
+				c2children[s2j++] = c2.get(s2i);
 			}
-			Automaton.Set r3 = new Automaton.Set(s2children);
+			Automaton.Set r3 = new Automaton.Set(c2children);
 			Automaton.List t4 = new Automaton.List();
 			for(int i5=0;i5<r3.size();i5++) {
 				int r5 = (int) r3.get(i5);
@@ -138,10 +138,10 @@ public final class Types {
 	private final static class Reduction_3 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_3(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Not, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Not) {
@@ -153,8 +153,12 @@ public final class Types {
 					int r2 = t1.contents;
 					Automaton.State s2 = automaton.get(r2);
 					Automaton.Collection c2 = (Automaton.Collection) s2;
-					int[] state = {r0, r1, r2, 0};
-					activations.add(new Reduction.Activation(this,null,state));
+					int offset = bindings.allocate(4);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					state[offset+2] = r2;
+					activations.add(new Reduction.Activation(this,null,bindings,offset,4));
 				}
 			}
 		}
@@ -162,12 +166,12 @@ public final class Types {
 		public final int apply(Automaton automaton, int[] state) {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
-			Automaton.Collection s2 = (Automaton.Collection) automaton.get(state[2]);
-			int[] s2children = new int[s2.size() - 0];
-			for(int s2i=0, s2j=0; s2i != s2.size();++s2i) {
-				s2children[s2j++] = s2.get(s2i);
+			Automaton.Collection c2 = (Automaton.Collection) automaton.get(state[2]);
+			int[] c2children = new int[c2.size() - 0];
+			for(int s2i=0, s2j=0; s2i != c2.size();++s2i) {
+				c2children[s2j++] = c2.get(s2i);
 			}
-			Automaton.Set r3 = new Automaton.Set(s2children);
+			Automaton.Set r3 = new Automaton.Set(c2children);
 			Automaton.List t4 = new Automaton.List();
 			for(int i5=0;i5<r3.size();i5++) {
 				int r5 = (int) r3.get(i5);
@@ -201,25 +205,11 @@ public final class Types {
 	private final static class Reduction_4 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_4(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 14);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
-			int r0 = target;
-			Automaton.State s0 = automaton.get(r0);
-			if(s0.kind == K_And) {
-				Automaton.Term t0 = (Automaton.Term) s0;
-				int r1 = t0.contents;
-				Automaton.State s1 = automaton.get(r1);
-				Automaton.Collection c1 = (Automaton.Collection) s1;
-				if(c1.size() == 1) {
-					for(int r3=0;r3!=c1.size();++r3) {
-						int r2 = c1.get(r3);
-						int[] state = {r0, r1, r2, r3};
-						activations.add(new Reduction.Activation(this,null,state));
-					}
-				}
-			}
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+			probeReductions_And(automaton, target, bindings, activations);
 		}
 
 		public final int apply(Automaton automaton, int[] state) {
@@ -238,10 +228,10 @@ public final class Types {
 	private final static class Reduction_5 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_5(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -258,8 +248,14 @@ public final class Types {
 							int r4 = t2.contents;
 							Automaton.State s4 = automaton.get(r4);
 							Automaton.Collection c4 = (Automaton.Collection) s4;
-							int[] state = {r0, r1, r2, r3, r4, 0, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+							int offset = bindings.allocate(7);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							state[offset+4] = r4;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 						}
 					}
 				}
@@ -270,19 +266,19 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s4 = (Automaton.Collection) automaton.get(state[4]);
-			int[] s4children = new int[s4.size() - 0];
-			for(int s4i=0, s4j=0; s4i != s4.size();++s4i) {
-				s4children[s4j++] = s4.get(s4i);
-			}
-			Automaton.Set r5 = new Automaton.Set(s4children);
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c4 = (Automaton.Collection) automaton.get(state[4]);
+			int[] c4children = new int[c4.size() - 0];
+			for(int s4i=0, s4j=0; s4i != c4.size();++s4i) {
+				c4children[s4j++] = c4.get(s4i);
+			}
+			Automaton.Set r5 = new Automaton.Set(c4children);
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r6 = new Automaton.Set(s1children);
+			Automaton.Set r6 = new Automaton.Set(c1children);
 			Automaton.Set r7 = r5.append(r6); // xs append ys
 			int r8 = automaton.add(r7);
 			Automaton.Term r9 = new Automaton.Term(K_And, r8);
@@ -298,10 +294,10 @@ public final class Types {
 	private final static class Reduction_6 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_6(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -318,8 +314,14 @@ public final class Types {
 							int r4 = t2.contents;
 							Automaton.State s4 = automaton.get(r4);
 							Automaton.Collection c4 = (Automaton.Collection) s4;
-							int[] state = {r0, r1, r2, r3, r4, 0, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+							int offset = bindings.allocate(7);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							state[offset+4] = r4;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 						}
 					}
 				}
@@ -330,19 +332,19 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s4 = (Automaton.Collection) automaton.get(state[4]);
-			int[] s4children = new int[s4.size() - 0];
-			for(int s4i=0, s4j=0; s4i != s4.size();++s4i) {
-				s4children[s4j++] = s4.get(s4i);
-			}
-			Automaton.Set r5 = new Automaton.Set(s4children);
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c4 = (Automaton.Collection) automaton.get(state[4]);
+			int[] c4children = new int[c4.size() - 0];
+			for(int s4i=0, s4j=0; s4i != c4.size();++s4i) {
+				c4children[s4j++] = c4.get(s4i);
+			}
+			Automaton.Set r5 = new Automaton.Set(c4children);
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r6 = new Automaton.Set(s1children);
+			Automaton.Set r6 = new Automaton.Set(c1children);
 			Automaton.List t7 = new Automaton.List();
 			for(int i8=0;i8<r5.size();i8++) {
 				int r8 = (int) r5.get(i8);
@@ -378,25 +380,11 @@ public final class Types {
 	private final static class Reduction_7 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_7(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 6);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
-			int r0 = target;
-			Automaton.State s0 = automaton.get(r0);
-			if(s0.kind == K_Or) {
-				Automaton.Term t0 = (Automaton.Term) s0;
-				int r1 = t0.contents;
-				Automaton.State s1 = automaton.get(r1);
-				Automaton.Collection c1 = (Automaton.Collection) s1;
-				if(c1.size() == 1) {
-					for(int r3=0;r3!=c1.size();++r3) {
-						int r2 = c1.get(r3);
-						int[] state = {r0, r1, r2, r3};
-						activations.add(new Reduction.Activation(this,null,state));
-					}
-				}
-			}
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+			probeReductions_Or(automaton, target, bindings, activations);
 		}
 
 		public final int apply(Automaton automaton, int[] state) {
@@ -415,10 +403,10 @@ public final class Types {
 	private final static class Reduction_8 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_8(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Or) {
@@ -435,8 +423,14 @@ public final class Types {
 							int r4 = t2.contents;
 							Automaton.State s4 = automaton.get(r4);
 							Automaton.Collection c4 = (Automaton.Collection) s4;
-							int[] state = {r0, r1, r2, r3, r4, 0, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+							int offset = bindings.allocate(7);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							state[offset+4] = r4;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 						}
 					}
 				}
@@ -447,19 +441,19 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s4 = (Automaton.Collection) automaton.get(state[4]);
-			int[] s4children = new int[s4.size() - 0];
-			for(int s4i=0, s4j=0; s4i != s4.size();++s4i) {
-				s4children[s4j++] = s4.get(s4i);
-			}
-			Automaton.Set r5 = new Automaton.Set(s4children);
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c4 = (Automaton.Collection) automaton.get(state[4]);
+			int[] c4children = new int[c4.size() - 0];
+			for(int s4i=0, s4j=0; s4i != c4.size();++s4i) {
+				c4children[s4j++] = c4.get(s4i);
+			}
+			Automaton.Set r5 = new Automaton.Set(c4children);
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r6 = new Automaton.Set(s1children);
+			Automaton.Set r6 = new Automaton.Set(c1children);
 			Automaton.Set r7 = r5.append(r6); // xs append ys
 			int r8 = automaton.add(r7);
 			Automaton.Term r9 = new Automaton.Term(K_Or, r8);
@@ -499,10 +493,10 @@ public final class Types {
 	private final static class Reduction_9 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_9(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -513,9 +507,14 @@ public final class Types {
 				if(c1.size() >= 1) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type1,automaton,automaton.get(r2), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts1(automaton,r2)) {
+							int offset = bindings.allocate(5);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,5));
 						}
 					}
 				}
@@ -526,13 +525,13 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r4 = new Automaton.Set(s1children);
+			Automaton.Set r4 = new Automaton.Set(c1children);
 			Automaton.Term r5 = Void;
 			int r6 = automaton.add(r5);
 			if(r0 != r6) {
@@ -546,10 +545,10 @@ public final class Types {
 	private final static class Reduction_10 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_10(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -560,9 +559,14 @@ public final class Types {
 				if(c1.size() >= 1) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type0,automaton,automaton.get(r2), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts0(automaton,r2)) {
+							int offset = bindings.allocate(5);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,5));
 						}
 					}
 				}
@@ -573,13 +577,13 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r4 = new Automaton.Set(s1children);
+			Automaton.Set r4 = new Automaton.Set(c1children);
 			int r5 = automaton.add(r4);
 			Automaton.Term r6 = new Automaton.Term(K_And, r5);
 			int r7 = automaton.add(r6);
@@ -594,10 +598,10 @@ public final class Types {
 	private final static class Reduction_11 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_11(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -608,13 +612,20 @@ public final class Types {
 				if(c1.size() >= 2) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type3,automaton,automaton.get(r2), SCHEMA)) {
+						if(accepts3(automaton,r2)) {
 							for(int r5=0;r5!=c1.size();++r5) {
 								if(r5 == r3) { continue; }
 								int r4 = c1.get(r5);
-								if(Runtime.accepts(type3,automaton,automaton.get(r4), SCHEMA)) {
-									int[] state = {r0, r1, r2, r3, r4, r5, 0};
-									activations.add(new Reduction.Activation(this,null,state));
+								if(accepts3(automaton,r4)) {
+									int offset = bindings.allocate(7);
+									int[] state = bindings.array();
+									state[offset] = r0;
+									state[offset+1] = r1;
+									state[offset+2] = r2;
+									state[offset+3] = r3;
+									state[offset+4] = r4;
+									state[offset+5] = r5;
+									activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 								}
 							}
 						}
@@ -630,17 +641,17 @@ public final class Types {
 			int r3 = state[3];
 			int r4 = state[4]; // a2
 			int r5 = state[5];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r5) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r6 = new Automaton.Set(s1children);
+			Automaton.Set r6 = new Automaton.Set(c1children);
 			boolean r7 = r2 != r4;         // a1 neq a2
 			boolean r8 = false;            // a1 neq a2 && !a2 is ^Any
 			if(r7) {
-				boolean r9 = Runtime.accepts(type4, automaton, r4, SCHEMA); // a2 is ^Any
+				boolean r9 = is4(automaton, r4); // a2 is ^Any
 				boolean r10 = !r9;             // !a2 is ^Any
 				r8 = r10;
 			}
@@ -659,10 +670,10 @@ public final class Types {
 	private final static class Reduction_12 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_12(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -673,7 +684,7 @@ public final class Types {
 				if(c1.size() >= 2) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type3,automaton,automaton.get(r2), SCHEMA)) {
+						if(accepts3(automaton,r2)) {
 							for(int r5=0;r5!=c1.size();++r5) {
 								if(r5 == r3) { continue; }
 								int r4 = c1.get(r5);
@@ -681,9 +692,17 @@ public final class Types {
 								if(s4.kind == K_Not) {
 									Automaton.Term t4 = (Automaton.Term) s4;
 									int r6 = t4.contents;
-									if(Runtime.accepts(type3,automaton,automaton.get(r6), SCHEMA)) {
-										int[] state = {r0, r1, r2, r3, r4, r5, r6, 0};
-										activations.add(new Reduction.Activation(this,null,state));
+									if(accepts3(automaton,r6)) {
+										int offset = bindings.allocate(8);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										activations.add(new Reduction.Activation(this,null,bindings,offset,8));
 									}
 								}
 							}
@@ -700,13 +719,13 @@ public final class Types {
 			int r3 = state[3];
 			int r5 = state[5];
 			int r6 = state[6]; // a2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r5) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r7 = new Automaton.Set(s1children);
+			Automaton.Set r7 = new Automaton.Set(c1children);
 			boolean r8 = r2 == r6;         // a1 eq a2
 			if(r8) {
 				Automaton.Term r9 = Void;
@@ -735,10 +754,10 @@ public final class Types {
 	private final static class Reduction_13 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_13(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Or) {
@@ -749,9 +768,14 @@ public final class Types {
 				if(c1.size() >= 1) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type0,automaton,automaton.get(r2), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts0(automaton,r2)) {
+							int offset = bindings.allocate(5);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,5));
 						}
 					}
 				}
@@ -762,13 +786,13 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r4 = new Automaton.Set(s1children);
+			Automaton.Set r4 = new Automaton.Set(c1children);
 			Automaton.Term r5 = Any;
 			int r6 = automaton.add(r5);
 			if(r0 != r6) {
@@ -782,10 +806,10 @@ public final class Types {
 	private final static class Reduction_14 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_14(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Or) {
@@ -796,9 +820,14 @@ public final class Types {
 				if(c1.size() >= 1) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type1,automaton,automaton.get(r2), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts1(automaton,r2)) {
+							int offset = bindings.allocate(5);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,5));
 						}
 					}
 				}
@@ -809,13 +838,13 @@ public final class Types {
 			int nStates = automaton.nStates();
 			int r0 = state[0];
 			int r3 = state[3];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 1];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 1];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r4 = new Automaton.Set(s1children);
+			Automaton.Set r4 = new Automaton.Set(c1children);
 			int r5 = automaton.add(r4);
 			Automaton.Term r6 = new Automaton.Term(K_Or, r5);
 			int r7 = automaton.add(r6);
@@ -836,18 +865,21 @@ public final class Types {
 	private final static class Reduction_15 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_15(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Ref);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Ref) {
 				Automaton.Term t0 = (Automaton.Term) s0;
 				int r1 = t0.contents;
-				if(Runtime.accepts(type1,automaton,automaton.get(r1), SCHEMA)) {
-					int[] state = {r0, r1};
-					activations.add(new Reduction.Activation(this,null,state));
+				if(accepts1(automaton,r1)) {
+					int offset = bindings.allocate(2);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					activations.add(new Reduction.Activation(this,null,bindings,offset,2));
 				}
 			}
 		}
@@ -868,10 +900,10 @@ public final class Types {
 	private final static class Reduction_16 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_16(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -893,8 +925,17 @@ public final class Types {
 								if(s5.kind == K_Ref) {
 									Automaton.Term t5 = (Automaton.Term) s5;
 									int r7 = t5.contents;
-									int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, 0};
-									activations.add(new Reduction.Activation(this,null,state));
+									int offset = bindings.allocate(9);
+									int[] state = bindings.array();
+									state[offset] = r0;
+									state[offset+1] = r1;
+									state[offset+2] = r2;
+									state[offset+3] = r3;
+									state[offset+4] = r4;
+									state[offset+5] = r5;
+									state[offset+6] = r6;
+									state[offset+7] = r7;
+									activations.add(new Reduction.Activation(this,null,bindings,offset,9));
 								}
 							}
 						}
@@ -910,13 +951,13 @@ public final class Types {
 			int r4 = state[4]; // t1
 			int r6 = state[6];
 			int r7 = state[7]; // t2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r8 = new Automaton.Set(s1children);
+			Automaton.Set r8 = new Automaton.Set(c1children);
 			Automaton.Set r9 = new Automaton.Set(r4, r7); // {t1t2}
 			int r10 = automaton.add(r9);
 			Automaton.Term r11 = new Automaton.Term(K_And, r10);
@@ -938,10 +979,10 @@ public final class Types {
 	private final static class Reduction_17 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_17(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Or) {
@@ -956,7 +997,7 @@ public final class Types {
 						if(s2.kind == K_Ref) {
 							Automaton.Term t2 = (Automaton.Term) s2;
 							int r4 = t2.contents;
-							if(Runtime.accepts(type0,automaton,automaton.get(r4), SCHEMA)) {
+							if(accepts0(automaton,r4)) {
 								for(int r6=0;r6!=c1.size();++r6) {
 									if(r6 == r3) { continue; }
 									int r5 = c1.get(r6);
@@ -964,8 +1005,17 @@ public final class Types {
 									if(s5.kind == K_Ref) {
 										Automaton.Term t5 = (Automaton.Term) s5;
 										int r7 = t5.contents;
-										int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, 0};
-										activations.add(new Reduction.Activation(this,null,state));
+										int offset = bindings.allocate(9);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										activations.add(new Reduction.Activation(this,null,bindings,offset,9));
 									}
 								}
 							}
@@ -981,13 +1031,13 @@ public final class Types {
 			int r2 = state[2]; // t
 			int r3 = state[3];
 			int r6 = state[6];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r8 = new Automaton.Set(s1children);
+			Automaton.Set r8 = new Automaton.Set(c1children);
 			Automaton.Set r9 = r8.appendFront(r2); // t append ts
 			int r10 = automaton.add(r9);
 			Automaton.Term r11 = new Automaton.Term(K_Or, r10);
@@ -1003,10 +1053,10 @@ public final class Types {
 	private final static class Reduction_18 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_18(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1032,8 +1082,18 @@ public final class Types {
 									if(s7.kind == K_Ref) {
 										Automaton.Term t7 = (Automaton.Term) s7;
 										int r8 = t7.contents;
-										int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, r8, 0};
-										activations.add(new Reduction.Activation(this,null,state));
+										int offset = bindings.allocate(10);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										state[offset+8] = r8;
+										activations.add(new Reduction.Activation(this,null,bindings,offset,10));
 									}
 								}
 							}
@@ -1050,13 +1110,13 @@ public final class Types {
 			int r4 = state[4]; // t1
 			int r6 = state[6];
 			int r8 = state[8]; // t2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r9 = new Automaton.Set(s1children);
+			Automaton.Set r9 = new Automaton.Set(c1children);
 			Automaton.Term r10 = new Automaton.Term(K_Not, r8);
 			int r11 = automaton.add(r10);
 			Automaton.Set r12 = new Automaton.Set(r4, r11); // {t1Not(t2)}
@@ -1086,18 +1146,21 @@ public final class Types {
 	private final static class Reduction_19 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_19(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Meta);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Meta) {
 				Automaton.Term t0 = (Automaton.Term) s0;
 				int r1 = t0.contents;
-				if(Runtime.accepts(type1,automaton,automaton.get(r1), SCHEMA)) {
-					int[] state = {r0, r1};
-					activations.add(new Reduction.Activation(this,null,state));
+				if(accepts1(automaton,r1)) {
+					int offset = bindings.allocate(2);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					activations.add(new Reduction.Activation(this,null,bindings,offset,2));
 				}
 			}
 		}
@@ -1118,10 +1181,10 @@ public final class Types {
 	private final static class Reduction_20 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_20(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1143,8 +1206,17 @@ public final class Types {
 								if(s5.kind == K_Meta) {
 									Automaton.Term t5 = (Automaton.Term) s5;
 									int r7 = t5.contents;
-									int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, 0};
-									activations.add(new Reduction.Activation(this,null,state));
+									int offset = bindings.allocate(9);
+									int[] state = bindings.array();
+									state[offset] = r0;
+									state[offset+1] = r1;
+									state[offset+2] = r2;
+									state[offset+3] = r3;
+									state[offset+4] = r4;
+									state[offset+5] = r5;
+									state[offset+6] = r6;
+									state[offset+7] = r7;
+									activations.add(new Reduction.Activation(this,null,bindings,offset,9));
 								}
 							}
 						}
@@ -1160,13 +1232,13 @@ public final class Types {
 			int r4 = state[4]; // t1
 			int r6 = state[6];
 			int r7 = state[7]; // t2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r8 = new Automaton.Set(s1children);
+			Automaton.Set r8 = new Automaton.Set(c1children);
 			Automaton.Set r9 = new Automaton.Set(r4, r7); // {t1t2}
 			int r10 = automaton.add(r9);
 			Automaton.Term r11 = new Automaton.Term(K_And, r10);
@@ -1188,10 +1260,10 @@ public final class Types {
 	private final static class Reduction_21 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_21(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Or, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Or) {
@@ -1206,7 +1278,7 @@ public final class Types {
 						if(s2.kind == K_Meta) {
 							Automaton.Term t2 = (Automaton.Term) s2;
 							int r4 = t2.contents;
-							if(Runtime.accepts(type0,automaton,automaton.get(r4), SCHEMA)) {
+							if(accepts0(automaton,r4)) {
 								for(int r6=0;r6!=c1.size();++r6) {
 									if(r6 == r3) { continue; }
 									int r5 = c1.get(r6);
@@ -1214,8 +1286,17 @@ public final class Types {
 									if(s5.kind == K_Meta) {
 										Automaton.Term t5 = (Automaton.Term) s5;
 										int r7 = t5.contents;
-										int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, 0};
-										activations.add(new Reduction.Activation(this,null,state));
+										int offset = bindings.allocate(9);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										activations.add(new Reduction.Activation(this,null,bindings,offset,9));
 									}
 								}
 							}
@@ -1231,13 +1312,13 @@ public final class Types {
 			int r2 = state[2]; // t
 			int r3 = state[3];
 			int r6 = state[6];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r8 = new Automaton.Set(s1children);
+			Automaton.Set r8 = new Automaton.Set(c1children);
 			Automaton.Set r9 = r8.appendFront(r2); // t append ts
 			int r10 = automaton.add(r9);
 			Automaton.Term r11 = new Automaton.Term(K_Or, r10);
@@ -1253,10 +1334,10 @@ public final class Types {
 	private final static class Reduction_22 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_22(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1282,8 +1363,18 @@ public final class Types {
 									if(s7.kind == K_Meta) {
 										Automaton.Term t7 = (Automaton.Term) s7;
 										int r8 = t7.contents;
-										int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, r8, 0};
-										activations.add(new Reduction.Activation(this,null,state));
+										int offset = bindings.allocate(10);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										state[offset+8] = r8;
+										activations.add(new Reduction.Activation(this,null,bindings,offset,10));
 									}
 								}
 							}
@@ -1300,13 +1391,13 @@ public final class Types {
 			int r4 = state[4]; // t1
 			int r6 = state[6];
 			int r8 = state[8]; // t2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r6) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r9 = new Automaton.Set(s1children);
+			Automaton.Set r9 = new Automaton.Set(c1children);
 			Automaton.Term r10 = new Automaton.Term(K_Not, r8);
 			int r11 = automaton.add(r10);
 			Automaton.Set r12 = new Automaton.Set(r4, r11); // {t1Not(t2)}
@@ -1341,10 +1432,10 @@ public final class Types {
 	private final static class Reduction_23 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_23(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1376,8 +1467,21 @@ public final class Types {
 										if(l9.size() == 2) {
 											int r10 = l9.get(0);
 											int r11 = l9.get(1);
-											int[] state = {r0, r1, r2, r3, r4, r5, r6, r7, r8, r9, r10, r11, 0};
-											activations.add(new Reduction.Activation(this,null,state));
+											int offset = bindings.allocate(13);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+7] = r7;
+											state[offset+8] = r8;
+											state[offset+9] = r9;
+											state[offset+10] = r10;
+											state[offset+11] = r11;
+											activations.add(new Reduction.Activation(this,null,bindings,offset,13));
 										}
 									}
 								}
@@ -1397,13 +1501,13 @@ public final class Types {
 			int r8 = state[8];
 			int r10 = state[10]; // s2
 			int r11 = state[11]; // t2
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r8) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r12 = new Automaton.Set(s1children);
+			Automaton.Set r12 = new Automaton.Set(c1children);
 			boolean r13 = r5 == r10;       // s1 eq s2
 			if(r13) {
 				Automaton.Set r14 = new Automaton.Set(r6, r11); // {t1t2}
@@ -1446,10 +1550,10 @@ public final class Types {
 	private final static class Reduction_24 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_24(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Nominal);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Nominal) {
@@ -1459,8 +1563,13 @@ public final class Types {
 				Automaton.List l1 = (Automaton.List) s1;
 				int r2 = l1.get(0);
 				int r3 = l1.get(1);
-				int[] state = {r0, r1, r2, r3};
-				activations.add(new Reduction.Activation(this,null,state));
+				int offset = bindings.allocate(4);
+				int[] state = bindings.array();
+				state[offset] = r0;
+				state[offset+1] = r1;
+				state[offset+2] = r2;
+				state[offset+3] = r3;
+				activations.add(new Reduction.Activation(this,null,bindings,offset,4));
 			}
 		}
 
@@ -1501,10 +1610,10 @@ public final class Types {
 	private final static class Reduction_25 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_25(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Set);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Set) {
@@ -1519,9 +1628,16 @@ public final class Types {
 				if(c3.size() >= 1) {
 					for(int r5=0;r5!=c3.size();++r5) {
 						int r4 = c3.get(r5);
-						if(Runtime.accepts(type1,automaton,automaton.get(r4), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, r4, r5, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts1(automaton,r4)) {
+							int offset = bindings.allocate(7);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							state[offset+4] = r4;
+							state[offset+5] = r5;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 						}
 					}
 				}
@@ -1533,13 +1649,13 @@ public final class Types {
 			int r0 = state[0];
 			int r2 = state[2]; // t
 			int r5 = state[5];
-			Automaton.Collection s3 = (Automaton.Collection) automaton.get(state[3]);
-			int[] s3children = new int[s3.size() - 1];
-			for(int s3i=0, s3j=0; s3i != s3.size();++s3i) {
+			Automaton.Collection c3 = (Automaton.Collection) automaton.get(state[3]);
+			int[] c3children = new int[c3.size() - 1];
+			for(int s3i=0, s3j=0; s3i != c3.size();++s3i) {
 				if(s3i == r5) { continue; }
-				s3children[s3j++] = s3.get(s3i);
+				c3children[s3j++] = c3.get(s3i);
 			}
-			Automaton.Bag r6 = new Automaton.Bag(s3children);
+			Automaton.Bag r6 = new Automaton.Bag(c3children);
 			int r7 = automaton.add(r6);
 			Automaton.List r8 = new Automaton.List(r2, r7); // [tts]
 			int r9 = automaton.add(r8);
@@ -1567,10 +1683,10 @@ public final class Types {
 	private final static class Reduction_26 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_26(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_Bag);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_Bag) {
@@ -1585,9 +1701,16 @@ public final class Types {
 				if(c3.size() >= 1) {
 					for(int r5=0;r5!=c3.size();++r5) {
 						int r4 = c3.get(r5);
-						if(Runtime.accepts(type1,automaton,automaton.get(r4), SCHEMA)) {
-							int[] state = {r0, r1, r2, r3, r4, r5, 0};
-							activations.add(new Reduction.Activation(this,null,state));
+						if(accepts1(automaton,r4)) {
+							int offset = bindings.allocate(7);
+							int[] state = bindings.array();
+							state[offset] = r0;
+							state[offset+1] = r1;
+							state[offset+2] = r2;
+							state[offset+3] = r3;
+							state[offset+4] = r4;
+							state[offset+5] = r5;
+							activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 						}
 					}
 				}
@@ -1599,13 +1722,13 @@ public final class Types {
 			int r0 = state[0];
 			int r2 = state[2]; // t
 			int r5 = state[5];
-			Automaton.Collection s3 = (Automaton.Collection) automaton.get(state[3]);
-			int[] s3children = new int[s3.size() - 1];
-			for(int s3i=0, s3j=0; s3i != s3.size();++s3i) {
+			Automaton.Collection c3 = (Automaton.Collection) automaton.get(state[3]);
+			int[] c3children = new int[c3.size() - 1];
+			for(int s3i=0, s3j=0; s3i != c3.size();++s3i) {
 				if(s3i == r5) { continue; }
-				s3children[s3j++] = s3.get(s3i);
+				c3children[s3j++] = c3.get(s3i);
 			}
-			Automaton.Bag r6 = new Automaton.Bag(s3children);
+			Automaton.Bag r6 = new Automaton.Bag(c3children);
 			int r7 = automaton.add(r6);
 			Automaton.List r8 = new Automaton.List(r2, r7); // [tts]
 			int r9 = automaton.add(r8);
@@ -1633,10 +1756,10 @@ public final class Types {
 	private final static class Reduction_27 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_27(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_List);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_List) {
@@ -1648,8 +1771,13 @@ public final class Types {
 				int r3 = l1.get(1);
 				Automaton.State s3 = automaton.get(r3);
 				Automaton.List l3 = (Automaton.List) s3;
-				int[] state = {r0, r1, r2, r3, 0};
-				activations.add(new Reduction.Activation(this,null,state));
+				int offset = bindings.allocate(5);
+				int[] state = bindings.array();
+				state[offset] = r0;
+				state[offset+1] = r1;
+				state[offset+2] = r2;
+				state[offset+3] = r3;
+				activations.add(new Reduction.Activation(this,null,bindings,offset,5));
 			}
 		}
 
@@ -1676,10 +1804,10 @@ public final class Types {
 	private final static class Reduction_28 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_28(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1690,12 +1818,19 @@ public final class Types {
 				if(c1.size() >= 2) {
 					for(int r3=0;r3!=c1.size();++r3) {
 						int r2 = c1.get(r3);
-						if(Runtime.accepts(type6,automaton,automaton.get(r2), SCHEMA)) {
+						if(accepts6(automaton,r2)) {
 							for(int r5=0;r5!=c1.size();++r5) {
 								if(r5 == r3) { continue; }
 								int r4 = c1.get(r5);
-								int[] state = {r0, r1, r2, r3, r4, r5, 0};
-								activations.add(new Reduction.Activation(this,null,state));
+								int offset = bindings.allocate(7);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								state[offset+4] = r4;
+								state[offset+5] = r5;
+								activations.add(new Reduction.Activation(this,null,bindings,offset,7));
 							}
 						}
 					}
@@ -1710,15 +1845,15 @@ public final class Types {
 			int r3 = state[3];
 			int r4 = state[4]; // t
 			int r5 = state[5];
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r5) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r6 = new Automaton.Set(s1children);
-			boolean r7 = Runtime.accepts(type7, automaton, r4, SCHEMA); // t is ^Proton<Any|Void|Bool|Int|Real|String>
-			boolean r8 = Runtime.accepts(type8, automaton, r4, SCHEMA); // t is ^SetOrBag<$18<Set($16<^[$9<^Type<$18|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$9...})|And(^{$9...})|Not($9)|Ref($9)|Meta($9)|Nominal(^[^string,$9])|Term(^[^string,$9...])|Bag($16)|List(^[$9,^[$9...]])>>,^{|$9...|}[$9...]]>)>|Bag($16)>
+			Automaton.Set r6 = new Automaton.Set(c1children);
+			boolean r7 = is7(automaton, r4); // t is ^Proton<Any|Void|Bool|Int|Real|String>
+			boolean r8 = is8(automaton, r4); // t is ^SetOrBag<$18<Set($16<^[$9<^Type<$18|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$9...})|And(^{$9...})|Not($9)|Ref($9)|Meta($9)|Nominal(^[^string,$9])|Term(^[^string,$9...])|Bag($16)|List(^[$9,^[$9...]])>>,^{|$9...|}[$9...]]>)>|Bag($16)>
 			boolean r9 = r7 || r8;         // t is ^Proton<Any|Void|Bool|Int|Real|String> || t is ^SetOrBag<$18<Set($16<^[$9<^Type<$18|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$9...})|And(^{$9...})|Not($9)|Ref($9)|Meta($9)|Nominal(^[^string,$9])|Term(^[^string,$9...])|Bag($16)|List(^[$9,^[$9...]])>>,^{|$9...|}[$9...]]>)>|Bag($16)>
 			if(r9) {
 				Automaton.Term r10 = Void;
@@ -1727,8 +1862,8 @@ public final class Types {
 					return automaton.rewrite(r0, r11);
 				}
 			}
-			boolean r12 = Runtime.accepts(type9, automaton, r4, SCHEMA); // t is ^Not(^Proton<Any|Void|Bool|Int|Real|String>)
-			boolean r13 = Runtime.accepts(type10, automaton, r4, SCHEMA); // t is ^Not(^SetOrBag<$22<Set($20<^[$13<^Type<$22|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$13...})|And(^{$13...})|Not($13)|Ref($13)|Meta($13)|Nominal(^[^string,$13])|Term(^[^string,$13...])|Bag($20)|List(^[$13,^[$13...]])>>,^{|$13...|}[$13...]]>)>|Bag($20)>)
+			boolean r12 = is9(automaton, r4); // t is ^Not(^Proton<Any|Void|Bool|Int|Real|String>)
+			boolean r13 = is10(automaton, r4); // t is ^Not(^SetOrBag<$22<Set($20<^[$13<^Type<$22|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$13...})|And(^{$13...})|Not($13)|Ref($13)|Meta($13)|Nominal(^[^string,$13])|Term(^[^string,$13...])|Bag($20)|List(^[$13,^[$13...]])>>,^{|$13...|}[$13...]]>)>|Bag($20)>)
 			boolean r14 = r12 || r13;      // t is ^Not(^Proton<Any|Void|Bool|Int|Real|String>) || t is ^Not(^SetOrBag<$22<Set($20<^[$13<^Type<$22|Atom<Not(^Proton<Any|Void|Bool|Int|Real|String>)|Proton<Any|Void|Bool|Int|Real|String>>|Or(^{$13...})|And(^{$13...})|Not($13)|Ref($13)|Meta($13)|Nominal(^[^string,$13])|Term(^[^string,$13...])|Bag($20)|List(^[$13,^[$13...]])>>,^{|$13...|}[$13...]]>)>|Bag($20)>)
 			if(r14) {
 				Automaton.Set r15 = r6.appendFront(r2); // l append ts
@@ -1747,10 +1882,10 @@ public final class Types {
 	private final static class Reduction_29 extends AbstractRewriteRule implements ReductionRule {
 
 		public Reduction_29(Pattern.Term pattern) {
-			super(pattern);
+			super(pattern, K_And, 0);
 		}
 
-		public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {
+		public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
 			int r0 = target;
 			Automaton.State s0 = automaton.get(r0);
 			if(s0.kind == K_And) {
@@ -1768,7 +1903,7 @@ public final class Types {
 							Automaton.State s4 = automaton.get(r4);
 							Automaton.List l4 = (Automaton.List) s4;
 							int r5 = l4.get(0);
-							if(Runtime.accepts(type11,automaton,automaton.get(r5), SCHEMA)) {
+							if(accepts11(automaton,r5)) {
 								int r6 = l4.get(1);
 								Automaton.State s6 = automaton.get(r6);
 								Automaton.List l6 = (Automaton.List) s6;
@@ -1782,12 +1917,25 @@ public final class Types {
 										Automaton.State s10 = automaton.get(r10);
 										Automaton.List l10 = (Automaton.List) s10;
 										int r11 = l10.get(0);
-										if(Runtime.accepts(type11,automaton,automaton.get(r11), SCHEMA)) {
+										if(accepts11(automaton,r11)) {
 											int r12 = l10.get(1);
 											Automaton.State s12 = automaton.get(r12);
 											Automaton.List l12 = (Automaton.List) s12;
-											int[] state = {r0, r1, r2, r3, r4, r5, r6, 0, r8, r9, r10, r11, r12, 0, 0};
-											activations.add(new Reduction.Activation(this,null,state));
+											int offset = bindings.allocate(15);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+8] = r8;
+											state[offset+9] = r9;
+											state[offset+10] = r10;
+											state[offset+11] = r11;
+											state[offset+12] = r12;
+											activations.add(new Reduction.Activation(this,null,bindings,offset,15));
 										}
 									}
 								}
@@ -1807,13 +1955,13 @@ public final class Types {
 			int r9 = state[9];
 			int r11 = state[11]; // ub2
 			Automaton.List r13 = ((Automaton.List) automaton.get(state[12])).sublist(0);
-			Automaton.Collection s1 = (Automaton.Collection) automaton.get(state[1]);
-			int[] s1children = new int[s1.size() - 2];
-			for(int s1i=0, s1j=0; s1i != s1.size();++s1i) {
+			Automaton.Collection c1 = (Automaton.Collection) automaton.get(state[1]);
+			int[] c1children = new int[c1.size() - 2];
+			for(int s1i=0, s1j=0; s1i != c1.size();++s1i) {
 				if(s1i == r3 || s1i == r9) { continue; }
-				s1children[s1j++] = s1.get(s1i);
+				c1children[s1j++] = c1.get(s1i);
 			}
-			Automaton.Set r14 = new Automaton.Set(s1children);
+			Automaton.Set r14 = new Automaton.Set(c1children);
 			boolean r15 = ((Automaton.Bool)automaton.get(r5)).value;
 			boolean r16 = ((Automaton.Bool)automaton.get(r11)).value;
 			boolean r17 = r15 || r16;      // ub1 || ub2
@@ -1918,6 +2066,612 @@ public final class Types {
 		}
 
 	}
+	// =========================================================================
+	// shared probes
+	// =========================================================================
+
+	private static void probeReductions_Not(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+		int r0 = target;
+		Automaton.State s0 = automaton.get(r0);
+		if(s0.kind == K_Not) {
+			Automaton.Term t0 = (Automaton.Term) s0;
+			int r1 = t0.contents;
+			{ // Reduction_0
+				if(accepts0(automaton,r1)) {
+					int offset = bindings.allocate(2);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					activations.add(new Reduction.Activation(reductions[0],null,bindings,offset,2));
+				}
+			}
+			{ // Reduction_1
+				if(accepts1(automaton,r1)) {
+					int offset = bindings.allocate(2);
+					int[] state = bindings.array();
+					state[offset] = r0;
+					state[offset+1] = r1;
+					activations.add(new Reduction.Activation(reductions[1],null,bindings,offset,2));
+				}
+			}
+			{ // Reduction_2, Reduction_3
+				Automaton.State s1 = automaton.get(r1);
+				{ // Reduction_2
+					if(s1.kind == K_Or) {
+						Automaton.Term t1 = (Automaton.Term) s1;
+						int r2 = t1.contents;
+						Automaton.State s2 = automaton.get(r2);
+						Automaton.Collection c2 = (Automaton.Collection) s2;
+						int offset = bindings.allocate(4);
+						int[] state = bindings.array();
+						state[offset] = r0;
+						state[offset+1] = r1;
+						state[offset+2] = r2;
+						activations.add(new Reduction.Activation(reductions[2],null,bindings,offset,4));
+					}
+				}
+				{ // Reduction_3
+					if(s1.kind == K_And) {
+						Automaton.Term t1 = (Automaton.Term) s1;
+						int r2 = t1.contents;
+						Automaton.State s2 = automaton.get(r2);
+						Automaton.Collection c2 = (Automaton.Collection) s2;
+						int offset = bindings.allocate(4);
+						int[] state = bindings.array();
+						state[offset] = r0;
+						state[offset+1] = r1;
+						state[offset+2] = r2;
+						activations.add(new Reduction.Activation(reductions[3],null,bindings,offset,4));
+					}
+				}
+			}
+		}
+	}
+
+	private static void probeReductions_And(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+		int r0 = target;
+		Automaton.State s0 = automaton.get(r0);
+		if(s0.kind == K_And) {
+			Automaton.Term t0 = (Automaton.Term) s0;
+			int r1 = t0.contents;
+			Automaton.State s1 = automaton.get(r1);
+			Automaton.Collection c1 = (Automaton.Collection) s1;
+			{ // Reduction_4
+				if(c1.size() == 1) {
+					for(int r3=0;r3!=c1.size();++r3) {
+						int r2 = c1.get(r3);
+						int offset = bindings.allocate(4);
+						int[] state = bindings.array();
+						state[offset] = r0;
+						state[offset+1] = r1;
+						state[offset+2] = r2;
+						state[offset+3] = r3;
+						activations.add(new Reduction.Activation(reductions[4],null,bindings,offset,4));
+					}
+				}
+			}
+			{ // Reduction_5, Reduction_6, Reduction_9, Reduction_10
+				if(c1.size() >= 1) {
+					{ // Reduction_5
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_And) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								Automaton.State s4 = automaton.get(r4);
+								Automaton.Collection c4 = (Automaton.Collection) s4;
+								int offset = bindings.allocate(7);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								state[offset+4] = r4;
+								activations.add(new Reduction.Activation(reductions[5],null,bindings,offset,7));
+							}
+						}
+					}
+					{ // Reduction_6
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Or) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								Automaton.State s4 = automaton.get(r4);
+								Automaton.Collection c4 = (Automaton.Collection) s4;
+								int offset = bindings.allocate(7);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								state[offset+4] = r4;
+								activations.add(new Reduction.Activation(reductions[6],null,bindings,offset,7));
+							}
+						}
+					}
+					{ // Reduction_9
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts1(automaton,r2)) {
+								int offset = bindings.allocate(5);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								activations.add(new Reduction.Activation(reductions[9],null,bindings,offset,5));
+							}
+						}
+					}
+					{ // Reduction_10
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts0(automaton,r2)) {
+								int offset = bindings.allocate(5);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								activations.add(new Reduction.Activation(reductions[10],null,bindings,offset,5));
+							}
+						}
+					}
+				}
+			}
+			{ // Reduction_11, Reduction_12, Reduction_16, Reduction_18, Reduction_20, Reduction_22, Reduction_23, Reduction_28, Reduction_29
+				if(c1.size() >= 2) {
+					{ // Reduction_11
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts3(automaton,r2)) {
+								for(int r5=0;r5!=c1.size();++r5) {
+									if(r5 == r3) { continue; }
+									int r4 = c1.get(r5);
+									if(accepts3(automaton,r4)) {
+										int offset = bindings.allocate(7);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										activations.add(new Reduction.Activation(reductions[11],null,bindings,offset,7));
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_12
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts3(automaton,r2)) {
+								for(int r5=0;r5!=c1.size();++r5) {
+									if(r5 == r3) { continue; }
+									int r4 = c1.get(r5);
+									Automaton.State s4 = automaton.get(r4);
+									if(s4.kind == K_Not) {
+										Automaton.Term t4 = (Automaton.Term) s4;
+										int r6 = t4.contents;
+										if(accepts3(automaton,r6)) {
+											int offset = bindings.allocate(8);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											activations.add(new Reduction.Activation(reductions[12],null,bindings,offset,8));
+										}
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_16
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Ref) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								for(int r6=0;r6!=c1.size();++r6) {
+									if(r6 == r3) { continue; }
+									int r5 = c1.get(r6);
+									Automaton.State s5 = automaton.get(r5);
+									if(s5.kind == K_Ref) {
+										Automaton.Term t5 = (Automaton.Term) s5;
+										int r7 = t5.contents;
+										int offset = bindings.allocate(9);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										activations.add(new Reduction.Activation(reductions[16],null,bindings,offset,9));
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_18
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Ref) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								for(int r6=0;r6!=c1.size();++r6) {
+									if(r6 == r3) { continue; }
+									int r5 = c1.get(r6);
+									Automaton.State s5 = automaton.get(r5);
+									if(s5.kind == K_Not) {
+										Automaton.Term t5 = (Automaton.Term) s5;
+										int r7 = t5.contents;
+										Automaton.State s7 = automaton.get(r7);
+										if(s7.kind == K_Ref) {
+											Automaton.Term t7 = (Automaton.Term) s7;
+											int r8 = t7.contents;
+											int offset = bindings.allocate(10);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+7] = r7;
+											state[offset+8] = r8;
+											activations.add(new Reduction.Activation(reductions[18],null,bindings,offset,10));
+										}
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_20
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Meta) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								for(int r6=0;r6!=c1.size();++r6) {
+									if(r6 == r3) { continue; }
+									int r5 = c1.get(r6);
+									Automaton.State s5 = automaton.get(r5);
+									if(s5.kind == K_Meta) {
+										Automaton.Term t5 = (Automaton.Term) s5;
+										int r7 = t5.contents;
+										int offset = bindings.allocate(9);
+										int[] state = bindings.array();
+										state[offset] = r0;
+										state[offset+1] = r1;
+										state[offset+2] = r2;
+										state[offset+3] = r3;
+										state[offset+4] = r4;
+										state[offset+5] = r5;
+										state[offset+6] = r6;
+										state[offset+7] = r7;
+										activations.add(new Reduction.Activation(reductions[20],null,bindings,offset,9));
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_22
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Meta) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								for(int r6=0;r6!=c1.size();++r6) {
+									if(r6 == r3) { continue; }
+									int r5 = c1.get(r6);
+									Automaton.State s5 = automaton.get(r5);
+									if(s5.kind == K_Not) {
+										Automaton.Term t5 = (Automaton.Term) s5;
+										int r7 = t5.contents;
+										Automaton.State s7 = automaton.get(r7);
+										if(s7.kind == K_Meta) {
+											Automaton.Term t7 = (Automaton.Term) s7;
+											int r8 = t7.contents;
+											int offset = bindings.allocate(10);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+7] = r7;
+											state[offset+8] = r8;
+											activations.add(new Reduction.Activation(reductions[22],null,bindings,offset,10));
+										}
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_23
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Term) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								Automaton.State s4 = automaton.get(r4);
+								Automaton.List l4 = (Automaton.List) s4;
+								if(l4.size() == 2) {
+									int r5 = l4.get(0);
+									int r6 = l4.get(1);
+									for(int r8=0;r8!=c1.size();++r8) {
+										if(r8 == r3) { continue; }
+										int r7 = c1.get(r8);
+										Automaton.State s7 = automaton.get(r7);
+										if(s7.kind == K_Term) {
+											Automaton.Term t7 = (Automaton.Term) s7;
+											int r9 = t7.contents;
+											Automaton.State s9 = automaton.get(r9);
+											Automaton.List l9 = (Automaton.List) s9;
+											if(l9.size() == 2) {
+												int r10 = l9.get(0);
+												int r11 = l9.get(1);
+												int offset = bindings.allocate(13);
+												int[] state = bindings.array();
+												state[offset] = r0;
+												state[offset+1] = r1;
+												state[offset+2] = r2;
+												state[offset+3] = r3;
+												state[offset+4] = r4;
+												state[offset+5] = r5;
+												state[offset+6] = r6;
+												state[offset+7] = r7;
+												state[offset+8] = r8;
+												state[offset+9] = r9;
+												state[offset+10] = r10;
+												state[offset+11] = r11;
+												activations.add(new Reduction.Activation(reductions[23],null,bindings,offset,13));
+											}
+										}
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_28
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts6(automaton,r2)) {
+								for(int r5=0;r5!=c1.size();++r5) {
+									if(r5 == r3) { continue; }
+									int r4 = c1.get(r5);
+									int offset = bindings.allocate(7);
+									int[] state = bindings.array();
+									state[offset] = r0;
+									state[offset+1] = r1;
+									state[offset+2] = r2;
+									state[offset+3] = r3;
+									state[offset+4] = r4;
+									state[offset+5] = r5;
+									activations.add(new Reduction.Activation(reductions[28],null,bindings,offset,7));
+								}
+							}
+						}
+					}
+					{ // Reduction_29
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_List) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								Automaton.State s4 = automaton.get(r4);
+								Automaton.List l4 = (Automaton.List) s4;
+								int r5 = l4.get(0);
+								if(accepts11(automaton,r5)) {
+									int r6 = l4.get(1);
+									Automaton.State s6 = automaton.get(r6);
+									Automaton.List l6 = (Automaton.List) s6;
+									for(int r9=0;r9!=c1.size();++r9) {
+										if(r9 == r3) { continue; }
+										int r8 = c1.get(r9);
+										Automaton.State s8 = automaton.get(r8);
+										if(s8.kind == K_List) {
+											Automaton.Term t8 = (Automaton.Term) s8;
+											int r10 = t8.contents;
+											Automaton.State s10 = automaton.get(r10);
+											Automaton.List l10 = (Automaton.List) s10;
+											int r11 = l10.get(0);
+											if(accepts11(automaton,r11)) {
+												int r12 = l10.get(1);
+												Automaton.State s12 = automaton.get(r12);
+												Automaton.List l12 = (Automaton.List) s12;
+												int offset = bindings.allocate(15);
+												int[] state = bindings.array();
+												state[offset] = r0;
+												state[offset+1] = r1;
+												state[offset+2] = r2;
+												state[offset+3] = r3;
+												state[offset+4] = r4;
+												state[offset+5] = r5;
+												state[offset+6] = r6;
+												state[offset+8] = r8;
+												state[offset+9] = r9;
+												state[offset+10] = r10;
+												state[offset+11] = r11;
+												state[offset+12] = r12;
+												activations.add(new Reduction.Activation(reductions[29],null,bindings,offset,15));
+											}
+										}
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void probeReductions_Or(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {
+		int r0 = target;
+		Automaton.State s0 = automaton.get(r0);
+		if(s0.kind == K_Or) {
+			Automaton.Term t0 = (Automaton.Term) s0;
+			int r1 = t0.contents;
+			Automaton.State s1 = automaton.get(r1);
+			Automaton.Collection c1 = (Automaton.Collection) s1;
+			{ // Reduction_7
+				if(c1.size() == 1) {
+					for(int r3=0;r3!=c1.size();++r3) {
+						int r2 = c1.get(r3);
+						int offset = bindings.allocate(4);
+						int[] state = bindings.array();
+						state[offset] = r0;
+						state[offset+1] = r1;
+						state[offset+2] = r2;
+						state[offset+3] = r3;
+						activations.add(new Reduction.Activation(reductions[7],null,bindings,offset,4));
+					}
+				}
+			}
+			{ // Reduction_8, Reduction_13, Reduction_14
+				if(c1.size() >= 1) {
+					{ // Reduction_8
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Or) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								Automaton.State s4 = automaton.get(r4);
+								Automaton.Collection c4 = (Automaton.Collection) s4;
+								int offset = bindings.allocate(7);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								state[offset+4] = r4;
+								activations.add(new Reduction.Activation(reductions[8],null,bindings,offset,7));
+							}
+						}
+					}
+					{ // Reduction_13
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts0(automaton,r2)) {
+								int offset = bindings.allocate(5);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								activations.add(new Reduction.Activation(reductions[13],null,bindings,offset,5));
+							}
+						}
+					}
+					{ // Reduction_14
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							if(accepts1(automaton,r2)) {
+								int offset = bindings.allocate(5);
+								int[] state = bindings.array();
+								state[offset] = r0;
+								state[offset+1] = r1;
+								state[offset+2] = r2;
+								state[offset+3] = r3;
+								activations.add(new Reduction.Activation(reductions[14],null,bindings,offset,5));
+							}
+						}
+					}
+				}
+			}
+			{ // Reduction_17, Reduction_21
+				if(c1.size() >= 2) {
+					{ // Reduction_17
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Ref) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								if(accepts0(automaton,r4)) {
+									for(int r6=0;r6!=c1.size();++r6) {
+										if(r6 == r3) { continue; }
+										int r5 = c1.get(r6);
+										Automaton.State s5 = automaton.get(r5);
+										if(s5.kind == K_Ref) {
+											Automaton.Term t5 = (Automaton.Term) s5;
+											int r7 = t5.contents;
+											int offset = bindings.allocate(9);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+7] = r7;
+											activations.add(new Reduction.Activation(reductions[17],null,bindings,offset,9));
+										}
+									}
+								}
+							}
+						}
+					}
+					{ // Reduction_21
+						for(int r3=0;r3!=c1.size();++r3) {
+							int r2 = c1.get(r3);
+							Automaton.State s2 = automaton.get(r2);
+							if(s2.kind == K_Meta) {
+								Automaton.Term t2 = (Automaton.Term) s2;
+								int r4 = t2.contents;
+								if(accepts0(automaton,r4)) {
+									for(int r6=0;r6!=c1.size();++r6) {
+										if(r6 == r3) { continue; }
+										int r5 = c1.get(r6);
+										Automaton.State s5 = automaton.get(r5);
+										if(s5.kind == K_Meta) {
+											Automaton.Term t5 = (Automaton.Term) s5;
+											int r7 = t5.contents;
+											int offset = bindings.allocate(9);
+											int[] state = bindings.array();
+											state[offset] = r0;
+											state[offset+1] = r1;
+											state[offset+2] = r2;
+											state[offset+3] = r3;
+											state[offset+4] = r4;
+											state[offset+5] = r5;
+											state[offset+6] = r6;
+											state[offset+7] = r7;
+											activations.add(new Reduction.Activation(reductions[21],null,bindings,offset,9));
+										}
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
 	// =========================================================================
 	// Schema
 	// =========================================================================
@@ -1988,6 +2742,944 @@ public final class Types {
 	// bool
 	private static Type type11 = Runtime.Type("Fk0");
 
+	private static boolean accepts0(Automaton automaton, int index) {
+		Automaton.State state = automaton.get(index);
+		return state.kind == K_Any && ((Automaton.Term) state).contents == Automaton.K_VOID;
+	}
+
+	private static boolean accepts1(Automaton automaton, int index) {
+		Automaton.State state = automaton.get(index);
+		return state.kind == K_Void && ((Automaton.Term) state).contents == Automaton.K_VOID;
+	}
+
+	private static boolean accepts3(Automaton automaton, int index) {
+		Automaton.State state = automaton.get(index);
+		return accepts3_20(automaton, state);
+	}
+
+	private static boolean accepts3_20(Automaton automaton, Automaton.State state) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean is4(Automaton automaton, int index) {
+		return automaton.get(index).kind == K_Any && ((Automaton.Term) automaton.get(index)).contents == Automaton.K_VOID;
+	}
+
+	private static boolean accepts6(Automaton automaton, int index) {
+		StateMemo memo = index >= 0 ? automaton.memo() : null;
+		if(memo != null) {
+			int known = memo.get(type6, index);
+			if(known != StateMemo.UNKNOWN) {
+				return known == StateMemo.TRUE;
+			}
+		}
+		Automaton.State state = automaton.get(index);
+		Runtime.Assumptions assumptions = new Runtime.Assumptions();
+		boolean r = state.kind == K_List && accepts6_8(automaton, ((Automaton.Term) state).contents, assumptions);
+		if(memo != null) {
+			memo.put(type6, index, r);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_8(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(8, index)) {
+			return true;
+		}
+		boolean r = accepts6_8(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(8, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_8(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts6_25(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts6_4(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts6_25(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(25, index)) {
+			return true;
+		}
+		boolean r = accepts6_23(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(25, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_4(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(4, index)) {
+			return true;
+		}
+		boolean r = accepts6_4(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(4, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_23(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_List:
+			return accepts6_8(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Not:
+			return accepts6_53(automaton, automaton.get(((Automaton.Term) state).contents), assumptions) || accepts6_25(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Or:
+			return accepts6_57(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_And:
+			return accepts6_57(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Ref:
+			return accepts6_25(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Meta:
+			return accepts6_25(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Nominal:
+			return accepts6_72(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Term:
+			return accepts6_78(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Set:
+			return accepts6_86(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Bag:
+			return accepts6_86(automaton, ((Automaton.Term) state).contents, assumptions);
+		}
+		return false;
+	}
+
+	private static boolean accepts6_4(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts6_25(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts6_53(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean accepts6_57(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(57, index)) {
+			return true;
+		}
+		boolean r = accepts6_57(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(57, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_72(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(72, index)) {
+			return true;
+		}
+		boolean r = accepts6_72(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(72, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_78(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(78, index)) {
+			return true;
+		}
+		boolean r = accepts6_78(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(78, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_86(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(86, index)) {
+			return true;
+		}
+		boolean r = accepts6_86(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(86, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_57(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Set)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts6_25(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts6_72(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		if(!(accepts6_25(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts6_78(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() < 1) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		for(int i = 1; i != collection.size(); ++i) {
+			if(!(accepts6_25(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts6_86(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts6_25(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts6_82(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts6_82(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(82, index)) {
+			return true;
+		}
+		boolean r = accepts6_82(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(82, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts6_82(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Bag)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts6_25(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean is7(Automaton automaton, int index) {
+		return accepts7_21(automaton, automaton.get(index));
+	}
+
+	private static boolean accepts7_21(Automaton automaton, Automaton.State state) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean is8(Automaton automaton, int index) {
+		StateMemo memo = index >= 0 ? automaton.memo() : null;
+		if(memo != null) {
+			int known = memo.get(type8, index);
+			if(known != StateMemo.UNKNOWN) {
+				return known == StateMemo.TRUE;
+			}
+		}
+		Runtime.Assumptions assumptions = new Runtime.Assumptions();
+		boolean r = accepts8_5(automaton, automaton.get(index), assumptions);
+		if(memo != null) {
+			memo.put(type8, index, r);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_5(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Set:
+			return accepts8_15(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Bag:
+			return accepts8_15(automaton, ((Automaton.Term) state).contents, assumptions);
+		}
+		return false;
+	}
+
+	private static boolean accepts8_15(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(15, index)) {
+			return true;
+		}
+		boolean r = accepts8_15(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(15, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_15(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts8_31(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts8_11(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts8_31(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(31, index)) {
+			return true;
+		}
+		boolean r = accepts8_29(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(31, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_11(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(11, index)) {
+			return true;
+		}
+		boolean r = accepts8_11(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(11, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_29(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Set:
+			return accepts8_15(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Not:
+			return accepts8_59(automaton, automaton.get(((Automaton.Term) state).contents), assumptions) || accepts8_31(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Or:
+			return accepts8_62(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_And:
+			return accepts8_62(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Ref:
+			return accepts8_31(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Meta:
+			return accepts8_31(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Nominal:
+			return accepts8_77(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Term:
+			return accepts8_83(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Bag:
+			return accepts8_15(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_List:
+			return accepts8_94(automaton, ((Automaton.Term) state).contents, assumptions);
+		}
+		return false;
+	}
+
+	private static boolean accepts8_11(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Bag)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts8_31(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts8_59(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean accepts8_62(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(62, index)) {
+			return true;
+		}
+		boolean r = accepts8_62(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(62, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_77(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(77, index)) {
+			return true;
+		}
+		boolean r = accepts8_77(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(77, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_83(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(83, index)) {
+			return true;
+		}
+		boolean r = accepts8_83(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(83, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_94(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(94, index)) {
+			return true;
+		}
+		boolean r = accepts8_94(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(94, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_62(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Set)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts8_31(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts8_77(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		if(!(accepts8_31(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts8_83(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() < 1) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		for(int i = 1; i != collection.size(); ++i) {
+			if(!(accepts8_31(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts8_94(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts8_31(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts8_90(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts8_90(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(90, index)) {
+			return true;
+		}
+		boolean r = accepts8_90(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(90, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts8_90(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts8_31(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean is9(Automaton automaton, int index) {
+		return automaton.get(index).kind == K_Not && accepts9_25(automaton, automaton.get(((Automaton.Term) automaton.get(index)).contents));
+	}
+
+	private static boolean accepts9_25(Automaton automaton, Automaton.State state) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean is10(Automaton automaton, int index) {
+		StateMemo memo = index >= 0 ? automaton.memo() : null;
+		if(memo != null) {
+			int known = memo.get(type10, index);
+			if(known != StateMemo.UNKNOWN) {
+				return known == StateMemo.TRUE;
+			}
+		}
+		Runtime.Assumptions assumptions = new Runtime.Assumptions();
+		boolean r = automaton.get(index).kind == K_Not && accepts10_9(automaton, automaton.get(((Automaton.Term) automaton.get(index)).contents), assumptions);
+		if(memo != null) {
+			memo.put(type10, index, r);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_9(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Set:
+			return accepts10_19(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Bag:
+			return accepts10_19(automaton, ((Automaton.Term) state).contents, assumptions);
+		}
+		return false;
+	}
+
+	private static boolean accepts10_19(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(19, index)) {
+			return true;
+		}
+		boolean r = accepts10_19(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(19, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_19(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts10_34(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts10_15(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts10_34(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(34, index)) {
+			return true;
+		}
+		boolean r = accepts10_32(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(34, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_15(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(15, index)) {
+			return true;
+		}
+		boolean r = accepts10_15(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(15, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_32(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Set:
+			return accepts10_19(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Not:
+			return accepts10_62(automaton, automaton.get(((Automaton.Term) state).contents), assumptions) || accepts10_34(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Or:
+			return accepts10_65(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_And:
+			return accepts10_65(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Ref:
+			return accepts10_34(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Meta:
+			return accepts10_34(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Nominal:
+			return accepts10_80(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Term:
+			return accepts10_86(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_Bag:
+			return accepts10_19(automaton, ((Automaton.Term) state).contents, assumptions);
+		case K_List:
+			return accepts10_97(automaton, ((Automaton.Term) state).contents, assumptions);
+		}
+		return false;
+	}
+
+	private static boolean accepts10_15(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Bag)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts10_34(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts10_62(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		switch(state.kind) {
+		case K_Any:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Void:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Bool:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Int:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_Real:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		case K_String:
+			return ((Automaton.Term) state).contents == Automaton.K_VOID;
+		}
+		return false;
+	}
+
+	private static boolean accepts10_65(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(65, index)) {
+			return true;
+		}
+		boolean r = accepts10_65(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(65, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_80(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(80, index)) {
+			return true;
+		}
+		boolean r = accepts10_80(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(80, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_86(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(86, index)) {
+			return true;
+		}
+		boolean r = accepts10_86(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(86, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_97(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(97, index)) {
+			return true;
+		}
+		boolean r = accepts10_97(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(97, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_65(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.Set)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts10_34(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts10_80(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		if(!(accepts10_34(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts10_86(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() < 1) {
+			return false;
+		}
+		if(!(automaton.get(collection.get(0)) instanceof Automaton.Strung)) {
+			return false;
+		}
+		for(int i = 1; i != collection.size(); ++i) {
+			if(!(accepts10_34(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts10_97(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		if(collection.size() != 2) {
+			return false;
+		}
+		if(!(accepts10_34(automaton, collection.get(0), assumptions))) {
+			return false;
+		}
+		if(!(accepts10_93(automaton, collection.get(1), assumptions))) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean accepts10_93(Automaton automaton, int index, Runtime.Assumptions assumptions) {
+		Automaton.State state = automaton.get(index);
+		if(index >= 0 && !assumptions.assume(93, index)) {
+			return true;
+		}
+		boolean r = accepts10_93(automaton, state, assumptions);
+		if(index >= 0) {
+			assumptions.retract(93, index);
+		}
+		return r;
+	}
+
+	private static boolean accepts10_93(Automaton automaton, Automaton.State state, Runtime.Assumptions assumptions) {
+		if(!(state instanceof Automaton.List)) {
+			return false;
+		}
+		Automaton.Collection collection = (Automaton.Collection) state;
+		for(int i = 0; i != collection.size(); ++i) {
+			if(!(accepts10_34(automaton, collection.get(i), assumptions))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean accepts11(Automaton automaton, int index) {
+		Automaton.State state = automaton.get(index);
+		return state instanceof Automaton.Bool;
+	}
+
 	// =========================================================================
 	// Patterns
 	// =========================================================================
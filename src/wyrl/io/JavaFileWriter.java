@@ -28,6 +28,7 @@ package wyrl.io;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigInteger;
 import java.util.*;
@@ -66,6 +67,7 @@ public class JavaFileWriter {
 
 	public void write(SpecFile spec) throws IOException {
 		reset();
+		buildProbeGroups(spec);
 		translate(spec, spec);
 	}
 
@@ -98,6 +100,7 @@ public class JavaFileWriter {
 		}
 
 		if (root == spec) {
+			writeSharedProbes();
 			writeSchema(spec);
 			writeTypeTests();
 			writePatterns(spec);
@@ -132,6 +135,7 @@ public class JavaFileWriter {
 		termCounter = 0;
 		reductionCounter = 0;
 		inferenceCounter = 0;
+		probeGroups.clear();
 	}
 
 	protected void writeImports() {
@@ -143,6 +147,7 @@ public class JavaFileWriter {
 		myOut("import wyautl.core.*;");
 		myOut("import wyrw.core.*;");
 		myOut("import wyrw.util.AbstractRewriteRule;");
+		myOut("import wyrw.util.Bindings;");
 		myOut("import wyrl.core.*;");
 		myOut("import wyrl.core.Type;");
 		myOut("import wyrl.util.Runtime;");
@@ -243,13 +248,24 @@ public class JavaFileWriter {
 	private int reductionCounter = 0;
 	private int inferenceCounter = 0;
 
+	/**
+	 * Groups those rules of the same sort (i.e. reductions or inferences)
+	 * whose patterns match the same kind of term at their root, where there is
+	 * more than one such rule. The rules in a group are all probed at once by
+	 * a shared probe, which performs the tests common to their patterns only
+	 * once.
+	 */
+	private final LinkedHashMap<String, ProbeGroup> probeGroups = new LinkedHashMap<String, ProbeGroup>();
+
 	public void translate(RewriteDecl decl, SpecFile file) {
 		register(decl.pattern);
 
 		boolean isReduction = decl instanceof ReduceDecl;
 		Type param = decl.pattern.attribute(Attribute.Type.class).type;
 
-		String className = isReduction ? "Reduction_" + reductionCounter++ : "Inference_" + inferenceCounter++;
+		int index = isReduction ? reductionCounter++ : inferenceCounter++;
+		String className = (isReduction ? "Reduction_" : "Inference_") + index;
+		ProbeGroup group = probeGroups.get(probeGroupKey(decl));
 
 		if (isReduction) {
 			myOut(1, "private final static class " + className
@@ -264,7 +280,13 @@ public class JavaFileWriter {
 		// ===============================================
 		myOut();
 		myOut(2,"public " + className + "(Pattern.Term pattern) {");
-		myOut(3,"super(pattern);");
+		if (group == null) {
+			myOut(3,"super(pattern, K_" + decl.pattern.name + ");");
+		} else {
+			// The first rule in a group probes every rule in it
+			int size = group.rules.isEmpty() ? group.size : 0;
+			myOut(3,"super(pattern, K_" + decl.pattern.name + ", " + size + ");");
+		}
 		writeAnnotations(3,decl.annotations);
 		myOut(2,"}");
 
@@ -274,10 +296,15 @@ public class JavaFileWriter {
 		myOut();
 
 		if (isReduction) {
-			myOut(2, "public final void probe(Automaton automaton, int target, List<Reduction.Activation> activations) {");
+			myOut(2, "public final void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {");
 		} else {
-			myOut(2, "public final void probe(Automaton automaton, int root, int target, List<Inference.Activation> activations) {");
+			myOut(2, "public final void probe(Automaton automaton, int root, int target, Bindings bindings, List<Inference.Activation> activations) {");
 		}
+		// The body of the probe is captured, since it may also be merged into
+		// the shared probe for its group.
+		PrintWriter saved = out;
+		StringWriter body = new StringWriter();
+		out = new PrintWriter(body);
 		Environment environment = new Environment();
 		int thus = environment.allocate(param, "this");
 		myOut(3, "int r" + thus + " = target;");
@@ -291,35 +318,51 @@ public class JavaFileWriter {
 			int requires = translate(level, decl.requires, reqEnvironment, file);
 			myOut(level++, "if(r" + requires + ") { // REQUIRES");
 		}
-		// Add the appropriate activation
-		indent(level);
-		out.print("int[] state = {");
-		for (int i = 0; i != environment.size(); ++i) {
+		// Add the appropriate activation. Its state is written into the
+		// arena of bindings for this probe, rather than an array of its own.
+		int length = environment.size();
+		myOut(level, "int offset = bindings.allocate(" + length + ");");
+		myOut(level, "int[] state = bindings.array();");
+		for (int i = 0; i != length; ++i) {
 			Pair<Type, String> t = environment.get(i);
-			if (i != 0) {
-				out.print(", ");
-			}
-			if (t.first() == Type.T_VOID()) {
-				// In this case, we have allocated a temporary variable which
-				// should not be loaded into the activation state (because it
-				// will be out of scope).
-				out.print("0");
-			} else {
-				out.print("r" + i);
+			// Temporary variables which are out of scope are not loaded into
+			// the activation state, and their entries are simply left as zero.
+			if (t.first() != Type.T_VOID()) {
+				if (i == 0) {
+					myOut(level, "state[offset] = r" + i + ";");
+				} else {
+					myOut(level, "state[offset+" + i + "] = r" + i + ";");
+				}
 			}
 		}
-		out.println("};");
 
 		if(isReduction) {
-			myOut(level, "activations.add(new Reduction.Activation(this,null,state));");
+			myOut(level, "activations.add(new Reduction.Activation(this,null,bindings,offset," + length + "));");
 		} else {
-			myOut(level, "activations.add(new Inference.Activation(this,root,null,state));");
+			myOut(level, "activations.add(new Inference.Activation(this,root,null,bindings,offset," + length + "));");
 		}
 
 		// close the pattern match
-		while (level > 2) {
+		while (level > 3) {
 			myOut(--level, "}");
 		}
+		out.flush();
+		out = saved;
+		if (group == null) {
+			out.print(body);
+		} else {
+			boolean first = group.rules.isEmpty();
+			group.rules.add(className);
+			group.indices.add(index);
+			group.bodies.add(body.toString());
+			if (first) {
+				myOut(3, group.method + (isReduction ? "(automaton, target, bindings, activations);"
+						: "(automaton, root, target, bindings, activations);"));
+			} else {
+				out.print(body);
+			}
+		}
+		myOut(2, "}");
 
 		// ===============================================
 		// apply()
@@ -417,8 +460,13 @@ public class JavaFileWriter {
 			return level;
 		} else {
 			int typeIndex = register(pattern.type);
-			myOut(level++, "if(Runtime.accepts(type" + typeIndex
-					+ ",automaton,automaton.get(r" + source + "), SCHEMA)) {");
+			if (specialise(typeIndex, false)) {
+				myOut(level++, "if(accepts" + typeIndex
+						+ "(automaton,r" + source + ")) {");
+			} else {
+				myOut(level++, "if(Runtime.accepts(type" + typeIndex
+						+ ",automaton,automaton.get(r" + source + "), SCHEMA)) {");
+			}
 			return level;
 		}
 	}
@@ -1205,6 +1253,297 @@ public class JavaFileWriter {
 		myOut();
 	}
 
+	/**
+	 * Determine which rules will be probed together. This must be done before
+	 * any rules are translated, since the first rule in a group is responsible
+	 * for probing the whole group.
+	 *
+	 * @param spec
+	 */
+	protected void buildProbeGroups(SpecFile spec) {
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
+		for (Decl d : getAllDeclarations(spec)) {
+			if (d instanceof RewriteDecl) {
+				String key = probeGroupKey((RewriteDecl) d);
+				Integer count = counts.get(key);
+				counts.put(key, count == null ? 1 : count + 1);
+			}
+		}
+		for (Decl d : getAllDeclarations(spec)) {
+			if (d instanceof RewriteDecl) {
+				RewriteDecl rd = (RewriteDecl) d;
+				String key = probeGroupKey(rd);
+				int count = counts.get(key);
+				if (count > 1 && !probeGroups.containsKey(key)) {
+					probeGroups.put(key, new ProbeGroup(rd instanceof ReduceDecl, rd.pattern.name, count));
+				}
+			}
+		}
+	}
+
+	private static String probeGroupKey(RewriteDecl decl) {
+		return (decl instanceof ReduceDecl ? "reduce " : "infer ") + decl.pattern.name;
+	}
+
+	/**
+	 * <p>
+	 * Write out the shared probe for each group of rules. This is constructed
+	 * by merging the (previously captured) probes of the rules in the group
+	 * into a single decision tree, such that tests common to their patterns
+	 * are only performed once. For example, every rule in a group begins by
+	 * reading the target state and checking its kind.
+	 * </p>
+	 * <p>
+	 * Only statements which simply declare a variable, and conditionals which
+	 * are the last statement at their level in every rule, are shared.
+	 * Thereafter, the remainder of each rule is executed in turn. Loops are
+	 * never shared, since this would interleave the activations of different
+	 * rules. Thus, the activations produced are exactly those produced by
+	 * probing each rule in turn, and in the same order.
+	 * </p>
+	 */
+	protected void writeSharedProbes() {
+		if (probeGroups.isEmpty()) {
+			return;
+		}
+		myOut(1,
+				"// =========================================================================");
+		myOut(1, "// shared probes");
+		myOut(1,
+				"// =========================================================================");
+		myOut();
+		for (ProbeGroup group : probeGroups.values()) {
+			if (group.isReduction) {
+				myOut(1, "private static void " + group.method
+						+ "(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations) {");
+			} else {
+				myOut(1, "private static void " + group.method
+						+ "(Automaton automaton, int root, int target, Bindings bindings, List<Inference.Activation> activations) {");
+			}
+			ArrayList<List<ProbeNode>> probes = new ArrayList<List<ProbeNode>>();
+			for (int i = 0; i != group.rules.size(); ++i) {
+				// Activations are now created from outside the rule itself
+				String rule = (group.isReduction ? "reductions[" : "inferences[") + group.indices.get(i) + "]";
+				String body = group.bodies.get(i).replace(".Activation(this,", ".Activation(" + rule + ",");
+				List<ProbeNode> nodes = parseProbe(body);
+				if (nodes == null) {
+					probes = null;
+					break;
+				}
+				probes.add(nodes);
+			}
+			if (probes != null) {
+				writeSharedProbe(2, probes, group.rules);
+			} else {
+				// Fall back to probing each rule in turn, without sharing.
+				for (int i = 0; i != group.rules.size(); ++i) {
+					myOut(2, "{ // " + group.rules.get(i));
+					out.print(group.bodies.get(i));
+					myOut(2, "}");
+				}
+			}
+			myOut(1, "}");
+			myOut();
+		}
+	}
+
+	/**
+	 * Write out the merge of several probes, given as sequences of statements
+	 * at the same level. Statements are shared whilst they are identical
+	 * across all probes and can be shared. From the first point at which they
+	 * differ, the probes are split into runs of consecutive probes which
+	 * continue with the same statement, and the remainders of each run are
+	 * merged (in their own block) in the same way.
+	 *
+	 * @param level
+	 * @param probes
+	 * @param rules
+	 *            --- Name of the rule for each probe.
+	 */
+	private void writeSharedProbe(int level, List<List<ProbeNode>> probes, List<String> rules) {
+		List<ProbeNode> first = probes.get(0);
+		int i = 0;
+		for (; i < first.size(); ++i) {
+			ProbeNode node = first.get(i);
+			int j = 1;
+			while (j < probes.size() && canShare(probes.get(j - 1), probes.get(j), i)) {
+				j = j + 1;
+			}
+			if (j != probes.size() || (probes.size() == 1 && !canShare(first, first, i))) {
+				break;
+			} else if (node.children == null) {
+				myOut(level, node.line);
+			} else {
+				ArrayList<List<ProbeNode>> children = new ArrayList<List<ProbeNode>>();
+				for (List<ProbeNode> probe : probes) {
+					children.add(probe.get(i).children);
+				}
+				myOut(level, node.line);
+				writeSharedProbe(level + 1, children, rules);
+				myOut(level, "}");
+				return;
+			}
+		}
+		int start = 0;
+		while (start != probes.size()) {
+			int end = start + 1;
+			while (end < probes.size() && canShare(probes.get(end - 1), probes.get(end), i)) {
+				end = end + 1;
+			}
+			ArrayList<List<ProbeNode>> run = new ArrayList<List<ProbeNode>>();
+			for (int j = start; j != end; ++j) {
+				List<ProbeNode> probe = probes.get(j);
+				if (i < probe.size()) {
+					run.add(probe.subList(i, probe.size()));
+				}
+			}
+			if (!run.isEmpty()) {
+				// Each run has its own scope, since different probes may use
+				// the same variable for different things.
+				List<String> names = rules.subList(start, end);
+				myOut(level, "{ // " + join(names));
+				if (run.size() == 1) {
+					writeProbeNodes(level + 1, run.get(0));
+				} else {
+					writeSharedProbe(level + 1, run, names);
+				}
+				myOut(level, "}");
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Check whether two probes can share the statement at a given position.
+	 * This requires the statement to be identical in both, and to be one
+	 * which can be shared. Furthermore, a conditional can only be shared if it
+	 * is the last statement in both, as otherwise the activations of the two
+	 * probes would become interleaved.
+	 *
+	 * @param p1
+	 * @param p2
+	 * @param index
+	 * @return
+	 */
+	private static boolean canShare(List<ProbeNode> p1, List<ProbeNode> p2, int index) {
+		if (index >= p1.size() || index >= p2.size()) {
+			return false;
+		}
+		ProbeNode node = p1.get(index);
+		if (!node.isShareable() || !node.line.equals(p2.get(index).line)) {
+			return false;
+		} else if (node.children != null) {
+			return p1.size() == index + 1 && p2.size() == index + 1;
+		} else {
+			return true;
+		}
+	}
+
+	private static String join(List<String> names) {
+		String r = "";
+		for (int i = 0; i != names.size(); ++i) {
+			if (i != 0) {
+				r += ", ";
+			}
+			r += names.get(i);
+		}
+		return r;
+	}
+
+	private void writeProbeNodes(int level, List<ProbeNode> nodes) {
+		for (ProbeNode node : nodes) {
+			myOut(level, node.line);
+			if (node.children != null) {
+				writeProbeNodes(level + 1, node.children);
+				myOut(level, "}");
+			}
+		}
+	}
+
+	/**
+	 * Parse the body of a probe (as generated above) into a tree of
+	 * statements, where each block is a node whose children are its contents.
+	 *
+	 * @param body
+	 * @return The statements of the probe, or <code>null</code> if the body
+	 *         is not in the expected form.
+	 */
+	private static List<ProbeNode> parseProbe(String body) {
+		ArrayList<ProbeNode> root = new ArrayList<ProbeNode>();
+		ArrayList<List<ProbeNode>> stack = new ArrayList<List<ProbeNode>>();
+		List<ProbeNode> current = root;
+		for (String line : body.split("\n")) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			} else if (line.equals("}")) {
+				if (stack.isEmpty()) {
+					return null;
+				}
+				current = stack.remove(stack.size() - 1);
+			} else if (line.startsWith("}")) {
+				// e.g. an else branch
+				return null;
+			} else if (!line.contains("}") && (line.endsWith("{") || line.contains("{ //"))) {
+				ProbeNode node = new ProbeNode(line, new ArrayList<ProbeNode>());
+				current.add(node);
+				stack.add(current);
+				current = node.children;
+			} else {
+				current.add(new ProbeNode(line, null));
+			}
+		}
+		return stack.isEmpty() ? root : null;
+	}
+
+	/**
+	 * A group of rules which are probed together.
+	 */
+	private static final class ProbeGroup {
+		private final boolean isReduction;
+		private final int size;
+		private final String method;
+		private final ArrayList<String> rules = new ArrayList<String>();
+		private final ArrayList<Integer> indices = new ArrayList<Integer>();
+		private final ArrayList<String> bodies = new ArrayList<String>();
+
+		public ProbeGroup(boolean isReduction, String kind, int size) {
+			this.isReduction = isReduction;
+			this.size = size;
+			this.method = (isReduction ? "probeReductions_" : "probeInferences_") + kind;
+		}
+	}
+
+	/**
+	 * A statement in a generated probe, which is either a simple statement
+	 * or a block (in which case it has children).
+	 */
+	private static final class ProbeNode {
+		private final String line;
+		private final List<ProbeNode> children;
+
+		public ProbeNode(String line, List<ProbeNode> children) {
+			this.line = line;
+			this.children = children;
+		}
+
+		/**
+		 * Check whether this statement can be shared between probes. This is
+		 * the case for declarations of pattern variables, whose values are
+		 * never changed once assigned, and for conditionals (but not loops).
+		 *
+		 * @return
+		 */
+		public boolean isShareable() {
+			if (children != null) {
+				return line.startsWith("if(");
+			} else {
+				return line.matches("(int|boolean|Automaton\\.\\w+) [rstcl][0-9]+ = [^;]*;.*")
+						&& !line.contains("automaton.add");
+			}
+		}
+	}
+
 	public void writeRuleArrays(SpecFile spec) {
 		myOut(1,
 				"// =========================================================================");
@@ -1279,6 +1618,600 @@ public class JavaFileWriter {
 		}
 
 		myOut();
+
+		for (int i = 0; i != typeRegister.size(); ++i) {
+			if (stateTests.get(i) || indexTests.get(i)) {
+				new TypeTestWriter(i).write();
+			}
+		}
+	}
+
+	/**
+	 * Registered types which are tested against a given state (i.e. for a
+	 * pattern leaf) using a specialised acceptance test.
+	 */
+	private BitSet stateTests = new BitSet();
+
+	/**
+	 * Registered types which are tested against the state at a given index
+	 * (i.e. for the <code>is</code> operator) using a specialised acceptance
+	 * test.
+	 */
+	private BitSet indexTests = new BitSet();
+
+	/**
+	 * Determine whether a registered type can be tested using a specialised
+	 * acceptance method, rather than by interpreting its automaton at runtime
+	 * via <code>Runtime.accepts()</code>. If so, then the method is recorded
+	 * and will be written out alongside the type itself.
+	 *
+	 * @param typeIndex
+	 *            --- Index of the registered type.
+	 * @param byIndex
+	 *            --- Whether the type is tested against the index of a state,
+	 *            or against the state itself.
+	 * @return
+	 */
+	private boolean specialise(int typeIndex, boolean byIndex) {
+		BitSet tests = byIndex ? indexTests : stateTests;
+		if (!tests.get(typeIndex)) {
+			Automaton type = typeRegister.get(typeIndex).automaton();
+			int root = type.getRoot(0);
+			BitSet visited = new BitSet();
+			boolean ok = byIndex ? isSpecialisableRef(type, root, visited)
+					: isSpecialisable(type, root, new BitSet(), visited);
+			if (!ok) {
+				return false;
+			}
+			tests.set(typeIndex);
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a given state of a type automaton can be turned into a
+	 * specialised acceptance test. This fails for kinds of state which
+	 * <code>Runtime.accepts()</code> does not itself handle, and for cycles
+	 * which do not pass through a reference (since these are broken by
+	 * assumptions made at references).
+	 *
+	 * @param type
+	 *            --- The type automaton being checked.
+	 * @param tIndex
+	 *            --- Index of the state being checked.
+	 * @param path
+	 *            --- States visited since the last reference was crossed.
+	 * @param visited
+	 *            --- The targets of references which have already been
+	 *            checked.
+	 * @return
+	 */
+	private boolean isSpecialisable(Automaton type, int tIndex, BitSet path, BitSet visited) {
+		Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+		switch (tState.kind) {
+		case wyrl.core.Types.K_Void:
+		case wyrl.core.Types.K_Any:
+		case wyrl.core.Types.K_Bool:
+		case wyrl.core.Types.K_Int:
+		case wyrl.core.Types.K_Real:
+		case wyrl.core.Types.K_String:
+			return true;
+		}
+		if (tIndex < 0 || path.get(tIndex)) {
+			return false;
+		}
+		path.set(tIndex);
+		boolean r = true;
+		switch (tState.kind) {
+		case wyrl.core.Types.K_Term: {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			r = list.size() == 1 || isSpecialisableRef(type, list.get(1), visited);
+			break;
+		}
+		case wyrl.core.Types.K_Nominal: {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			r = isSpecialisable(type, list.get(1), path, visited);
+			break;
+		}
+		case wyrl.core.Types.K_Or:
+		case wyrl.core.Types.K_And: {
+			Automaton.Set set = (Automaton.Set) type.get(tState.contents);
+			for (int i = 0; r && i != set.size(); ++i) {
+				r = isSpecialisable(type, set.get(i), path, visited);
+			}
+			break;
+		}
+		case wyrl.core.Types.K_Set:
+		case wyrl.core.Types.K_Bag:
+		case wyrl.core.Types.K_List: {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			Automaton.Collection items = (Automaton.Collection) type.get(list.get(1));
+			r = isSpecialisableRef(type, list.get(0), visited);
+			for (int i = 0; r && i != items.size(); ++i) {
+				r = isSpecialisableRef(type, items.get(i), visited);
+			}
+			break;
+		}
+		default:
+			r = false;
+		}
+		path.clear(tIndex);
+		return r;
+	}
+
+	private boolean isSpecialisableRef(Automaton type, int tIndex, BitSet visited) {
+		Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+		if (tState.kind != wyrl.core.Types.K_Ref) {
+			// Never accepts anything
+			return true;
+		}
+		int child = tState.contents;
+		if (child == Automaton.K_VOID) {
+			return false;
+		} else if (child < 0) {
+			return isSpecialisable(type, child, new BitSet(), visited);
+		} else if (visited.get(child)) {
+			return true;
+		}
+		visited.set(child);
+		return isSpecialisable(type, child, new BitSet(), visited);
+	}
+
+	/**
+	 * <p>
+	 * Writes out the specialised acceptance tests for a registered type. There
+	 * is one method for each way in which the type is tested, which mirrors
+	 * the corresponding <code>Runtime.accepts()</code> method. These are
+	 * supported by helper methods for those states of the type which need
+	 * more than a single expression (e.g. collections), or which are
+	 * recursive.
+	 * </p>
+	 * <p>
+	 * The tests for recursive types consult the memo attached to the
+	 * automaton (if any) before doing anything else, and record their result
+	 * there afterwards. The tests for other types are cheap enough that doing
+	 * this would not pay off.
+	 * </p>
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class TypeTestWriter {
+		private final int index;
+		private final Automaton type;
+		private final String name;
+
+		/**
+		 * Targets of references which can reach themselves. Only these
+		 * require assumptions to be made when checking them.
+		 */
+		private final BitSet recursive = new BitSet();
+
+		/**
+		 * States for which helper methods are required, and those which have
+		 * already been requested.
+		 */
+		private final ArrayList<Integer> helpers = new ArrayList<Integer>();
+		private final BitSet requested = new BitSet();
+		private final BitSet requestedRefs = new BitSet();
+
+		private final String params;
+		private final String args;
+
+		public TypeTestWriter(int index) {
+			this.index = index;
+			this.type = typeRegister.get(index).automaton();
+			this.name = "accepts" + index;
+			for (int i = 0; i != type.nStates(); ++i) {
+				Automaton.State state = type.get(i);
+				if (state.kind == wyrl.core.Types.K_Ref) {
+					int child = ((Automaton.Term) state).contents;
+					if (child >= 0 && reaches(child, child, new BitSet())) {
+						recursive.set(child);
+					}
+				}
+			}
+			boolean isRecursive = !recursive.isEmpty();
+			this.params = isRecursive ? ", Runtime.Assumptions assumptions" : "";
+			this.args = isRecursive ? ", assumptions" : "";
+		}
+
+		public void write() {
+			int root = type.getRoot(0);
+			if (stateTests.get(index)) {
+				myOut(1, "private static boolean " + name + "(Automaton automaton, int index) {");
+				boolean memoise = !recursive.isEmpty();
+				writeLookup(memoise);
+				myOut(2, "Automaton.State state = automaton.get(index);");
+				writeResult(memoise, test(root, "state"));
+				myOut(1, "}");
+				myOut();
+			}
+			if (indexTests.get(index)) {
+				myOut(1, "private static boolean is" + index + "(Automaton automaton, int index) {");
+				boolean memoise = !recursive.isEmpty() && type.get(root).kind == wyrl.core.Types.K_Ref;
+				writeLookup(memoise);
+				writeResult(memoise, refTest(root, "index"));
+				myOut(1, "}");
+				myOut();
+			}
+			// Helpers may request further helpers as they are written
+			for (int i = 0; i != helpers.size(); ++i) {
+				int helper = helpers.get(i);
+				if (helper < 0) {
+					writeRefHelper(-helper - 1);
+				} else {
+					writeHelper(helper);
+				}
+			}
+		}
+
+		/**
+		 * Write out the lookup of a previously recorded result for the given
+		 * index in the memo attached to the automaton, if memoising.
+		 */
+		private void writeLookup(boolean memoise) {
+			if (memoise) {
+				myOut(2, "StateMemo memo = index >= 0 ? automaton.memo() : null;");
+				myOut(2, "if(memo != null) {");
+				myOut(3, "int known = memo.get(type" + index + ", index);");
+				myOut(3, "if(known != StateMemo.UNKNOWN) {");
+				myOut(4, "return known == StateMemo.TRUE;");
+				myOut(3, "}");
+				myOut(2, "}");
+			}
+		}
+
+		/**
+		 * Write out the evaluation of a given test, recording its result in
+		 * the memo if memoising.
+		 */
+		private void writeResult(boolean memoise, String test) {
+			if (!recursive.isEmpty()) {
+				myOut(2, "Runtime.Assumptions assumptions = new Runtime.Assumptions();");
+			}
+			if (memoise) {
+				myOut(2, "boolean r = " + test + ";");
+				myOut(2, "if(memo != null) {");
+				myOut(3, "memo.put(type" + index + ", index, r);");
+				myOut(2, "}");
+				myOut(2, "return r;");
+			} else {
+				myOut(2, "return " + test + ";");
+			}
+		}
+
+		/**
+		 * Generate a boolean expression which determines whether a given state
+		 * of the type accepts a given state of the actual automaton. This
+		 * corresponds to the state-based <code>Runtime.accepts()</code>.
+		 *
+		 * @param tIndex
+		 *            --- Index of the state in the type automaton.
+		 * @param state
+		 *            --- Expression giving the actual state, which may be
+		 *            evaluated more than once.
+		 * @return
+		 */
+		private String test(int tIndex, String state) {
+			Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+			switch (tState.kind) {
+			case wyrl.core.Types.K_Void:
+				return "false";
+			case wyrl.core.Types.K_Any:
+				return "true";
+			case wyrl.core.Types.K_Bool:
+				return state + " instanceof Automaton.Bool";
+			case wyrl.core.Types.K_Int:
+				return state + " instanceof Automaton.Int";
+			case wyrl.core.Types.K_Real:
+				return state + " instanceof Automaton.Real";
+			case wyrl.core.Types.K_String:
+				return state + " instanceof Automaton.Strung";
+			case wyrl.core.Types.K_Term: {
+				String term = termName(tState);
+				if (!terms.containsKey(term)) {
+					// No state in this automaton can have this term's name
+					return "false";
+				}
+				return state + ".kind == K_" + term + " && " + paren(termTest(tState, state));
+			}
+			case wyrl.core.Types.K_Nominal: {
+				Automaton.List list = (Automaton.List) type.get(tState.contents);
+				return test(list.get(1), state);
+			}
+			case wyrl.core.Types.K_Or: {
+				ArrayList<Integer> options = new ArrayList<Integer>();
+				flatten(tIndex, options);
+				int nTerms = 0;
+				boolean hasAnd = false;
+				for (int option : options) {
+					int kind = type.get(option).kind;
+					if (kind == wyrl.core.Types.K_Any) {
+						// Accepts everything, so nothing else need be checked
+						return "true";
+					} else if (kind == wyrl.core.Types.K_Term) {
+						nTerms++;
+					} else if (kind == wyrl.core.Types.K_And) {
+						hasAnd = true;
+					}
+				}
+				if (nTerms > 1 && !hasAnd) {
+					// Switch on the kind of the actual state
+					return helper(tIndex, state);
+				}
+				ArrayList<String> tests = new ArrayList<String>();
+				for (int option : options) {
+					tests.add(test(option, state));
+				}
+				return join(tests, " || ", "false");
+			}
+			case wyrl.core.Types.K_And: {
+				Automaton.Set set = (Automaton.Set) type.get(tState.contents);
+				ArrayList<String> tests = new ArrayList<String>();
+				for (int i = 0; i != set.size(); ++i) {
+					tests.add(test(set.get(i), state));
+				}
+				return join(tests, " && ", "true");
+			}
+			default:
+				// Collections require loops, hence a helper method
+				return helper(tIndex, state);
+			}
+		}
+
+		/**
+		 * Generate a boolean expression which determines whether a term state
+		 * of the type accepts the contents of a given actual term, whose kind
+		 * is already known to match.
+		 */
+		private String termTest(Automaton.Term tState, String state) {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			String contents = "((Automaton.Term) " + state + ").contents";
+			if (list.size() == 1) {
+				return contents + " == Automaton.K_VOID";
+			} else {
+				return refTest(list.get(1), contents);
+			}
+		}
+
+		/**
+		 * Generate a boolean expression which determines whether a given state
+		 * of the type accepts the state at a given index of the actual
+		 * automaton. This corresponds to the index-based
+		 * <code>Runtime.accepts()</code>, and hence the type state must be a
+		 * reference.
+		 */
+		private String refTest(int tIndex, String index) {
+			Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+			if (tState.kind != wyrl.core.Types.K_Ref) {
+				return "false";
+			}
+			int child = tState.contents;
+			if (child >= 0 && recursive.get(child)) {
+				if (!requestedRefs.get(child)) {
+					requestedRefs.set(child);
+					helpers.add(-child - 1);
+				}
+				return name + "_" + child + "(automaton, " + index + args + ")";
+			} else {
+				return test(child, "automaton.get(" + index + ")");
+			}
+		}
+
+		private String helper(int tIndex, String state) {
+			if (!requested.get(tIndex)) {
+				requested.set(tIndex);
+				helpers.add(tIndex);
+			}
+			return name + "_" + tIndex + "(automaton, " + state + args + ")";
+		}
+
+		/**
+		 * Write a helper method for the target of a recursive reference. This
+		 * makes the same assumption as <code>Runtime.accepts()</code> does
+		 * before checking the target, thereby ensuring the check terminates.
+		 */
+		private void writeRefHelper(int tIndex) {
+			myOut(1, "private static boolean " + name + "_" + tIndex + "(Automaton automaton, int index" + params + ") {");
+			myOut(2, "Automaton.State state = automaton.get(index);");
+			myOut(2, "if(index >= 0 && !assumptions.assume(" + tIndex + ", index)) {");
+			myOut(3, "return true;");
+			myOut(2, "}");
+			myOut(2, "boolean r = " + test(tIndex, "state") + ";");
+			myOut(2, "if(index >= 0) {");
+			myOut(3, "assumptions.retract(" + tIndex + ", index);");
+			myOut(2, "}");
+			myOut(2, "return r;");
+			myOut(1, "}");
+			myOut();
+		}
+
+		private void writeHelper(int tIndex) {
+			Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+			myOut(1, "private static boolean " + name + "_" + tIndex + "(Automaton automaton, Automaton.State state" + params + ") {");
+			switch (tState.kind) {
+			case wyrl.core.Types.K_Or:
+				writeOrHelper(tIndex);
+				break;
+			case wyrl.core.Types.K_Set:
+				writeCollectionHelper(tState, "Automaton.Set");
+				break;
+			case wyrl.core.Types.K_Bag:
+				writeCollectionHelper(tState, "Automaton.Bag");
+				break;
+			case wyrl.core.Types.K_List:
+				writeCollectionHelper(tState, "Automaton.List");
+				break;
+			}
+			myOut(1, "}");
+			myOut();
+		}
+
+		/**
+		 * Write the body of a helper method for a union type. This switches on
+		 * the kind of the actual state to find those terms in the union which
+		 * could accept it, with any other options being checked afterwards.
+		 */
+		private void writeOrHelper(int tIndex) {
+			ArrayList<Integer> options = new ArrayList<Integer>();
+			flatten(tIndex, options);
+			LinkedHashMap<String, List<String>> cases = new LinkedHashMap<String, List<String>>();
+			ArrayList<String> others = new ArrayList<String>();
+			for (int option : options) {
+				Automaton.Term tState = (Automaton.Term) type.get(option);
+				if (tState.kind == wyrl.core.Types.K_Term) {
+					String term = termName(tState);
+					if (terms.containsKey(term)) {
+						List<String> tests = cases.get(term);
+						if (tests == null) {
+							tests = new ArrayList<String>();
+							cases.put(term, tests);
+						}
+						tests.add(termTest(tState, "state"));
+					}
+				} else {
+					others.add(test(option, "state"));
+				}
+			}
+			myOut(2, "switch(state.kind) {");
+			for (Map.Entry<String, List<String>> e : cases.entrySet()) {
+				myOut(2, "case K_" + e.getKey() + ":");
+				myOut(3, "return " + join(e.getValue(), " || ", "false") + ";");
+			}
+			myOut(2, "}");
+			myOut(2, "return " + join(others, " || ", "false") + ";");
+		}
+
+		/**
+		 * Write the body of a helper method for a set, bag or list type. This
+		 * mirrors <code>Runtime.acceptsSetOrBag()</code> and
+		 * <code>Runtime.acceptsList()</code>. In particular, for a set or bag
+		 * the search for the ith item begins from the ith element, since the
+		 * elements before it are considered matched already.
+		 */
+		private void writeCollectionHelper(Automaton.Term tState, String kind) {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			Automaton.Collection items = (Automaton.Collection) type.get(list.get(1));
+			int unbounded = list.get(0);
+			boolean isUnbounded = type.get(unbounded).kind != wyrl.core.Types.K_Void;
+			int minSize = items.size();
+			boolean isList = kind.equals("Automaton.List");
+
+			myOut(2, "if(!(state instanceof " + kind + ")) {");
+			myOut(3, "return false;");
+			myOut(2, "}");
+			myOut(2, "Automaton.Collection collection = (Automaton.Collection) state;");
+			if (!isUnbounded) {
+				myOut(2, "if(collection.size() != " + minSize + ") {");
+				myOut(3, "return false;");
+				myOut(2, "}");
+			} else if (minSize > 0) {
+				myOut(2, "if(collection.size() < " + minSize + ") {");
+				myOut(3, "return false;");
+				myOut(2, "}");
+			}
+			for (int i = 0; i != minSize; ++i) {
+				if (isList) {
+					String test = refTest(items.get(i), "collection.get(" + i + ")");
+					myOut(2, "if(" + not(test) + ") {");
+					myOut(3, "return false;");
+					myOut(2, "}");
+				} else {
+					String test = refTest(items.get(i), "collection.get(j)");
+					myOut(2, "for(int j = " + i + ";; ++j) {");
+					myOut(3, "if(j == collection.size()) {");
+					myOut(4, "return false;");
+					myOut(3, "} else if(" + test + ") {");
+					myOut(4, "break;");
+					myOut(3, "}");
+					myOut(2, "}");
+				}
+			}
+			if (isUnbounded) {
+				String test = refTest(unbounded, "collection.get(i)");
+				if (!test.equals("true")) {
+					myOut(2, "for(int i = " + minSize + "; i != collection.size(); ++i) {");
+					myOut(3, "if(" + not(test) + ") {");
+					myOut(4, "return false;");
+					myOut(3, "}");
+					myOut(2, "}");
+				}
+			}
+			myOut(2, "return true;");
+		}
+
+		/**
+		 * Flatten the options of a union type, looking through any nested
+		 * unions or nominal types.
+		 */
+		private void flatten(int tIndex, List<Integer> options) {
+			Automaton.Term tState = (Automaton.Term) type.get(tIndex);
+			if (tState.kind == wyrl.core.Types.K_Nominal) {
+				Automaton.List list = (Automaton.List) type.get(tState.contents);
+				flatten(list.get(1), options);
+			} else if (tState.kind == wyrl.core.Types.K_Or) {
+				Automaton.Set set = (Automaton.Set) type.get(tState.contents);
+				for (int i = 0; i != set.size(); ++i) {
+					flatten(set.get(i), options);
+				}
+			} else {
+				options.add(tIndex);
+			}
+		}
+
+		private boolean reaches(int from, int to, BitSet visited) {
+			if (from < 0 || visited.get(from)) {
+				return false;
+			}
+			visited.set(from);
+			Automaton.State state = type.get(from);
+			if (state instanceof Automaton.Term) {
+				int contents = ((Automaton.Term) state).contents;
+				return contents == to || reaches(contents, to, visited);
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				for (int i = 0; i != c.size(); ++i) {
+					if (c.get(i) == to || reaches(c.get(i), to, visited)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private String termName(Automaton.Term tState) {
+			Automaton.List list = (Automaton.List) type.get(tState.contents);
+			return ((Automaton.Strung) type.get(list.get(0))).value;
+		}
+
+		private String join(List<String> tests, String op, String empty) {
+			if (tests.isEmpty()) {
+				return empty;
+			} else if (tests.size() == 1) {
+				return tests.get(0);
+			}
+			String r = "";
+			for (int i = 0; i != tests.size(); ++i) {
+				String test = tests.get(i);
+				if (i != 0) {
+					r += op;
+				}
+				if (test.contains(" && ") || test.contains(" || ")) {
+					test = "(" + test + ")";
+				}
+				r += test;
+			}
+			return r;
+		}
+
+		private String paren(String test) {
+			return test.contains(" || ") ? "(" + test + ")" : test;
+		}
+
+		private String not(String test) {
+			return "!(" + test + ")";
+		}
 	}
 
 	private void writeSchema(Type.Term tt) {
@@ -1472,7 +2405,7 @@ public class JavaFileWriter {
 		src = coerceFromRef(level, code.src, src, environment);
 
 		// TODO: currently we only support casting from integer to real!!
-		String body = "new Automaton.Real(r" + src + ".value)";
+		String body = "new Automaton.Real(r" + src + ".value())";
 
 		int target = environment.allocate(type);
 		myOut(level, type2JavaType(type) + " r" + target + " = " + body + ";");
@@ -1570,8 +2503,12 @@ public class JavaFileWriter {
 			Expr.Constant c = (Expr.Constant) code.rhs;
 			Type test = (Type) c.value;
 			int typeIndex = register(test);
-			body = "Runtime.accepts(type" + typeIndex + ", automaton, r" + lhs
-					+ ", SCHEMA)";
+			if (specialise(typeIndex, true)) {
+				body = "is" + typeIndex + "(automaton, r" + lhs + ")";
+			} else {
+				body = "Runtime.accepts(type" + typeIndex + ", automaton, r" + lhs
+						+ ", SCHEMA)";
+			}
 		} else if (code.op == Expr.BOp.AND) {
 			// special case to ensure short-circuiting of AND.
 			lhs = coerceFromRef(level, code.lhs, lhs, environment);
@@ -34,7 +34,6 @@ import java.util.Set;
 import wyautl.core.*;
 import wyautl.io.BinaryAutomataReader;
 import wyautl.io.PrettyAutomataWriter;
-import wyautl.util.BinaryMatrix;
 import wyfs.io.BinaryInputStream;
 import wyrl.core.Pattern;
 import wyrl.core.Type;
@@ -163,7 +162,17 @@ public class Runtime {
 	 * <code>Bool</code> accepts the automaton which describes <code>True</code>
 	 * . This function is used during rewriting to determine whether or not a
 	 * given pattern leaf matches, and also for implementing the <code>is</code>
-	 * operator
+	 * operator. This never modifies either automaton and all working state is
+	 * local to the call, hence it is safe to use from several threads at once
+	 * (e.g. when probing in parallel).
+	 * <p>
+	 * If a memo is attached to the automaton, then the result is looked up
+	 * there first (using the type as its key) and recorded there afterwards.
+	 * This is only done for types rooted at a reference, since no other type
+	 * accepts anything here. The memo can then be shared with the generated
+	 * tests for pattern leaves, which are only for types not rooted at a
+	 * reference.
+	 * </p>
 	 *
 	 * @param type
 	 *            --- The type being to check for containment.
@@ -178,8 +187,21 @@ public class Runtime {
 	 */
 	public static boolean accepts(Type type, Automaton automaton, int root, Schema schema) {
 		Automaton type_automaton = type.automaton();
-		BinaryMatrix assumptions = new BinaryMatrix(type_automaton.nStates(), automaton.nStates(), false);
-		return accepts(type_automaton, type_automaton.getRoot(0), automaton, root, schema, assumptions);
+		int tRoot = type_automaton.getRoot(0);
+		StateMemo memo = root >= 0 ? automaton.memo() : null;
+		if (memo != null && type_automaton.get(tRoot).kind == Types.K_Ref) {
+			int known = memo.get(type, root);
+			if (known != StateMemo.UNKNOWN) {
+				return known == StateMemo.TRUE;
+			}
+		} else {
+			memo = null;
+		}
+		boolean r = accepts(type_automaton, tRoot, automaton, root, schema, new Assumptions());
+		if (memo != null) {
+			memo.put(type, root, r);
+		}
+		return r;
 	}
 
 	/**
@@ -212,8 +234,7 @@ public class Runtime {
 	 */
 	public static boolean accepts(Type type, Automaton actual, Automaton.State aState, Schema schema) {
 		Automaton type_automaton = type.automaton();
-		BinaryMatrix assumptions = new BinaryMatrix(type_automaton.nStates(),actual.nStates(),false);
-		return accepts(type_automaton, type_automaton.getRoot(0), actual, aState, schema, assumptions);
+		return accepts(type_automaton, type_automaton.getRoot(0), actual, aState, schema, new Assumptions());
 	}
 
 	/**
@@ -247,7 +268,7 @@ public class Runtime {
 	 *            states.
 	 * @return
 	 */
-	private static boolean accepts(Automaton type, int tIndex, Automaton actual, int aIndex, Schema schema, BinaryMatrix assumptions) {
+	private static boolean accepts(Automaton type, int tIndex, Automaton actual, int aIndex, Schema schema, Assumptions assumptions) {
 		Automaton.Term tState = (Automaton.Term) type.get(tIndex);
 		Automaton.State aState = actual.get(aIndex);
 		if (tState.kind == Types.K_Ref) {			
@@ -255,13 +276,12 @@ public class Runtime {
 			int t_child = tTerm.contents;
 			if(t_child < 0 || aIndex < 0) {
 				return accepts(type, t_child, actual, aState, schema, assumptions);
-			} else if(assumptions.get(t_child, aIndex)) {
+			} else if(!assumptions.assume(t_child, aIndex)) {
 				// This is a cache hit
 				return true;
 			} else {
-				assumptions.set(t_child, aIndex, true);
 				boolean r = accepts(type, t_child, actual, aState, schema, assumptions);
-				assumptions.set(t_child, aIndex, false);
+				assumptions.retract(t_child, aIndex);
 				return r;
 			}			
 		} else {
@@ -304,7 +324,7 @@ public class Runtime {
 	 * @return
 	 */
 	private static boolean accepts(Automaton type, int tIndex, Automaton automaton, Automaton.State aState,
-			Schema schema, BinaryMatrix assumptions) {
+			Schema schema, Assumptions assumptions) {
 		Automaton.Term tState = (Automaton.Term) type.get(tIndex);
 
 		switch (tState.kind) {
@@ -394,7 +414,7 @@ public class Runtime {
 	 * @return
 	 */
 	private static boolean accepts(Automaton type, Automaton.Term tState, Automaton actual, Automaton.Term aTerm,
-			Schema schema, BinaryMatrix assumptions) {
+			Schema schema, Assumptions assumptions) {
 		Automaton.List list = (Automaton.List) type.get(tState.contents);
 		String expectedName = ((Automaton.Strung) type.get(list.get(0))).value;
 		String actualName = schema.get(aTerm.kind).name;
@@ -445,7 +465,7 @@ public class Runtime {
 	 * @return
 	 */
 	private static boolean acceptsSetOrBag(Automaton type, Automaton.Term tState, Automaton automaton,
-			Automaton.Collection aSetOrBag, Schema schema, BinaryMatrix assumptions) {
+			Automaton.Collection aSetOrBag, Schema schema, Assumptions assumptions) {
 
 		Automaton.List list = (Automaton.List) type.get(tState.contents);
 		Automaton.Collection collection = (Automaton.Collection) type.get(list
@@ -549,7 +569,7 @@ public class Runtime {
 	 * @return
 	 */
 	private static boolean acceptsList(Automaton type, Automaton.Term tState, Automaton automaton, Automaton.List aList,
-			Schema schema, BinaryMatrix assumptions) {
+			Schema schema, Assumptions assumptions) {
 		Automaton.List list = (Automaton.List) type.get(tState.contents);
 		Automaton.Collection collection = (Automaton.Collection) type.get(list
 				.get(1));
@@ -630,13 +650,13 @@ public class Runtime {
 	 * @return
 	 */
 	private static boolean acceptsNominal(Automaton type, Automaton.Term tState, Automaton automaton,
-			Automaton.State aState, Schema schema, BinaryMatrix assumptions) {
+			Automaton.State aState, Schema schema, Assumptions assumptions) {
 		Automaton.List l = (Automaton.List) type.get(tState.contents);
 		return accepts(type, l.get(1), automaton, aState, schema, assumptions);
 	}
 
 	private static boolean acceptsAnd(Automaton type, Automaton.Term tState, Automaton automaton,
-			Automaton.State aState, Schema schema, BinaryMatrix assumptions) {
+			Automaton.State aState, Schema schema, Assumptions assumptions) {
 		Automaton.Set set = (Automaton.Set) type.get(tState.contents);
 		for (int i = 0; i != set.size(); ++i) {
 			int element = set.get(i);
@@ -648,7 +668,7 @@ public class Runtime {
 	}
 
 	private static boolean acceptsOr(Automaton type, Automaton.Term tState, Automaton automaton, Automaton.State aState,
-			Schema schema, BinaryMatrix assumptions) {
+			Schema schema, Assumptions assumptions) {
 
 		Automaton.Set set = (Automaton.Set) type.get(tState.contents);
 		for (int i = 0; i != set.size(); ++i) {
@@ -658,5 +678,137 @@ public class Runtime {
 			}
 		}
 		return false;
-	}	
+	}
+
+	/**
+	 * <p>
+	 * The assumptions made whilst checking a type against an actual automaton,
+	 * as used by <code>accepts()</code> above and by the acceptance tests
+	 * generated for each type. Each assumption is a pair of states from the
+	 * type automaton and actual automaton, which is assumed to be accepted
+	 * whilst it is being checked. This is what breaks the cycle when a
+	 * recursive type meets a cyclic automaton.
+	 * </p>
+	 * <p>
+	 * Only the pairs actually visited are ever assumed, which is typically a
+	 * tiny fraction of all possible pairs. Hence, they are kept in an
+	 * open-addressed hash table (using linear probing) which is only
+	 * allocated on first use. Thus, the cost of checking is proportional to
+	 * the states visited, rather than to the size of either automaton.
+	 * </p>
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Assumptions {
+		/**
+		 * Marks an empty slot. This cannot be a valid pair, since only
+		 * non-negative states are ever assumed.
+		 */
+		private static final long EMPTY = -1;
+
+		private long[] items;
+		private int size;
+
+		/**
+		 * Assume that a given state in the type automaton accepts a given
+		 * state in the actual automaton.
+		 *
+		 * @param tIndex
+		 *            --- Index of state in the type automaton, which must be
+		 *            non-negative.
+		 * @param aIndex
+		 *            --- Index of state in the actual automaton, which must be
+		 *            non-negative.
+		 * @return True if this is a new assumption, or false if it was already
+		 *         assumed (in which case it must not be retracted).
+		 */
+		public boolean assume(int tIndex, int aIndex) {
+			long item = pair(tIndex, aIndex);
+			if (items == null) {
+				items = new long[16];
+				Arrays.fill(items, EMPTY);
+			} else if ((size + 1) * 2 > items.length) {
+				// Keep the table at most half full
+				resize(items.length * 2);
+			}
+			int mask = items.length - 1;
+			int i = hash(item) & mask;
+			while (items[i] != EMPTY) {
+				if (items[i] == item) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+			items[i] = item;
+			size = size + 1;
+			return true;
+		}
+
+		/**
+		 * Retract an assumption previously made with <code>assume()</code>.
+		 *
+		 * @param tIndex
+		 *            --- Index of state in the type automaton.
+		 * @param aIndex
+		 *            --- Index of state in the actual automaton.
+		 */
+		public void retract(int tIndex, int aIndex) {
+			if (items == null) {
+				return;
+			}
+			long item = pair(tIndex, aIndex);
+			int mask = items.length - 1;
+			int i = hash(item) & mask;
+			while (items[i] != item) {
+				if (items[i] == EMPTY) {
+					// Not assumed
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			// Shift back those items after the hole which would otherwise no
+			// longer be found from their home slot.
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				long next = items[j];
+				if (next == EMPTY) {
+					break;
+				}
+				int home = hash(next) & mask;
+				boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+				if (!stays) {
+					items[i] = next;
+					i = j;
+				}
+			}
+			items[i] = EMPTY;
+			size = size - 1;
+		}
+
+		private void resize(int capacity) {
+			long[] old = items;
+			items = new long[capacity];
+			Arrays.fill(items, EMPTY);
+			int mask = capacity - 1;
+			for (long item : old) {
+				if (item != EMPTY) {
+					int i = hash(item) & mask;
+					while (items[i] != EMPTY) {
+						i = (i + 1) & mask;
+					}
+					items[i] = item;
+				}
+			}
+		}
+
+		static int hash(long item) {
+			return (int) ((item * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+
+		static long pair(int tIndex, int aIndex) {
+			return ((long) tIndex << 32) | (aIndex & 0xFFFFFFFFL);
+		}
+	}
 }
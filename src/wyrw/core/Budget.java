@@ -0,0 +1,236 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Limits the amount of work done when rewriting an automaton, in terms of the
+ * elapsed (wall-clock) time, the number of automaton states allocated by rule
+ * applications and the number of states probed for activations. Once any
+ * limit is reached the budget is <i>exhausted</i>, and those components
+ * checking it (i.e. the reducer in <code>Reductions</code>, the rewrites and
+ * the rewriters) stop at their next safe point. A safe point is one where the
+ * automaton is valid and minimised, such as between two rewrites. Thus, the
+ * automaton is left partially reduced rather than in some intermediate state.
+ * Work is only recorded, rather than interrupted, when a limit is crossed and,
+ * hence, a limit may be overshot by the work done up to the next safe point.
+ * </p>
+ * <p>
+ * A budget may be shared by several threads (e.g. when probing in parallel)
+ * and may be cancelled by another thread at any time. In all cases, the first
+ * limit reached is recorded so that the caller can determine why rewriting
+ * stopped.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Budget {
+
+	/**
+	 * Indicates the absence of a limit.
+	 */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	/**
+	 * Identifies the limit which caused a budget to be exhausted.
+	 */
+	public enum Limit {
+		TIME, STATES, PROBES, CANCELLED
+	}
+
+	/**
+	 * Time at which this budget was created, as given by
+	 * <code>System.nanoTime()</code>.
+	 */
+	private final long start;
+
+	/**
+	 * Maximum elapsed time (in nanoseconds), or <code>UNLIMITED</code>.
+	 */
+	private final long timeout;
+
+	/**
+	 * Maximum number of automaton states which can be allocated, or
+	 * <code>UNLIMITED</code>.
+	 */
+	private final long maxStates;
+
+	/**
+	 * Maximum number of states which can be probed, or
+	 * <code>UNLIMITED</code>.
+	 */
+	private final long maxProbes;
+
+	private final AtomicLong states = new AtomicLong();
+
+	private final AtomicLong probes = new AtomicLong();
+
+	/**
+	 * The first limit reached, or <code>null</code> if none has been reached.
+	 */
+	private final AtomicReference<Limit> exhausted = new AtomicReference<Limit>();
+
+	/**
+	 * Construct a budget which starts now.
+	 *
+	 * @param timeout
+	 *            --- Maximum elapsed time in milliseconds, or
+	 *            <code>UNLIMITED</code>.
+	 * @param maxStates
+	 *            --- Maximum number of automaton states allocated, or
+	 *            <code>UNLIMITED</code>.
+	 * @param maxProbes
+	 *            --- Maximum number of states probed, or
+	 *            <code>UNLIMITED</code>.
+	 */
+	public Budget(long timeout, long maxStates, long maxProbes) {
+		if (timeout < 0 || maxStates < 0 || maxProbes < 0) {
+			throw new IllegalArgumentException("invalid budget");
+		}
+		this.start = System.nanoTime();
+		this.timeout = timeout == UNLIMITED ? UNLIMITED : timeout * 1000000;
+		this.maxStates = maxStates;
+		this.maxProbes = maxProbes;
+	}
+
+	/**
+	 * Construct a budget which limits only the elapsed time.
+	 *
+	 * @param timeout
+	 *            --- Maximum elapsed time in milliseconds.
+	 * @return
+	 */
+	public static Budget timeout(long timeout) {
+		return new Budget(timeout, UNLIMITED, UNLIMITED);
+	}
+
+	/**
+	 * Record that a number of automaton states have been allocated.
+	 *
+	 * @param count
+	 */
+	public void allocate(long count) {
+		if (states.addAndGet(count) > maxStates) {
+			exhaust(Limit.STATES);
+		}
+	}
+
+	/**
+	 * Record that a number of states have been probed for activations.
+	 *
+	 * @param count
+	 */
+	public void probe(long count) {
+		if (probes.addAndGet(count) > maxProbes) {
+			exhaust(Limit.PROBES);
+		}
+	}
+
+	/**
+	 * Request that rewriting stop at the next safe point. This may be called
+	 * from any thread.
+	 */
+	public void cancel() {
+		exhaust(Limit.CANCELLED);
+	}
+
+	/**
+	 * Check whether any limit has been reached. This is the method called at
+	 * each safe point and, since it reads the clock, should not be called in
+	 * tight loops.
+	 *
+	 * @return
+	 */
+	public boolean isExhausted() {
+		if (exhausted.get() != null) {
+			return true;
+		} else if (timeout != UNLIMITED && System.nanoTime() - start > timeout) {
+			exhaust(Limit.TIME);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the first limit reached, or <code>null</code> if the budget is not
+	 * yet exhausted.
+	 *
+	 * @return
+	 */
+	public Limit exhausted() {
+		isExhausted();
+		return exhausted.get();
+	}
+
+	/**
+	 * Get the number of automaton states allocated so far.
+	 *
+	 * @return
+	 */
+	public long states() {
+		return states.get();
+	}
+
+	/**
+	 * Get the number of states probed so far.
+	 *
+	 * @return
+	 */
+	public long probes() {
+		return probes.get();
+	}
+
+	/**
+	 * Get the time elapsed since this budget was created, in milliseconds.
+	 *
+	 * @return
+	 */
+	public long elapsed() {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private void exhaust(Limit limit) {
+		exhausted.compareAndSet(null, limit);
+	}
+
+	@Override
+	public String toString() {
+		String r = elapsed() + "ms, " + states() + " states, " + probes() + " probes";
+		Limit limit = exhausted.get();
+		if (limit == Limit.CANCELLED) {
+			r += " (cancelled)";
+		} else if (limit != null) {
+			r += " (" + limit.name().toLowerCase() + " limit reached)";
+		}
+		return r;
+	}
+}
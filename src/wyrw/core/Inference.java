@@ -5,12 +5,15 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-import wyautl.core.Automata;
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
 import wyrw.util.AbstractActivation;
 import wyrw.util.AbstractRewrite;
+import wyrw.util.Bindings;
+import wyrw.util.ParallelProbe;
 import wyrw.util.Reductions;
 import wyrw.util.AbstractRewrite.State;
 import wyrw.util.AbstractRewrite.Step;
@@ -19,38 +22,101 @@ public class Inference extends AbstractRewrite {
 	/**
 	 * This represents an experimental new mode where inference rules are
 	 * implemented using substitution rather than as actual rewrites. The goal
-	 * of this is to avoid problems related to isomorphic automata. At this
-	 * stage, all this new mode functions correctly, it does reduce overall
-	 * performance and it remains unclear whether or not isomorphic automata are
-	 * actually a problem in practice.
+	 * of this is to avoid problems related to isomorphic automata. Since all
+	 * states share a single automaton, each step only probes and minimises
+	 * those states which it added, rather than the whole automaton.
 	 */
 	public static final boolean USE_SUBSTITUTION = true;
 	
+	/**
+	 * The maximum number of reductions applied after each inference. Finer
+	 * grained limits on the work done can be set using
+	 * <code>setLimits()</code>.
+	 */
 	private final int MAX_REDUCTIONS = 10000;
 		
 	private final HashMap<Automaton,Integer> cache;
+
+	/**
+	 * Maps the fingerprint of each state's automaton to that state. This is
+	 * used in place of the above cache when the rewrite is bounded, since it
+	 * does not hold on to the automata themselves.
+	 */
+	private final HashMap<Long,Integer> fingerprints;
 	
 	private final InferenceRule[] inferences;
+
+	/**
+	 * Maps each term kind to the inference rules which could match it.
+	 */
+	private final int[][] dispatch;
 	
 	private final ReductionRule[] reductions;
+
+	/**
+	 * Pool of workers used to probe the states of an automaton in parallel,
+	 * or <code>null</code> if probing should be done sequentially.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * <p>
+	 * In substitution mode, this records the activations found for each state
+	 * of the shared automaton when it was first probed (with respect to
+	 * whichever root was being probed at that time). Since inference rules
+	 * only match downwards from the state being probed, the activations for
+	 * that state under any other root differ only in the root they record.
+	 * </p>
+	 * <p>
+	 * Furthermore, once a state is reachable from some root, it is never
+	 * modified or relocated. This is because each step only adds new states
+	 * above the pivot, which are either minimised onto existing states or
+	 * removed as garbage. Thus, when probing a newly pushed root, only those
+	 * states which were not previously reachable from any root need actually
+	 * be probed. As a sanity check, the state object which was probed is
+	 * also recorded, and the entry ignored if that has since changed.
+	 * </p>
+	 */
+	private Activation[][] probed = new Activation[0][];
+
+	private Automaton.State[] probedStates = new Automaton.State[0];
+
+	/**
+	 * Used to traverse the states reachable from a given root in substitution
+	 * mode. A state has been visited in the current traversal when its entry
+	 * matches the current epoch. This avoids clearing (or allocating) an
+	 * array the size of the shared automaton for each traversal.
+	 */
+	private int[] visited = new int[0];
+
+	private int epoch;
 	
 	public Inference(Schema schema, Comparator<Rewrite.Activation> comparator, InferenceRule[] inferences,
 			ReductionRule[] reductions) {
+		this(schema, comparator, inferences, reductions, null);
+	}
+
+	public Inference(Schema schema, Comparator<Rewrite.Activation> comparator, InferenceRule[] inferences,
+			ReductionRule[] reductions, ForkJoinPool pool) {
 		super(schema, comparator);
+		this.pool = pool;
 		this.inferences = inferences;
+		this.dispatch = Reductions.dispatchTable(inferences);
 		this.reductions = reductions;
 		if(USE_SUBSTITUTION) {
 			cache = null;
+			fingerprints = null;
 		} else {
 			cache = new HashMap<Automaton,Integer>();
+			fingerprints = new HashMap<Long,Integer>();
 		}
 	}
 
 	@Override
 	public int initialise(Automaton automaton) {
-		Reductions.minimiseAndReduce(automaton,MAX_REDUCTIONS,schema,reductions,comparator);
-		states.add(probeReachableInferences(automaton,0));
-		return states.size()-1;
+		memoise(automaton);
+		Reductions.minimiseAndReduce(automaton,MAX_REDUCTIONS,schema,reductions,comparator,null,limits());
+		return add(probeReachableInferences(automaton,0), -1, -1);
 	}
 	
 	@Override
@@ -67,6 +133,9 @@ public class Inference extends AbstractRewrite {
 			target = a.target();
 		} 
 		int nRoot = a.apply(automaton);		
+		if (limits() != null) {
+			limits().allocate(automaton.nStates() - pivot);
+		}
 		int to;
 		if (nRoot != Automaton.K_VOID && nRoot != target) {
 			// Rule application produced an updated automaton. Therefore, we now
@@ -76,7 +145,7 @@ public class Inference extends AbstractRewrite {
 				//System.out.println(" *** STEP: " + from + " => " + to + ", " + a.rule().name() + " (" + automaton.nStates() + ")");
 				//wyrl.util.Runtime.debug(automaton.getRoot(to), automaton, schema, "And","Or");
 				// This is a new state not seen before
-				states.add(probeReachableInferences(automaton,to));
+				add(probeReachableInferences(automaton,to), from, activation);
 			}
 		} else {
 			// Rule application had no effect
@@ -86,53 +155,244 @@ public class Inference extends AbstractRewrite {
 		Step step = new Step(from, to, activation); 
 		steps.add(step);
 		state.steps[activation] = step;
+		if (isBounded()) {
+			enforceBudget();
+		}
 		return to;
 	}
 	
-	private State probeReachableInferences(Automaton automaton, int root) {
-		ArrayList<Activation> activations = new ArrayList<Activation>();
-		if(USE_SUBSTITUTION) {
-			int rootState = automaton.getRoot(root);
-			int[] reachable = new int[automaton.nStates()];
-			Automata.traverse(automaton,rootState,reachable);
+	@Override
+	public Expansion expand(int from, int activation) {
+		State state = states.get(from);
+		// Always operate on a copy here, since the automaton may be shared
+		// with other expansions running at the same time.
+		Automaton automaton = new Automaton(state.automaton());
+		Activation a = (Activation) state.activation(activation);
+		int target = USE_SUBSTITUTION ? a.root() : a.target();
+		int pivot = automaton.nStates();
+		int nRoot = a.apply(automaton);
+		if (limits() != null) {
+			limits().allocate(automaton.nStates() - pivot);
+		}
+		if (nRoot != Automaton.K_VOID && nRoot != target) {
+			int root = reduce(automaton, pivot, nRoot);
+			if (USE_SUBSTITUTION) {
+				// Extract the term produced so that it can later be spliced
+				// into the shared automaton.
+				Automaton term = new Automaton();
+				root = term.addAll(root, automaton);
+				term.push(root);
+				automaton = term;
+			}
+			return new Expansion(from, activation, automaton, root);
+		} else {
+			// Rule application had no effect
+			return new Expansion(from, activation, null, 0);
+		}
+	}
 
-			for (int s = 0; s != automaton.nStates(); ++s) {
-				if (reachable[s] != 0) {
-					// State is reachable from the given root
+	@Override
+	public int commit(Expansion expansion) {
+		int from = expansion.before();
+		int activation = expansion.activation();
+		State state = states.get(from);
+		int to;
+		if (expansion.automaton() == null) {
+			to = from;
+		} else if (USE_SUBSTITUTION) {
+			Automaton automaton = state.automaton();
+			int root = automaton.addAll(expansion.root(), expansion.automaton());
+			// Splicing in the term may leave garbage behind (i.e. for states
+			// which already existed), which must be removed since subsequent
+			// reductions assume the shared automaton is compacted.
+			automaton.push(root);
+			automaton.compact(0);
+			root = automaton.pop();
+			to = addState(automaton, root);
+			if (to >= states.size()) {
+				add(probeReachableInferences(automaton, to), from, activation);
+			}
+		} else {
+			Automaton automaton = expansion.automaton();
+			to = addState(automaton, expansion.root());
+			if (to >= states.size()) {
+				add(probeReachableInferences(automaton, to), from, activation);
+			}
+		}
+		Step step = new Step(from, to, activation);
+		steps.add(step);
+		state.steps[activation] = step;
+		if (isBounded()) {
+			enforceBudget();
+		}
+		return to;
+	}
+
+	@Override
+	protected boolean isShared() {
+		return USE_SUBSTITUTION;
+	}
+
+	@Override
+	protected State rebuild(State state) {
+		if (USE_SUBSTITUTION) {
+			// The term for this state remains in the shared automaton, so we
+			// simply need to probe it again.
+			return probeReachableInferences(state.automaton(), state.root());
+		} else {
+			// Replay the step which first reached this state. This may, in
+			// turn, require the parent itself to be rebuilt.
+			Expansion expansion = expand(state.parent(), state.via());
+			return probeReachableInferences(expansion.automaton(), 0);
+		}
+	}
+
+	private State probeReachableInferences(final Automaton automaton, int root) {
+		ArrayList<Activation> activations;
+		memoise(automaton);
+		if(USE_SUBSTITUTION) {
+			final int rootState = automaton.getRoot(root);
+			final int[] reachable = findReachable(automaton, rootState);
+			final int nStates = automaton.nStates();
+			if (probed.length < nStates) {
+				probed = Arrays.copyOf(probed, nStates * 2);
+				probedStates = Arrays.copyOf(probedStates, nStates * 2);
+			}
+			if (limits() != null) {
+				int count = 0;
+				for (int s : reachable) {
+					if (probedStates[s] != automaton.get(s)) {
+						count++;
+					}
+				}
+				limits().probe(count);
+			}
+			activations = new ParallelProbe<Activation>() {
+				@Override
+				protected void probe(int i, Bindings bindings, List<Activation> activations) {
+					int s = reachable[i];
 					Automaton.State state = automaton.get(s);
-					// Check whether this state is a term or not; that's because
-					// only terms can be roots for rewrite rule applications.
-					if (state instanceof Automaton.Term) {
-						for (int r = 0; r != inferences.length; ++r) {
-							inferences[r].probe(automaton, rootState, s, activations);
+					if (probedStates[s] == state) {
+						// State already probed for another root, so just
+						// rebind its activations to this root.
+						for (Activation a : probed[s]) {
+							activations.add(new Activation(a.rule, rootState, a.dependencies(), a.bindings(),
+									a.offset(), a.length()));
 						}
+					} else if (state instanceof Automaton.Term) {
+						// Check whether this state is a term or not; that's
+						// because only terms can be roots for rewrite rule
+						// applications.
+						int start = activations.size();
+						for (int r : Reductions.dispatch(dispatch, state.kind)) {
+							inferences[r].probe(automaton, rootState, s, bindings, activations);
+						}
+						List<Activation> found = activations.subList(start, activations.size());
+						probed[s] = found.toArray(new Activation[found.size()]);
+						probedStates[s] = state;
 					}
 				}
-			}
+			}.probe(pool, 0, reachable.length);
 		} else {
-			// This is a legacy mode of operation, which is left here because it
-			// does currently offer better performance. The goal is to
-			// sufficiently improve performance for the substitution case,
-			// thereby rendering this case unnecessary.
-			for (int s = 0; s != automaton.nStates(); ++s) {
-				// State is reachable from the given root
-				Automaton.State state = automaton.get(s);
-				// Check whether this state is a term or not; that's because
-				// only terms can be roots for rewrite rule applications.
-				if (state instanceof Automaton.Term) {
-					for (int r = 0; r != inferences.length; ++r) {
-						inferences[r].probe(automaton, 0, s, activations);
+			// This is a legacy mode of operation, which is left here for
+			// comparison. Since isomorphic automata are not identified, it
+			// generally explores many more states than the substitution case.
+			activations = new ParallelProbe<Activation>() {
+				@Override
+				protected void probe(int s, Bindings bindings, List<Activation> activations) {
+					// State is reachable from the given root
+					Automaton.State state = automaton.get(s);
+					// Check whether this state is a term or not; that's
+					// because only terms can be roots for rewrite rule
+					// applications.
+					if (state instanceof Automaton.Term) {
+						for (int r : Reductions.dispatch(dispatch, state.kind)) {
+							inferences[r].probe(automaton, 0, s, bindings, activations);
+						}
 					}
 				}
+			}.probe(pool, 0, automaton.nStates());
+			if (limits() != null) {
+				limits().probe(automaton.nStates());
 			}
+			// In this mode, each step operates on a copy of the automaton and,
+			// hence, it can be packed to reduce its memory footprint (and no
+			// more type tests will be made against it).
+			automaton.setMemo(null);
+			automaton.pack();
 		}
 		Activation[] array = activations.toArray(new Activation[activations.size()]);
 		if (comparator != null) {
 			Arrays.sort(array, comparator);
 		}
-		return new State(automaton, array);
+		return new State(automaton, USE_SUBSTITUTION ? root : 0, array);
 	}		
 	
+	/**
+	 * Determine the states reachable from a given state in the automaton,
+	 * returned in ascending order of index. This ordering ensures activations
+	 * are found in the same order as if probing every state in turn.
+	 *
+	 * @param automaton
+	 * @param start
+	 * @return
+	 */
+	private int[] findReachable(Automaton automaton, int start) {
+		if (start < 0) {
+			return new int[0];
+		}
+		int nStates = automaton.nStates();
+		if (visited.length < nStates) {
+			visited = Arrays.copyOf(visited, nStates * 2);
+		}
+		if (++epoch == 0) {
+			// Epoch has wrapped around, so earlier traversals must be erased
+			Arrays.fill(visited, 0);
+			epoch = 1;
+		}
+		int[] reachable = new int[16];
+		int count = 0;
+		// The stack cannot contain more entries than there are child
+		// references, so is grown on demand as for the list of states.
+		int[] stack = new int[16];
+		int top = 0;
+		visited[start] = epoch;
+		stack[top++] = start;
+		while (top > 0) {
+			int s = stack[--top];
+			if (count == reachable.length) {
+				reachable = Arrays.copyOf(reachable, count * 2);
+			}
+			reachable[count++] = s;
+			Automaton.State state = automaton.get(s);
+			if (state instanceof Automaton.Term) {
+				int child = ((Automaton.Term) state).contents;
+				if (child >= 0 && visited[child] != epoch) {
+					visited[child] = epoch;
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = child;
+				}
+			} else if (state instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) state;
+				for (int i = 0; i != c.size(); ++i) {
+					int child = c.get(i);
+					if (child >= 0 && visited[child] != epoch) {
+						visited[child] = epoch;
+						if (top == stack.length) {
+							stack = Arrays.copyOf(stack, top * 2);
+						}
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+		reachable = Arrays.copyOf(reachable, count);
+		Arrays.sort(reachable);
+		return reachable;
+	}
+
 	/**
 	 * Reduce the automaton whilst preserving the given root. In the case that
 	 * the automaton changes shape in some way (e.g. is compacted or minimised),
@@ -143,16 +403,19 @@ public class Inference extends AbstractRewrite {
 	 * @return
 	 */
 	private int reduce(Automaton automaton, int start, int root) {
+		memoise(automaton);
 		if(USE_SUBSTITUTION) {
 			automaton.push(root);
-			automaton.minimise();
+			// Only states added by the inference can be non-minimal, since
+			// the shared automaton was minimised after the previous step.
+			automaton.minimise(start);
 			automaton.compact(0);
-			Reductions.reduceOver(automaton, start, MAX_REDUCTIONS, schema, reductions, comparator);
+			Reductions.reduceOver(automaton, start, MAX_REDUCTIONS, schema, reductions, comparator, null, limits());
 			return automaton.pop();
 		} else {
 			//automaton.minimise();
 			automaton.compact(0);
-			Reductions.reduceOver(automaton, 0, MAX_REDUCTIONS, schema, reductions, comparator);
+			Reductions.reduceOver(automaton, 0, MAX_REDUCTIONS, schema, reductions, comparator, null, limits());
 			return Integer.MIN_VALUE; // to ensure this isn't used
 		}
 	}
@@ -175,6 +438,17 @@ public class Inference extends AbstractRewrite {
 			}
 			// No match found, so create a new state
 			return automaton.push(root);
+		} else if(isBounded()) {
+			Long fingerprint = automaton.fingerprint();
+			Integer i = fingerprints.get(fingerprint);
+			if(i != null) {
+				// Matching state found
+				return i;
+			} else {
+				// Create new state, remembering only its fingerprint
+				fingerprints.put(fingerprint,states.size());
+				return states.size();
+			}
 		} else {
 			Integer i = cache.get(automaton);
 			if(i != null) {
@@ -210,6 +484,13 @@ public class Inference extends AbstractRewrite {
 			this.root = root;
 		}
 
+		public Activation(InferenceRule rule, int root, BitSet dependencies, Bindings bindings, int offset,
+				int length) {
+			super(dependencies, bindings, offset, length);
+			this.rule = rule;
+			this.root = root;
+		}
+
 
 		@Override
 		public RewriteRule rule() {
@@ -222,7 +503,7 @@ public class Inference extends AbstractRewrite {
 
 		@Override
 		public int apply(Automaton automaton) {
-			return rule.apply(automaton, root, state);
+			return rule.apply(automaton, root, binding());
 		}
 	}
 }
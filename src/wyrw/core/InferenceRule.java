@@ -29,6 +29,7 @@ import java.util.List;
 
 import wyautl.core.Automaton;
 import wyrw.util.AbstractActivation;
+import wyrw.util.Bindings;
 
 /**
  * <p>
@@ -84,7 +85,10 @@ public interface InferenceRule extends RewriteRule {
 	 * Probe a given root to see whether or not this rule could be applied to
 	 * it. If it can, the corresponding activation record(s) are added to the
 	 * list. Note that, under no circumstances is this function permitted to
-	 * modify the automaton.
+	 * modify the automaton. Furthermore, probes of different states in the
+	 * same automaton may be run concurrently (see <code>ParallelProbe</code>)
+	 * and, hence, an implementation must not update any shared state of its
+	 * own.
 	 *
 	 * @param automaton
 	 *            Automaton to probe.
@@ -92,13 +96,17 @@ public interface InferenceRule extends RewriteRule {
 	 *            --- The automaton root that this rewrite is working off.
 	 * @param target
 	 *            State to use as the target for the probe.
+	 * @param bindings
+	 *            Arena into which the binding of each activation discovered is
+	 *            written.
 	 * @param activations
 	 *            List of activations onto which to add any which are discovered
 	 *            during the probe.
 	 *
 	 * @return
 	 */
-	public void probe(Automaton automaton, int root, int target, List<Inference.Activation> activations);
+	public void probe(Automaton automaton, int root, int target, Bindings bindings,
+			List<Inference.Activation> activations);
 
 	/**
 	 * <p>
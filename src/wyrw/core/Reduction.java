@@ -5,6 +5,8 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
@@ -12,81 +14,173 @@ import wyrw.util.AbstractActivation;
 import wyrw.util.AbstractRewrite;
 import wyrw.util.AbstractRewrite.State;
 import wyrw.util.AbstractRewrite.Step;
+import wyrw.util.Bindings;
+import wyrw.util.ParallelProbe;
+import wyrw.util.Reductions;
 
 public class Reduction extends AbstractRewrite {
 
 	private final ReductionRule[] reductions;
+
+	/**
+	 * Maps each term kind to the reduction rules which could match it.
+	 */
+	private final int[][] dispatch;
+
+	/**
+	 * Pool of workers used to probe the states of an automaton in parallel,
+	 * or <code>null</code> if probing should be done sequentially.
+	 */
+	private final ForkJoinPool pool;
 	
 	private final HashMap<Automaton,Integer> cache;
+
+	/**
+	 * Maps the fingerprint of each state's automaton to that state. This is
+	 * used in place of the above cache when the rewrite is bounded, since it
+	 * does not hold on to the automata themselves.
+	 */
+	private final HashMap<Long,Integer> fingerprints;
 	
 	public Reduction(Schema schema, Comparator<Rewrite.Activation> comparator,
 			ReductionRule[] reductions) {
+		this(schema, comparator, reductions, null);
+	}
+
+	public Reduction(Schema schema, Comparator<Rewrite.Activation> comparator,
+			ReductionRule[] reductions, ForkJoinPool pool) {
 		super(schema, comparator);
 		this.reductions = reductions;
+		this.dispatch = Reductions.dispatchTable(reductions);
+		this.pool = pool;
 		cache = new HashMap<Automaton,Integer>();
+		fingerprints = new HashMap<Long,Integer>();
 	}
 
 	/**
 	 * Automaton should be minimised
 	 */
 	public int initialise(Automaton automaton) {
-		states.add(probe(automaton));
-		return states.size()-1;
+		return add(probe(automaton), -1, -1);
 	}
 	
 	@Override
 	public int step(int from, int activation) {
+		return commit(expand(from, activation));
+	}
+
+	@Override
+	public Expansion expand(int from, int activation) {
 		State state = states.get(from);
 		Automaton automaton = new Automaton(state.automaton());
 		AbstractActivation a = state.activation(activation);
+		int pivot = automaton.nStates();
 		int target = a.apply(automaton);
-		int to;
+		if (limits() != null) {
+			limits().allocate(automaton.nStates() - pivot);
+		}
 		if (target != Automaton.K_VOID && a.target() != target) {
 			// Rule application produced an updated automaton
 			automaton.minimise();
 			automaton.compact(0);
+			return new Expansion(from, activation, automaton, 0);
+		} else {
+			// Rule application had no effect
+			return new Expansion(from, activation, null, 0);
+		}
+	}
+
+	@Override
+	public void prepare(Expansion expansion) {
+		Automaton automaton = expansion.automaton();
+		if (automaton != null && lookup(automaton) == null) {
+			expansion.setState(probe(automaton));
+		}
+	}
+
+	@Override
+	public int commit(Expansion expansion) {
+		int from = expansion.before();
+		int activation = expansion.activation();
+		Automaton automaton = expansion.automaton();
+		int to;
+		if (automaton != null) {
 			to = addState(automaton);
 			if(to >= states.size()) {
-				states.add(probe(automaton));
+				State state = expansion.state();
+				add(state != null ? state : probe(automaton), from, activation);
 			}
 		} else {
-			// Rule application had no effect
 			to = from;
 		}
 		Step step = new Step(from, to, activation); 
 		steps.add(step);
-		state.steps[activation] = step;
+		states.get(from).steps[activation] = step;
+		if (isBounded()) {
+			enforceBudget();
+		}
 		return to;
 	}
 
+	@Override
+	protected State rebuild(State state) {
+		// Replay the step which first reached this state. This may, in turn,
+		// require the parent itself to be rebuilt.
+		Expansion expansion = expand(state.parent(), state.via());
+		return probe(expansion.automaton());
+	}
+
 	private int addState(Automaton automaton) {
-		Integer i = cache.get(automaton);
+		Integer i = lookup(automaton);
 		if(i != null) {
 			// Matching state found
 			return i;
+		} else if(isBounded()) {
+			// Create new state, remembering only its fingerprint
+			fingerprints.put(automaton.fingerprint(),states.size());
+			return states.size();
 		} else {
 			// Create new state!
 			cache.put(automaton,states.size());
 			return states.size();
 		}
 	}
+
+	private Integer lookup(Automaton automaton) {
+		if(isBounded()) {
+			return fingerprints.get(automaton.fingerprint());
+		} else {
+			return cache.get(automaton);
+		}
+	}
 	
-	private State probe(Automaton automaton) {
-		ArrayList<Reduction.Activation> activations = new ArrayList<Reduction.Activation>();
-		for (int s = 0; s != automaton.nStates(); ++s) {
-			Automaton.State state = automaton.get(s);
-			// Check whether this state is a term or not; that's because only
-			// terms can be roots for rewrite rule applications.
-			if (state instanceof Automaton.Term) {
-				for (int r = 0; r != reductions.length; ++r) {
-					reductions[r].probe(automaton, s, activations);
+	private State probe(final Automaton automaton) {
+		memoise(automaton);
+		ArrayList<Reduction.Activation> activations = new ParallelProbe<Reduction.Activation>() {
+			@Override
+			protected void probe(int s, Bindings bindings, List<Reduction.Activation> activations) {
+				Automaton.State state = automaton.get(s);
+				// Check whether this state is a term or not; that's because
+				// only terms can be roots for rewrite rule applications.
+				if (state instanceof Automaton.Term) {
+					for (int r : Reductions.dispatch(dispatch, state.kind)) {
+						reductions[r].probe(automaton, s, bindings, activations);
+					}
 				}
 			}
+		}.probe(pool, 0, automaton.nStates());
+		if (limits() != null) {
+			limits().probe(automaton.nStates());
 		}
 		AbstractActivation[] array = activations.toArray(new AbstractActivation[activations.size()]);
 		if (comparator != null) {
 			Arrays.sort(array, comparator);
 		}
+		// The automaton is never modified again (since each step operates on a
+		// copy), hence we can pack it to reduce its memory footprint. Likewise,
+		// no more type tests will be made against it.
+		automaton.setMemo(null);
+		automaton.pack();
 		return new State(automaton, array);
 	}
 	
@@ -102,6 +196,11 @@ public class Reduction extends AbstractRewrite {
 			this.rule = rule;
 		}
 
+		public Activation(ReductionRule rule, BitSet dependencies, Bindings bindings, int offset, int length) {
+			super(dependencies, bindings, offset, length);
+			this.rule = rule;
+		}
+
 
 		@Override
 		public RewriteRule rule() {
@@ -111,7 +210,7 @@ public class Reduction extends AbstractRewrite {
 		
 		@Override
 		public int apply(Automaton automaton) {
-			return rule.apply(automaton, state);
+			return rule.apply(automaton, binding());
 		}
 	}
 }
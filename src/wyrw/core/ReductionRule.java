@@ -29,6 +29,7 @@ import java.util.List;
 
 import wyautl.core.Automaton;
 import wyrw.util.AbstractActivation;
+import wyrw.util.Bindings;
 
 /**
  * A rewrite rule guaranteed to reduce the Automaton (in some sense). Typically,
@@ -79,19 +80,25 @@ public interface ReductionRule extends RewriteRule {
 	 * Probe a given root to see whether or not this rule could be applied to
 	 * it. If it can, the corresponding activation record(s) are added to the
 	 * list. Note that, under no circumstances is this function permitted to
-	 * modify the automaton.
+	 * modify the automaton. Furthermore, probes of different states in the
+	 * same automaton may be run concurrently (see <code>ParallelProbe</code>)
+	 * and, hence, an implementation must not update any shared state of its
+	 * own.
 	 *
 	 * @param automaton
 	 *            Automaton to probe.
 	 * @param target
 	 *            State to use as the target for the probe.
+	 * @param bindings
+	 *            Arena into which the binding of each activation discovered is
+	 *            written.
 	 * @param activations
 	 *            List of activations onto which to add any which are discovered
 	 *            during the probe.
 	 *
 	 * @return
 	 */
-	public void probe(Automaton automaton, int target, List<Reduction.Activation> activations);
+	public void probe(Automaton automaton, int target, Bindings bindings, List<Reduction.Activation> activations);
 
 	/**
 	 * <p>
@@ -90,6 +90,16 @@ public interface Rewrite {
 		 */
 		public Automaton automaton();
 
+		/**
+		 * Return the index of the root marker in the underlying automaton
+		 * which identifies the term this state represents. Several states may
+		 * share the same automaton, in which case they are distinguished by
+		 * their root markers.
+		 * 
+		 * @return
+		 */
+		public int root();
+
 		/**
 		 * Return the number of possible activations from this state. This
 		 * method forces the state to enumerate all possible activations.
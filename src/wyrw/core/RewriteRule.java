@@ -43,6 +43,34 @@ public interface RewriteRule {
 	 * @return
 	 */
 	public Pattern.Term pattern();
+
+	/**
+	 * Get the kind of term which this rule's pattern matches at its root. Only
+	 * states of this kind can produce activations from probing and, hence,
+	 * this is used to construct dispatch tables which offer each state only to
+	 * those rules which could match it. A negative kind indicates the rule
+	 * should be offered every term.
+	 *
+	 * @return
+	 */
+	public int kind();
+
+	/**
+	 * <p>
+	 * Get the number of rules whose activations are produced by probing this
+	 * rule. Rules whose patterns match the same kind of term at their root
+	 * can be probed together, such that the tests common to their patterns
+	 * are performed only once. In such case, probing the first rule of the
+	 * group produces the activations of each rule in the group, in order.
+	 * These are the rules of the same kind which immediately follow it in its
+	 * rule set, and they return zero here to indicate they should not be
+	 * probed separately. Ordinarily, a rule is probed on its own and this
+	 * returns one.
+	 * </p>
+	 *
+	 * @return
+	 */
+	public int group();
 	
 	/**
 	 * Get the annotations associated with this rewrite rule. Annotations are
@@ -47,5 +47,19 @@ public interface Rewriter {
 	 *
 	 * @return
 	 */
-	public void apply(int maxSteps);	
+	public void apply(int maxSteps);
+
+	/**
+	 * Request that the rewriter take a number of steps (upto a given maximum),
+	 * stopping early if a given budget is exhausted. The budget is checked
+	 * before each step and, hence, the rewrite is left in a consistent state.
+	 * Only the number of steps taken is bounded here, and the budget should
+	 * also be given to the rewrite itself to bound the work done within each
+	 * step (see <code>AbstractRewrite.setLimits()</code>).
+	 *
+	 * @param maxSteps
+	 * @param budget
+	 *            --- Budget to check, or <code>null</code> if none.
+	 */
+	public void apply(int maxSteps, Budget budget);
 }
@@ -56,13 +56,25 @@ public abstract class AbstractActivation implements Rewrite.Activation {
 	 * Temporary state used by the rule to control the rewrite. For example,
 	 * this might match rewrite variables with states. In essence, the state is
 	 * a continuation which gives enough information for the rewrite to pick up
-	 * immediately from where it got to during probing.
+	 * immediately from where it got to during probing. This is held in an
+	 * arena shared with the other activations found by the same probe, and
+	 * occupies a given offset and length within it.
 	 */
-	protected final int[] state;
+	protected final Bindings bindings;
+
+	protected final int offset;
+
+	protected final int length;
 
 	public AbstractActivation(BitSet dependencies, int[] state) {		
+		this(dependencies, new Bindings(state), 0, state.length);
+	}
+
+	public AbstractActivation(BitSet dependencies, Bindings bindings, int offset, int length) {
 		this.dependencies = dependencies;
-		this.state = state;
+		this.bindings = bindings;
+		this.offset = offset;
+		this.length = length;
 	}
 
 	/**
@@ -73,13 +85,30 @@ public abstract class AbstractActivation implements Rewrite.Activation {
 	 */
 	@Override
 	public int target() {
-		return state[0];
+		return bindings.get(offset);
 	}
 
 	public abstract RewriteRule rule();
 
+	/**
+	 * Return the binding of this activation as an array. Generally, this
+	 * requires the binding to be copied out of its arena and, hence, should
+	 * be avoided except when applying the activation.
+	 */
 	public int[] binding() {
-		return state;
+		return bindings.toArray(offset, length);
+	}
+
+	public Bindings bindings() {
+		return bindings;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	public int length() {
+		return length;
 	}
 	
 	/**
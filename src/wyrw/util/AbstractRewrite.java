@@ -25,6 +25,7 @@
 
 package wyrw.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -33,6 +34,8 @@ import java.util.List;
 
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
+import wyautl.core.StateMemo;
+import wyrw.core.Budget;
 import wyrw.core.Rewrite;
 import wyrw.core.RewriteRule;
 
@@ -60,6 +63,40 @@ public abstract class AbstractRewrite implements Rewrite {
 	 */
 	protected final Comparator<Rewrite.Activation> comparator;
 
+	/**
+	 * The maximum number of states whose automata and activations are retained
+	 * in memory at any one time, or zero if there is no limit. Once this budget
+	 * is exceeded, states which have been fully explored are evicted and
+	 * subsequently rebuilt on demand (if required).
+	 */
+	private int budget;
+
+	/**
+	 * The indices of those states currently retained in memory, in the order
+	 * they were retained. This is only maintained when a budget is set.
+	 */
+	private final ArrayDeque<Integer> retained = new ArrayDeque<Integer>();
+
+	/**
+	 * Counts the number of states which have been evicted, and the number
+	 * which have subsequently been rebuilt.
+	 */
+	private int evictions, rebuilds;
+
+	/**
+	 * Limits the work done by each step of this rewrite (e.g. when reducing
+	 * the automaton produced), or <code>null</code> if there is no limit.
+	 */
+	private Budget limits;
+
+	/**
+	 * Template for the memos attached to automata by this rewrite, or
+	 * <code>null</code> if type test results should not be memoised. The
+	 * template itself is never attached to an automaton, but accumulates the
+	 * hits and misses of those which are.
+	 */
+	private StateMemo memo;
+
 	public AbstractRewrite(Schema schema, Comparator<Rewrite.Activation> comparator,
 			RewriteRule... rules) {
 		this.schema = schema;
@@ -79,17 +116,268 @@ public abstract class AbstractRewrite implements Rewrite {
 
 	@Override
 	public abstract int step(int from, int activation);
+
+	/**
+	 * <p>
+	 * Bound the number of states whose automata and activations are retained
+	 * in memory. When the budget is exceeded, states which have been fully
+	 * explored (i.e. have no remaining unvisited steps) are evicted, oldest
+	 * first. In this mode, only the fingerprint of each state's automaton is
+	 * kept for detecting previously visited states. An evicted state is
+	 * rebuilt on demand by replaying the step which first reached it from its
+	 * parent (which may itself need to be rebuilt, and so on back to the
+	 * nearest retained ancestor).
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> fingerprints are 64-bit hashes and, hence, it is possible
+	 * (though very unlikely) for two distinct states to be conflated. The
+	 * budget must be set before the rewrite is initialised.
+	 * </p>
+	 *
+	 * @param budget
+	 *            --- Maximum number of states retained in memory, or zero for
+	 *            no limit.
+	 */
+	public void setBudget(int budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("invalid budget: " + budget);
+		} else if (!states.isEmpty()) {
+			throw new IllegalStateException("budget must be set before rewrite is initialised");
+		}
+		this.budget = budget;
+	}
+
+	public boolean isBounded() {
+		return budget > 0;
+	}
+
+	public int evictions() {
+		return evictions;
+	}
+
+	public int rebuilds() {
+		return rebuilds;
+	}
+
+	/**
+	 * <p>
+	 * Limit the work done by subsequent steps of this rewrite. The states
+	 * allocated by rule applications and the states probed for activations are
+	 * charged to the given budget and, once it is exhausted, any reduction
+	 * performed within a step stops early. Thus, states added after this point
+	 * may be only partially reduced. The budget is not checked between steps,
+	 * as this is the responsibility of the rewriter.
+	 * </p>
+	 *
+	 * @param limits
+	 *            --- Budget to charge, or <code>null</code> for no limit.
+	 */
+	public void setLimits(Budget limits) {
+		this.limits = limits;
+	}
+
+	public Budget limits() {
+		return limits;
+	}
+
+	/**
+	 * <p>
+	 * Memoise the results of type tests made against the automata of this
+	 * rewrite. Each automaton probed or reduced by this rewrite is given its
+	 * own memo (since automata may be worked on concurrently), whose hits and
+	 * misses are accumulated in the given memo. Thus, the latter provides a
+	 * measure of how effective memoisation is.
+	 * </p>
+	 *
+	 * @param memo
+	 *            --- Memo accumulating hits and misses, or <code>null</code>
+	 *            for no memoisation.
+	 */
+	public void setMemo(StateMemo memo) {
+		this.memo = memo;
+	}
+
+	public StateMemo memo() {
+		return memo;
+	}
+
+	/**
+	 * Attach a memo to a given automaton, provided memoisation is enabled and
+	 * the automaton does not already have one.
+	 *
+	 * @param automaton
+	 */
+	protected void memoise(Automaton automaton) {
+		if (memo != null && automaton.memo() == null) {
+			automaton.setMemo(new StateMemo(memo));
+		}
+	}
+
+	/**
+	 * Add a new state to this rewrite, which was first reached from a given
+	 * state via a given activation. The initial state has no such parent, and
+	 * is never evicted.
+	 *
+	 * @param state
+	 *            --- The state being added.
+	 * @param parent
+	 *            --- The state from which this state was first reached, or -1
+	 *            for the initial state.
+	 * @param activation
+	 *            --- The activation in the parent which reached this state.
+	 * @return The index of the newly added state.
+	 */
+	protected int add(State state, int parent, int activation) {
+		int index = states.size();
+		state.index = index;
+		state.parent = parent;
+		state.via = activation;
+		states.add(state);
+		if (budget > 0) {
+			retained.add(index);
+		}
+		return index;
+	}
+
+	/**
+	 * Evict fully explored states until the number retained is within budget,
+	 * or no more states can be evicted. This should be called after each step
+	 * has been recorded.
+	 */
+	protected void enforceBudget() {
+		int n = retained.size();
+		// Each retained state is examined at most once, since those which
+		// cannot be evicted yet are returned to the back of the queue.
+		while (retained.size() > budget && n-- > 0) {
+			int index = retained.poll();
+			State state = states.get(index);
+			if (state.parent >= 0 && state.rank() == 0) {
+				evict(state);
+				evictions++;
+			} else {
+				retained.add(index);
+			}
+		}
+	}
+
+	/**
+	 * Release the memory held by a given state. This discards the activations
+	 * of the state and, unless its automaton is shared with other states, the
+	 * automaton as well.
+	 *
+	 * @param state
+	 */
+	private void evict(State state) {
+		if (!isShared()) {
+			state.fingerprint = state.automaton.fingerprint();
+			state.automaton = null;
+		}
+		state.activations = null;
+	}
+
+	/**
+	 * Determine whether the states of this rewrite share a single automaton
+	 * (e.g. with each state identified by a distinct root). In such case, the
+	 * automaton cannot be discarded when a state is evicted. By default, this
+	 * returns false.
+	 *
+	 * @return
+	 */
+	protected boolean isShared() {
+		return false;
+	}
+
+	/**
+	 * Reconstruct a given state which has been evicted. This should produce a
+	 * state whose automaton and activations are identical to those originally
+	 * computed for it.
+	 *
+	 * @param state
+	 *            --- The evicted state, whose parent and activation
+	 *            identify how it was first reached.
+	 * @return
+	 */
+	protected abstract State rebuild(State state);
+
+	/**
+	 * Restore an evicted state by rebuilding it, and retain it again. The
+	 * state may be evicted again once the budget is next enforced.
+	 *
+	 * @param state
+	 */
+	private void restore(State state) {
+		State r = rebuild(state);
+		if (r.activations.length != state.steps.length
+				|| (state.automaton == null && r.automaton.fingerprint() != state.fingerprint)) {
+			throw new IllegalStateException("unable to rebuild state " + state.index);
+		}
+		state.automaton = r.automaton;
+		state.activations = r.activations;
+		retained.add(state.index);
+		rebuilds++;
+	}
+
+	/**
+	 * <p>
+	 * Compute the outcome of applying a given activation from a given state,
+	 * without updating this rewrite. The outcome can subsequently be recorded
+	 * using <code>commit()</code>. Splitting a step in this way allows the
+	 * (expensive) application of activations to be performed in parallel,
+	 * whilst the (cheap) recording of their outcomes is done sequentially.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> this may be called concurrently from multiple threads,
+	 * provided <code>step()</code> and <code>commit()</code> are not called at
+	 * the same time.
+	 * </p>
+	 *
+	 * @param from
+	 *            --- The state from which the activation is applied.
+	 * @param activation
+	 *            --- The activation (in the given state) to apply.
+	 * @return
+	 */
+	public abstract Expansion expand(int from, int activation);
+
+	/**
+	 * Perform any work needed to record a given expansion which can be done
+	 * ahead of time and, in particular, in parallel with other expansions
+	 * (e.g. probing the resulting automaton). By default, this does nothing.
+	 * The same thread-safety requirements apply as for <code>expand()</code>.
+	 *
+	 * @param expansion
+	 */
+	public void prepare(Expansion expansion) {
+
+	}
+
+	/**
+	 * Record the outcome of a previously computed expansion as a step in this
+	 * rewrite, returning the state reached. This must not be called
+	 * concurrently.
+	 *
+	 * @param expansion
+	 * @return
+	 */
+	public abstract int commit(Expansion expansion);
 	
 	public class State implements Rewrite.State {
 		/**
-		 * The automaton which this state represents.
+		 * The automaton which this state represents, or <code>null</code> if
+		 * it has been evicted.
 		 */
-		protected final Automaton automaton;
+		protected Automaton automaton;
 
 		/**
-		 * The array of all possible activations on the given automaton.
+		 * The root marker identifying the term this state represents.
 		 */
-		protected final AbstractActivation[] activations;
+		protected final int root;
+
+		/**
+		 * The array of all possible activations on the given automaton, or
+		 * <code>null</code> if they have been evicted.
+		 */
+		protected AbstractActivation[] activations;
 
 		/**
 		 * The array of possible steps from this automaton. Each entry matches
@@ -98,19 +386,36 @@ public abstract class AbstractRewrite implements Rewrite {
 		 */
 		public final Rewrite.Step[] steps;
 
+		/**
+		 * The index of this state in the rewrite, along with the state from
+		 * which it was first reached and the activation used to reach it.
+		 * These are needed to rebuild the state after eviction.
+		 */
+		private int index, parent = -1, via = -1;
+
+		/**
+		 * The fingerprint of this state's automaton, as recorded at eviction.
+		 */
+		private long fingerprint;
+
 		public State(Automaton automaton, AbstractActivation... activations) {
+			this(automaton, 0, activations);
+		}
+
+		public State(Automaton automaton, int root, AbstractActivation... activations) {
 			this.automaton = automaton;
+			this.root = root;
 			this.activations = activations;
 			this.steps = new Rewrite.Step[activations.length];
 		}
 
 		public int size() {
-			return activations.length;
+			return steps.length;
 		}
 
 		public int rank() {
 			int c = 0;
-			for (int i = 0; i != activations.length; ++i) {
+			for (int i = 0; i != steps.length; ++i) {
 				if (steps[i] == null) {
 					c++;
 				}
@@ -119,17 +424,51 @@ public abstract class AbstractRewrite implements Rewrite {
 		}
 
 		public Automaton automaton() {
+			if (automaton == null) {
+				restore(this);
+			}
 			return automaton;
 		}
 
+		public int root() {
+			return root;
+		}
+
 		public AbstractActivation activation(int index) {
+			if (activations == null) {
+				restore(this);
+			}
 			return activations[index];
 		}
 
+		/**
+		 * Check whether this state is currently evicted (i.e. its automaton
+		 * or activations must be rebuilt before use).
+		 */
+		public boolean isEvicted() {
+			return automaton == null || activations == null;
+		}
+
 		public Rewrite.Step step(int index) {
 			return steps[index];
 		}
 
+		/**
+		 * Get the state from which this state was first reached, or -1 if
+		 * this is the initial state.
+		 */
+		public int parent() {
+			return parent;
+		}
+
+		/**
+		 * Get the activation (in the parent state) which first reached this
+		 * state, or -1 if this is the initial state.
+		 */
+		public int via() {
+			return via;
+		}
+
 		private void update(int index, Rewrite.Step step) {
 			this.steps[index] = step;
 		}
@@ -149,6 +488,75 @@ public abstract class AbstractRewrite implements Rewrite {
 		}
 	}
 	
+	/**
+	 * The outcome of applying an activation to a given state, as computed by
+	 * <code>expand()</code> but not yet recorded in the rewrite.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Expansion {
+		/**
+		 * State from which the activation was applied.
+		 */
+		private final int before;
+
+		/**
+		 * Activation which was applied.
+		 */
+		private final int activation;
+
+		/**
+		 * The automaton produced by applying the activation, or
+		 * <code>null</code> if the application had no effect.
+		 */
+		private final Automaton automaton;
+
+		/**
+		 * The root of the resulting automaton which identifies the term
+		 * produced by the activation.
+		 */
+		private final int root;
+
+		/**
+		 * The rewrite state corresponding to the resulting automaton, if this
+		 * has been determined ahead of time. Otherwise, this is
+		 * <code>null</code>.
+		 */
+		private State state;
+
+		public Expansion(int before, int activation, Automaton automaton, int root) {
+			this.before = before;
+			this.activation = activation;
+			this.automaton = automaton;
+			this.root = root;
+		}
+
+		public int before() {
+			return before;
+		}
+
+		public int activation() {
+			return activation;
+		}
+
+		public Automaton automaton() {
+			return automaton;
+		}
+
+		public int root() {
+			return root;
+		}
+
+		public State state() {
+			return state;
+		}
+
+		public void setState(State state) {
+			this.state = state;
+		}
+	}
+
 	public static class Step implements Rewrite.Step {
 		/**
 		 * State which held before this step
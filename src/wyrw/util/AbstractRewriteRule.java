@@ -38,18 +38,48 @@ public abstract class AbstractRewriteRule implements RewriteRule {
 	 */
 	private final Pattern.Term pattern;
 
+	/**
+	 * The kind of term matched by the root of the pattern, or -1 if this is
+	 * unknown.
+	 */
+	private final int kind;
+
+	/**
+	 * The number of rules probed by this rule (see
+	 * <code>RewriteRule.group()</code>).
+	 */
+	private final int group;
+
 	/**
 	 * The annotations associated with this rule (if any).
 	 */
 	private final Map<String,Object> annotations = new HashMap<String,Object>();
 	
 	public AbstractRewriteRule(Pattern.Term pattern) {
+		this(pattern, -1);
+	}
+
+	public AbstractRewriteRule(Pattern.Term pattern, int kind) {
+		this(pattern, kind, 1);
+	}
+
+	public AbstractRewriteRule(Pattern.Term pattern, int kind, int group) {
 		this.pattern = pattern;
+		this.kind = kind;
+		this.group = group;
 	}
 
 	public Pattern.Term pattern() {
 		return pattern;
 	}
+
+	public int kind() {
+		return kind;
+	}
+
+	public int group() {
+		return group;
+	}
 	
 	public Map<String,Object> annotations() {
 		return annotations;
@@ -0,0 +1,504 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import wyautl.core.Automata;
+import wyautl.core.Automaton;
+import wyrw.core.Budget;
+import wyrw.core.Rewrite;
+import wyrw.core.Rewriter;
+
+/**
+ * <p>
+ * A rewriter which explores the rewrite using a best-first search. This
+ * maintains a priority queue of states reached, which are ordered by the cost
+ * of reaching the state plus an estimate of the remaining cost from the state
+ * to a goal. That is, <code>f = g + h</code> as for A* search, where both the
+ * cost <code>c</code> of each step and the heuristic <code>h</code> are
+ * pluggable. When a state is dequeued, each of its activations is applied in
+ * turn and the states produced are queued, keyed by the cost of reaching them
+ * via this state plus their own estimate.
+ * </p>
+ * <p>
+ * Goals are tested when a state is dequeued, rather than when it is first
+ * reached. Using a zero heuristic gives a uniform-cost search, whilst an
+ * <i>admissible</i> heuristic (i.e. one which never overestimates the
+ * remaining cost) means the first goal state dequeued is one of least cost.
+ * Inadmissible heuristics (e.g. the size of the term) can also be used, though
+ * the search is then merely greedy.
+ * </p>
+ * <p>
+ * Whenever a state is reached more cheaply than before, it is queued (again)
+ * with the updated cost. Entries which have since been superseded are simply
+ * discarded when dequeued. Hence, a state may be expanded more than once if
+ * the heuristic is not consistent. Ties are broken in the order entries were
+ * queued, hence the search is deterministic.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BestFirstRewriter implements Rewriter {
+	/**
+	 * The rewrite onto which this rewriter is being applied.
+	 */
+	protected final Rewrite rewrite;
+
+	/**
+	 * Determines the cost of applying a given activation.
+	 */
+	protected final Cost cost;
+
+	/**
+	 * Estimates the remaining cost from a given state to a goal.
+	 */
+	protected final Heuristic heuristic;
+
+	/**
+	 * Identifies those states at which the search should stop, or
+	 * <code>null</code> if the search should continue until there are no more
+	 * activations.
+	 */
+	protected final Goal goal;
+
+	/**
+	 * The queue of states reached, but not yet expanded.
+	 */
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+	/**
+	 * The least cost found so far for reaching each state, or
+	 * <code>null</code> if the state has not been reached.
+	 */
+	private final ArrayList<Double> costs = new ArrayList<Double>();
+
+	/**
+	 * The estimated remaining cost from each state reached. This is computed
+	 * once per state, since estimates can be expensive.
+	 */
+	private final ArrayList<Double> estimates = new ArrayList<Double>();
+
+	/**
+	 * Those states reached which are goals. Each state is tested once, when
+	 * first reached, but this only takes effect when it is dequeued.
+	 */
+	private final BitSet goals = new BitSet();
+
+	/**
+	 * The state currently being expanded, or <code>null</code> if none. This
+	 * allows expansion to resume where it left off when the number of steps
+	 * permitted is exhausted part way through.
+	 */
+	private Entry expanding;
+
+	/**
+	 * The next activation of the state being expanded to apply.
+	 */
+	private int next;
+
+	/**
+	 * Counts the number of entries queued, and is used to break ties.
+	 */
+	private long sequence;
+
+	/**
+	 * The first goal state dequeued, or -1 if none has been dequeued.
+	 */
+	private int found = -1;
+
+	public BestFirstRewriter(Rewrite rewrite, Cost cost, Heuristic heuristic) {
+		this(rewrite, cost, heuristic, null);
+	}
+
+	public BestFirstRewriter(Rewrite rewrite, Cost cost, Heuristic heuristic, Goal goal) {
+		this.rewrite = rewrite;
+		this.cost = cost;
+		this.heuristic = heuristic;
+		this.goal = goal;
+	}
+
+	@Override
+	public void reset(int state) {
+		queue.clear();
+		costs.clear();
+		estimates.clear();
+		goals.clear();
+		expanding = null;
+		sequence = 0;
+		found = -1;
+		reach(state, 0);
+	}
+
+	@Override
+	public void apply(int maxSteps) {
+		apply(maxSteps, null);
+	}
+
+	@Override
+	public void apply(int maxSteps, Budget budget) {
+		List<Rewrite.State> states = rewrite.states();
+		int count = 0;
+		while (count < maxSteps && found == -1 && (budget == null || !budget.isExhausted())) {
+			if (expanding == null) {
+				Entry entry = queue.poll();
+				if (entry == null) {
+					// Search space exhausted
+					break;
+				} else if (entry.cost > costs.get(entry.state)) {
+					// State since reached more cheaply
+					continue;
+				} else if (goals.get(entry.state)) {
+					found = entry.state;
+					break;
+				}
+				expanding = entry;
+				next = 0;
+			}
+			Rewrite.State state = states.get(expanding.state);
+			if (next == state.size()) {
+				expanding = null;
+				continue;
+			}
+			int activation = next++;
+			double g = expanding.cost + cost.cost(state, activation);
+			Rewrite.Step step = state.step(activation);
+			int after;
+			if (step != null) {
+				// Activation already applied (e.g. on a previous expansion)
+				after = step.after();
+			} else {
+				after = rewrite.step(expanding.state, activation);
+				count = count + 1;
+			}
+			reach(after, g);
+		}
+	}
+
+	/**
+	 * Return the first goal state dequeued, or -1 if none has been dequeued
+	 * (or no goal was given).
+	 *
+	 * @return
+	 */
+	public int found() {
+		return found;
+	}
+
+	/**
+	 * Record that a given state has been reached at a given cost. If this is
+	 * cheaper than any previous route to the state, then it is queued.
+	 *
+	 * @param index
+	 *            --- The state reached.
+	 * @param g
+	 *            --- The cost of reaching it.
+	 */
+	private void reach(int index, double g) {
+		while (costs.size() <= index) {
+			costs.add(null);
+			estimates.add(null);
+		}
+		Double previous = costs.get(index);
+		if (previous != null && previous <= g) {
+			return;
+		} else if (previous == null) {
+			// First time this state is reached
+			Rewrite.State state = rewrite.states().get(index);
+			if (goal != null && goal.reached(state)) {
+				goals.set(index);
+			}
+			estimates.set(index, heuristic.estimate(state));
+		}
+		costs.set(index, g);
+		double f = g + estimates.get(index);
+		queue.add(new Entry(index, g, f, sequence++));
+	}
+
+	/**
+	 * Determines the cost of applying a given activation from a given state.
+	 * Costs should not be negative.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static interface Cost {
+		public double cost(Rewrite.State state, int activation);
+	}
+
+	/**
+	 * Estimates the remaining cost of reaching a goal from a given state. A
+	 * heuristic is admissible if it never overestimates this cost.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static interface Heuristic {
+		public double estimate(Rewrite.State state);
+	}
+
+	/**
+	 * Identifies those states at which the search is complete.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static interface Goal {
+		public boolean reached(Rewrite.State state);
+	}
+
+	/**
+	 * Every activation costs the same and, hence, the cost of a state is the
+	 * number of steps taken to reach it.
+	 */
+	public static final Cost UNIT_COST = new Cost() {
+		@Override
+		public double cost(Rewrite.State state, int activation) {
+			return 1;
+		}
+	};
+
+	/**
+	 * The cost of an activation is determined by the rank of its rule, as
+	 * given by a named annotation. Activations of rules without the annotation
+	 * cost one more than the given maximum rank.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class RankCost implements Cost {
+		private final String annotation;
+		private final int maxRank;
+
+		public RankCost(String annotation, int maxRank) {
+			this.annotation = annotation;
+			this.maxRank = maxRank;
+		}
+
+		@Override
+		public double cost(Rewrite.State state, int activation) {
+			Object rank = state.activation(activation).rule().annotation(annotation);
+			return rank == null ? maxRank + 1 : (Integer) rank;
+		}
+	}
+
+	/**
+	 * Estimates nothing, which is trivially admissible and turns the search
+	 * into a uniform-cost search.
+	 */
+	public static final Heuristic ZERO_HEURISTIC = new Heuristic() {
+		@Override
+		public double estimate(Rewrite.State state) {
+			return 0;
+		}
+	};
+
+	/**
+	 * Estimates the remaining cost as a multiple of the number of states in
+	 * the term represented by a state. This is not admissible. With a positive
+	 * weight, states whose terms are smaller are preferred (e.g. when
+	 * reducing). With a negative weight, states whose terms are larger are
+	 * preferred instead. For example, an inference search looking for
+	 * <code>False</code> then greedily pursues those states where the most
+	 * facts have been inferred.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class SizeHeuristic implements Heuristic {
+		private final double weight;
+
+		public SizeHeuristic(double weight) {
+			this.weight = weight;
+		}
+
+		@Override
+		public double estimate(Rewrite.State state) {
+			Automaton automaton = state.automaton();
+			int root = automaton.getRoot(state.root());
+			if (root < 0) {
+				return 0;
+			}
+			boolean[] reachable = new boolean[automaton.nStates()];
+			Automata.findReachable(automaton, reachable, root);
+			int count = 0;
+			for (int i = 0; i != reachable.length; ++i) {
+				if (reachable[i]) {
+					count = count + 1;
+				}
+			}
+			return weight * count;
+		}
+	}
+
+	/**
+	 * Estimates the remaining cost as the number of roots in the automaton of
+	 * a state. This is not admissible, but prefers states which have
+	 * accumulated fewer terms.
+	 */
+	public static final Heuristic ROOTS_HEURISTIC = new Heuristic() {
+		@Override
+		public double estimate(Rewrite.State state) {
+			return state.automaton().nRoots();
+		}
+	};
+
+	/**
+	 * A goal which is reached by any state representing a given term (e.g.
+	 * <code>False</code>). This also serves as a heuristic, estimating zero
+	 * for a state representing the term and a given minimum cost otherwise.
+	 * Provided no activation costs less than this minimum, the heuristic is
+	 * admissible.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class TermGoal implements Goal, Heuristic {
+		private final Automaton term;
+		private final double minimum;
+
+		/**
+		 * Construct a goal for the term identified by the first root of a
+		 * given automaton.
+		 *
+		 * @param term
+		 *            --- Automaton holding the goal term.
+		 * @param minimum
+		 *            --- The least cost of any activation.
+		 */
+		public TermGoal(Automaton term, double minimum) {
+			// The given automaton may not use virtual states in the same way
+			// as those produced by rewriting (e.g. if it was parsed), hence
+			// it is rebuilt first.
+			Automaton rebuilt = new Automaton();
+			int[] map = new int[term.nStates()];
+			Arrays.fill(map, Automaton.K_VOID);
+			rebuilt.push(rebuild(term, term.getRoot(0), rebuilt, map, new boolean[term.nStates()]));
+			this.term = extract(rebuilt, rebuilt.getRoot(0));
+			this.minimum = minimum;
+		}
+
+		/**
+		 * The state last tested, and whether it represents the term. This
+		 * avoids testing a state twice when this is used as both goal and
+		 * heuristic, as testing requires extracting the state's term.
+		 */
+		private Rewrite.State last;
+		private boolean lastReached;
+
+		@Override
+		public boolean reached(Rewrite.State state) {
+			if (state != last) {
+				Automaton automaton = state.automaton();
+				Automaton candidate = extract(automaton, automaton.getRoot(state.root()));
+				lastReached = candidate.equals(term);
+				last = state;
+			}
+			return lastReached;
+		}
+
+		@Override
+		public double estimate(Rewrite.State state) {
+			return reached(state) ? 0 : minimum;
+		}
+
+		/**
+		 * Copy the (acyclic) term reachable from a given state into another
+		 * automaton, adding each state after its children such that states
+		 * are identified exactly as they would be when rewriting.
+		 */
+		private static int rebuild(Automaton from, int index, Automaton to, int[] map, boolean[] visiting) {
+			if (index < 0) {
+				return index;
+			} else if (visiting[index]) {
+				throw new IllegalArgumentException("goal term cannot be cyclic");
+			} else if (map[index] == Automaton.K_VOID) {
+				visiting[index] = true;
+				Automaton.State state = from.get(index).clone();
+				if (state instanceof Automaton.Term) {
+					Automaton.Term term = (Automaton.Term) state;
+					if (term.contents >= 0) {
+						rebuild(from, term.contents, to, map, visiting);
+					}
+				} else if (state instanceof Automaton.Collection) {
+					Automaton.Collection collection = (Automaton.Collection) state;
+					for (int i = 0; i != collection.size(); ++i) {
+						int child = collection.get(i);
+						if (child >= 0) {
+							rebuild(from, child, to, map, visiting);
+						}
+					}
+				}
+				state.remap(map);
+				map[index] = to.add(state);
+				visiting[index] = false;
+			}
+			return map[index];
+		}
+
+		private static Automaton extract(Automaton automaton, int root) {
+			Automaton term = new Automaton();
+			term.push(term.addAll(root, automaton));
+			term.compact(0);
+			term.canonicalise();
+			return term;
+		}
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+		private final int state;
+		private final double cost;
+		private final double priority;
+		private final long sequence;
+
+		public Entry(int state, double cost, double priority, long sequence) {
+			this.state = state;
+			this.cost = cost;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if (priority < other.priority) {
+				return -1;
+			} else if (priority > other.priority) {
+				return 1;
+			} else if (sequence < other.sequence) {
+				return -1;
+			} else if (sequence > other.sequence) {
+				return 1;
+			}
+			return 0;
+		}
+	}
+}
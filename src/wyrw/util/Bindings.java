@@ -0,0 +1,124 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A growable arena of integers into which the bindings of activations are
+ * written during a probe. Each activation then refers to its binding by an
+ * offset and length into the arena, rather than holding an array of its own.
+ * Since most activations are discarded without ever being applied (e.g. when
+ * reduction stops at the first successful rewrite), this means probing
+ * allocates very little beyond the activations themselves.
+ * </p>
+ * <p>
+ * An arena is only ever appended to and, hence, the binding of an activation
+ * remains valid for as long as the activation itself. An arena is not
+ * thread-safe and, when probing in parallel, each worker writes into an arena
+ * of its own (see <code>ParallelProbe</code>).
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class Bindings {
+	private static final int[] NOBINDINGS = new int[0];
+
+	private int[] data;
+	private int size;
+
+	public Bindings() {
+		// Nothing is allocated until the first binding is, since many probes
+		// find no activations at all.
+		this.data = NOBINDINGS;
+	}
+
+	/**
+	 * Construct an arena holding exactly one binding, given by an existing
+	 * array. This allows activations constructed from an array to be treated
+	 * uniformly.
+	 *
+	 * @param binding
+	 */
+	public Bindings(int[] binding) {
+		this.data = binding;
+		this.size = binding.length;
+	}
+
+	/**
+	 * Allocate space for a new binding of a given length, whose entries are
+	 * initially zero. The entries are then written using the array returned by
+	 * <code>array()</code>, which must be obtained after this call.
+	 *
+	 * @param length
+	 * @return The offset of the new binding.
+	 */
+	public int allocate(int length) {
+		int offset = size;
+		if (offset + length > data.length) {
+			data = Arrays.copyOf(data, Math.max(Math.max(16, data.length * 2), offset + length));
+		}
+		size = offset + length;
+		return offset;
+	}
+
+	/**
+	 * Get the array backing this arena. This may change whenever a binding is
+	 * allocated.
+	 *
+	 * @return
+	 */
+	public int[] array() {
+		return data;
+	}
+
+	public int get(int index) {
+		return data[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Extract a given binding as an array of its own. If the binding occupies
+	 * the whole arena, then the backing array is returned as is.
+	 *
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int[] toArray(int offset, int length) {
+		if (offset == 0 && length == data.length) {
+			return data;
+		} else {
+			return Arrays.copyOfRange(data, offset, offset + length);
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.List;
 
 import wyautl.core.Automaton;
+import wyrw.core.Budget;
 import wyrw.core.Rewrite;
 import wyrw.core.Rewriter;
 
@@ -62,7 +63,12 @@ public class BreadthFirstRewriter implements Rewriter {
 	
 	@Override
 	public void apply(int count) {
-		while(count > 0 && step()) {
+		apply(count, null);
+	}
+
+	@Override
+	public void apply(int count, Budget budget) {
+		while(count > 0 && (budget == null || !budget.isExhausted()) && step()) {
 			count = count - 1;
 		}
 	}
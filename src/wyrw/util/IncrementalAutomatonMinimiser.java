@@ -3,6 +3,7 @@ package wyrw.util;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import wyautl.core.Automata;
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
 import wyautl.util.BinaryMatrix;
@@ -74,6 +75,12 @@ public class IncrementalAutomatonMinimiser {
 	 * numbered --- states.
 	 */
 	private int zeroth;
+
+	/**
+	 * The states eliminated by the most recent rewrite. This may include
+	 * virtual --- or negative numbered --- states.
+	 */
+	private Worklist eliminated = new Worklist(2);
 	
 	public IncrementalAutomatonMinimiser(Automaton automaton, Schema schema) {
 		zeroth = schema.size() - Automaton.K_FREE;
@@ -108,6 +115,24 @@ public class IncrementalAutomatonMinimiser {
 	 * @param to
 	 */
 	public void rewrite(int from, int to, int pivot) {
+		rewrite(from, to, pivot, true);
+	}
+
+	/**
+	 * Update the automaton after a successful rewrite has occurred, as for
+	 * <code>rewrite(from,to,pivot)</code>. However, if compaction is not
+	 * requested, then states eliminated by the rewrite are left as null and
+	 * all other states retain their indices. This is useful when information
+	 * is being maintained about states across several rewrites. In such case,
+	 * <code>compact()</code> should be called at some later point.
+	 *
+	 * @param from
+	 * @param to
+	 * @param pivot
+	 * @param compact
+	 *            --- whether or not to compact the automaton afterwards.
+	 */
+	public void rewrite(int from, int to, int pivot, boolean compact) {
 		// The free list is used to identify all states that are deleted. This
 		// means that we can quickly and efficiently compact the automaton at
 		// the end.
@@ -128,7 +153,10 @@ public class IncrementalAutomatonMinimiser {
 		// prevent the automaton grow too quickly.
 
 		//compact(freeList);
-		inefficientCompact();
+		eliminated = freeList;
+		if (compact) {
+			inefficientCompact();
+		}
 
 //		checkMinimisedInvariant();
 //		checkReachabilityInvariant();
@@ -141,6 +169,87 @@ public class IncrementalAutomatonMinimiser {
 
 	}
 
+	/**
+	 * Eliminate all null states left by rewrites which were not compacted.
+	 * Since states are only ever moved downwards, the relative order of the
+	 * remaining states is preserved.
+	 */
+	public void compact() {
+		inefficientCompact();
+	}
+
+	/**
+	 * Get the number of states eliminated by the most recent rewrite. These
+	 * only remain meaningful if that rewrite was not compacted.
+	 *
+	 * @return
+	 */
+	public int nEliminated() {
+		return eliminated.size;
+	}
+
+	/**
+	 * Get the ith state eliminated by the most recent rewrite, which may be a
+	 * virtual state.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int eliminated(int i) {
+		return eliminated.items[i];
+	}
+
+	/**
+	 * Find all states from which a given state is reachable (including the
+	 * state itself) using the parent information. These are exactly the states
+	 * which could be affected by a change to the given state. Every state
+	 * marked is also recorded, such that the caller can later unmark them.
+	 * Thus, the same buffers can be reused across traversals and the cost of
+	 * each is proportional to the number of ancestors, rather than the size of
+	 * the automaton.
+	 *
+	 * @param index
+	 *            --- state to begin traversal from.
+	 * @param ancestors
+	 *            --- states marked with true are those which have been
+	 *            visited. This must be at least as big as the automaton.
+	 * @param found
+	 *            --- space to record the states marked, which must be at least
+	 *            as big as the automaton.
+	 * @return The number of states marked.
+	 */
+	public int findAncestors(int index, boolean[] ancestors, int[] found) {
+		int count = 0;
+		if (index >= 0) {
+			if (ancestors[index]) {
+				return 0;
+			}
+			ancestors[index] = true;
+			found[count++] = index;
+		}
+		// The states found also act as the worklist, whilst virtual states
+		// can only be the starting point.
+		int next = count;
+		int current = index;
+		do {
+			ParentInfo pinfo = getParents(current);
+			if (pinfo != null) {
+				for (int i = 0; i != pinfo.size; ++i) {
+					int parent = pinfo.parents[i];
+					if (!ancestors[parent]) {
+						ancestors[parent] = true;
+						found[count++] = parent;
+					}
+				}
+			}
+			if (next == count) {
+				break;
+			}
+			current = found[next++];
+		} while (true);
+		return count;
+	}
+
 	/**
 	 * <p>
 	 * The given state has become unreachable. Therefore, we need to recursively
@@ -384,6 +493,7 @@ public class IncrementalAutomatonMinimiser {
 
 		// Second, iterate until all equivalences are determined. When an
 		// equivalent is found recursively explore their parents.
+		boolean found = false;
 		while (worklist.size > 0) {
 			to = worklist.pop();
 			from = worklist.pop();
@@ -391,11 +501,16 @@ public class IncrementalAutomatonMinimiser {
 				equivs.set(from, to, true);
 				equivs.set(to, from, true);
 				addCandidatesToWorklist(worklist, equivs, getParents(from), getParents(to));
+				found = true;
 			}
 		}
 
-		// Third, collapse all states now determined to be equivalent.
-		collapseEquivalences(equivs, freeList);
+		// Third, collapse all states now determined to be equivalent. This is
+		// only necessary if some were found, since otherwise every state is
+		// its own representative and nothing would change.
+		if (found) {
+			collapseEquivalences(equivs, freeList);
+		}
 	}
 
 	private BinaryMatrix initialiseEquivalences() {
@@ -564,7 +679,13 @@ public class IncrementalAutomatonMinimiser {
 		int pinfo_size = pinfo.size;
 		for(int i=0;i!=pinfo_size;++i) {
 			int parent = pinfo_parents[i];
-			automaton.get(parent).remap(from,to);
+			// NOTE: the state is cloned so the automaton can see which
+			// children it had before, as it maintains reference counts
+			Automaton.State state = automaton.get(parent).clone();
+			if(state.remap(from,to)) {
+				// Ensure the automaton's index is kept up-to-date
+				automaton.set(parent, state);
+			}
 		}
 		// Second, update each child state
 		// FIXME: this could be optimised a little
@@ -794,50 +915,50 @@ public class IncrementalAutomatonMinimiser {
 	 * @return
 	 */
 	public static void findReachable(Automaton automaton, boolean[] reachable, int index) {
-		if (index < 0) {
-			return;
-		} else if (reachable[index]) {
-			// Already visited, so terminate here
-			return;
-		} else {
-			// Not previously visited, so mark now and traverse any children
-			reachable[index] = true;
-			Automaton.State state = automaton.get(index);
-			if (state instanceof Automaton.Term) {
-				Automaton.Term term = (Automaton.Term) state;
-				if (term.contents != Automaton.K_VOID) {
-					findReachable(automaton, reachable, term.contents);
-				}
-			} else if (state instanceof Automaton.Collection) {
-				Automaton.Collection compound = (Automaton.Collection) state;
-				for (int i = 0; i != compound.size(); ++i) {
-					findReachable(automaton, reachable, compound.get(i));
-				}
-			}
-		}
+		Automata.findReachable(automaton, reachable, index);
 	}
 
+	/**
+	 * Print out every transition visited during a traversal from a given
+	 * starting state. This is purely for debugging purposes. As for
+	 * <code>findReachable()</code>, an explicit stack is used rather than
+	 * recursion.
+	 *
+	 * @param automaton
+	 *            --- automaton to traverse.
+	 * @param reachable
+	 *            --- states marked with false are those which have not been
+	 *            visited.
+	 * @param index
+	 *            --- state to begin traversal from.
+	 */
 	public static void traceOut(Automaton automaton, boolean[] reachable, int index) {
-		if (index < 0) {
+		if (index < 0 || reachable[index]) {
 			return;
-		} else if (reachable[index]) {
-			// Already visited, so terminate here
-			return;
-		} else {
-			// Not previously visited, so mark now and traverse any children
-			reachable[index] = true;
-			Automaton.State state = automaton.get(index);
+		}
+		reachable[index] = true;
+		int[] stack = new int[automaton.nStates()];
+		int top = 0;
+		stack[top++] = index;
+		while (top > 0) {
+			int node = stack[--top];
+			Automaton.State state = automaton.get(node);
+			int[] children;
 			if (state instanceof Automaton.Term) {
 				Automaton.Term term = (Automaton.Term) state;
-				if (term.contents != Automaton.K_VOID) {
-					System.out.println("Traversing: " + index + "=>" + term.contents);
-					traceOut(automaton, reachable, term.contents);
-				}
+				children = term.contents == Automaton.K_VOID ? Automaton.NOCHILDREN
+						: new int[] { term.contents };
 			} else if (state instanceof Automaton.Collection) {
-				Automaton.Collection compound = (Automaton.Collection) state;
-				for (int i = 0; i != compound.size(); ++i) {
-					System.out.println("Traversing: " + index + "=>" + compound.get(i));
-					traceOut(automaton, reachable, compound.get(i));
+				children = ((Automaton.Collection) state).toArray();
+			} else {
+				children = Automaton.NOCHILDREN;
+			}
+			for (int i = 0; i != children.length; ++i) {
+				int child = children[i];
+				System.out.println("Traversing: " + node + "=>" + child);
+				if (child >= 0 && !reachable[child]) {
+					reachable[child] = true;
+					stack[top++] = child;
 				}
 			}
 		}
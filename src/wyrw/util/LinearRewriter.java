@@ -28,6 +28,7 @@ package wyrw.util;
 import java.util.*;
 
 import wyautl.core.*;
+import wyrw.core.Budget;
 import wyrw.core.Rewrite;
 import wyrw.core.Rewrite.State;
 import wyrw.core.RewriteRule;
@@ -83,9 +84,14 @@ public class LinearRewriter implements Rewriter {
 	
 	@Override
 	public void apply(int maxSteps) {
+		apply(maxSteps, null);
+	}
+
+	@Override
+	public void apply(int maxSteps, Budget budget) {
 		int count = 0;
 		List<Rewrite.State> states = rewrite.states();
-		while (count < maxSteps) {
+		while (count < maxSteps && (budget == null || !budget.isExhausted())) {
 			Rewrite.State state = states.get(HEAD);
 			int next = heuristic.select(state);
 			if (next != -1) {
@@ -0,0 +1,300 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import wyautl.core.Automaton;
+
+/**
+ * <p>
+ * A bounded cache of normal forms which persists across calls to
+ * <code>Reductions.reduceOver()</code>. This maps a subterm (i.e. the
+ * sub-automaton reachable from a given state) to the term it reduced to on
+ * some previous occasion. When a subterm is found in the cache, its normal form
+ * can simply be spliced in using <code>Automaton.addAll()</code>, rather than
+ * being reduced all over again. This is useful when many automata sharing
+ * large common subterms are reduced under the same rules.
+ * </p>
+ * <p>
+ * Subterms are held in canonical form (see <code>Automaton.canonicalise()</code>)
+ * and, hence, are looked up by their fingerprint. To keep the overhead of
+ * extracting subterms reasonable, only those with at least a given number of
+ * states are considered. Furthermore, only maximal subterms are looked up
+ * (see <code>Reductions.reduceOver()</code>). The cache is bounded by the total number of states it
+ * holds, with the least recently used entries being evicted first.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> replacing a subterm with its normal form is always a valid
+ * sequence of reductions. However, if the rules are not confluent then the
+ * final result may differ from that obtained without the cache.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class NormalFormCache {
+	/**
+	 * The maximum number of states (over all keys and values) held in this
+	 * cache.
+	 */
+	private final int capacity;
+
+	/**
+	 * The minimum number of states a subterm must have to be considered.
+	 */
+	private final int threshold;
+
+	/**
+	 * Maps canonical subterms to their normal forms. This is kept in access
+	 * order, such that the least recently used entry comes first.
+	 */
+	private final LinkedHashMap<Automaton, Automaton> entries = new LinkedHashMap<Automaton, Automaton>(16, 0.75f, true);
+
+	/**
+	 * The number of states currently held in this cache.
+	 */
+	private int size;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Scratch space for determining the size of a subterm, which is reused
+	 * across calls. A state has been visited by the current traversal if it
+	 * is marked with the current epoch, hence this need not be cleared between
+	 * traversals.
+	 */
+	private int[] visited = new int[0];
+	private int[] stack = new int[0];
+	private int epoch;
+
+	/**
+	 * Construct a cache of normal forms.
+	 *
+	 * @param capacity
+	 *            --- The maximum number of states (over all keys and values)
+	 *            held in the cache.
+	 * @param threshold
+	 *            --- The minimum number of states a subterm must have to be
+	 *            considered. Subterms smaller than this are cheap to reduce
+	 *            directly.
+	 */
+	public NormalFormCache(int capacity, int threshold) {
+		this.capacity = capacity;
+		this.threshold = Math.max(1, threshold);
+	}
+
+	/**
+	 * Extract the subterm reachable from a given state in an automaton, and
+	 * return it in canonical form (i.e. such that it can be used as a key into
+	 * this cache). If the subterm is smaller than the threshold, then
+	 * <code>null</code> is returned instead. Determining this requires visiting
+	 * at most <code>threshold</code> states.
+	 *
+	 * @param automaton
+	 *            --- Automaton from which to extract the subterm.
+	 * @param state
+	 *            --- Root state of the subterm.
+	 * @return
+	 */
+	public Automaton key(Automaton automaton, int state) {
+		if (state < 0 || !isLarge(automaton, state)) {
+			return null;
+		}
+		return extract(automaton, state);
+	}
+
+	/**
+	 * Lookup the normal form of a given subterm, which must be in canonical
+	 * form. If there is no such entry, then <code>null</code> is returned.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Automaton get(Automaton key) {
+		Automaton normalForm = entries.get(key);
+		if (normalForm == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return normalForm;
+	}
+
+	/**
+	 * Record the normal form of a given subterm, which must be in canonical
+	 * form. The normal form is given by the state reachable from a given
+	 * state in another automaton. This may cause the least recently used
+	 * entries to be evicted.
+	 *
+	 * @param key
+	 *            --- Subterm (in canonical form) being recorded.
+	 * @param automaton
+	 *            --- Automaton holding the normal form of the subterm.
+	 * @param state
+	 *            --- Root state of the normal form.
+	 */
+	public void put(Automaton key, Automaton automaton, int state) {
+		Automaton normalForm = extract(automaton, state);
+		int cost = key.nStates() + normalForm.nStates();
+		if (cost > capacity) {
+			return;
+		}
+		Automaton old = entries.put(key, normalForm);
+		if (old != null) {
+			size -= key.nStates() + old.nStates();
+		}
+		size += cost;
+		Iterator<Map.Entry<Automaton, Automaton>> iter = entries.entrySet().iterator();
+		while (size > capacity && iter.hasNext()) {
+			Map.Entry<Automaton, Automaton> eldest = iter.next();
+			size -= eldest.getKey().nStates() + eldest.getValue().nStates();
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Return the number of lookups which found a normal form.
+	 *
+	 * @return
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of lookups which failed to find a normal form.
+	 *
+	 * @return
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	/**
+	 * Return the number of entries evicted to keep within capacity.
+	 *
+	 * @return
+	 */
+	public long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Return the number of entries currently held.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Remove all entries from this cache, and reset the counters.
+	 */
+	public void clear() {
+		entries.clear();
+		size = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries="
+				+ entries.size() + ", states=" + size;
+	}
+
+	/**
+	 * Check whether at least <code>threshold</code> states are reachable from
+	 * a given state (including itself). The traversal stops as soon as this
+	 * many have been visited.
+	 */
+	private boolean isLarge(Automaton automaton, int state) {
+		int nStates = automaton.nStates();
+		if (visited.length < nStates) {
+			visited = new int[nStates];
+			stack = new int[nStates];
+			epoch = 0;
+		}
+		epoch = epoch + 1;
+		if (epoch == 0) {
+			// The epoch has wrapped around, hence previous marks are
+			// indistinguishable from current ones.
+			Arrays.fill(visited, 0);
+			epoch = 1;
+		}
+		int count = 0;
+		int top = 0;
+		visited[state] = epoch;
+		stack[top++] = state;
+		while (top > 0) {
+			if (++count >= threshold) {
+				return true;
+			}
+			Automaton.State s = automaton.get(stack[--top]);
+			if (s instanceof Automaton.Term) {
+				int child = ((Automaton.Term) s).contents;
+				if (child >= 0 && visited[child] != epoch) {
+					visited[child] = epoch;
+					stack[top++] = child;
+				}
+			} else if (s instanceof Automaton.Collection) {
+				Automaton.Collection c = (Automaton.Collection) s;
+				for (int i = 0; i != c.size(); ++i) {
+					int child = c.get(i);
+					if (child >= 0 && visited[child] != epoch) {
+						visited[child] = epoch;
+						stack[top++] = child;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copy the states reachable from a given state into a fresh automaton,
+	 * whose only root refers to that state, and then canonicalise it.
+	 */
+	private static Automaton extract(Automaton automaton, int state) {
+		Automaton term = new Automaton();
+		term.push(term.addAll(state, automaton));
+		term.compact(0);
+		term.canonicalise();
+		// Keys and values are never modified again, hence can be packed.
+		term.pack();
+		return term;
+	}
+}
@@ -0,0 +1,263 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import wyautl.core.Automaton;
+import wyrw.core.Budget;
+import wyrw.core.Rewrite;
+import wyrw.core.Rewriter;
+
+/**
+ * <p>
+ * A breadth-first rewriter which applies the pending activations of each
+ * frontier concurrently. Since every activation is applied to its own copy of
+ * the automaton (see <code>AbstractRewrite.expand()</code>), the expensive
+ * part of each step can be performed in parallel. Each batch of steps is
+ * processed in three phases:
+ * </p>
+ * <ol>
+ * <li><b>Expand.</b> All pending activations in the frontier are applied in
+ * parallel, and the resulting automata are entered into a concurrent table
+ * keyed by their fingerprint. The first expansion to produce a given automaton
+ * becomes its representative.</li>
+ * <li><b>Prepare.</b> The representatives are prepared in parallel (e.g. the
+ * resulting automata are probed for activations). Thus, identical automata
+ * reached from different activations are only prepared once.</li>
+ * <li><b>Commit.</b> All expansions are recorded in the rewrite sequentially,
+ * in the order in which activations appear in the frontier.</li>
+ * </ol>
+ * <p>
+ * Since states are only ever created in the commit phase, the numbering of
+ * states and the next frontier are determined independently of how work was
+ * scheduled between threads. Furthermore, activations are committed in the
+ * same order in which <code>BreadthFirstRewriter</code> applies them, and
+ * applying one activation never affects the outcome of another. Therefore,
+ * the rewrite produced is identical (including the numbering of states) to
+ * that produced by <code>BreadthFirstRewriter</code> for the same number of
+ * steps.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelBreadthFirstRewriter implements Rewriter {
+	private final HashSet<Integer> visited = new HashSet<Integer>();
+	private ArrayList<Integer> frontier = new ArrayList<Integer>();
+
+	/**
+	 * The rewrite onto which this rewriter is being applied.
+	 */
+	protected final AbstractRewrite rewrite;
+
+	/**
+	 * The pool of workers used to apply activations.
+	 */
+	protected final ForkJoinPool pool;
+
+	public ParallelBreadthFirstRewriter(AbstractRewrite rewrite, ForkJoinPool pool) {
+		this.rewrite = rewrite;
+		this.pool = pool;
+	}
+
+	@Override
+	public void reset(int state) {
+		frontier.clear();
+		visited.clear();
+		frontier.add(state);
+		visited.add(state);
+	}
+
+	@Override
+	public void apply(int count) {
+		apply(count, null);
+	}
+
+	/**
+	 * Apply a number of steps, as above, checking the budget before each batch
+	 * of steps. Thus, the budget may be overshot by up to one batch.
+	 */
+	@Override
+	public void apply(int count, Budget budget) {
+		while (count > 0 && frontier.size() > 0 && (budget == null || !budget.isExhausted())) {
+			int[][] pending = pending(count);
+			if (pending.length == 0) {
+				extendFrontier();
+			} else {
+				step(pending);
+				count = count - pending.length;
+			}
+		}
+	}
+
+	/**
+	 * Determine the (up to count) activations in the current frontier which
+	 * have not yet been applied, in the order in which they occur.
+	 *
+	 * @param count
+	 * @return
+	 */
+	private int[][] pending(int count) {
+		List<Rewrite.State> states = rewrite.states();
+		ArrayList<int[]> pending = new ArrayList<int[]>();
+		for (int i = 0; i != frontier.size() && pending.size() < count; ++i) {
+			int before = frontier.get(i);
+			Rewrite.State state = states.get(before);
+			for (int j = 0; j != state.size() && pending.size() < count; ++j) {
+				if (state.step(j) == null) {
+					pending.add(new int[] { before, j });
+				}
+			}
+		}
+		return pending.toArray(new int[pending.size()][]);
+	}
+
+	/**
+	 * Apply a batch of pending activations, as described above.
+	 *
+	 * @param pending
+	 */
+	private void step(final int[][] pending) {
+		final AbstractRewrite.Expansion[] expansions = new AbstractRewrite.Expansion[pending.length];
+		final AbstractRewrite.Expansion[] representatives = new AbstractRewrite.Expansion[pending.length];
+		final ConcurrentHashMap<Automaton, AbstractRewrite.Expansion> table = new ConcurrentHashMap<Automaton, AbstractRewrite.Expansion>();
+		// Phase 1: expand all pending activations
+		pool.invoke(new Batch(0, pending.length) {
+			@Override
+			protected void apply(int i) {
+				AbstractRewrite.Expansion e = rewrite.expand(pending[i][0], pending[i][1]);
+				Automaton automaton = e.automaton();
+				if (automaton != null) {
+					AbstractRewrite.Expansion r = table.putIfAbsent(automaton, e);
+					representatives[i] = r == null ? e : r;
+				}
+				expansions[i] = e;
+			}
+		});
+		// Phase 2: prepare each distinct outcome
+		pool.invoke(new Batch(0, pending.length) {
+			@Override
+			protected void apply(int i) {
+				if (representatives[i] == expansions[i]) {
+					rewrite.prepare(expansions[i]);
+				}
+			}
+		});
+		// Phase 3: commit every expansion in order
+		for (int i = 0; i != expansions.length; ++i) {
+			AbstractRewrite.Expansion e = expansions[i];
+			AbstractRewrite.Expansion r = representatives[i];
+			if (r != null && r != e) {
+				e.setState(r.state());
+			}
+			rewrite.commit(e);
+		}
+	}
+
+	/**
+	 * Got through out current frontier and extend every state by one step to
+	 * produce a new frontier. Any steps previously visited are ignored.
+	 */
+	private void extendFrontier() {
+		ArrayList<Integer> nFrontier = new ArrayList<Integer>();
+		List<Rewrite.State> states = rewrite.states();
+		for (int i = 0; i != frontier.size(); ++i) {
+			Rewrite.State state = states.get(frontier.get(i));
+			for (int j = 0; j != state.size(); ++j) {
+				Rewrite.Step step = state.step(j);
+				int next = step.after();
+				if (!visited.contains(next)) {
+					visited.add(next);
+					nFrontier.add(next);
+				}
+			}
+		}
+		frontier = nFrontier;
+	}
+
+	/**
+	 * The number of activations below which a batch is applied sequentially,
+	 * rather than being split further. Applying an activation is relatively
+	 * expensive (e.g. it copies the automaton), hence this can be small.
+	 */
+	public static final int THRESHOLD = 4;
+
+	/**
+	 * Applies some operation to every index in a given range, splitting the
+	 * range in half until each subrange is within the threshold.
+	 */
+	private abstract class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1l;
+
+		private final int start;
+		private final int end;
+
+		public Batch(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected abstract void apply(int index);
+
+		@Override
+		protected void compute() {
+			if ((end - start) <= THRESHOLD) {
+				for (int i = start; i < end; ++i) {
+					apply(i);
+				}
+			} else {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new Part(this, start, middle), new Part(this, middle, end));
+			}
+		}
+	}
+
+	/**
+	 * A subrange of some batch, which applies the same operation as it.
+	 */
+	private final class Part extends Batch {
+		private static final long serialVersionUID = 1l;
+
+		private final Batch batch;
+
+		public Part(Batch batch, int start, int end) {
+			super(start, end);
+			this.batch = batch;
+		}
+
+		@Override
+		protected void apply(int index) {
+			batch.apply(index);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package wyrw.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * Probes a contiguous range of automaton states for activations, optionally
+ * splitting the range across the workers of a <code>ForkJoinPool</code>. Each
+ * worker collects the activations for its own subrange into a private list,
+ * and these lists are then concatenated in range order. Therefore, the final
+ * list is identical to that produced by probing every state sequentially,
+ * which means subsequently sorting it (with a stable sort) yields exactly the
+ * same ordering regardless of how many workers were involved.
+ * </p>
+ *
+ * <p>
+ * <b>NOTE:</b> this relies on probing being a read-only operation on the
+ * automaton. This is true of generated probe methods (which only ever call
+ * <code>Automaton.get()</code> and <code>Runtime.accepts()</code>), but the
+ * automaton must not be modified by anything else whilst a parallel probe is
+ * in progress.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public abstract class ParallelProbe<T> {
+
+	/**
+	 * The number of states below which a range is probed sequentially, rather
+	 * than being split further. Probing a single state is cheap and, hence,
+	 * this needs to be large enough to amortise the cost of forking a task.
+	 */
+	public static final int THRESHOLD = 128;
+
+	/**
+	 * Probe a single state, adding any activations found to the given list.
+	 * Each worker has its own arena of bindings, which is shared by all states
+	 * it probes.
+	 *
+	 * @param state
+	 *            --- Index of the state to probe.
+	 * @param bindings
+	 *            --- Arena into which the bindings of activations are written.
+	 * @param activations
+	 *            --- List onto which any activations found are added.
+	 */
+	protected abstract void probe(int state, Bindings bindings, List<T> activations);
+
+	/**
+	 * Probe all states in a given range, returning the activations found in
+	 * the order that a sequential probe would have found them.
+	 *
+	 * @param pool
+	 *            --- Pool of workers to use, or <code>null</code> if the range
+	 *            should be probed sequentially.
+	 * @param start
+	 *            --- First state in the range (inclusive).
+	 * @param end
+	 *            --- Last state in the range (exclusive).
+	 * @return
+	 */
+	public ArrayList<T> probe(ForkJoinPool pool, int start, int end) {
+		if (pool == null || (end - start) <= THRESHOLD) {
+			return probeSequentially(start, end);
+		} else {
+			return pool.invoke(new Task(start, end));
+		}
+	}
+
+	private ArrayList<T> probeSequentially(int start, int end) {
+		ArrayList<T> activations = new ArrayList<T>();
+		Bindings bindings = new Bindings();
+		for (int s = start; s < end; ++s) {
+			probe(s, bindings, activations);
+		}
+		return activations;
+	}
+
+	/**
+	 * Probe a range of states, splitting it in half whilst it remains above
+	 * the threshold. The left half is forked, whilst the right half is
+	 * computed directly by the current worker.
+	 */
+	private final class Task extends RecursiveTask<ArrayList<T>> {
+		private static final long serialVersionUID = 1l;
+
+		private final int start;
+		private final int end;
+
+		public Task(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected ArrayList<T> compute() {
+			if ((end - start) <= THRESHOLD) {
+				return probeSequentially(start, end);
+			} else {
+				int middle = (start + end) >>> 1;
+				Task left = new Task(start, middle);
+				left.fork();
+				ArrayList<T> right = new Task(middle, end).compute();
+				ArrayList<T> result = left.join();
+				result.addAll(right);
+				return result;
+			}
+		}
+	}
+}
@@ -3,12 +3,18 @@ package wyrw.util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
 
+import wyautl.core.Automata;
 import wyautl.core.Automaton;
 import wyautl.core.Schema;
+import wyrw.core.Budget;
 import wyrw.core.Reduction;
 import wyrw.core.ReductionRule;
 import wyrw.core.Rewrite;
+import wyrw.core.RewriteRule;
 
 public class Reductions {
 	
@@ -24,6 +30,46 @@ public class Reductions {
 		reduceOver(automaton, 0, maxSteps,schema,reductions, comparator);
 	}
 	
+	/**
+	 * Minimise and reduce an automaton, as above, whilst consulting (and
+	 * populating) a cache of normal forms for its subterms.
+	 *
+	 * @param automaton
+	 * @param maxSteps
+	 * @param schema
+	 * @param reductions
+	 * @param comparator
+	 * @param cache
+	 *            --- Cache of normal forms, or <code>null</code> if none.
+	 */
+	public static void minimiseAndReduce(Automaton automaton, int maxSteps, Schema schema, ReductionRule[] reductions,
+			Comparator<Rewrite.Activation> comparator, NormalFormCache cache) {
+		minimiseAndReduce(automaton, maxSteps, schema, reductions, comparator, cache, null);
+	}
+
+	/**
+	 * Minimise and reduce an automaton, as above, whilst charging the work
+	 * done to a given budget. Minimisation is always completed, since the
+	 * automaton would not otherwise be valid, but reduction stops as soon as
+	 * the budget is exhausted.
+	 *
+	 * @param automaton
+	 * @param maxSteps
+	 * @param schema
+	 * @param reductions
+	 * @param comparator
+	 * @param cache
+	 *            --- Cache of normal forms, or <code>null</code> if none.
+	 * @param budget
+	 *            --- Budget to charge, or <code>null</code> if none.
+	 */
+	public static void minimiseAndReduce(Automaton automaton, int maxSteps, Schema schema, ReductionRule[] reductions,
+			Comparator<Rewrite.Activation> comparator, NormalFormCache cache, Budget budget) {
+		automaton.minimise();
+		automaton.compact(0);
+		reduceOver(automaton, 0, maxSteps, schema, reductions, comparator, cache, budget);
+	}
+
 	public static void reduceOver(Automaton automaton, int start, int maxSteps, Schema schema, ReductionRule... reductions) {
 		reduceOver(automaton,start,maxSteps,schema,reductions,null);
 	}
@@ -33,60 +79,817 @@ public class Reductions {
 	}
 	
 	/**
-	 * Simple helper method for reducing an automaton.  
-	 * 
+	 * <p>
+	 * Simple helper method for reducing an automaton. Only those states from
+	 * the given starting point onwards are considered as targets for rewrite
+	 * rules. Here, states are counted as though the automaton were compacted
+	 * after every rewrite, since null states are permitted to accumulate
+	 * between rewrites.
+	 * </p>
+	 * <p>
+	 * Rather than probing every state after each rewrite, the activations found
+	 * for each state are retained and only those states which could be
+	 * affected by the rewrite are probed again. These are the states above the
+	 * pivot (i.e. those added by the rewrite) and the ancestors of the state
+	 * rewritten to, as determined by the parent information of the incremental
+	 * minimiser. The activations of any other state are unaffected since
+	 * nothing reachable from it has changed. To ensure cached activations
+	 * remain valid, the automaton is not compacted after each rewrite. Instead,
+	 * compaction (which invalidates every cached activation) only occurs once
+	 * null states make up the majority of the automaton. Since compaction
+	 * preserves the relative order of states, this produces exactly the same
+	 * sequence of rewrites as probing everything after each rewrite.
+	 * </p>
+	 *
 	 * @param automaton
 	 */
 	public static void reduceOver(Automaton automaton, int start, int maxSteps, Schema schema, ReductionRule[] reductions,
 			Comparator<Rewrite.Activation> comparator) {
-		// Now, attempt to reduce as much as possible
-		IncrementalAutomatonMinimiser inc = new IncrementalAutomatonMinimiser(automaton,schema);
+		reduceOver(automaton, start, maxSteps, schema, reductions, comparator, null);
+	}
+
+	/**
+	 * <p>
+	 * Reduce an automaton from a given starting point, as above, whilst
+	 * consulting a cache of normal forms. Before any rules are applied, the
+	 * maximal subterms from the starting point onwards (i.e. the terms reached
+	 * from the roots without passing through another term) are looked up in
+	 * the cache. Any subterm found there is immediately rewritten to its
+	 * normal form, which is spliced in using <code>Automaton.addAll()</code>.
+	 * Subterms below these are not looked up, since each is reduced as part of
+	 * the maximal subterm containing it. Once reduction is complete, the normal
+	 * forms reached by those roots whose subterms were not found in the cache
+	 * are recorded in it.
+	 * </p>
+	 *
+	 * @param automaton
+	 * @param start
+	 * @param maxSteps
+	 * @param schema
+	 * @param reductions
+	 * @param comparator
+	 * @param cache
+	 *            --- Cache of normal forms, or <code>null</code> if none.
+	 */
+	public static void reduceOver(Automaton automaton, int start, int maxSteps, Schema schema, ReductionRule[] reductions,
+			Comparator<Rewrite.Activation> comparator, NormalFormCache cache) {
+		reduceOver(automaton, start, maxSteps, schema, reductions, comparator, cache, null);
+	}
+
+	/**
+	 * <p>
+	 * Reduce an automaton from a given starting point, as above, whilst
+	 * charging the states probed and allocated to a given budget. The budget is
+	 * checked before each rewrite, at which point the automaton is minimised
+	 * (though possibly not compacted). Once it is exhausted, reduction stops
+	 * and the automaton is compacted as normal. Thus, the automaton is left
+	 * valid and minimised, but only partially reduced.
+	 * </p>
+	 * <p>
+	 * Since the states reached by subterms not found in the cache are not
+	 * normal forms when reduction stops early (i.e. because either the budget
+	 * or the maximum number of steps is exhausted), they are not recorded in
+	 * the cache in this case.
+	 * </p>
+	 *
+	 * @param automaton
+	 * @param start
+	 * @param maxSteps
+	 * @param schema
+	 * @param reductions
+	 * @param comparator
+	 * @param cache
+	 *            --- Cache of normal forms, or <code>null</code> if none.
+	 * @param budget
+	 *            --- Budget to charge, or <code>null</code> if none.
+	 */
+	public static void reduceOver(Automaton automaton, int start, int maxSteps, Schema schema, ReductionRule[] reductions,
+			Comparator<Rewrite.Activation> comparator, NormalFormCache cache, Budget budget) {
+		// Now, attempt to reduce as much as possible. The incremental minimiser
+		// is only constructed once some activation is found, since determining
+		// the parents of every state is expensive for large automata (e.g.
+		// those shared across many roots) and often nothing can be reduced.
+		IncrementalAutomatonMinimiser inc = null;
+		int[][] dispatch = dispatchTable(reductions);
+		Automaton[] misses = null;
+		if (cache != null) {
+			inc = new IncrementalAutomatonMinimiser(automaton,schema);
+			int first = indexOf(automaton, start);
+			misses = consult(automaton, first, inc, cache);
+			// Splicing in normal forms may have eliminated states before the
+			// starting point, and the start is recalculated accordingly.
+			start = first - countNullStates(automaton, first);
+		}
+		// The activations found for each state are retained across rewrites.
+		Agenda agenda = new Agenda(automaton, start, reductions, dispatch, comparator);
 		
 		boolean changed = true;
+		boolean exhausted = false;
 		while (changed && maxSteps-- > 0) {
 			changed = false;
-			AbstractActivation[] activations = probe(automaton, start, reductions, comparator);
+			if (budget != null && budget.isExhausted()) {
+				exhausted = true;
+				break;
+			} else if (inc != null && 2 * agenda.nullStates() > automaton.nStates()) {
+				inc.compact();
+				agenda.reset();
+			}
+			agenda.probe(budget);
+			if (inc == null && !agenda.isEmpty()) {
+				inc = new IncrementalAutomatonMinimiser(automaton,schema);
+			}
 			int pivot = automaton.nStates();
-			for (int i = 0; i != activations.length; ++i) {
-				AbstractActivation activation = activations[i];
+			for (Reduction.Activation activation : agenda) {
 				int from = activation.target();
+				int before = automaton.nStates();
 				int target = activation.apply(automaton);
+				if (budget != null) {
+					budget.allocate(automaton.nStates() - before);
+				}
 				if (target != Automaton.K_VOID && from != target) {
 					// Rewrite applied
-					inc.rewrite(from, target, pivot);
-					//
+					inc.rewrite(from, target, pivot, false);
+					// Invalidate activations of all states affected
+					agenda.update(inc, target, pivot);
 					changed = true;
 					break;
 				} 
 			}
 		}
+		if (misses != null && !exhausted && !changed) {
+			// Record the normal forms reached by subterms not in the cache.
+			// When reduction is incomplete (i.e. the budget or the maximum
+			// number of steps ran out), nothing can be recorded.
+			for (int i = 0; i != misses.length; ++i) {
+				if (misses[i] != null) {
+					cache.put(misses[i], automaton, automaton.getRoot(i));
+				}
+			}
+		}
 		// At this point, the automaton may not be compacted but it should be
 		// minimised (assuming it was on entry).
 		automaton.compact(0);
 	}
+
+	/**
+	 * Look up the maximal subterms of an automaton in a cache of normal forms.
+	 * These are the terms reached from the roots without passing through
+	 * another term. Only states from a given index onwards are considered,
+	 * since those before are already reduced. Nothing below a maximal subterm
+	 * is looked up, since it is reduced as part of that subterm. Any subterm
+	 * found in the cache is rewritten to its normal form. Otherwise, if it is
+	 * referred to directly by a root, then its key is returned such that the
+	 * normal form reached by that root can be recorded afterwards.
+	 *
+	 * @param automaton
+	 *            --- Automaton being reduced.
+	 * @param first
+	 *            --- Index of the first state to consider.
+	 * @param inc
+	 *            --- Incremental minimiser for the automaton.
+	 * @param cache
+	 *            --- Cache of normal forms to consult.
+	 * @return The keys of those subterms not in the cache, indexed by the root
+	 *         referring to them (or <code>null</code> if none).
+	 */
+	private static Automaton[] consult(Automaton automaton, int first, IncrementalAutomatonMinimiser inc,
+			NormalFormCache cache) {
+		int nRoots = automaton.nRoots();
+		Automaton[] misses = new Automaton[nRoots];
+		ArrayList<Automaton> hits = new ArrayList<Automaton>();
+		int nStates = automaton.nStates();
+		int[] hitStates = new int[nStates];
+		boolean[] visited = new boolean[nStates];
+		int[] stack = new int[nStates];
+		for (int i = 0; i != nRoots; ++i) {
+			int root = automaton.getRoot(i);
+			if (root < first || visited[root]) {
+				continue;
+			}
+			visited[root] = true;
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0) {
+				int s = stack[--top];
+				Automaton.State state = automaton.get(s);
+				if (state instanceof Automaton.Term) {
+					// This is a maximal subterm, hence nothing below it is
+					// considered. In particular, if it is too small to be
+					// looked up then so is everything below it.
+					Automaton key = cache.key(automaton, s);
+					if (key == null) {
+						continue;
+					}
+					Automaton normalForm = cache.get(key);
+					if (normalForm != null) {
+						hitStates[hits.size()] = s;
+						hits.add(normalForm);
+					} else if (s == root) {
+						misses[i] = key;
+					}
+				} else {
+					for (int child : children(state)) {
+						if (child >= first && !visited[child]) {
+							visited[child] = true;
+							stack[top++] = child;
+						}
+					}
+				}
+			}
+		}
+		// Splice in normal forms for those subterms in the cache. Root markers
+		// are used to keep track of them, since each rewrite may change the
+		// automaton.
+		int base = automaton.nRoots();
+		for (int i = 0; i != hits.size(); ++i) {
+			automaton.push(hitStates[i]);
+		}
+		for (int i = 0; i != hits.size(); ++i) {
+			Automaton normalForm = hits.get(i);
+			int from = automaton.getRoot(base + i);
+			int pivot = automaton.nStates();
+			int to = automaton.addAll(normalForm.getRoot(0), normalForm);
+			if (from >= 0 && from != to) {
+				int target = automaton.rewrite(from, to);
+				inc.rewrite(from, target, pivot, false);
+			}
+		}
+		for (int i = 0; i != hits.size(); ++i) {
+			automaton.pop();
+		}
+		return misses;
+	}
+
+	/**
+	 * Determine the index of the state at a given position amongst the
+	 * non-null states of an automaton.
+	 */
+	private static int indexOf(Automaton automaton, int position) {
+		int index = 0;
+		for (int s = 0; s != automaton.nStates(); ++s) {
+			if (automaton.get(s) != null && index++ == position) {
+				return s;
+			}
+		}
+		return automaton.nStates();
+	}
 	
+	/**
+	 * <p>
+	 * Reduce an automaton by applying activations in batches, rather than one
+	 * at a time. On each round, the automaton is probed and the activations
+	 * are considered in order. Every activation which does not overlap with
+	 * one already applied in this round is applied, and then the automaton is
+	 * minimised and compacted once for the whole batch. This greatly reduces
+	 * the number of rounds required for automata with many independent
+	 * redexes.
+	 * </p>
+	 * <p>
+	 * An activation depends upon every state reachable from its target (not
+	 * just those in its binding, since probing may inspect states at any depth
+	 * through type tests). Furthermore, applying an activation modifies only
+	 * the ancestors of its target, since these are the states which refer
+	 * (directly or indirectly) to the state being rewritten. Therefore, once
+	 * an activation has been applied, any other activation whose target is
+	 * reachable from or is an ancestor of its target is skipped until the next
+	 * round. All other activations remain valid, as nothing reachable from
+	 * their targets has changed. Since minimisation is deferred until the end
+	 * of the round, no states are merged or relocated in the meantime.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> since activations are applied in a different order from
+	 * <code>reduceOver()</code>, the resulting automaton may differ for rule
+	 * sets which are not confluent. Each successful rewrite counts towards the
+	 * maximum number of steps.
+	 * </p>
+	 *
+	 * @param automaton
+	 */
+	public static void reduceOverInBatches(Automaton automaton, int start, int maxSteps, Schema schema,
+			ReductionRule[] reductions, Comparator<Rewrite.Activation> comparator) {
+		reduceOverInBatches(automaton, start, maxSteps, schema, reductions, comparator, null);
+	}
+
+	/**
+	 * Reduce an automaton in batches, as above, whilst charging the work done
+	 * to a given budget. The budget is only checked between rounds, since the
+	 * automaton is not minimised until the end of each round.
+	 *
+	 * @param automaton
+	 * @param start
+	 * @param maxSteps
+	 * @param schema
+	 * @param reductions
+	 * @param comparator
+	 * @param budget
+	 *            --- Budget to charge, or <code>null</code> if none.
+	 */
+	public static void reduceOverInBatches(Automaton automaton, int start, int maxSteps, Schema schema,
+			ReductionRule[] reductions, Comparator<Rewrite.Activation> comparator, Budget budget) {
+		int[][] dispatch = dispatchTable(reductions);
+
+		boolean changed = true;
+		while (changed && maxSteps > 0 && (budget == null || !budget.isExhausted())) {
+			changed = false;
+			int pivot = automaton.nStates();
+			AbstractActivation[] activations = probe(automaton, start, reductions, dispatch,
+					new Reduction.Activation[pivot][], comparator, budget);
+			int[][] parents = determineParents(automaton);
+			// States reachable from the target of an applied activation.
+			boolean[] below = new boolean[pivot];
+			// States from which the target of an applied activation is
+			// reachable.
+			boolean[] above = new boolean[pivot];
+			int[] stack = new int[pivot];
+			for (int i = 0; i != activations.length && maxSteps > 0; ++i) {
+				AbstractActivation activation = activations[i];
+				int from = activation.target();
+				if (below[from] || above[from]) {
+					// Overlaps with an activation already applied, hence
+					// defer to the next round.
+					continue;
+				}
+				int before = automaton.nStates();
+				int target = activation.apply(automaton);
+				if (budget != null) {
+					budget.allocate(automaton.nStates() - before);
+				}
+				if (target != Automaton.K_VOID && from != target) {
+					// Rewrite applied
+					if (below.length < automaton.nStates()) {
+						below = Arrays.copyOf(below, automaton.nStates());
+					}
+					Automata.findReachable(automaton, below, from);
+					findAncestors(parents, above, stack, from);
+					changed = true;
+					maxSteps--;
+				}
+			}
+			automaton.minimise();
+			automaton.compact(0);
+		}
+	}
+
 	private static AbstractActivation[] probe(Automaton automaton, int start, ReductionRule[] reductions,
-			Comparator<Rewrite.Activation> comparator) {
+			int[][] dispatch, Reduction.Activation[][] probed, Comparator<Rewrite.Activation> comparator,
+			Budget budget) {
 		ArrayList<Reduction.Activation> activations = new ArrayList<Reduction.Activation>();
-		for (int s = start; s != automaton.nStates(); ++s) {
-			// State is reachable from the given root
+		Bindings bindings = new Bindings();
+		int index = 0;
+		int count = 0;
+		for (int s = 0; s != automaton.nStates(); ++s) {
 			Automaton.State state = automaton.get(s);
-			// Check whether this state is a term or not; that's because
-			// only
-			// terms can be roots for rewrite rule applications.
-			if (state instanceof Automaton.Term) {
-				for (int r = 0; r != reductions.length; ++r) {
-					reductions[r].probe(automaton, s, activations);
+			// Null states are ignored, and do not count towards the start.
+			if (state == null || index++ < start) {
+				continue;
+			} else if (probed[s] == null) {
+				int size = activations.size();
+				count++;
+				// Check whether this state is a term or not; that's because
+				// only terms can be roots for rewrite rule applications.
+				if (state instanceof Automaton.Term) {
+					for (int r : dispatch(dispatch, state.kind)) {
+						reductions[r].probe(automaton, s, bindings, activations);
+					}
 				}
+				List<Reduction.Activation> found = activations.subList(size, activations.size());
+				probed[s] = found.toArray(new Reduction.Activation[found.size()]);
+			} else {
+				activations.addAll(Arrays.asList(probed[s]));
 			}
 		}
+		if (budget != null) {
+			budget.probe(count);
+		}
 		AbstractActivation[] array = activations.toArray(new AbstractActivation[activations.size()]);
 		if (comparator != null) {
 			Arrays.sort(array, comparator);
 		}
 		return array;
 	}
+
+	/**
+	 * <p>
+	 * The activations of an automaton being reduced, which are retained across
+	 * rewrites. Initially, every state from the starting point onwards is
+	 * probed. Thereafter, only those states affected by a rewrite are probed
+	 * again (see <code>update()</code>), and their activations are merged into
+	 * those already found. Activations are ordered by the given comparator (if
+	 * any), then by state and, finally, in the order in which each state
+	 * produced them. This is exactly the order given by a stable sort of the
+	 * activations of every state, as found in order of state.
+	 * </p>
+	 * <p>
+	 * <b>NOTE:</b> activations refer to states by index. Therefore, after the
+	 * automaton is compacted, <code>reset()</code> must be called.
+	 * </p>
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Agenda implements Iterable<Reduction.Activation> {
+		private final Automaton automaton;
+		private final ReductionRule[] reductions;
+		private final int[][] dispatch;
+		private final int start;
+
+		/**
+		 * The activations of all states probed, in the order they are to be
+		 * applied.
+		 */
+		private final TreeSet<Entry> activations;
+
+		/**
+		 * The entries found for each state, where null indicates the state
+		 * has not been probed.
+		 */
+		private Entry[][] probed;
+
+		/**
+		 * The states awaiting probing, which are also marked. The marks are
+		 * otherwise used for the traversal of ancestors.
+		 */
+		private int[] dirty;
+		private int nDirty;
+		private boolean[] marked;
+
+		/**
+		 * The first state which may be probed, along with the number of
+		 * non-null states from there which must still be skipped. States are
+		 * only ever removed from the front, since new states are added to the
+		 * end. Thus, this only moves forwards (until the automaton is
+		 * compacted).
+		 */
+		private int first;
+		private int skip;
+
+		/**
+		 * The number of null states in the automaton.
+		 */
+		private int nulls;
+
+		public Agenda(Automaton automaton, int start, ReductionRule[] reductions, int[][] dispatch,
+				final Comparator<Rewrite.Activation> comparator) {
+			this.automaton = automaton;
+			this.reductions = reductions;
+			this.dispatch = dispatch;
+			this.start = start;
+			this.activations = new TreeSet<Entry>(new Comparator<Entry>() {
+				@Override
+				public int compare(Entry e1, Entry e2) {
+					int c = comparator == null ? 0 : comparator.compare(e1.activation, e2.activation);
+					if (c != 0) {
+						return c;
+					} else if (e1.state != e2.state) {
+						return e1.state < e2.state ? -1 : 1;
+					} else {
+						return e1.ordinal - e2.ordinal;
+					}
+				}
+			});
+			reset();
+		}
+
+		public int nullStates() {
+			return nulls;
+		}
+
+		public boolean isEmpty() {
+			return activations.isEmpty();
+		}
+
+		@Override
+		public Iterator<Reduction.Activation> iterator() {
+			final Iterator<Entry> iterator = activations.iterator();
+			return new Iterator<Reduction.Activation>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Reduction.Activation next() {
+					return iterator.next().activation;
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		/**
+		 * Discard all activations and mark every state from the starting point
+		 * onwards for probing. This is necessary when the automaton is first
+		 * reduced and after it is compacted.
+		 */
+		public void reset() {
+			int nStates = automaton.nStates();
+			activations.clear();
+			probed = new Entry[nStates][];
+			dirty = new int[nStates];
+			marked = new boolean[nStates];
+			nDirty = 0;
+			nulls = 0;
+			for (int s = 0; s != nStates; ++s) {
+				if (automaton.get(s) == null) {
+					nulls = nulls + 1;
+				}
+			}
+			first = 0;
+			skip = start;
+			advance();
+			for (int s = first; s < nStates; ++s) {
+				marked[s] = true;
+				dirty[nDirty++] = s;
+			}
+		}
+
+		/**
+		 * Probe all states marked for probing, adding their activations to
+		 * those already found.
+		 *
+		 * @param budget
+		 *            --- Budget to charge, or <code>null</code> if none.
+		 */
+		public void probe(Budget budget) {
+			ArrayList<Reduction.Activation> found = new ArrayList<Reduction.Activation>();
+			Bindings bindings = new Bindings();
+			int count = 0;
+			for (int i = 0; i != nDirty; ++i) {
+				int s = dirty[i];
+				Automaton.State state = automaton.get(s);
+				marked[s] = false;
+				// Null states are ignored, as are those before the start.
+				if (state != null && s >= first && probed[s] == null) {
+					count++;
+					found.clear();
+					// Check whether this state is a term or not; that's because
+					// only terms can be roots for rewrite rule applications.
+					if (state instanceof Automaton.Term) {
+						for (int r : dispatch(dispatch, state.kind)) {
+							reductions[r].probe(automaton, s, bindings, found);
+						}
+					}
+					Entry[] entries = new Entry[found.size()];
+					for (int j = 0; j != entries.length; ++j) {
+						entries[j] = new Entry(found.get(j), s, j);
+						activations.add(entries[j]);
+					}
+					probed[s] = entries;
+				}
+			}
+			nDirty = 0;
+			if (budget != null) {
+				budget.probe(count);
+			}
+		}
+
+		/**
+		 * Update the activations after a rewrite which has not been
+		 * compacted. The activations of any state eliminated by the rewrite
+		 * are discarded. Likewise, those of all states from which the state
+		 * rewritten to is reachable are discarded and these states are marked
+		 * for probing, along with any states added by the rewrite. No other
+		 * state reaches anything which has changed and, hence, its activations
+		 * remain valid.
+		 *
+		 * @param inc
+		 *            --- Incremental minimiser used for the rewrite.
+		 * @param target
+		 *            --- State rewritten to.
+		 * @param pivot
+		 *            --- Number of states prior to the rewrite.
+		 */
+		public void update(IncrementalAutomatonMinimiser inc, int target, int pivot) {
+			int nStates = automaton.nStates();
+			if (probed.length < nStates) {
+				int capacity = Math.max(nStates, probed.length * 2);
+				probed = Arrays.copyOf(probed, capacity);
+				dirty = Arrays.copyOf(dirty, capacity);
+				marked = Arrays.copyOf(marked, capacity);
+			}
+			// First, discard the activations of eliminated states. Those
+			// before the first state probed shift the starting point forwards.
+			int nEliminated = inc.nEliminated();
+			for (int i = 0; i != nEliminated; ++i) {
+				int s = inc.eliminated(i);
+				if (s >= 0 && !marked[s] && automaton.get(s) == null) {
+					marked[s] = true;
+					dirty[nDirty++] = s;
+					nulls = nulls + 1;
+					invalidate(s);
+					if (s < first) {
+						skip = skip + 1;
+					}
+				}
+			}
+			for (int i = 0; i != nDirty; ++i) {
+				marked[dirty[i]] = false;
+			}
+			nDirty = inc.findAncestors(target, marked, dirty);
+			// Second, discard the activations of all states affected
+			for (int i = 0; i != nDirty; ++i) {
+				invalidate(dirty[i]);
+			}
+			// Third, mark any states added
+			for (int s = pivot; s != nStates; ++s) {
+				if (!marked[s]) {
+					marked[s] = true;
+					dirty[nDirty++] = s;
+				}
+			}
+			advance();
+		}
+
+		/**
+		 * Move the first state probed forwards over any null states and over
+		 * the number of non-null states still to be skipped.
+		 */
+		private void advance() {
+			int nStates = automaton.nStates();
+			while (first < nStates && (skip > 0 || automaton.get(first) == null)) {
+				if (automaton.get(first) != null) {
+					invalidate(first);
+					skip = skip - 1;
+				}
+				first = first + 1;
+			}
+		}
+
+		private void invalidate(int state) {
+			Entry[] entries = probed[state];
+			if (entries != null) {
+				for (Entry e : entries) {
+					activations.remove(e);
+				}
+				probed[state] = null;
+			}
+		}
+	}
+
+	/**
+	 * An activation found when probing a given state, along with its position
+	 * amongst the activations of that state.
+	 */
+	private static final class Entry {
+		public final Reduction.Activation activation;
+		public final int state;
+		public final int ordinal;
+
+		public Entry(Reduction.Activation activation, int state, int ordinal) {
+			this.activation = activation;
+			this.state = state;
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * Determine the parents of each state in the automaton. That is, for each
+	 * state, the states which have it as a direct child.
+	 *
+	 * @param automaton
+	 * @return
+	 */
+	private static int[][] determineParents(Automaton automaton) {
+		int nStates = automaton.nStates();
+		int[] counts = new int[nStates];
+		for (int s = 0; s != nStates; ++s) {
+			for (int child : children(automaton.get(s))) {
+				if (child >= 0) {
+					counts[child]++;
+				}
+			}
+		}
+		int[][] parents = new int[nStates][];
+		for (int s = 0; s != nStates; ++s) {
+			parents[s] = new int[counts[s]];
+			counts[s] = 0;
+		}
+		for (int s = 0; s != nStates; ++s) {
+			for (int child : children(automaton.get(s))) {
+				if (child >= 0) {
+					parents[child][counts[child]++] = s;
+				}
+			}
+		}
+		return parents;
+	}
+
+	private static int[] children(Automaton.State state) {
+		if (state instanceof Automaton.Term) {
+			return new int[] { ((Automaton.Term) state).contents };
+		} else if (state instanceof Automaton.Collection) {
+			return ((Automaton.Collection) state).toArray();
+		} else {
+			return Automaton.NOCHILDREN;
+		}
+	}
+
+	/**
+	 * Mark all states from which a given state is reachable (including the
+	 * state itself). States already marked are not traversed again.
+	 *
+	 * @param parents
+	 *            --- the parents of each state.
+	 * @param ancestors
+	 *            --- states marked with true are those which have been
+	 *            visited.
+	 * @param stack
+	 *            --- space for the traversal, which must be at least as big as
+	 *            the automaton.
+	 * @param index
+	 *            --- state to begin traversal from.
+	 */
+	private static void findAncestors(int[][] parents, boolean[] ancestors, int[] stack, int index) {
+		if (ancestors[index]) {
+			return;
+		}
+		ancestors[index] = true;
+		int top = 0;
+		stack[top++] = index;
+		while (top > 0) {
+			for (int parent : parents[stack[--top]]) {
+				if (!ancestors[parent]) {
+					ancestors[parent] = true;
+					stack[top++] = parent;
+				}
+			}
+		}
+	}
+
+	private static int countNullStates(Automaton automaton, int end) {
+		int count = 0;
+		for (int s = 0; s != end; ++s) {
+			if (automaton.get(s) == null) {
+				count = count + 1;
+			}
+		}
+		return count;
+	}
 	
+	/**
+	 * Construct a dispatch table for a given set of rewrite rules. This maps
+	 * each term kind to the indices of those rules which could match a term of
+	 * that kind, in the order they appear in the array. Thus, probing each
+	 * term with only those rules given by the table produces exactly the same
+	 * activations (in the same order) as probing it with every rule. Rules
+	 * whose kind is unknown are included for every kind. The final entry of
+	 * the table is used for any kind which is not matched by any rule.
+	 * Furthermore, rules which are probed as part of a group (see
+	 * <code>RewriteRule.group()</code>) are omitted, since probing the first
+	 * rule of the group produces their activations.
+	 *
+	 * @param rules
+	 *            --- the rules to construct the table for.
+	 * @return
+	 */
+	public static int[][] dispatchTable(RewriteRule[] rules) {
+		int max = -1;
+		for (int r = 0; r != rules.length; ++r) {
+			max = Math.max(max, rules[r].kind());
+		}
+		int[][] table = new int[max + 2][];
+		int[] tmp = new int[rules.length];
+		for (int k = 0; k != table.length; ++k) {
+			int count = 0;
+			// Number of following rules of this kind which are probed by the
+			// last group encountered.
+			int skip = 0;
+			for (int r = 0; r != rules.length; ++r) {
+				int kind = rules[r].kind();
+				if (kind == k && skip > 0) {
+					skip = skip - 1;
+				} else if (kind == k) {
+					tmp[count++] = r;
+					skip = Math.max(0, rules[r].group() - 1);
+				} else if (kind < 0) {
+					// Rules of unknown kind may lie between the members of a
+					// group, and must not end it.
+					tmp[count++] = r;
+				}
+			}
+			table[k] = Arrays.copyOf(tmp, count);
+		}
+		return table;
+	}
+
+	/**
+	 * Determine the indices of rules which could match a term of the given kind
+	 * using a table constructed by <code>dispatchTable()</code>.
+	 *
+	 * @param table
+	 *            --- the dispatch table.
+	 * @param kind
+	 *            --- the kind of term being probed.
+	 * @return
+	 */
+	public static int[] dispatch(int[][] table, int kind) {
+		int last = table.length - 1;
+		return kind < last ? table[kind] : table[last];
+	}
+
 	/**
 	 * Visit all states reachable from a given starting state in the given
 	 * automaton. In doing this, states which are visited are marked and,
@@ -105,26 +908,6 @@ public class Reductions {
 	 */
 	public static void findReachable(Automaton automaton, boolean[] reachable,
 			int index) {
-		if (index < 0) {
-			return;
-		} else if (reachable[index]) {
-			// Already visited, so terminate here
-			return;
-		} else {
-			// Not previously visited, so mark now and traverse any children
-			reachable[index] = true;
-			Automaton.State state = automaton.get(index);
-			if (state instanceof Automaton.Term) {
-				Automaton.Term term = (Automaton.Term) state;
-				if (term.contents != Automaton.K_VOID) {
-					findReachable(automaton, reachable, term.contents);
-				}
-			} else if (state instanceof Automaton.Collection) {
-				Automaton.Collection compound = (Automaton.Collection) state;
-				for (int i = 0; i != compound.size(); ++i) {
-					findReachable(automaton, reachable, compound.get(i));
-				}
-			}
-		}
+		Automata.findReachable(automaton, reachable, index);
 	}
 }
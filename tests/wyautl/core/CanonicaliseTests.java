@@ -0,0 +1,185 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.core;
+
+import java.util.Random;
+
+/**
+ * Checks <code>Automaton.canonicalise()</code>. Firstly, the canonical form of
+ * a random automaton must not depend on how its states happen to be numbered.
+ * Secondly, two automata must have the same canonical form exactly when they
+ * are isomorphic, as determined by the original back-tracking search (see
+ * <code>Automata.canonicalMorphism()</code>).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CanonicaliseTests {
+	private static final int NUM_AUTOMATA = 2000;
+	private static final int MAX_STATES = 25;
+	private static final int MAX_SMALL_STATES = 6;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		testPermutation(random, false, false);
+		testPermutation(random, false, true);
+		testPermutation(random, true, false);
+		testPermutation(random, true, true);
+		testFingerprint(random, false);
+		testFingerprint(random, true);
+		int nIsomorphic = testIsomorphism(random, false)
+				+ testIsomorphism(random, true);
+		System.out.println("CanonicaliseTests: passed (" + nIsomorphic
+				+ " isomorphic pairs)");
+	}
+
+	/**
+	 * Canonicalise random automata, and check each has the same canonical form
+	 * as a random permutation of it. Unminimised automata typically contain
+	 * structurally identical states, which refinement cannot distinguish.
+	 */
+	private static void testPermutation(Random random, boolean cyclic,
+			boolean minimised) {
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			int nStates = 1 + random.nextInt(MAX_STATES);
+			Automaton automaton = generate(random, nStates, cyclic, minimised,
+					2);
+			Automaton permuted = Automata.map(automaton,
+					permutation(random, automaton.nStates()));
+			String input = automaton.toString() + " and " + permuted;
+			automaton.canonicalise();
+			permuted.canonicalise();
+			check(automaton.equals(permuted), "canonicalise() gave "
+					+ automaton + " and " + permuted + " for " + input);
+		}
+	}
+
+	/**
+	 * Fingerprint random automata, then reorder or canonicalise them, and check
+	 * each is equal to (and has the same hash code as) a fresh copy of it.
+	 * Since the fingerprint is maintained incrementally, any state changed
+	 * without informing the automaton would leave it out-of-date.
+	 */
+	private static void testFingerprint(Random random, boolean cyclic) {
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			int nStates = 1 + random.nextInt(MAX_STATES);
+			Automaton automaton = generate(random, nStates, cyclic,
+					random.nextBoolean(), 2);
+			String input = automaton.toString();
+			automaton.hashCode();
+			if (random.nextBoolean()) {
+				automaton.canonicalise();
+			} else {
+				Automata.reorder(automaton,
+						permutation(random, automaton.nStates()));
+			}
+			Automaton copy = copy(automaton);
+			check(copy.hashCode() == automaton.hashCode(),
+					"hash code of " + automaton + " differs from copy for "
+							+ input);
+			check(automaton.equals(copy) && copy.equals(automaton), automaton
+					+ " differs from copy for " + input);
+		}
+	}
+
+	/**
+	 * Canonicalise pairs of small random minimised automata with a single root
+	 * (which are often isomorphic), and check they have the same canonical form exactly when
+	 * they also do under the original back-tracking search.
+	 */
+	private static int testIsomorphism(Random random, boolean cyclic) {
+		int count = 0;
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			Automaton first = generate(random,
+					1 + random.nextInt(MAX_SMALL_STATES), cyclic, true, 1);
+			Automaton second = generate(random,
+					1 + random.nextInt(MAX_SMALL_STATES), cyclic, true, 1);
+			String input = first.toString() + " and " + second;
+			boolean expected = Automata.map(first,
+					Automata.canonicalMorphism(first)).equals(
+					Automata.map(second, Automata.canonicalMorphism(second)));
+			first.canonicalise();
+			second.canonicalise();
+			check(first.equals(second) == expected, "canonicalise() gave "
+					+ first + " and " + second + " for " + input);
+			if (expected) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Generate a random automaton with one or two roots which is compacted,
+	 * and hence has no unreachable states, and which is optionally minimised.
+	 * <b>NOTE:</b> the original back-tracking search supports only a single
+	 * root.
+	 */
+	private static Automaton generate(Random random, int nStates,
+			boolean cyclic, boolean minimised, int nRoots) {
+		Automaton automaton = RandomAutomata.generate(random, nStates, cyclic);
+		while (automaton.nRoots() > nRoots) {
+			automaton.pop();
+		}
+		if (minimised) {
+			automaton.minimise();
+		}
+		automaton.compact(0);
+		return automaton;
+	}
+
+	/**
+	 * Copy the states and roots of a given automaton into a fresh automaton,
+	 * whose fingerprint has not been determined.
+	 */
+	private static Automaton copy(Automaton automaton) {
+		Automaton.State[] states = new Automaton.State[automaton.nStates()];
+		for (int i = 0; i != states.length; ++i) {
+			states[i] = automaton.get(i).clone();
+		}
+		Automaton result = new Automaton(states);
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			result.setRoot(i, automaton.getRoot(i));
+		}
+		return result;
+	}
+
+	private static int[] permutation(Random random, int n) {
+		int[] permutation = new int[n];
+		for (int i = 0; i != n; ++i) {
+			int j = random.nextInt(i + 1);
+			permutation[i] = permutation[j];
+			permutation[j] = i;
+		}
+		return permutation;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks <code>Automaton.compact()</code>. Once an acyclic automaton has been
+ * compacted, garbage is subsequently identified using reference counts rather
+ * than by marking. Therefore, random automata are repeatedly modified (in
+ * ways which preserve acyclicity) and compacted, and each outcome is compared
+ * against that of compacting a fresh copy without reference counts. Automata
+ * are also canonicalised between compactions, since this relocates every
+ * state whilst the reference counts are retained.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CompactTests {
+	private static final int NUM_AUTOMATA = 1000;
+	private static final int NUM_ROUNDS = 10;
+	private static final int MAX_STATES = 30;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			Automaton automaton = new Automaton();
+			automaton.push(add(random, automaton, MAX_STATES));
+			for (int j = 0; j != NUM_ROUNDS; ++j) {
+				compact(automaton);
+				if (random.nextInt(3) == 0) {
+					// Canonicalising relocates every state, after which the
+					// reference counts must still be accurate.
+					automaton.canonicalise();
+				}
+				modify(random, automaton);
+			}
+		}
+		System.out.println("CompactTests: passed");
+	}
+
+	/**
+	 * Compact a given automaton, and check that the outcome is the same as
+	 * when compacting a fresh copy by marking those states reachable from the
+	 * roots.
+	 */
+	private static void compact(Automaton automaton) {
+		Automaton expected = copy(automaton);
+		int[] expectedBinding = new int[expected.nStates()];
+		expected.compact(expectedBinding, 0);
+		String input = automaton.toString();
+		int[] binding = new int[automaton.nStates()];
+		automaton.compact(binding, 0);
+		check(automaton.equals(expected), "compact() gave " + automaton
+				+ ", expected " + expected + " for " + input);
+		for (int i = 0; i != binding.length; ++i) {
+			if (expected.nStates() > 0 && automaton.get(i) != null) {
+				check(binding[i] == expectedBinding[i],
+						"compact() gave wrong binding for " + input);
+			}
+		}
+	}
+
+	/**
+	 * Apply a random number of modifications to a given automaton, each of
+	 * which preserves acyclicity.
+	 */
+	private static void modify(Random random, Automaton automaton) {
+		for (int i = random.nextInt(4); i >= 0; --i) {
+			switch (random.nextInt(5)) {
+			case 0:
+				add(random, automaton, 5);
+				break;
+			case 1:
+				automaton.push(add(random, automaton, 5));
+				break;
+			case 2:
+				if (automaton.nRoots() > 1) {
+					automaton.pop();
+				}
+				break;
+			case 3: {
+				int root = random.nextInt(automaton.nRoots());
+				automaton.setRoot(root, pick(random, automaton));
+				break;
+			}
+			default: {
+				int root = random.nextInt(automaton.nRoots());
+				int source = automaton.getRoot(root);
+				int search = pick(random, automaton);
+				int replacement = pick(random, automaton);
+				if (source >= 0 && search >= 0) {
+					automaton.setRoot(root,
+							automaton.substitute(source, search, replacement));
+				}
+			}
+			}
+		}
+	}
+
+	/**
+	 * Pick a random state which has not been eliminated from a given
+	 * automaton, or a virtual state if there are none.
+	 */
+	private static int pick(Random random, Automaton automaton) {
+		int nStates = automaton.nStates();
+		int start = nStates == 0 ? 0 : random.nextInt(nStates);
+		for (int i = 0; i != nStates; ++i) {
+			int index = (start + i) % nStates;
+			if (automaton.get(index) != null) {
+				return index;
+			}
+		}
+		return Automaton.K_LIST;
+	}
+
+	/**
+	 * Add a random number of states to a given automaton, such that each
+	 * state refers only to existing states (i.e. those not eliminated). The
+	 * last state added is returned.
+	 */
+	private static int add(Random random, Automaton automaton, int max) {
+		int last = Automaton.K_VOID;
+		for (int i = random.nextInt(max); i >= 0; --i) {
+			int nStates = automaton.nStates();
+			int[] binding = new int[nStates];
+			for (int j = 0; j != nStates; ++j) {
+				binding[j] = automaton.get(j) != null ? j : pick(random,
+						automaton);
+			}
+			Automaton.State state = RandomAutomata.state(random, nStates);
+			state.remap(binding);
+			last = automaton.add(state);
+		}
+		return last;
+	}
+
+	/**
+	 * Copy the states and roots of a given automaton into a fresh automaton,
+	 * which has no reference counts.
+	 */
+	private static Automaton copy(Automaton automaton) {
+		Automaton.State[] states = new Automaton.State[automaton.nStates()];
+		for (int i = 0; i != states.length; ++i) {
+			Automaton.State state = automaton.get(i);
+			states[i] = state == null ? null : state.clone();
+		}
+		Automaton result = new Automaton(Arrays.copyOf(states, states.length));
+		for (int i = 0; i != automaton.nRoots(); ++i) {
+			result.setRoot(i, automaton.getRoot(i));
+		}
+		return result;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.core;
+
+import java.util.Random;
+
+import wyautl.util.BinaryMatrix;
+
+/**
+ * Checks <code>Automaton.minimise()</code> against a reference implementation,
+ * namely the original algorithm which iteratively refines an N*N equivalence
+ * matrix until a fixed point is reached. Acyclic automata are minimised by
+ * hash-consing, whilst cyclic automata are minimised by partition refinement;
+ * in both cases, the outcome should be identical to the reference (i.e. the
+ * same representatives are chosen).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class MinimiseTests {
+	private static final int NUM_AUTOMATA = 2000;
+	private static final int MAX_STATES = 40;
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		testMinimise(random, false);
+		testMinimise(random, true);
+		testMinimiseAbovePivot(random);
+		System.out.println("MinimiseTests: passed");
+	}
+
+	/**
+	 * Minimise random automata, and check each against the reference.
+	 */
+	private static void testMinimise(Random random, boolean cyclic) {
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			int nStates = 1 + random.nextInt(MAX_STATES);
+			Automaton actual = RandomAutomata.generate(random, nStates, cyclic);
+			Automaton expected = new Automaton(actual);
+			String input = actual.toString();
+			boolean changed = actual.minimise();
+			check(changed == minimise(expected),
+					"minimise() reported wrong outcome for " + input);
+			check(actual.equals(expected), "minimise() gave " + actual
+					+ ", expected " + expected + " for " + input);
+		}
+	}
+
+	/**
+	 * Substitute within random minimised automata, which copies states above
+	 * the pivot and then minimises only those. Check that the outcome is
+	 * minimised with respect to the reference.
+	 */
+	private static void testMinimiseAbovePivot(Random random) {
+		for (int i = 0; i != NUM_AUTOMATA; ++i) {
+			Automaton automaton = new Automaton();
+			int nStates = 1 + random.nextInt(MAX_STATES);
+			for (int j = 0; j != nStates; ++j) {
+				automaton.add(RandomAutomata.state(random, automaton.nStates()));
+			}
+			if (automaton.nStates() == 0) {
+				continue;
+			}
+			int source = automaton.nStates() - 1;
+			int search = random.nextInt(automaton.nStates());
+			int replacement = random.nextInt(automaton.nStates());
+			automaton.push(source);
+			String input = automaton.toString();
+			int result = automaton.substitute(source, search, replacement);
+			automaton.push(result);
+			Automaton expected = new Automaton(automaton);
+			check(!minimise(expected), "substitute(" + source + "," + search
+					+ "," + replacement + ") gave unminimised " + automaton
+					+ " for " + input);
+		}
+	}
+
+	// =========================================================================
+	// Reference Implementation
+	// =========================================================================
+
+	/**
+	 * Minimise an automaton by determining which states are equivalent using
+	 * a binary matrix of size N*N, where N is the number of states in the
+	 * given automaton.
+	 */
+	private static boolean minimise(Automaton automaton) {
+		int size = automaton.nStates();
+		BinaryMatrix equivs = new BinaryMatrix(size, size, true);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < size; ++i) {
+				for (int j = i + 1; j < size; ++j) {
+					if (equivs.get(i, j)) {
+						boolean b = Automata.equivalent(automaton, equivs, i, j);
+						equivs.set(i, j, b);
+						equivs.set(j, i, b);
+						changed |= !b;
+					}
+				}
+			}
+		}
+		int[] binding = new int[size];
+		Automata.determineRepresentativeStates(automaton, equivs, binding);
+		return Automata.collapseEquivalenceClasses(automaton, binding);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyautl.core;
+
+import java.util.Random;
+
+/**
+ * Generates random automata for testing. States are drawn from a small number
+ * of kinds and constants, and children from a small number of states, so that
+ * the generated automata typically contain many equivalent states. Children
+ * are occasionally virtual (i.e. negative) states.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RandomAutomata {
+
+	/**
+	 * Generate an automaton with a given number of states. Unless the
+	 * automaton is cyclic, every state refers only to those states before it.
+	 * The last state, and one other, are marked as roots. <b>NOTE:</b> the
+	 * generated automaton is neither minimised nor compacted.
+	 *
+	 * @param random
+	 *            --- Source of randomness.
+	 * @param nStates
+	 *            --- Number of states to generate (at least one).
+	 * @param cyclic
+	 *            --- Whether or not states may refer to any state.
+	 * @return
+	 */
+	public static Automaton generate(Random random, int nStates, boolean cyclic) {
+		Automaton.State[] states = new Automaton.State[nStates];
+		for (int i = 0; i != nStates; ++i) {
+			states[i] = state(random, cyclic ? nStates : i);
+		}
+		Automaton automaton = new Automaton(states);
+		automaton.push(nStates - 1);
+		automaton.push(random.nextInt(nStates));
+		return automaton;
+	}
+
+	/**
+	 * Generate a random state whose children are all below a given bound.
+	 *
+	 * @param random
+	 *            --- Source of randomness.
+	 * @param bound
+	 *            --- Upper bound (exclusive) on the children of the state.
+	 * @return
+	 */
+	public static Automaton.State state(Random random, int bound) {
+		switch (random.nextInt(8)) {
+		case 0:
+			return new Automaton.Bool(random.nextBoolean());
+		case 1:
+			return new Automaton.Int(random.nextInt(2));
+		case 2:
+			return new Automaton.Strung(random.nextBoolean() ? "a" : "b");
+		case 3:
+			return new Automaton.Term(random.nextInt(2));
+		case 4:
+		case 5:
+			return new Automaton.Term(random.nextInt(2), child(random, bound));
+		default:
+			int[] children = new int[random.nextInt(4)];
+			for (int i = 0; i != children.length; ++i) {
+				children[i] = child(random, bound);
+			}
+			switch (random.nextInt(3)) {
+			case 0:
+				return new Automaton.List(children);
+			case 1:
+				return new Automaton.Set(children);
+			default:
+				return new Automaton.Bag(children);
+			}
+		}
+	}
+
+	private static int child(Random random, int bound) {
+		if (bound == 0 || random.nextInt(6) == 0) {
+			switch (random.nextInt(4)) {
+			case 0:
+				return Automaton.K_LIST;
+			case 1:
+				return Automaton.K_SET;
+			case 2:
+				return Automaton.K_BAG;
+			default:
+				return Automaton.K_FREE - random.nextInt(2);
+			}
+		} else {
+			return random.nextInt(bound);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Checks <code>Runtime.Assumptions</code>. In particular, that retracting an
+ * assumption never loses any other assumption. This is most delicate when
+ * the retracted assumption lies within a cluster of occupied slots which
+ * wraps around the end of the table, since the assumptions after it may then
+ * need to be shifted back across the end.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AssumptionsTests {
+	/**
+	 * The initial capacity of the table, which must match that in
+	 * <code>Runtime.Assumptions</code>.
+	 */
+	private static final int CAPACITY = 16;
+
+	public static void main(String[] args) {
+		testWrappedCluster();
+		testRandom(new Random(1));
+		System.out.println("AssumptionsTests: passed");
+	}
+
+	/**
+	 * Assume pairs whose home slots are at the end and start of the table,
+	 * such that they form a single cluster which wraps around. Then, retract
+	 * them in every possible order, having assumed them in every possible
+	 * order.
+	 */
+	private static void testWrappedCluster() {
+		int[] homes = { CAPACITY - 2, CAPACITY - 1, CAPACITY - 2,
+				CAPACITY - 1, 0 };
+		long[] items = new long[homes.length];
+		for (int i = 0; i != homes.length; ++i) {
+			items[i] = find(homes[i], items, i);
+		}
+		ArrayList<int[]> orders = permutations(items.length);
+		for (int[] assumed : orders) {
+			for (int[] retracted : orders) {
+				Runtime.Assumptions assumptions = new Runtime.Assumptions();
+				for (int i : assumed) {
+					check(assume(assumptions, items[i]), "assume() failed");
+				}
+				boolean[] present = new boolean[items.length];
+				Arrays.fill(present, true);
+				for (int i : retracted) {
+					retract(assumptions, items[i]);
+					present[i] = false;
+					for (int j = 0; j != items.length; ++j) {
+						check(contains(assumptions, items[j]) == present[j],
+								"retract() lost an assumption");
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Assume and retract random pairs, checking the outcome against a
+	 * <code>HashSet</code>. The range of pairs is varied so as to cause both
+	 * collisions and resizing.
+	 */
+	private static void testRandom(Random random) {
+		for (int i = 0; i != 200; ++i) {
+			Runtime.Assumptions assumptions = new Runtime.Assumptions();
+			HashSet<Long> expected = new HashSet<Long>();
+			int range = 1 + random.nextInt(100);
+			for (int j = 0; j != 2000; ++j) {
+				long item = Runtime.Assumptions.pair(random.nextInt(range),
+						random.nextInt(range));
+				if (random.nextBoolean()) {
+					check(assume(assumptions, item) == expected.add(item),
+							"assume() gave wrong outcome");
+				} else {
+					retract(assumptions, item);
+					expected.remove(item);
+				}
+			}
+			for (int t = 0; t != range; ++t) {
+				for (int a = 0; a != range; ++a) {
+					long item = Runtime.Assumptions.pair(t, a);
+					check(contains(assumptions, item) == expected
+							.contains(item), "assumption lost or retained");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find a pair whose home slot is a given index, other than those already
+	 * found.
+	 */
+	private static long find(int home, long[] found, int nFound) {
+		for (int t = 0;; ++t) {
+			long item = Runtime.Assumptions.pair(t, t);
+			if ((Runtime.Assumptions.hash(item) & (CAPACITY - 1)) == home) {
+				boolean fresh = true;
+				for (int i = 0; i != nFound; ++i) {
+					fresh &= found[i] != item;
+				}
+				if (fresh) {
+					return item;
+				}
+			}
+		}
+	}
+
+	private static boolean assume(Runtime.Assumptions assumptions, long item) {
+		return assumptions.assume((int) (item >>> 32), (int) item);
+	}
+
+	private static void retract(Runtime.Assumptions assumptions, long item) {
+		assumptions.retract((int) (item >>> 32), (int) item);
+	}
+
+	/**
+	 * Check whether a given pair is currently assumed, leaving the
+	 * assumptions unchanged.
+	 */
+	private static boolean contains(Runtime.Assumptions assumptions, long item) {
+		if (assume(assumptions, item)) {
+			retract(assumptions, item);
+			return false;
+		} else {
+			return true;
+		}
+	}
+
+	/**
+	 * Generate every permutation of the integers <code>0..n-1</code>.
+	 */
+	private static ArrayList<int[]> permutations(int n) {
+		ArrayList<int[]> permutations = new ArrayList<int[]>();
+		permutations(new int[n], 0, new boolean[n], permutations);
+		return permutations;
+	}
+
+	private static void permutations(int[] permutation, int index,
+			boolean[] used, ArrayList<int[]> permutations) {
+		if (index == permutation.length) {
+			permutations.add(permutation.clone());
+		} else {
+			for (int i = 0; i != permutation.length; ++i) {
+				if (!used[i]) {
+					used[i] = true;
+					permutation[index] = i;
+					permutations(permutation, index + 1, used, permutations);
+					used[i] = false;
+				}
+			}
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrw.core;
+
+import java.io.StringReader;
+import java.util.Comparator;
+
+import wyautl.core.Automaton;
+import wyautl.core.Schema;
+import wyautl.io.PrettyAutomataReader;
+import wyrw.util.AbstractActivation;
+import wyrw.util.BreadthFirstRewriter;
+import wyrw.util.LinearRewriter;
+
+/**
+ * <p>
+ * Measures the time taken to explore inputs of increasing size with the
+ * inference examples (i.e. <code>Closure</code> and <code>Quantifiers</code>),
+ * which must be on the classpath. Each input grows the number of roots in the
+ * shared automaton used by substitution-mode inference, hence this measures
+ * how the cost of each step grows with it. For each case, the number of
+ * states, steps and activations are reported along with the time taken.
+ * </p>
+ * <p>
+ * With no arguments, the cases used to assess incremental inference are run.
+ * Otherwise, a single case is run as given by the arguments: system (i.e.
+ * <code>Closure</code> or <code>Quantifiers</code>), size, maximum number of
+ * steps (or zero for exhaustive) and rewriter (i.e. <code>bfs</code> or
+ * <code>linear</code>). To compare against legacy (i.e. non-substitution)
+ * inference, rebuild with <code>Inference.USE_SUBSTITUTION</code> disabled.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InferenceBenchmark {
+	private static final int REPETITIONS = 3;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			run("Closure", 5, 0, "bfs");
+			run("Closure", 7, 100000, "bfs");
+			run("Quantifiers", 6, 0, "bfs");
+		} else {
+			run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+					args.length > 3 ? args[3] : "bfs");
+		}
+	}
+
+	/**
+	 * Run a given case a number of times, reporting each. The first runs
+	 * allow the JVM to warm up and, hence, the last is most representative.
+	 */
+	private static void run(String system, int size, int steps, String rewriter)
+			throws Exception {
+		String input = system.equals("Closure") ? closure(size) : quantifiers(size);
+		for (int i = 0; i != REPETITIONS; ++i) {
+			long start = System.currentTimeMillis();
+			Rewrite rewrite = explore(system, input, steps, rewriter);
+			long time = System.currentTimeMillis() - start;
+			int activations = 0;
+			for (Rewrite.State state : rewrite.states()) {
+				activations += state.size();
+			}
+			System.out.println(system + "(" + size + "), "
+					+ (steps == 0 ? "exhaustive" : steps + " steps") + ", "
+					+ rewriter + ": " + rewrite.states().size() + " states, "
+					+ rewrite.steps().size() + " steps, " + activations
+					+ " activations, " + time + "ms");
+		}
+	}
+
+	private static Rewrite explore(String system, String input, int steps,
+			String rewriter) throws Exception {
+		Class<?> c = Class.forName(system);
+		Schema schema = (Schema) c.getField("SCHEMA").get(null);
+		ReductionRule[] reductions = (ReductionRule[]) c.getField("reductions")
+				.get(null);
+		InferenceRule[] inferences = (InferenceRule[]) c.getField("inferences")
+				.get(null);
+		Automaton automaton = new PrettyAutomataReader(new StringReader(input),
+				schema).read();
+		Comparator<Rewrite.Activation> comparator = new AbstractActivation.RankComparator(
+				"rank");
+		Inference inference = new Inference(schema, comparator, inferences,
+				reductions);
+		int initial = inference.initialise(automaton);
+		Rewriter r;
+		if (rewriter.equals("linear")) {
+			r = new LinearRewriter(inference, LinearRewriter.UNFAIR_HEURISTIC);
+		} else {
+			r = new BreadthFirstRewriter(inference);
+		}
+		r.reset(initial);
+		r.apply(steps == 0 ? Integer.MAX_VALUE : steps);
+		return inference;
+	}
+
+	// =========================================================================
+	// Input Generators
+	// =========================================================================
+
+	/**
+	 * A chain of n inequalities (i.e. x0 < x1, ..., xn-1 < xn), whose
+	 * transitive closure has O(n^2) inequalities.
+	 */
+	private static String closure(int n) {
+		StringBuilder sb = new StringBuilder("And{");
+		for (int i = 0; i != n; ++i) {
+			if (i != 0) {
+				sb.append(",");
+			}
+			sb.append("LessThan[Var(\"x" + i + "\"),Var(\"x" + (i + 1) + "\")]");
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * A single quantifier which is instantiated with each of n constants.
+	 */
+	private static String quantifiers(int n) {
+		StringBuilder sb = new StringBuilder(
+				"And{ForAll[{Var(\"x\")},Or{Not(Fn[\"f\",Var(\"x\")]),Fn[\"g\",Var(\"x\")]}]");
+		for (int i = 0; i != n; ++i) {
+			sb.append(",Fn[\"f\",Var(\"c" + i + "\")]");
+		}
+		return sb.append("}").toString();
+	}
+}
@@ -0,0 +1,246 @@
+// Copyright (c) 2011, David J. Pearce (djp@ecs.vuw.ac.nz)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//    * Redistributions of source code must retain the above copyright
+//      notice, this list of conditions and the following disclaimer.
+//    * Redistributions in binary form must reproduce the above copyright
+//      notice, this list of conditions and the following disclaimer in the
+//      documentation and/or other materials provided with the distribution.
+//    * Neither the name of the <organization> nor the
+//      names of its contributors may be used to endorse or promote products
+//      derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL DAVID J. PEARCE BE LIABLE FOR ANY
+// DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package wyrw.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import wyautl.core.Automaton;
+import wyautl.core.Schema;
+import wyautl.io.PrettyAutomataReader;
+import wyrw.core.Inference;
+import wyrw.core.InferenceRule;
+import wyrw.core.Reduction;
+import wyrw.core.ReductionRule;
+import wyrw.core.Rewrite;
+import wyrw.core.Rewriter;
+
+/**
+ * Checks that <code>ParallelBreadthFirstRewriter</code> produces exactly the
+ * same rewrite as <code>BreadthFirstRewriter</code>. That is, the same states
+ * (numbered identically) and the same steps between them. This is checked
+ * against the example rewrite systems, which must be on the classpath, for a
+ * number of randomly generated inputs.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelBreadthFirstRewriterTests {
+	private static final int NUM_INPUTS = 10;
+	private static final int MAX_STEPS = 300;
+
+	private static final Random random = new Random(11);
+
+	public static void main(String[] args) throws Exception {
+		ForkJoinPool[] pools = { new ForkJoinPool(1), new ForkJoinPool(4) };
+		int count = 0;
+		for (int i = 0; i != NUM_INPUTS; ++i) {
+			count += check("Logic", logic(3), false, pools);
+			count += check("Types", type(3), false, pools);
+			count += check("Arithmetic", arithmetic(2), false, pools);
+		}
+		for (int i = 1; i <= 4; ++i) {
+			count += check("Closure", closure(i), true, pools);
+		}
+		System.out.println("ParallelBreadthFirstRewriterTests: " + count
+				+ " rewrites passed");
+	}
+
+	/**
+	 * Rewrite a given input using the given rewrite system, both sequentially
+	 * and with each pool of workers, and check the results are identical.
+	 */
+	private static int check(String system, String input, boolean inference,
+			ForkJoinPool[] pools) throws Exception {
+		Rewrite expected = rewrite(system, input, inference, null);
+		for (ForkJoinPool pool : pools) {
+			Rewrite actual = rewrite(system, input, inference, pool);
+			String where = system + " (" + pool.getParallelism()
+					+ " workers): " + input;
+			compare(expected, actual, where);
+		}
+		return pools.length;
+	}
+
+	private static Rewrite rewrite(String system, String input,
+			boolean inference, ForkJoinPool pool) throws Exception {
+		Class<?> c = Class.forName(system);
+		Schema schema = (Schema) c.getField("SCHEMA").get(null);
+		ReductionRule[] reductions = (ReductionRule[]) c.getField("reductions")
+				.get(null);
+		Automaton automaton = new PrettyAutomataReader(new StringReader(input),
+				schema).read();
+		Comparator<Rewrite.Activation> comparator = new AbstractActivation.RankComparator(
+				"rank");
+		AbstractRewrite rewrite;
+		if (inference) {
+			InferenceRule[] inferences = (InferenceRule[]) c.getField(
+					"inferences").get(null);
+			rewrite = new Inference(schema, comparator, inferences, reductions);
+		} else {
+			rewrite = new Reduction(schema, comparator, reductions);
+		}
+		int initial = rewrite.initialise(automaton);
+		Rewriter rewriter;
+		if (pool == null) {
+			rewriter = new BreadthFirstRewriter(rewrite);
+		} else {
+			rewriter = new ParallelBreadthFirstRewriter(rewrite, pool);
+		}
+		rewriter.reset(initial);
+		rewriter.apply(MAX_STEPS);
+		return rewrite;
+	}
+
+	private static void compare(Rewrite expected, Rewrite actual, String where) {
+		List<Rewrite.Step> esteps = expected.steps();
+		List<Rewrite.Step> asteps = actual.steps();
+		check(esteps.size() == asteps.size(), "different number of steps",
+				where);
+		for (int i = 0; i != esteps.size(); ++i) {
+			Rewrite.Step e = esteps.get(i);
+			Rewrite.Step a = asteps.get(i);
+			check(e.before() == a.before() && e.after() == a.after()
+					&& e.activation() == a.activation(), "step " + i
+					+ " differs", where);
+		}
+		List<Rewrite.State> estates = expected.states();
+		List<Rewrite.State> astates = actual.states();
+		check(estates.size() == astates.size(), "different number of states",
+				where);
+		for (int i = 0; i != estates.size(); ++i) {
+			Rewrite.State e = estates.get(i);
+			Rewrite.State a = astates.get(i);
+			check(e.automaton().equals(a.automaton()), "state " + i
+					+ " differs", where);
+			check(e.size() == a.size(), "state " + i
+					+ " has different activations", where);
+		}
+	}
+
+	private static void check(boolean condition, String message, String where) {
+		if (!condition) {
+			throw new AssertionError(message + " in " + where);
+		}
+	}
+
+	// =========================================================================
+	// Input Generators
+	// =========================================================================
+
+	private static String logic(int depth) {
+		if (depth == 0) {
+			switch (random.nextInt(3)) {
+			case 0:
+				return "True";
+			case 1:
+				return "False";
+			default:
+				return "Var(\"" + (char) ('a' + random.nextInt(4)) + "\")";
+			}
+		}
+		switch (random.nextInt(3)) {
+		case 0:
+			return "Not(" + logic(depth - 1) + ")";
+		case 1:
+			return "And{" + logics(depth - 1) + "}";
+		default:
+			return "Or{" + logics(depth - 1) + "}";
+		}
+	}
+
+	private static String logics(int depth) {
+		ArrayList<String> items = new ArrayList<String>();
+		for (int i = random.nextInt(3); i >= 0; --i) {
+			items.add(logic(depth));
+		}
+		return join(items);
+	}
+
+	private static String type(int depth) {
+		if (depth == 0) {
+			return random.nextBoolean() ? "Any" : "Int";
+		}
+		switch (random.nextInt(4)) {
+		case 0:
+			return "Not(" + type(depth - 1) + ")";
+		case 1:
+			return "Intersect{" + types(depth - 1) + "}";
+		case 2:
+			return "Union{" + types(depth - 1) + "}";
+		default:
+			return "Pair[" + type(depth - 1) + "," + type(depth - 1) + "]";
+		}
+	}
+
+	private static String types(int depth) {
+		ArrayList<String> items = new ArrayList<String>();
+		for (int i = random.nextInt(3); i >= 0; --i) {
+			items.add(type(depth));
+		}
+		return join(items);
+	}
+
+	private static String arithmetic(int depth) {
+		if (depth == 0) {
+			if (random.nextBoolean()) {
+				return "Num(" + random.nextInt(3) + ".0)";
+			} else {
+				return "Var(\"" + (char) ('a' + random.nextInt(3)) + "\")";
+			}
+		}
+		ArrayList<String> items = new ArrayList<String>();
+		for (int i = random.nextInt(3); i >= 0; --i) {
+			items.add(arithmetic(depth - 1));
+		}
+		String op = random.nextBoolean() ? "Sum[1.0,{|" : "Mul[2.0,{|";
+		return op + join(items) + "|}]";
+	}
+
+	private static String closure(int n) {
+		ArrayList<String> items = new ArrayList<String>();
+		for (int i = 0; i != n; ++i) {
+			items.add("LessThan[Var(\"x" + i + "\"),Var(\"x" + (i + 1)
+					+ "\")]");
+		}
+		return "And{" + join(items) + "}";
+	}
+
+	private static String join(List<String> items) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i != items.size(); ++i) {
+			if (i != 0) {
+				sb.append(",");
+			}
+			sb.append(items.get(i));
+		}
+		return sb.toString();
+	}
+}